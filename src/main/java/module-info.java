@@ -1,5 +1,7 @@
 module infc20.database.project.assignment {
     exports se.lu.ics;
+    // JMX reads the MBean interfaces reflectively
+    exports se.lu.ics.data.metrics to java.management;
 
     opens se.lu.ics.controllers to javafx.fxml;
     opens se.lu.ics.models to javafx.base;
@@ -7,6 +9,8 @@ module infc20.database.project.assignment {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.sql;
+    requires java.management;
+    requires com.microsoft.sqlserver.jdbc;
 
     requires transitive javafx.graphics;
 
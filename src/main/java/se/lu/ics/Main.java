@@ -1,6 +1,9 @@
 package se.lu.ics;
 
+import java.io.IOException;
+
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.layout.AnchorPane;
@@ -8,23 +11,69 @@ import javafx.stage.Stage;
 import se.lu.ics.controllers.CustomerViewController;
 import se.lu.ics.controllers.FruitBasketViewController;
 import se.lu.ics.controllers.PurchaseViewController;
+import se.lu.ics.data.DataAccessContext;
 
 public class Main extends Application {
 
     private Stage primaryStage;
     private Scene scene;
+    private DataAccessContext dataAccessContext;
+
+    // Stops the background work of the view currently shown, e.g. polling for changes
+    private Runnable shutdownCurrentView = () -> { };
 
 
     @Override
     public void start(Stage primaryStage) {
         this.primaryStage = primaryStage;
+
+        // Read the database configuration once and share the DAOs between all views
+        try {
+            // The views show the customers and baskets the DAOs load, so they are only changed on this thread
+            dataAccessContext = new DataAccessContext(Platform::runLater);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Platform.exit();
+            return;
+        }
+
+        // Open connections in the background while the first view is being built
+        dataAccessContext.warmUp();
+
         loadCustomerView();
     }
 
+    @Override
+    public void stop() {
+        shutdownCurrentView.run();
+        if (dataAccessContext != null) {
+            dataAccessContext.close();
+        }
+    }
+
+    /**
+     * Creates the controllers requested by FXMLLoader, passing them the shared DataAccessContext.
+     *
+     * @param controllerClass the controller class named in the fxml file
+     * @return a new controller instance
+     */
+    private Object createController(Class<?> controllerClass) {
+        if (controllerClass == CustomerViewController.class) {
+            return new CustomerViewController(dataAccessContext);
+        } else if (controllerClass == FruitBasketViewController.class) {
+            return new FruitBasketViewController(dataAccessContext);
+        } else if (controllerClass == PurchaseViewController.class) {
+            return new PurchaseViewController(dataAccessContext);
+        }
+        throw new IllegalArgumentException("Unknown controller: " + controllerClass.getName());
+    }
+
     public void loadCustomerView(){
         try {
             // Load root layout from fxml file.
+            shutdownCurrentView.run();
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/se/lu/ics/fxml/CustomerView.fxml"));
+            loader.setControllerFactory(this::createController);
             AnchorPane customerRoot = loader.load();
 
             // Create a scene and set it on the stage
@@ -37,6 +86,7 @@ public class Main extends Application {
             // CustomerViewController needs a reference to this to switch views
             CustomerViewController controller = loader.getController();
             controller.setMainApp(this);
+            shutdownCurrentView = controller::shutdown;
 
             primaryStage.show();
 
@@ -48,7 +98,9 @@ public class Main extends Application {
     public void loadFruitBasketView(){
         try {
             // Load root layout from fxml file.
+            shutdownCurrentView.run();
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/se/lu/ics/fxml/FruitBasketView.fxml"));
+            loader.setControllerFactory(this::createController);
             AnchorPane basketRoot = loader.load();
 
             // Update the root of the scene
@@ -60,6 +112,7 @@ public class Main extends Application {
             // FruitBasketViewController needs a reference to this to switch views
             FruitBasketViewController controller = loader.getController();
             controller.setMainApp(this);
+            shutdownCurrentView = controller::shutdown;
 
             primaryStage.show();
 
@@ -71,7 +124,9 @@ public class Main extends Application {
     public void loadPurchaseView(){
         try {
             // Load root layout from fxml file.
+            shutdownCurrentView.run();
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/se/lu/ics/fxml/PurchaseView.fxml"));
+            loader.setControllerFactory(this::createController);
             AnchorPane purchaseRoot = loader.load();
 
             // Update the root of the scene
@@ -83,6 +138,7 @@ public class Main extends Application {
             // PurchaseViewController needs a reference to this to switch views
             PurchaseViewController controller = loader.getController();
             controller.setMainApp(this);
+            shutdownCurrentView = controller::shutdown;
 
             primaryStage.show();
 
@@ -0,0 +1,96 @@
+package se.lu.ics.analytics;
+
+import java.util.concurrent.RecursiveTask;
+
+import se.lu.ics.models.PurchaseColumnStore;
+
+/**
+ * Counts the purchases of a range that match a query and sums their prices, per group.
+ * A range larger than rangeSize is split in two halves that are aggregated in parallel.
+ * Purchases without a date are left out of date ranges and time groupings, as in the report procedures.
+ */
+class AggregateTask extends RecursiveTask<long[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final PurchaseQuery query;
+    private final int[] dayToGroup;
+    private final Grouping grouping;
+    private final int groupCount;
+    private final int from;
+    private final int to;
+    private final int rangeSize;
+
+    AggregateTask(PurchaseQuery query, int[] dayToGroup, Grouping grouping, int groupCount, int from, int to,
+            int rangeSize) {
+        this.query = query;
+        this.dayToGroup = dayToGroup;
+        this.grouping = grouping;
+        this.groupCount = groupCount;
+        this.from = from;
+        this.to = to;
+        this.rangeSize = rangeSize;
+    }
+
+    @Override
+    protected long[] compute() {
+        if (to - from <= rangeSize) {
+            return scan();
+        }
+        int middle = (from + to) >>> 1;
+        AggregateTask left = new AggregateTask(query, dayToGroup, grouping, groupCount, from, middle, rangeSize);
+        AggregateTask right = new AggregateTask(query, dayToGroup, grouping, groupCount, middle, to, rangeSize);
+        left.fork();
+        long[] totals = right.compute();
+        long[] leftTotals = left.join();
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += leftTotals[i];
+        }
+        return totals;
+    }
+
+    private long[] scan() {
+        PurchaseSnapshot snapshot = query.getSnapshot();
+        short[] accountKeys = snapshot.accountKeys();
+        byte[] basketKeys = snapshot.basketKeys();
+        int[] epochDays = snapshot.epochDays();
+        long[] priceCents = snapshot.basketPriceCents();
+        int minEpochDay = snapshot.getMinEpochDay();
+        int fromEpochDay = query.getFromEpochDay();
+        int toEpochDay = query.getToEpochDay();
+        RowPredicate filter = query.getFilter();
+        boolean undatedIncluded = dayToGroup == null && query.isUnboundedInTime();
+
+        // Counts in [0, groupCount), price sums in [groupCount, 2 * groupCount)
+        long[] totals = new long[2 * groupCount];
+        for (int i = from; i < to; i++) {
+            int epochDay = epochDays[i];
+            if (epochDay == PurchaseColumnStore.NO_DATE) {
+                if (!undatedIncluded) {
+                    continue;
+                }
+            } else if (epochDay < fromEpochDay || epochDay > toEpochDay) {
+                continue;
+            }
+            int accountKey = accountKeys[i];
+            int basketKey = basketKeys[i];
+            if (filter != null && !filter.test(accountKey, basketKey, epochDay)) {
+                continue;
+            }
+
+            int group;
+            if (grouping == null) {
+                group = 0;
+            } else if (grouping == Grouping.BASKET) {
+                group = basketKey;
+            } else if (grouping == Grouping.CUSTOMER) {
+                group = accountKey;
+            } else {
+                group = dayToGroup[epochDay - minEpochDay];
+            }
+            totals[group]++;
+            totals[groupCount + group] += priceCents[basketKey];
+        }
+        return totals;
+    }
+}
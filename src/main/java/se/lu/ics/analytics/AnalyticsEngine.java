@@ -0,0 +1,74 @@
+package se.lu.ics.analytics;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs PurchaseQuery aggregations over a PurchaseSnapshot in parallel. The purchases are split
+ * into ranges that are scanned by the threads of a fork-join pool, each into its own primitive
+ * accumulators, which are added together as the ranges are joined. No value is boxed and no
+ * object is created per purchase, so a query costs a few passes over the snapshot's arrays.
+ *
+ * Usage: engine.query(snapshot).between(from, to).groupBy(Grouping.BASKET).sumPriceCents().top(5)
+ */
+public class AnalyticsEngine implements AutoCloseable {
+
+    // Ranges smaller than this are scanned by one thread; splitting further costs more than it gains
+    private static final int MIN_RANGE_SIZE = 1 << 15;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    /**
+     * Creates an engine running on the common fork-join pool, which uses every core.
+     */
+    public AnalyticsEngine() {
+        this.pool = ForkJoinPool.commonPool();
+        this.ownsPool = false;
+    }
+
+    /**
+     * Creates an engine with its own pool of the given number of threads, e.g. to measure scaling.
+     *
+     * @param parallelism The number of threads scanning purchases.
+     */
+    public AnalyticsEngine(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Starts a query over every purchase in a snapshot.
+     *
+     * @param snapshot The purchases to query.
+     * @return A PurchaseQuery without filters.
+     */
+    public PurchaseQuery query(PurchaseSnapshot snapshot) {
+        return new PurchaseQuery(this, snapshot);
+    }
+
+    /**
+     * Counts the purchases matching a query and sums their prices, per group.
+     *
+     * @return The counts in [0, groupCount) followed by the sums of the prices in cents.
+     */
+    long[] aggregate(PurchaseQuery query, int[] dayToGroup, Grouping grouping, int groupCount) {
+        int size = query.getSnapshot().size();
+        // Enough ranges to keep every thread busy even if some ranges match more purchases than others
+        int rangeSize = Math.max(MIN_RANGE_SIZE, size / (pool.getParallelism() * 4) + 1);
+        return pool.invoke(new AggregateTask(query, dayToGroup, grouping, groupCount, 0, size, rangeSize));
+    }
+
+    /**
+     * Shuts down the engine's own pool. Does nothing for an engine on the common pool.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package se.lu.ics.analytics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The counts and price sums of the groups of a GroupedQuery, held in primitive arrays indexed
+ * by group number. Groups without purchases are left out of toList() and top(int).
+ */
+public final class GroupResult {
+
+    /**
+     * The value groups are ranked by.
+     */
+    enum Measure {
+        COUNT,
+        PRICE_CENTS
+    }
+
+    private final PurchaseSnapshot snapshot;
+    private final Grouping grouping;
+    private final Measure measure;
+    private final int groupCount;
+    // Counts in [0, groupCount), price sums in [groupCount, 2 * groupCount)
+    private final long[] totals;
+
+    GroupResult(PurchaseSnapshot snapshot, Grouping grouping, Measure measure, int groupCount, long[] totals) {
+        this.snapshot = snapshot;
+        this.grouping = grouping;
+        this.measure = measure;
+        this.groupCount = groupCount;
+        this.totals = totals;
+    }
+
+    public Grouping getGrouping() {
+        return grouping;
+    }
+
+    /**
+     * @return The number of groups, including groups without purchases.
+     */
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    public String getLabel(int group) {
+        return grouping.label(snapshot, group);
+    }
+
+    public long getCount(int group) {
+        return totals[group];
+    }
+
+    public long getPriceCents(int group) {
+        return totals[groupCount + group];
+    }
+
+    /**
+     * @return The count or the price sum of a group, whichever the result was asked for.
+     */
+    public long getValue(int group) {
+        return measure == Measure.COUNT ? getCount(group) : getPriceCents(group);
+    }
+
+    /**
+     * @return The groups with purchases, in group order.
+     */
+    public List<GroupValue> toList() {
+        List<GroupValue> values = new ArrayList<>();
+        for (int group = 0; group < groupCount; group++) {
+            if (getCount(group) > 0) {
+                values.add(toGroupValue(group));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the groups with the highest values. The groups are ranked with a bounded min-heap
+     * of group numbers, so only the n returned groups are turned into objects.
+     *
+     * @param n The maximum number of groups to return.
+     * @return The groups with purchases and the highest values, highest first.
+     */
+    public List<GroupValue> top(int n) {
+        int[] heap = new int[Math.max(0, Math.min(n, groupCount))];
+        int heapSize = 0;
+        for (int group = 0; group < groupCount && heap.length > 0; group++) {
+            if (getCount(group) == 0) {
+                continue;
+            }
+            if (heapSize < heap.length) {
+                heap[heapSize] = group;
+                siftUp(heap, heapSize++);
+            } else if (ranksAbove(group, heap[0])) {
+                heap[0] = group;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        GroupValue[] ranked = new GroupValue[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            ranked[i] = toGroupValue(heap[0]);
+            heap[0] = heap[i];
+            siftDown(heap, i);
+        }
+        return List.of(ranked);
+    }
+
+    private GroupValue toGroupValue(int group) {
+        return new GroupValue(getLabel(group), getCount(group), getValue(group));
+    }
+
+    /**
+     * Ties are broken by group number, so the lower BasketNo, AccountNo or earlier period ranks higher.
+     */
+    private boolean ranksAbove(int group, int other) {
+        long value = getValue(group);
+        long otherValue = getValue(other);
+        return value > otherValue || (value == otherValue && group < other);
+    }
+
+    private void siftUp(int[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!ranksAbove(heap[parent], heap[index])) {
+                return;
+            }
+            swap(heap, parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int index = 0;
+        while (true) {
+            int lowest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && ranksAbove(heap[lowest], heap[left])) {
+                lowest = left;
+            }
+            if (right < size && ranksAbove(heap[lowest], heap[right])) {
+                lowest = right;
+            }
+            if (lowest == index) {
+                return;
+            }
+            swap(heap, index, lowest);
+            index = lowest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int temp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = temp;
+    }
+}
@@ -0,0 +1,39 @@
+package se.lu.ics.analytics;
+
+/**
+ * One group of a GroupResult: its label, the number of purchases in it and the measured value.
+ */
+public final class GroupValue {
+    private final String label;
+    private final long count;
+    private final long value;
+
+    GroupValue(String label, long count, long value) {
+        this.label = label;
+        this.count = count;
+        this.value = value;
+    }
+
+    /**
+     * @return The BasketNo, AccountNo or period of the group.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of purchases or the sum of their prices in cents, depending on what was asked for.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return label + "=" + value;
+    }
+}
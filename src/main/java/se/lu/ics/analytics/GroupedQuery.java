@@ -0,0 +1,38 @@
+package se.lu.ics.analytics;
+
+/**
+ * A PurchaseQuery whose purchases are grouped. The count and the price sum are always computed
+ * together in one pass; count() and sumPriceCents() only decide which one the result ranks by.
+ */
+public final class GroupedQuery {
+
+    private final PurchaseQuery query;
+    private final Grouping grouping;
+
+    GroupedQuery(PurchaseQuery query, Grouping grouping) {
+        this.query = query;
+        this.grouping = grouping;
+    }
+
+    /**
+     * @return The number of matching purchases per group.
+     */
+    public GroupResult count() {
+        return aggregate(GroupResult.Measure.COUNT);
+    }
+
+    /**
+     * @return The sum of the prices of the matching purchases per group, in cents.
+     */
+    public GroupResult sumPriceCents() {
+        return aggregate(GroupResult.Measure.PRICE_CENTS);
+    }
+
+    private GroupResult aggregate(GroupResult.Measure measure) {
+        PurchaseSnapshot snapshot = query.getSnapshot();
+        int[] dayToGroup = grouping.dayToGroup(snapshot);
+        int groupCount = grouping.groupCount(snapshot, dayToGroup);
+        long[] totals = query.getEngine().aggregate(query, dayToGroup, grouping, groupCount);
+        return new GroupResult(snapshot, grouping, measure, groupCount, totals);
+    }
+}
@@ -0,0 +1,77 @@
+package se.lu.ics.analytics;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+
+import se.lu.ics.models.PurchaseColumnStore;
+
+/**
+ * What PurchaseQuery.groupBy groups purchases by. Every grouping maps a purchase to a dense
+ * group number, so the groups are accumulated in plain long arrays.
+ */
+public enum Grouping {
+    /** One group per basket, labelled with the BasketNo. */
+    BASKET,
+    /** One group per customer, labelled with the AccountNo. */
+    CUSTOMER,
+    /** One group per purchase date, labelled yyyy-mm-dd. */
+    DAY,
+    /** One group per month, labelled yyyy-mm. */
+    MONTH,
+    /** One group per year, labelled yyyy. */
+    YEAR;
+
+    /**
+     * Maps the purchase dates of a snapshot to group numbers. The time groupings look the group
+     * up by day in this table, so no date is converted while the purchases are scanned.
+     *
+     * @return The group of each day from the snapshot's first to its last purchase date, or
+     *         null for the groupings that do not depend on the date.
+     */
+    int[] dayToGroup(PurchaseSnapshot snapshot) {
+        if (this == BASKET || this == CUSTOMER) {
+            return null;
+        }
+        int days = snapshot.getMaxEpochDay() - snapshot.getMinEpochDay() + 1;
+        int[] groups = new int[days];
+        LocalDate first = LocalDate.ofEpochDay(snapshot.getMinEpochDay());
+        for (int day = 0; day < days; day++) {
+            LocalDate date = first.plusDays(day);
+            if (this == DAY) {
+                groups[day] = day;
+            } else if (this == MONTH) {
+                groups[day] = (date.getYear() - first.getYear()) * 12 + date.getMonthValue() - first.getMonthValue();
+            } else {
+                groups[day] = date.getYear() - first.getYear();
+            }
+        }
+        return groups;
+    }
+
+    int groupCount(PurchaseSnapshot snapshot, int[] dayToGroup) {
+        switch (this) {
+        case BASKET:
+            return PurchaseColumnStore.BASKET_KEY_COUNT;
+        case CUSTOMER:
+            return PurchaseColumnStore.ACCOUNT_KEY_COUNT;
+        default:
+            return dayToGroup.length == 0 ? 1 : dayToGroup[dayToGroup.length - 1] + 1;
+        }
+    }
+
+    String label(PurchaseSnapshot snapshot, int group) {
+        LocalDate first = LocalDate.ofEpochDay(snapshot.getMinEpochDay());
+        switch (this) {
+        case BASKET:
+            return PurchaseColumnStore.basketNo(group);
+        case CUSTOMER:
+            return PurchaseColumnStore.accountNo(group);
+        case DAY:
+            return first.plusDays(group).toString();
+        case MONTH:
+            return YearMonth.from(first).plusMonths(group).toString();
+        default:
+            return Integer.toString(first.getYear() + group);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package se.lu.ics.analytics;
+
+import java.time.LocalDate;
+
+import se.lu.ics.models.PurchaseColumnStore;
+
+/**
+ * An immutable query over the purchases of a snapshot. Every filter returns a new query, so
+ * queries can be built up step by step and shared, e.g.
+ * engine.query(snapshot).between(from, to).groupBy(Grouping.BASKET).sumPriceCents().
+ */
+public final class PurchaseQuery {
+
+    private final AnalyticsEngine engine;
+    private final PurchaseSnapshot snapshot;
+    private final int fromEpochDay;
+    private final int toEpochDay;
+    private final RowPredicate filter;
+
+    PurchaseQuery(AnalyticsEngine engine, PurchaseSnapshot snapshot) {
+        this(engine, snapshot, Integer.MIN_VALUE, Integer.MAX_VALUE, null);
+    }
+
+    private PurchaseQuery(AnalyticsEngine engine, PurchaseSnapshot snapshot, int fromEpochDay, int toEpochDay,
+            RowPredicate filter) {
+        this.engine = engine;
+        this.snapshot = snapshot;
+        this.fromEpochDay = fromEpochDay;
+        this.toEpochDay = toEpochDay;
+        this.filter = filter;
+    }
+
+    /**
+     * Keeps the purchases made in an inclusive date range, which leaves out the purchases without a date.
+     *
+     * @param fromDate The first purchase date to include, or null for no lower limit.
+     * @param toDate The last purchase date to include, or null for no upper limit.
+     * @return A new query.
+     */
+    public PurchaseQuery between(LocalDate fromDate, LocalDate toDate) {
+        int from = fromDate == null ? fromEpochDay : Math.max(fromEpochDay, (int) fromDate.toEpochDay());
+        int to = toDate == null ? toEpochDay : Math.min(toEpochDay, (int) toDate.toEpochDay());
+        return new PurchaseQuery(engine, snapshot, from, to, filter);
+    }
+
+    /**
+     * Keeps the purchases of one basket.
+     *
+     * @param basketNo The basket's BasketNo.
+     * @return A new query.
+     */
+    public PurchaseQuery forBasket(String basketNo) {
+        int basket = PurchaseColumnStore.basketKey(basketNo);
+        return filter((accountKey, basketKey, epochDay) -> basketKey == basket);
+    }
+
+    /**
+     * Keeps the purchases of one customer.
+     *
+     * @param accountNo The customer's AccountNo.
+     * @return A new query.
+     */
+    public PurchaseQuery forCustomer(String accountNo) {
+        int account = PurchaseColumnStore.accountKey(accountNo);
+        return filter((accountKey, basketKey, epochDay) -> accountKey == account);
+    }
+
+    /**
+     * Keeps the purchases matching a condition, in addition to the query's other filters.
+     *
+     * @param predicate The condition. It is called from several threads at once.
+     * @return A new query.
+     */
+    public PurchaseQuery filter(RowPredicate predicate) {
+        return new PurchaseQuery(engine, snapshot, fromEpochDay, toEpochDay,
+                filter == null ? predicate : filter.and(predicate));
+    }
+
+    /**
+     * @return The number of matching purchases.
+     */
+    public long count() {
+        return engine.aggregate(this, null, null, 1)[0];
+    }
+
+    /**
+     * @return The sum of the prices of the matching purchases, in cents.
+     */
+    public long sumPriceCents() {
+        return engine.aggregate(this, null, null, 1)[1];
+    }
+
+    /**
+     * Groups the matching purchases.
+     *
+     * @param grouping What to group by.
+     * @return A GroupedQuery whose count or sum is computed per group.
+     */
+    public GroupedQuery groupBy(Grouping grouping) {
+        return new GroupedQuery(this, grouping);
+    }
+
+    AnalyticsEngine getEngine() {
+        return engine;
+    }
+
+    PurchaseSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    int getFromEpochDay() {
+        return fromEpochDay;
+    }
+
+    int getToEpochDay() {
+        return toEpochDay;
+    }
+
+    /**
+     * @return true if the query has no date range, so that it also keeps the purchases without a date.
+     */
+    boolean isUnboundedInTime() {
+        return fromEpochDay == Integer.MIN_VALUE && toEpochDay == Integer.MAX_VALUE;
+    }
+
+    RowPredicate getFilter() {
+        return filter;
+    }
+}
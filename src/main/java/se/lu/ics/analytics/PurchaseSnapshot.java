@@ -0,0 +1,126 @@
+package se.lu.ics.analytics;
+
+import java.util.Collection;
+
+import se.lu.ics.data.FruitBasketDao;
+import se.lu.ics.data.PurchaseDao;
+import se.lu.ics.models.FruitBasket;
+import se.lu.ics.models.PurchaseColumnStore;
+
+/**
+ * An immutable, column-oriented copy of the purchases together with the basket prices, for
+ * the AnalyticsEngine to query. Purchases are kept as in PurchaseColumnStore: the account and
+ * basket numbers of the Cnnn/Bnn keys and the purchase date as an epoch day. Prices are kept
+ * in cents per basket number, so summing a price is an array lookup. Customers are identified
+ * by their account number only, which is all the engine groups and filters them by.
+ */
+public final class PurchaseSnapshot {
+    private final short[] accountKeys;
+    private final byte[] basketKeys;
+    private final int[] epochDays;
+    private final long[] basketPriceCents;
+    private final int minEpochDay;
+    private final int maxEpochDay;
+
+    /**
+     * Creates a snapshot from columns. The arrays are not copied and must not be changed afterwards.
+     * Unlike a PurchaseColumnStore, the columns may hold the same key more than once, which lets
+     * benchmarks use more purchases than there are customer and basket pairs.
+     *
+     * @param accountKeys The account number of each purchase, 0-999.
+     * @param basketKeys The basket number of each purchase, 0-99.
+     * @param epochDays The purchase date of each purchase as a number of days since 1970-01-01,
+     *                  or PurchaseColumnStore.NO_DATE for a purchase without a date.
+     * @param basketPriceCents The price in cents of each basket, by basket number.
+     */
+    public PurchaseSnapshot(short[] accountKeys, byte[] basketKeys, int[] epochDays, long[] basketPriceCents) {
+        if (basketKeys.length != accountKeys.length || epochDays.length != accountKeys.length) {
+            throw new IllegalArgumentException("All purchase columns must have the same length");
+        }
+        if (basketPriceCents.length != PurchaseColumnStore.BASKET_KEY_COUNT) {
+            throw new IllegalArgumentException("There must be one price per basket number");
+        }
+        this.accountKeys = accountKeys;
+        this.basketKeys = basketKeys;
+        this.epochDays = epochDays;
+        this.basketPriceCents = basketPriceCents;
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int epochDay : epochDays) {
+            if (epochDay != PurchaseColumnStore.NO_DATE) {
+                min = Math.min(min, epochDay);
+                max = Math.max(max, epochDay);
+            }
+        }
+        this.minEpochDay = min > max ? 0 : min;
+        this.maxEpochDay = min > max ? 0 : max;
+    }
+
+    /**
+     * Creates a snapshot of the purchases in a store, priced with the given baskets.
+     *
+     * @param purchases The purchases. The snapshot is a copy, so the store may change afterwards.
+     * @param baskets The baskets; a purchased basket that is missing or has no price counts as free.
+     * @return A new PurchaseSnapshot.
+     */
+    public static PurchaseSnapshot of(PurchaseColumnStore purchases, Collection<FruitBasket> baskets) {
+        long[] basketPriceCents = new long[PurchaseColumnStore.BASKET_KEY_COUNT];
+        for (FruitBasket basket : baskets) {
+            if (basket.getPrice() != null) {
+                basketPriceCents[PurchaseColumnStore.basketKey(basket.getBasketNo())] =
+                        basket.getPrice().movePointRight(2).longValueExact();
+            }
+        }
+        return new PurchaseSnapshot(purchases.copyAccountKeys(), purchases.copyBasketKeys(),
+                purchases.copyEpochDays(), basketPriceCents);
+    }
+
+    /**
+     * Loads a snapshot of every purchase and basket from the database.
+     *
+     * @return A new PurchaseSnapshot.
+     * @throws se.lu.ics.data.DaoException If there is an error accessing the database.
+     */
+    public static PurchaseSnapshot load(PurchaseDao purchaseDao, FruitBasketDao basketDao) {
+        return of(purchaseDao.getAllAsColumnStore(), basketDao.getAll());
+    }
+
+    public int size() {
+        return accountKeys.length;
+    }
+
+    /**
+     * @return The earliest purchase date as an epoch day, 0 if no purchase in the snapshot has a date.
+     */
+    public int getMinEpochDay() {
+        return minEpochDay;
+    }
+
+    /**
+     * @return The latest purchase date as an epoch day, 0 if no purchase in the snapshot has a date.
+     */
+    public int getMaxEpochDay() {
+        return maxEpochDay;
+    }
+
+    public long getPriceCents(int basketKey) {
+        return basketPriceCents[basketKey];
+    }
+
+    short[] accountKeys() {
+        return accountKeys;
+    }
+
+    byte[] basketKeys() {
+        return basketKeys;
+    }
+
+    int[] epochDays() {
+        return epochDays;
+    }
+
+    long[] basketPriceCents() {
+        return basketPriceCents;
+    }
+}
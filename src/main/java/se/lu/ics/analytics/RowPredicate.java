@@ -0,0 +1,22 @@
+package se.lu.ics.analytics;
+
+/**
+ * A condition on one purchase, given as primitives so that filtering a snapshot allocates nothing.
+ */
+@FunctionalInterface
+public interface RowPredicate {
+
+    /**
+     * @param accountKey The account number of the customer, e.g. 123 for C123.
+     * @param basketKey The basket number, e.g. 1 for B01.
+     * @param epochDay The purchase date as a number of days since 1970-01-01, or
+     *                 PurchaseColumnStore.NO_DATE for a purchase without a date.
+     * @return true if the purchase should be included.
+     */
+    boolean test(int accountKey, int basketKey, int epochDay);
+
+    default RowPredicate and(RowPredicate other) {
+        return (accountKey, basketKey, epochDay) -> test(accountKey, basketKey, epochDay)
+                && other.test(accountKey, basketKey, epochDay);
+    }
+}
@@ -0,0 +1,126 @@
+package se.lu.ics.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import se.lu.ics.analytics.AnalyticsEngine;
+import se.lu.ics.analytics.GroupValue;
+import se.lu.ics.analytics.Grouping;
+import se.lu.ics.analytics.PurchaseSnapshot;
+import se.lu.ics.models.PurchaseColumnStore;
+
+/**
+ * Measures how AnalyticsEngine queries scale with the number of threads, on a synthetic snapshot
+ * of random purchases over three years. Each iteration runs three queries: revenue per basket in
+ * one year, the ten customers with the most purchases, and revenue per month. The thread counts
+ * run from 1 to maxThreads, doubling each time, and every count must produce the same results
+ * as one thread.
+ *
+ * Usage: AnalyticsBenchmark [purchases] [iterations] [maxThreads]
+ * where maxThreads defaults to the number of cores. Needs no database. Run with a heap large enough for the snapshot, 7 bytes per purchase.
+ */
+public class AnalyticsBenchmark {
+    private static final int DEFAULT_PURCHASES = 10_000_000;
+    private static final int DEFAULT_ITERATIONS = 20;
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final LocalDate FIRST_DATE = LocalDate.of(2022, 1, 1);
+    private static final int DAYS = 3 * 365;
+
+    public static void main(String[] args) {
+        int purchases = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PURCHASES;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        PurchaseSnapshot snapshot = createSnapshot(purchases, new Random(42));
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : cores;
+
+        System.out.printf("%d purchases, %d iterations of 3 queries, %d cores%n", purchases, iterations, cores);
+        System.out.printf("%-8s %10s %10s %12s %8s%n", "threads", "p50 ms", "min ms", "Mrows/s", "speedup");
+
+        double singleThreadMillis = 0;
+        long expectedChecksum = 0;
+        for (int threads : threadCounts(maxThreads)) {
+            try (AnalyticsEngine engine = new AnalyticsEngine(threads)) {
+                long checksum = 0;
+                for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                    checksum = runQueries(engine, snapshot);
+                }
+                long[] nanos = new long[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    long started = System.nanoTime();
+                    runQueries(engine, snapshot);
+                    nanos[i] = System.nanoTime() - started;
+                }
+                Arrays.sort(nanos);
+
+                if (threads == 1) {
+                    expectedChecksum = checksum;
+                } else if (checksum != expectedChecksum) {
+                    throw new IllegalStateException(threads + " threads produced different results than 1 thread");
+                }
+
+                double medianMillis = nanos[nanos.length / 2] / 1e6;
+                if (threads == 1) {
+                    singleThreadMillis = medianMillis;
+                }
+                System.out.printf("%-8d %10.1f %10.1f %12.0f %8.2f%n", threads, medianMillis, nanos[0] / 1e6,
+                        3.0 * purchases / medianMillis / 1000, singleThreadMillis / medianMillis);
+            }
+        }
+    }
+
+    /**
+     * Runs the three queries and folds their results into a checksum.
+     */
+    private static long runQueries(AnalyticsEngine engine, PurchaseSnapshot snapshot) {
+        long checksum = 0;
+        for (long cents : toValues(engine.query(snapshot)
+                .between(LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31))
+                .groupBy(Grouping.BASKET).sumPriceCents().toList())) {
+            checksum = checksum * 31 + cents;
+        }
+        for (long count : toValues(engine.query(snapshot).groupBy(Grouping.CUSTOMER).count().top(10))) {
+            checksum = checksum * 31 + count;
+        }
+        for (long cents : toValues(engine.query(snapshot).groupBy(Grouping.MONTH).sumPriceCents().toList())) {
+            checksum = checksum * 31 + cents;
+        }
+        return checksum;
+    }
+
+    private static long[] toValues(List<GroupValue> groups) {
+        return groups.stream().mapToLong(GroupValue::getValue).toArray();
+    }
+
+    private static PurchaseSnapshot createSnapshot(int purchases, Random random) {
+        short[] accountKeys = new short[purchases];
+        byte[] basketKeys = new byte[purchases];
+        int[] epochDays = new int[purchases];
+        int firstDay = (int) FIRST_DATE.toEpochDay();
+        for (int i = 0; i < purchases; i++) {
+            accountKeys[i] = (short) random.nextInt(PurchaseColumnStore.ACCOUNT_KEY_COUNT);
+            basketKeys[i] = (byte) random.nextInt(PurchaseColumnStore.BASKET_KEY_COUNT);
+            epochDays[i] = firstDay + random.nextInt(DAYS);
+        }
+        long[] basketPriceCents = new long[PurchaseColumnStore.BASKET_KEY_COUNT];
+        for (int basketKey = 0; basketKey < basketPriceCents.length; basketKey++) {
+            basketPriceCents[basketKey] = 5_000 + random.nextInt(45_000);
+        }
+        return new PurchaseSnapshot(accountKeys, basketKeys, epochDays, basketPriceCents);
+    }
+
+    /**
+     * @return 1, 2, 4, ... up to and including maxThreads.
+     */
+    private static List<Integer> threadCounts(int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(maxThreads);
+        return counts;
+    }
+}
@@ -0,0 +1,104 @@
+package se.lu.ics.benchmark;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import se.lu.ics.data.ConnectionHandler;
+import se.lu.ics.data.PurchaseDao;
+import se.lu.ics.data.PurchaseProcedureSet;
+import se.lu.ics.models.Purchase;
+
+/**
+ * Measures the latency of adding, updating and deleting a purchase with each PurchaseProcedureSet.
+ * Each iteration adds, updates and deletes the same purchase, so the database is left as it was.
+ * The procedure sets take turns iteration by iteration, so that drift in server load affects
+ * them equally.
+ *
+ * Usage: PurchaseProcedureBenchmark accountNo basketNo [iterations]
+ * where accountNo and basketNo name an existing customer and basket that have no purchase yet.
+ * Uses the same config.properties as the application.
+ */
+public class PurchaseProcedureBenchmark {
+    private static final int WARM_UP_ITERATIONS = 50;
+    private static final int DEFAULT_ITERATIONS = 500;
+    private static final String[] OPERATIONS = { "add", "update", "delete" };
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PurchaseProcedureBenchmark accountNo basketNo [iterations]");
+            System.exit(2);
+        }
+        String accountNo = args[0];
+        String basketNo = args[1];
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ITERATIONS;
+
+        ConnectionHandler connectionHandler = new ConnectionHandler();
+        try {
+            Map<PurchaseProcedureSet, PurchaseDao> daos = new EnumMap<>(PurchaseProcedureSet.class);
+            Map<PurchaseProcedureSet, long[][]> timings = new EnumMap<>(PurchaseProcedureSet.class);
+            for (PurchaseProcedureSet procedureSet : PurchaseProcedureSet.values()) {
+                daos.put(procedureSet, new PurchaseDao(connectionHandler, procedureSet));
+                timings.put(procedureSet, new long[OPERATIONS.length][iterations]);
+            }
+
+            for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                for (PurchaseDao purchaseDao : daos.values()) {
+                    runIteration(purchaseDao, accountNo, basketNo, null, 0);
+                }
+            }
+            for (int i = 0; i < iterations; i++) {
+                for (PurchaseProcedureSet procedureSet : PurchaseProcedureSet.values()) {
+                    runIteration(daos.get(procedureSet), accountNo, basketNo, timings.get(procedureSet), i);
+                }
+            }
+
+            System.out.printf("%d iterations of add, update and delete of purchase %s, %s%n",
+                    iterations, accountNo, basketNo);
+            System.out.printf("%-4s %-7s %10s %10s %10s %10s%n", "set", "op", "mean us", "p50 us", "p95 us", "p99 us");
+            for (PurchaseProcedureSet procedureSet : PurchaseProcedureSet.values()) {
+                for (int op = 0; op < OPERATIONS.length; op++) {
+                    long[] nanos = timings.get(procedureSet)[op];
+                    Arrays.sort(nanos);
+                    System.out.printf("%-4s %-7s %10.0f %10.0f %10.0f %10.0f%n", procedureSet, OPERATIONS[op],
+                            Arrays.stream(nanos).average().orElse(0) / 1000,
+                            percentile(nanos, 0.50) / 1000, percentile(nanos, 0.95) / 1000,
+                            percentile(nanos, 0.99) / 1000);
+                }
+            }
+        } finally {
+            connectionHandler.close();
+        }
+    }
+
+    /**
+     * Adds, updates and deletes one purchase, recording each call's duration in timings[op][index]
+     * unless timings is null.
+     */
+    private static void runIteration(PurchaseDao purchaseDao, String accountNo, String basketNo,
+            long[][] timings, int index) {
+        Purchase purchase = new Purchase(accountNo, basketNo, LocalDate.of(2024, 10, 22));
+
+        long started = System.nanoTime();
+        purchaseDao.save(purchase);
+        long added = System.nanoTime();
+        purchase.setPurchaseDate(LocalDate.of(2024, 10, 23));
+        purchaseDao.update(purchase);
+        long updated = System.nanoTime();
+        purchaseDao.deleteByAccountNoBasketNo(accountNo, basketNo);
+        long deleted = System.nanoTime();
+
+        if (timings != null) {
+            timings[0][index] = added - started;
+            timings[1][index] = updated - added;
+            timings[2][index] = deleted - updated;
+        }
+    }
+
+    private static double percentile(long[] sortedNanos, double fraction) {
+        int index = (int) Math.ceil(fraction * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))];
+    }
+}
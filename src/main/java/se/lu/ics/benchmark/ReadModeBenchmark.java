@@ -0,0 +1,222 @@
+package se.lu.ics.benchmark;
+
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import se.lu.ics.data.ConnectionHandler;
+import se.lu.ics.data.ReadMode;
+
+/**
+ * Measures how much readers and a writer of the same customer get in each other's way under each
+ * ReadMode. A writer thread repeatedly updates the customer in a transaction, holds the row lock
+ * for HOLD_MILLIS as a slow transaction would, and rolls back, so the database is left as it was.
+ * Meanwhile reader threads look the customer up as fast as they can with the mode's
+ * uspGetCustomerByAccountNo. Under LOCKING a read waits for the writer's open transaction, under
+ * SNAPSHOT it returns the last committed row at once. The writer's update time shows the
+ * interference in the other direction.
+ *
+ * Usage: ReadModeBenchmark accountNo [readers] [seconds]
+ * where accountNo names an existing customer and seconds is the duration per mode. Each thread
+ * holds a pooled connection throughout, so pool.max.size must exceed readers. SNAPSHOT needs
+ * migration V3. Uses the same config.properties as the application.
+ */
+public class ReadModeBenchmark {
+    private static final int DEFAULT_READERS = 4;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final long HOLD_MILLIS = 50;
+    private static final long PAUSE_MILLIS = 10;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReadModeBenchmark accountNo [readers] [seconds]");
+            System.exit(2);
+        }
+        String accountNo = args[0];
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_READERS;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+
+        ConnectionHandler connectionHandler = new ConnectionHandler();
+        try {
+            String[] customer = readCustomer(connectionHandler, accountNo);
+
+            System.out.printf("%d readers of customer %s for %d s per mode, writer holds its lock %d ms%n",
+                    readers, accountNo, seconds, HOLD_MILLIS);
+            System.out.printf("%-9s %10s %10s %10s %10s %10s %12s %12s%n", "mode", "reads/s",
+                    "p50 us", "p95 us", "p99 us", "max us", "writes/s", "write p99 us");
+            for (ReadMode mode : ReadMode.values()) {
+                run(connectionHandler, mode, accountNo, customer, readers, seconds);
+            }
+        } catch (SQLException e) {
+            System.err.println("Benchmark failed: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            connectionHandler.close();
+        }
+    }
+
+    private static void run(ConnectionHandler connectionHandler, ReadMode mode, String accountNo,
+            String[] customer, int readers, int seconds) throws InterruptedException, SQLException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(readers + 1);
+        List<Recorder> recorders = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        Recorder writer = new Recorder();
+        for (int i = 0; i < readers; i++) {
+            recorders.add(new Recorder());
+        }
+
+        threads.add(new Thread(() -> runWriter(connectionHandler, accountNo, customer, running, started, writer),
+                "read-mode-writer"));
+        for (Recorder reader : recorders) {
+            threads.add(new Thread(() -> runReader(connectionHandler, mode, accountNo, running, started, reader),
+                    "read-mode-reader"));
+        }
+        threads.forEach(Thread::start);
+        started.await();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (Recorder recorder : recorders) {
+            recorder.throwIfFailed();
+        }
+        writer.throwIfFailed();
+        long[] reads = Recorder.merge(recorders);
+        long[] writes = writer.sorted();
+        System.out.printf("%-9s %10.0f %10.0f %10.0f %10.0f %10.0f %12.1f %12.0f%n", mode,
+                (double) reads.length / seconds, percentile(reads, 0.50) / 1000, percentile(reads, 0.95) / 1000,
+                percentile(reads, 0.99) / 1000, percentile(reads, 1.0) / 1000,
+                (double) writes.length / seconds, percentile(writes, 0.99) / 1000);
+    }
+
+    /**
+     * Updates the customer to its current values and rolls back after HOLD_MILLIS, over and over,
+     * recording how long each update waited for the readers.
+     */
+    private static void runWriter(ConnectionHandler connectionHandler, String accountNo, String[] customer,
+            AtomicBoolean running, CountDownLatch started, Recorder recorder) {
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall("{CALL uspUpdateCustomer(?, ?, ?)}")) {
+            connection.setAutoCommit(false);
+            statement.setString(1, accountNo);
+            statement.setString(2, customer[0]);
+            statement.setString(3, customer[1]);
+            started.countDown();
+            while (running.get()) {
+                long before = System.nanoTime();
+                statement.execute();
+                recorder.record(System.nanoTime() - before);
+                Thread.sleep(HOLD_MILLIS);
+                connection.rollback();
+                Thread.sleep(PAUSE_MILLIS);
+            }
+        } catch (SQLException e) {
+            recorder.fail(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            started.countDown();
+        }
+    }
+
+    private static void runReader(ConnectionHandler connectionHandler, ReadMode mode, String accountNo,
+            AtomicBoolean running, CountDownLatch started, Recorder recorder) {
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(
+                        mode.call("{CALL uspGetCustomerByAccountNo(?)}"))) {
+            statement.setString(1, accountNo);
+            started.countDown();
+            while (running.get()) {
+                long before = System.nanoTime();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        resultSet.getString("Name");
+                    }
+                }
+                recorder.record(System.nanoTime() - before);
+            }
+        } catch (SQLException e) {
+            recorder.fail(e);
+        } finally {
+            started.countDown();
+        }
+    }
+
+    /**
+     * @return The customer's name and delivery address, which the writer sets again.
+     */
+    private static String[] readCustomer(ConnectionHandler connectionHandler, String accountNo) throws SQLException {
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall("{CALL uspGetCustomerByAccountNo(?)}")) {
+            statement.setString(1, accountNo);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Customer " + accountNo + " does not exist");
+                }
+                return new String[] { resultSet.getString("Name"), resultSet.getString("Address") };
+            }
+        }
+    }
+
+    private static double percentile(long[] sortedNanos, double fraction) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))];
+    }
+
+    /**
+     * The call durations of one thread, and the error that stopped it, if any.
+     */
+    private static final class Recorder {
+        private long[] nanos = new long[1024];
+        private int count;
+        private volatile SQLException failure;
+
+        void record(long duration) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = duration;
+        }
+
+        void fail(SQLException e) {
+            failure = e;
+        }
+
+        void throwIfFailed() throws SQLException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        static long[] merge(List<Recorder> recorders) {
+            long[] merged = new long[recorders.stream().mapToInt(recorder -> recorder.count).sum()];
+            int index = 0;
+            for (Recorder recorder : recorders) {
+                System.arraycopy(recorder.nanos, 0, merged, index, recorder.count);
+                index += recorder.count;
+            }
+            Arrays.sort(merged);
+            return merged;
+        }
+    }
+}
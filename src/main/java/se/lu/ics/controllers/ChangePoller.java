@@ -0,0 +1,139 @@
+package se.lu.ics.controllers;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+import javafx.animation.PauseTransition;
+import javafx.util.Duration;
+import se.lu.ics.data.ChangeSet;
+import se.lu.ics.data.DaoException;
+
+/**
+ * Keeps a loaded table up to date with the changes made by other clients.
+ * When the table is (re)loaded, the current sync version is fetched first; after that the
+ * changes since the last known version are fetched periodically and handed to the table.
+ * Each delay is randomized around the interval so that many open clients do not poll the
+ * database in lockstep, and it grows while polls keep failing. If the changes since the last
+ * known version can no longer be fetched because old tombstones have been purged, the table is
+ * loaded again instead.
+ * Everything except the database calls runs on the JavaFX application thread.
+ *
+ * @param <T> The type of item shown in the table.
+ */
+class ChangePoller<T> {
+    private static final double JITTER = 0.25;
+    private static final int MAX_BACKOFF_SHIFT = 4;
+
+    private final Supplier<CompletableFuture<Long>> syncVersionFetcher;
+    private final LongFunction<CompletableFuture<ChangeSet<T>>> changeFetcher;
+    private final long intervalMillis;
+    private final Consumer<ChangeSet<T>> changeHandler;
+    private final Consumer<DaoException> errorHandler;
+
+    private final PauseTransition timer = new PauseTransition();
+    private final Random random = new Random();
+
+    private long syncVersion;
+    private int consecutiveFailures;
+    private Runnable load;
+
+    // Bumped by restart() and stop() so that responses to earlier requests are ignored
+    private int generation;
+
+    /**
+     * @param syncVersionFetcher Fetches the current sync version.
+     * @param changeFetcher Fetches the changes since a sync version.
+     * @param intervalMillis The average time between polls, or 0 to disable polling.
+     * @param changeHandler Applies a non-empty ChangeSet to the table.
+     * @param errorHandler Shows errors from fetching changes.
+     */
+    ChangePoller(Supplier<CompletableFuture<Long>> syncVersionFetcher,
+            LongFunction<CompletableFuture<ChangeSet<T>>> changeFetcher, long intervalMillis,
+            Consumer<ChangeSet<T>> changeHandler, Consumer<DaoException> errorHandler) {
+        this.syncVersionFetcher = syncVersionFetcher;
+        this.changeFetcher = changeFetcher;
+        this.intervalMillis = intervalMillis;
+        this.changeHandler = changeHandler;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Fetches the current sync version, then loads the table and starts polling for changes
+     * made after that version. The version is fetched before the load so that no change
+     * committed during the load can be missed.
+     *
+     * @param load Loads the table, e.g. PagedTableLoader::reload.
+     */
+    void restart(Runnable load) {
+        stop();
+        this.load = load;
+        if (intervalMillis <= 0) {
+            load.run();
+            return;
+        }
+        int requestGeneration = generation;
+        FxCallbacks.whenComplete(syncVersionFetcher.get(), version -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            syncVersion = version;
+            consecutiveFailures = 0;
+            load.run();
+            scheduleNextPoll(requestGeneration);
+        }, e -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            // Without a version there is nothing to poll from, but the table can still be shown
+            load.run();
+            errorHandler.accept(e);
+        });
+    }
+
+    /**
+     * Stops polling. Called when the view is closed.
+     */
+    void stop() {
+        generation++;
+        timer.stop();
+    }
+
+    private void scheduleNextPoll(int requestGeneration) {
+        double jitter = 1 - JITTER + 2 * JITTER * random.nextDouble();
+        long backoff = 1L << Math.min(consecutiveFailures, MAX_BACKOFF_SHIFT);
+        timer.setDuration(Duration.millis(intervalMillis * backoff * jitter));
+        timer.setOnFinished(event -> poll(requestGeneration));
+        timer.playFromStart();
+    }
+
+    private void poll(int requestGeneration) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        FxCallbacks.whenComplete(changeFetcher.apply(syncVersion), changes -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            syncVersion = changes.getSyncVersion();
+            consecutiveFailures = 0;
+            if (!changes.isEmpty()) {
+                changeHandler.accept(changes);
+            }
+            scheduleNextPoll(requestGeneration);
+        }, e -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            if (e.isSyncVersionPurged()) {
+                restart(load);
+                return;
+            }
+            consecutiveFailures++;
+            errorHandler.accept(e);
+            scheduleNextPoll(requestGeneration);
+        });
+    }
+}
@@ -1,7 +1,11 @@
 package se.lu.ics.controllers;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javafx.animation.PauseTransition;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -10,19 +14,27 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.input.MouseEvent;
+import javafx.util.Duration;
 import se.lu.ics.data.DaoException;
 import se.lu.ics.Main;
+import se.lu.ics.data.AsyncDao;
 import se.lu.ics.data.CustomerDao;
+import se.lu.ics.data.CustomerSearchIndex;
+import se.lu.ics.data.CustomerSearchMode;
+import se.lu.ics.data.DataAccessContext;
+import se.lu.ics.data.IdentityMap;
+import se.lu.ics.data.WriteBehindQueue;
 import se.lu.ics.models.Customer;
-
-import java.io.IOException;
-import java.util.List;
+import se.lu.ics.models.ModelValidator;
+import se.lu.ics.models.ValidationException;
 
 /**
  * Controller class for managing Customer-related operations in the view.
  * This class interacts with the CustomerDao to perform CRUD operations and 
  * updates the UI (TableView) accordingly. It handles user actions such as 
  * adding customers and loading customer data into the TableView.
+ * All database calls run on the data access layer's worker threads, so the view stays
+ * responsive while they are in progress.
  */
 public class CustomerViewController {
 
@@ -47,6 +59,9 @@ public class CustomerViewController {
     @FXML
     private TextField textFieldCustomerDeliveryAddress;
 
+    @FXML
+    private TextField textFieldCustomerSearch;
+
     @FXML
     private Button btnCustomerAddUpdate;
 
@@ -56,21 +71,57 @@ public class CustomerViewController {
     @FXML
     private Label labelErrorMessage;
 
-    private CustomerDao customerDao;
+    private static final int PAGE_SIZE = 100;
+
+    // How long typing must pause before a search is run
+    private static final Duration SEARCH_DELAY = Duration.millis(250);
+
+    private final AsyncDao<CustomerDao> customerDao;
+
+    private final CustomerSearchIndex customerSearchIndex;
+
+    private final CustomerSearchMode customerSearchMode;
+
+    // null unless write.behind.enabled is set, in which case updates are saved in the background
+    private final WriteBehindQueue<String, Customer> customerWriteBehind;
+
+    // Shows the errors of the background writes while the view is open
+    private final Consumer<DaoException> writeBehindErrorHandler = FxCallbacks.onFxThread(this::displayBackgroundWriteError);
+
+    private final IdentityMap identityMap;
+
+    // Re-sorts a row whose customer was changed in memory, e.g. by a background write
+    private Consumer<Customer> customerRefresher;
+
+    private PagedTableLoader<Customer> customerPages;
+
+    private PagedTableLoader.PageFetcher<Customer> allCustomerPages;
+
+    private final PauseTransition searchDelay = new PauseTransition(SEARCH_DELAY);
+
+    private ChangePoller<Customer> customerChanges;
+
+    // Set while the table shows a server search, which the polled changes are not filtered by
+    private boolean searchResultsShown;
+
+    private final long changePollIntervalMillis;
 
     private Main mainApp;
 
     /**
      * Constructor for CustomerController.
-     * It initializes the CustomerDao to manage database interactions. 
-     * If there is an error initializing the database, it will display an error message.
+     * It takes the asynchronous CustomerDao to manage database interactions from the application's
+     * shared DataAccessContext, so no configuration is read when the view is opened.
+     *
+     * @param dataAccessContext the application's data access context
      */
-    public CustomerViewController() {
-        try {
-            customerDao = new CustomerDao();
-        } catch (IOException e) {
-            displayErrorMessage("Error initializing database connection: " + e.getMessage());
-        }
+    public CustomerViewController(DataAccessContext dataAccessContext) {
+        changePollIntervalMillis = dataAccessContext.getChangePollIntervalMillis();
+        identityMap = dataAccessContext.getIdentityMap();
+        customerDao = dataAccessContext.getAsyncCustomerDao();
+        customerSearchIndex = dataAccessContext.getCustomerSearchIndex();
+        customerSearchMode = dataAccessContext.getCustomerSearchMode();
+        customerWriteBehind = dataAccessContext.getCustomerWriteBehind();
     }
 
     /**
@@ -120,10 +171,63 @@ public class CustomerViewController {
         // set up listener for tableView selection changes, thank you copilot
         tableViewCustomer.getSelectionModel().selectedItemProperty().addListener((observable,oldValue,newValue) -> populateFields(newValue));
 
+        // Fetch pages on demand as the user scrolls to the bottom of the table
+        allCustomerPages = (lastCustomer, pageSize) -> customerDao.supply(dao -> dao.getPage(
+                lastCustomer == null ? null : lastCustomer.getAccountNo(), pageSize));
+        customerPages = new PagedTableLoader<>(tableViewCustomer, PAGE_SIZE, Comparator.comparing(Customer::getAccountNo),
+                allCustomerPages, e -> displayErrorMessage("Error loading customers: " + e.getMessage()));
+        customerRefresher = customerPages::refresh;
+        identityMap.addCustomerListener(customerRefresher);
+
+        if (customerWriteBehind != null) {
+            customerWriteBehind.addErrorHandler(writeBehindErrorHandler);
+        }
+
+        // Apply the changes made by other clients while the view is open
+        customerChanges = new ChangePoller<>(() -> customerDao.supply(CustomerDao::getSyncVersion),
+                version -> customerDao.supply(dao -> dao.getChangesSince(version)), changePollIntervalMillis,
+                customerPages::applyChanges, e -> displayErrorMessage("Error fetching changed customers: " + e.getMessage()));
+
+        // Search once typing pauses rather than on every keystroke
+        textFieldCustomerSearch.textProperty().addListener((observable, oldValue, newValue) -> {
+            searchDelay.setOnFinished(event -> searchCustomers(newValue));
+            searchDelay.playFromStart();
+        });
+
         // Load customer data from the database
         loadCustomers();
     }
 
+    /**
+     * Shows only the customers matching the search text, or every customer again when the text
+     * is empty. In CLIENT search mode the table filters its loaded customers by a search of the
+     * CustomerSearchIndex, which matches any part of the AccountNo, name or delivery address,
+     * while the rest are loaded in the background. In SERVER mode the table is reloaded with the
+     * customers whose AccountNo, name or delivery address starts with the text, as found by
+     * CustomerDao.search; the reload cancels a search that has not started yet and drops one
+     * still running. Polling for changes is suspended while the search results are shown, since
+     * a changed customer would be added to them whether it matches the search or not.
+     *
+     * @param text The search text.
+     */
+    private void searchCustomers(String text) {
+        clearErrorMessage();
+        boolean blank = text == null || text.isBlank();
+        if (customerSearchMode == CustomerSearchMode.CLIENT) {
+            customerPages.setFilter(blank ? null : customerSearchIndex.search(text)::test);
+        } else if (blank) {
+            searchResultsShown = false;
+            customerChanges.restart(() -> customerPages.reload(allCustomerPages));
+        } else {
+            searchResultsShown = true;
+            customerChanges.stop();
+            // The search returns a single page of at most PAGE_SIZE customers
+            customerPages.reload((lastCustomer, pageSize) -> lastCustomer == null
+                    ? customerDao.supply(dao -> dao.search(text, pageSize))
+                    : CompletableFuture.completedFuture(List.of()));
+        }
+    }
+
     /**
      * Populates the TextFields of the CustomerView with the attributes of the
      * currently selected customer in the TableView, or clears the fields if
@@ -147,7 +251,7 @@ public class CustomerViewController {
      * Handles the event when the "Add/Update" button is clicked. 
      * Depending on if a preexisting customer is selected or not,
      * it reads the input from the text fields, updates or creates a new Customer object,
-     * and updates or saves it to the database using CustomerDao. If successful, it refreshes
+     * and updates or saves it to the database using CustomerDao. If successful, it patches
      * the TableView to display the newly updated/added customer.
      *
      * @param event MouseEvent triggered when the "Add/Update" button is clicked.
@@ -161,26 +265,31 @@ public class CustomerViewController {
     }
 
     private void addCustomer(){
-        try {
-            // Retrieve input from text fields
-            String customerAccountNo = textFieldCustomerAccountNo.getText();
-            String customerName = textFieldCustomerName.getText();
-            String customerDeliveryAddress = textFieldCustomerDeliveryAddress.getText();
+        // Retrieve input from text fields
+        String customerAccountNo = textFieldCustomerAccountNo.getText();
+        String customerName = textFieldCustomerName.getText();
+        String customerDeliveryAddress = textFieldCustomerDeliveryAddress.getText();
 
-            // Create a new Customer object
-            Customer newCustomer = new Customer(customerAccountNo, customerName, customerDeliveryAddress);
+        // Create a new Customer object
+        Customer newCustomer = new Customer(customerAccountNo, customerName, customerDeliveryAddress);
+        try {
+            ModelValidator.validate(newCustomer);
+        } catch (ValidationException e) {
+            displayErrorMessage(e.getMessage());
+            return;
+        }
 
-            // Save the new customer to the database
-            customerDao.save(newCustomer);
+        // Save the new customer to the database
+        setBusy(true);
+        FxCallbacks.whenComplete(customerDao.supply(dao -> dao.save(newCustomer)), customer -> {
+            setBusy(false);
 
-            // Refresh the TableView to display the new customer
-            loadCustomers();
+            // Insert the new customer into the TableView without reloading it
+            customerPages.upsert(customer);
 
             // Clear input fields after successful addition
             clearFields();
-        } catch (DaoException e) {
-            displayErrorMessage(e.getMessage());
-        }
+        }, this::displayWriteError);
     }
 
     private void updateCustomer(){
@@ -193,25 +302,38 @@ public class CustomerViewController {
             String newDeliveryAddress = textFieldCustomerDeliveryAddress.getText();
 
             if(selectedCustomer.getAccountNo().equals(newAccountNo)){ // we can only update if the account number is unchanged
-                // set the new name and delivery address for update
-                selectedCustomer.setName(newName);
-                selectedCustomer.setDeliveryAddress(newDeliveryAddress);
+                // the selected customer is only replaced once the update has succeeded
+                Customer updatedCustomer = new Customer(newAccountNo, newName, newDeliveryAddress);
+                ModelValidator.validate(updatedCustomer);
+
+                if (customerWriteBehind != null) {
+                    // Shown right away, the queue saves it in the background and reports a failure later
+                    customerWriteBehind.submit(updatedCustomer);
+
+                    // The row shows the customer's instance in memory, which the flush updates again once saved
+                    customerPages.upsert(identityMap.adoptNow(updatedCustomer));
+                    clearFields();
+                    return;
+                }
 
                 // use the Dao to update
-                customerDao.update(selectedCustomer);
-                
-                // Refresh the TableView to display the updated customer
-                loadCustomers();
+                setBusy(true);
+                FxCallbacks.whenComplete(customerDao.supply(dao -> dao.update(updatedCustomer)), customer -> {
+                    setBusy(false);
 
-                // Clear input fields after successful update
-                clearFields();
+                    // Replace the customer in the TableView without reloading it
+                    customerPages.upsert(customer);
+
+                    // Clear input fields after successful update
+                    clearFields();
+                }, this::displayWriteError);
             }else{ // if user tries to change account number, display an error
                 displayErrorMessage("Cannot update customer account number!");
             }
-        } catch(DaoException e){
-            displayErrorMessage(e.getMessage());
         } catch(NullPointerException e){
             displayErrorMessage("No customer selected!");
+        } catch(ValidationException | DaoException e){ // DaoException: the write-behind queue is full
+            displayErrorMessage(e.getMessage());
         }
     }
 
@@ -227,7 +349,7 @@ public class CustomerViewController {
      * Handles the event when the "Delete" button is clicked. 
      * It reads the accountNo of the currently highlighted
      * customer on the table and deletes it using the CustomerDao. 
-     * If successful, it refreshes the TableView.
+     * If successful, it removes the customer from the TableView.
      *
      * @param event MouseEvent triggered when the "Delete" button is clicked.
      */
@@ -241,13 +363,19 @@ public class CustomerViewController {
             Customer selectedCustomer = tableViewCustomer.getSelectionModel().getSelectedItem();
             String accountNo = selectedCustomer.getAccountNo();
 
+            // An update still waiting to be saved would fail once the customer is gone
+            if (customerWriteBehind != null) {
+                customerWriteBehind.cancel(accountNo);
+            }
+
             // use Dao to delete
-            customerDao.deleteByAccountNo(accountNo);
+            setBusy(true);
+            FxCallbacks.whenComplete(customerDao.run(dao -> dao.deleteByAccountNo(accountNo)), done -> {
+                setBusy(false);
 
-            // Refresh the TableView
-            loadCustomers();
-        } catch(DaoException e){
-            displayErrorMessage(e.getMessage());
+                // Remove the customer from the TableView without reloading it
+                customerPages.remove(selectedCustomer);
+            }, this::displayWriteError);
         } catch(NullPointerException e){
             displayErrorMessage("No customer selected to delete!");
         }
@@ -255,19 +383,74 @@ public class CustomerViewController {
 
     /**
      * Loads the list of customers from the database and populates the TableView.
-     * It retrieves all customers using the CustomerDao and displays them in the table.
+     * Only the first page is fetched using the CustomerDao, further pages are fetched as the user scrolls.
      */
     private void loadCustomers() {
         clearErrorMessage();
-        try {
-            // Fetch all customers from the database
-            List<Customer> customerList = customerDao.getAll();
-            // Convert the list to an ObservableList for TableView
-            ObservableList<Customer> customerObservableList = FXCollections.observableArrayList(customerList);
-            // Set the items in the TableView
-            tableViewCustomer.setItems(customerObservableList);
-        } catch (DaoException e) {
-            displayErrorMessage("Error loading customers: " + e.getMessage());
+        if (searchResultsShown) {
+            customerPages.reload();
+        } else {
+            customerChanges.restart(customerPages::reload);
+        }
+    }
+
+    /**
+     * Stops polling for changes. Called by Main when the view is replaced or the application stops.
+     */
+    public void shutdown() {
+        customerChanges.stop();
+        identityMap.removeCustomerListener(customerRefresher);
+        if (customerWriteBehind != null) {
+            customerWriteBehind.removeErrorHandler(writeBehindErrorHandler);
+        }
+    }
+
+    /**
+     * Handles the event when the "Refresh" button is clicked.
+     * It discards the loaded customers and loads them again from the database.
+     *
+     * @param event MouseEvent triggered when the "Refresh" button is clicked.
+     */
+    @FXML
+    private void buttonCustomerRefresh_OnClick(MouseEvent event) {
+        loadCustomers();
+    }
+
+    /**
+     * Disables the buttons that write to the database while a write is in progress,
+     * so the same change cannot be submitted twice.
+     *
+     * @param busy true when a write has been started, false when it has finished.
+     */
+    private void setBusy(boolean busy) {
+        btnCustomerAddUpdate.setDisable(busy);
+        btnCustomerDelete.setDisable(busy);
+    }
+
+    /**
+     * Ends the busy state after a failed write and shows why it failed.
+     * If the write failed because the table no longer matches the database, e.g. another
+     * user deleted the row, the table is reloaded.
+     *
+     * @param e The exception thrown by the CustomerDao.
+     */
+    private void displayWriteError(DaoException e) {
+        setBusy(false);
+        displayBackgroundWriteError(e);
+    }
+
+    /**
+     * Shows an error from a write that did not block the view, e.g. an update the write-behind
+     * queue could not save. On a conflict the table is reloaded, dropping the unsaved values.
+     *
+     * @param e The DaoException thrown by the write.
+     */
+    private void displayBackgroundWriteError(DaoException e) {
+        if (e.isConflict()) {
+            loadCustomers();
+            displayErrorMessage(e.getMessage() + " The table has been refreshed.");
+        } else {
+            displayErrorMessage(e.getMessage());
         }
     }
 
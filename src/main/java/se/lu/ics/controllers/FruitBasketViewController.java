@@ -1,7 +1,13 @@
 package se.lu.ics.controllers;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javafx.animation.PauseTransition;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -10,19 +16,24 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.input.MouseEvent;
+import javafx.util.Duration;
 import se.lu.ics.data.DaoException;
 import se.lu.ics.Main;
+import se.lu.ics.data.AsyncDao;
 import se.lu.ics.data.FruitBasketDao;
+import se.lu.ics.data.DataAccessContext;
+import se.lu.ics.data.IdentityMap;
 import se.lu.ics.models.FruitBasket;
-
-import java.io.IOException;
-import java.util.List;
+import se.lu.ics.models.ModelValidator;
+import se.lu.ics.models.ValidationException;
 
 /**
  * Controller class for managing FruitBasket-related operations in the view.
  * This class interacts with the FruitBasketDao to perform CRUD operations and 
  * updates the UI (TableView) accordingly. It handles user actions such as 
  * adding baskets and loading basket data into the TableView.
+ * All database calls run on the data access layer's worker threads, so the view stays
+ * responsive while they are in progress.
  */
 public class FruitBasketViewController {
 
@@ -36,7 +47,7 @@ public class FruitBasketViewController {
     private TableColumn<FruitBasket, String> tableColumnFruitBasketName; 
 
     @FXML
-    private TableColumn<FruitBasket, Double> tableColumnFruitBasketPrice;
+    private TableColumn<FruitBasket, BigDecimal> tableColumnFruitBasketPrice;
 
     @FXML
     private TextField textFieldFruitBasketBasketNo;
@@ -47,6 +58,9 @@ public class FruitBasketViewController {
     @FXML
     private TextField textFieldFruitBasketPrice;
 
+    @FXML
+    private TextField textFieldFruitBasketSearch;
+
     @FXML
     private Button btnFruitBasketAddUpdate;
 
@@ -56,21 +70,44 @@ public class FruitBasketViewController {
     @FXML
     private Label labelErrorMessage;
 
-    private FruitBasketDao basketDao;
+    private static final int PAGE_SIZE = 100;
+
+    // How long typing must pause before a search is sent
+    private static final Duration SEARCH_DELAY = Duration.millis(250);
+
+    private final AsyncDao<FruitBasketDao> basketDao;
+
+    private final IdentityMap identityMap;
+
+    // Re-sorts a row whose basket was changed in memory, e.g. by a background write
+    private Consumer<FruitBasket> basketRefresher;
+
+    private PagedTableLoader<FruitBasket> basketPages;
+
+    private PagedTableLoader.PageFetcher<FruitBasket> allBasketPages;
+
+    private final PauseTransition searchDelay = new PauseTransition(SEARCH_DELAY);
+
+    private ChangePoller<FruitBasket> basketChanges;
+
+    // Set while the table shows a search, which the polled changes are not filtered by
+    private boolean searchResultsShown;
+
+    private final long changePollIntervalMillis;
 
     private Main mainApp;
 
     /**
      * Constructor for FruitBasketController.
-     * It initializes the FruitBasketDao to manage database interactions. 
-     * If there is an error initializing the database, it will display an error message.
+     * It takes the asynchronous FruitBasketDao to manage database interactions from the application's
+     * shared DataAccessContext, so no configuration is read when the view is opened.
+     *
+     * @param dataAccessContext the application's data access context
      */
-    public FruitBasketViewController() {
-        try {
-            basketDao = new FruitBasketDao();
-        } catch (IOException e) {
-            displayErrorMessage("Error initializing database connection: " + e.getMessage());
-        }
+    public FruitBasketViewController(DataAccessContext dataAccessContext) {
+        changePollIntervalMillis = dataAccessContext.getChangePollIntervalMillis();
+        identityMap = dataAccessContext.getIdentityMap();
+        basketDao = dataAccessContext.getAsyncFruitBasketDao();
     }
 
     /**
@@ -120,10 +157,53 @@ public class FruitBasketViewController {
         // set up listener for tableView selection changes, thank you copilot
         tableViewFruitBasket.getSelectionModel().selectedItemProperty().addListener((observable,oldValue,newValue) -> populateFields(newValue));
 
+        // Fetch pages on demand as the user scrolls to the bottom of the table
+        allBasketPages = (lastBasket, pageSize) -> basketDao.supply(dao -> dao.getPage(
+                lastBasket == null ? null : lastBasket.getBasketNo(), pageSize));
+        basketPages = new PagedTableLoader<>(tableViewFruitBasket, PAGE_SIZE, Comparator.comparing(FruitBasket::getBasketNo),
+                allBasketPages, e -> displayErrorMessage("Error loading fruit baskets: " + e.getMessage()));
+        basketRefresher = basketPages::refresh;
+        identityMap.addBasketListener(basketRefresher);
+
+        // Search once typing pauses rather than on every keystroke
+        textFieldFruitBasketSearch.textProperty().addListener((observable, oldValue, newValue) -> {
+            searchDelay.setOnFinished(event -> searchBaskets(newValue));
+            searchDelay.playFromStart();
+        });
+
+        // Apply the changes made by other clients while the view is open
+        basketChanges = new ChangePoller<>(() -> basketDao.supply(FruitBasketDao::getSyncVersion),
+                version -> basketDao.supply(dao -> dao.getChangesSince(version)), changePollIntervalMillis,
+                basketPages::applyChanges, e -> displayErrorMessage("Error fetching changed fruit baskets: " + e.getMessage()));
+
         // Load basket data from the database
         loadBaskets();
     }
 
+    /**
+     * Shows only the baskets whose BasketNo or name starts with the search text, as found by
+     * FruitBasketDao.search, or every basket again when the text is empty. Reloading the table
+     * cancels a search that has not started yet and drops one still running. Polling for changes
+     * is suspended while the search results are shown, since a changed basket would be added to
+     * them whether it matches the search or not.
+     *
+     * @param text The search text.
+     */
+    private void searchBaskets(String text) {
+        clearErrorMessage();
+        if (text == null || text.isBlank()) {
+            searchResultsShown = false;
+            basketChanges.restart(() -> basketPages.reload(allBasketPages));
+        } else {
+            searchResultsShown = true;
+            basketChanges.stop();
+            // The search returns a single page of at most PAGE_SIZE baskets
+            basketPages.reload((lastBasket, pageSize) -> lastBasket == null
+                    ? basketDao.supply(dao -> dao.search(text, pageSize))
+                    : CompletableFuture.completedFuture(List.of()));
+        }
+    }
+
     /**
      * Populates the TextFields of the FruitBasketView with the attributes of the
      * currently selected basket in the TableView, or clears the fields if
@@ -135,7 +215,7 @@ public class FruitBasketViewController {
         if(basket != null){
             textFieldFruitBasketBasketNo.setText(basket.getBasketNo());
             textFieldFruitBasketName.setText(basket.getName());
-            textFieldFruitBasketPrice.setText(basket.getPrice()+"");
+            textFieldFruitBasketPrice.setText(basket.getPrice().toPlainString());
             btnFruitBasketAddUpdate.setText("Update");
         }else{
             clearFields(); // surrounding with a try/catch didn't seem as appropriate here as just
@@ -147,7 +227,7 @@ public class FruitBasketViewController {
      * Handles the event when the "Add/Update" button is clicked. 
      * Depending on if a preexisting basket is selected or not,
      * it reads the input from the text fields, updates or creates a new FruitBasket object,
-     * and updates or saves it to the database using FruitBasketDao. If successful, it refreshes
+     * and updates or saves it to the database using FruitBasketDao. If successful, it patches
      * the TableView to display the newly updated/added basket.
      *
      * @param event MouseEvent triggered when the "Add/Update" button is clicked.
@@ -162,26 +242,22 @@ public class FruitBasketViewController {
 
     private void addFruitBasket(){
         try {
-            // Retrieve input from text fields
-            String basketNo = textFieldFruitBasketBasketNo.getText();
-            String basketName = textFieldFruitBasketName.getText();
-            Double basketPrice = Double.parseDouble(textFieldFruitBasketPrice.getText());
-
-            // Create a new FruitBasket object
-            FruitBasket newBasket = new FruitBasket(basketNo, basketName, basketPrice);
+            // Create a new FruitBasket object from the text fields
+            FruitBasket newBasket = readBasket();
 
             // Save the new basket to the database
-            basketDao.save(newBasket);
+            setBusy(true);
+            FxCallbacks.whenComplete(basketDao.supply(dao -> dao.save(newBasket)), basket -> {
+                setBusy(false);
 
-            // Refresh the TableView to display the new customer
-            loadBaskets();
+                // Insert the new basket into the TableView without reloading it
+                basketPages.upsert(basket);
 
-            // Clear input fields after successful addition
-            clearFields();
-        } catch (DaoException e) {
+                // Clear input fields after successful addition
+                clearFields();
+            }, this::displayWriteError);
+        } catch (ValidationException e){
             displayErrorMessage(e.getMessage());
-        } catch (NumberFormatException e){
-            displayErrorMessage("Price must be a decimal value!");
         }
     }
 
@@ -190,32 +266,70 @@ public class FruitBasketViewController {
             // get selected basket from tableView
             FruitBasket selectedBasket = tableViewFruitBasket.getSelectionModel().getSelectedItem();
 
-            String newBasketNo = textFieldFruitBasketBasketNo.getText();
-            String newName = textFieldFruitBasketName.getText();
-            Double newPrice = Double.parseDouble(textFieldFruitBasketPrice.getText());
+            // the selected basket is only replaced once the update has succeeded
+            FruitBasket updatedBasket = readBasket();
 
-            if(selectedBasket.getBasketNo().equals(newBasketNo)){ // we can only update if the basket number is unchanged
-                // set the new name and price for update
-                selectedBasket.setName(newName);
-                selectedBasket.setPrice(newPrice);
+            if(selectedBasket.getBasketNo().equals(updatedBasket.getBasketNo())){ // we can only update if the basket number is unchanged
 
                 // use the Dao to update
-                basketDao.update(selectedBasket);
-                
-                // Refresh the TableView to display the updated basket
-                loadBaskets();
+                setBusy(true);
+                FxCallbacks.whenComplete(basketDao.supply(dao -> dao.update(updatedBasket)), basket -> {
+                    setBusy(false);
 
-                // Clear input fields after successful update
-                clearFields();
+                    // Replace the basket in the TableView without reloading it
+                    basketPages.upsert(basket);
+
+                    // Clear input fields after successful update
+                    clearFields();
+                }, this::displayWriteError);
             }else{ // if user tries to change basket number, display an error
                 displayErrorMessage("Cannot update fruit basket number!");
             }
-        } catch(DaoException e){
-            displayErrorMessage(e.getMessage());
         } catch(NullPointerException e){
             displayErrorMessage("No basket selected!");
-        } catch(NumberFormatException e){
-            displayErrorMessage("Price must be a decimal value!");
+        } catch(ValidationException e){
+            displayErrorMessage(e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a FruitBasket from the text fields and checks it with the ModelValidator, so that
+     * a basket the database would reject is never sent to it.
+     *
+     * @return The basket entered by the user.
+     * @throws ValidationException Listing every invalid field, including a price that cannot be parsed.
+     */
+    private FruitBasket readBasket() {
+        BigDecimal price = null;
+        String priceError = null;
+        try {
+            price = parsePrice(textFieldFruitBasketPrice.getText());
+        } catch (NumberFormatException e) {
+            priceError = "Price must be a decimal value with at most two decimals!";
+        }
+
+        FruitBasket basket = new FruitBasket(textFieldFruitBasketBasketNo.getText(), textFieldFruitBasketName.getText(), price);
+        Map<String, String> errors = ModelValidator.check(basket);
+        if (priceError != null) {
+            errors.put("price", priceError);
+        }
+        ModelValidator.throwIfInvalid(errors);
+        return basket;
+    }
+
+    /**
+     * Parses the price entered by the user. This is the only place a price is parsed; from here
+     * on it is a BigDecimal with the scale of the DECIMAL(5,2) column, down to the stored procedure.
+     *
+     * @param price The price entered by the user.
+     * @return The price with two decimals.
+     * @throws NumberFormatException If the price is not a decimal value with at most two decimals.
+     */
+    private BigDecimal parsePrice(String price) {
+        try {
+            return new BigDecimal(price.trim()).setScale(2);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price has more than two decimals: " + price);
         }
     }
 
@@ -231,7 +345,7 @@ public class FruitBasketViewController {
      * Handles the event when the "Delete" button is clicked. 
      * It reads the basketNo of the currently highlighted
      * basket on the table and deletes it using the FruitBasketDao. 
-     * If successful, it refreshes the TableView.
+     * If successful, it removes it from the TableView.
      *
      * @param event MouseEvent triggered when the "Delete" button is clicked.
      */
@@ -246,12 +360,13 @@ public class FruitBasketViewController {
             String basketNo = selectedBasket.getBasketNo();
 
             // use Dao to delete it
-            basketDao.deleteByBasketNo(basketNo);
+            setBusy(true);
+            FxCallbacks.whenComplete(basketDao.run(dao -> dao.deleteByBasketNo(basketNo)), done -> {
+                setBusy(false);
 
-            // Refresh the TableView
-            loadBaskets();
-        } catch(DaoException e){
-            displayErrorMessage(e.getMessage());
+                // Remove the basket from the TableView without reloading it
+                basketPages.remove(selectedBasket);
+            }, this::displayWriteError);
         } catch(NullPointerException e){
             displayErrorMessage("No basket selected to delete!");
         }
@@ -259,19 +374,61 @@ public class FruitBasketViewController {
 
     /**
      * Loads the list of baskets from the database and populates the TableView.
-     * It retrieves all baskets using the FruitBasketDao and displays them in the table.
+     * Only the first page is fetched using the FruitBasketDao, further pages are fetched as the user scrolls.
      */
     private void loadBaskets() {
         clearErrorMessage();
-        try {
-            // Fetch all baskets from the database
-            List<FruitBasket> basketList = basketDao.getAll();
-            // Convert the list to an ObservableList for TableView
-            ObservableList<FruitBasket> basketObservableList = FXCollections.observableArrayList(basketList);
-            // Set the items in the TableView
-            tableViewFruitBasket.setItems(basketObservableList);
-        } catch (DaoException e) {
-            displayErrorMessage("Error loading fruit baskets: " + e.getMessage());
+        if (searchResultsShown) {
+            basketPages.reload();
+        } else {
+            basketChanges.restart(basketPages::reload);
+        }
+    }
+
+    /**
+     * Stops polling for changes. Called by Main when the view is replaced or the application stops.
+     */
+    public void shutdown() {
+        basketChanges.stop();
+        identityMap.removeBasketListener(basketRefresher);
+    }
+
+    /**
+     * Handles the event when the "Refresh" button is clicked.
+     * It discards the loaded baskets and loads them again from the database.
+     *
+     * @param event MouseEvent triggered when the "Refresh" button is clicked.
+     */
+    @FXML
+    private void buttonFruitBasketRefresh_OnClick(MouseEvent event) {
+        loadBaskets();
+    }
+
+    /**
+     * Disables the buttons that write to the database while a write is in progress,
+     * so the same change cannot be submitted twice.
+     *
+     * @param busy true when a write has been started, false when it has finished.
+     */
+    private void setBusy(boolean busy) {
+        btnFruitBasketAddUpdate.setDisable(busy);
+        btnFruitBasketDelete.setDisable(busy);
+    }
+
+    /**
+     * Ends the busy state after a failed write and shows why it failed.
+     * If the write failed because the table no longer matches the database, e.g. another
+     * user deleted the row, the table is reloaded.
+     *
+     * @param e The exception thrown by the FruitBasketDao.
+     */
+    private void displayWriteError(DaoException e) {
+        setBusy(false);
+        if (e.isConflict()) {
+            loadBaskets();
+            displayErrorMessage(e.getMessage() + " The table has been refreshed.");
+        } else {
+            displayErrorMessage(e.getMessage());
         }
     }
 
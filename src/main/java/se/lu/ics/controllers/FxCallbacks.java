@@ -0,0 +1,57 @@
+package se.lu.ics.controllers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import se.lu.ics.data.DaoException;
+
+/**
+ * Hands the outcome of an asynchronous DAO call back to the JavaFX application thread,
+ * the only thread allowed to touch the scene graph.
+ */
+final class FxCallbacks {
+
+    private FxCallbacks() {
+    }
+
+    /**
+     * Runs onSuccess or onFailure on the JavaFX application thread once the future completes.
+     *
+     * @param future The pending DAO call.
+     * @param onSuccess Receives the result if the call succeeded.
+     * @param onFailure Receives the DaoException if the call failed. Other exceptions are
+     *                  wrapped in a DaoException so the controllers can treat all failures alike.
+     */
+    static <T> void whenComplete(CompletableFuture<T> future, Consumer<T> onSuccess,
+            Consumer<DaoException> onFailure) {
+        future.whenCompleteAsync((result, failure) -> {
+            if (failure == null) {
+                onSuccess.accept(result);
+            } else {
+                onFailure.accept(toDaoException(failure));
+            }
+        }, Platform::runLater);
+    }
+
+    /**
+     * Wraps an error handler so that it runs on the JavaFX application thread, for errors reported
+     * from a background thread, such as a WriteBehindQueue's.
+     *
+     * @param onFailure Receives the DaoException on the JavaFX application thread.
+     * @return A handler that can be called from any thread.
+     */
+    static Consumer<DaoException> onFxThread(Consumer<DaoException> onFailure) {
+        return e -> Platform.runLater(() -> onFailure.accept(e));
+    }
+
+    private static DaoException toDaoException(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        if (cause instanceof DaoException) {
+            return (DaoException) cause;
+        }
+        return new DaoException("Unexpected error: " + cause, cause);
+    }
+}
@@ -0,0 +1,318 @@
+package se.lu.ics.controllers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.ListChangeListener.Change;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.TransformationList;
+
+/**
+ * A sorted view of an ObservableList that, unlike SortedList, does not hold on to the elements:
+ * it keeps only an int array mapping each view position to a source index, and its inverse. That
+ * matters when the source creates its elements on demand, like PurchaseColumnList, since
+ * SortedList would keep every element it has ever been given alive.
+ *
+ * Elements are only materialized while comparing, i.e. when elements are inserted and when the
+ * comparator changes. Without a comparator the view is in source order. A block of added
+ * elements, e.g. a page, is sorted on its own and merged into the view in one pass, so loading
+ * n elements in pages costs a pass over the view per page instead of one per element.
+ *
+ * @param <E> The element type.
+ */
+class IndexSortedList<E> extends TransformationList<E, E> {
+
+    private final ObjectProperty<Comparator<? super E>> comparator = new SimpleObjectProperty<>(this, "comparator") {
+        @Override
+        protected void invalidated() {
+            resort();
+        }
+    };
+
+    // order[viewIndex] is the source index of the element shown at viewIndex
+    private int[] order;
+    // viewIndexes[sourceIndex] is the view index the element at sourceIndex is shown at
+    private int[] viewIndexes;
+    private int size;
+
+    IndexSortedList(ObservableList<E> source) {
+        super(source);
+        size = source.size();
+        order = new int[Math.max(16, size)];
+        viewIndexes = new int[order.length];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            viewIndexes[i] = i;
+        }
+    }
+
+    ObjectProperty<Comparator<? super E>> comparatorProperty() {
+        return comparator;
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return getSource().get(order[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getSourceIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return order[index];
+    }
+
+    @Override
+    public int getViewIndex(int index) {
+        return index >= 0 && index < size ? viewIndexes[index] : -1;
+    }
+
+    @Override
+    protected void sourceChanged(Change<? extends E> c) {
+        beginChange();
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                for (int i = 0; i < size; i++) {
+                    if (order[i] >= c.getFrom() && order[i] < c.getTo()) {
+                        order[i] = c.getPermutation(order[i]);
+                    }
+                }
+                updateViewIndexes();
+            } else if (c.wasUpdated()) {
+                for (int i = c.getFrom(); i < c.getTo(); i++) {
+                    nextUpdate(viewIndexes[i]);
+                }
+            } else {
+                if (c.wasRemoved()) {
+                    sourceRemoved(c.getFrom(), c.getRemoved());
+                }
+                if (c.wasAdded()) {
+                    sourceAdded(c.getFrom(), c.getTo());
+                }
+            }
+        }
+        endChange();
+
+        // A source permutation only moves elements in this view if the view is in source order
+        if (comparator.get() == null && !isInSourceOrder()) {
+            resort();
+        }
+    }
+
+    /**
+     * Removes the elements of a removed source range in one pass over the view, reporting each
+     * run of adjacent view positions as one removal.
+     */
+    private void sourceRemoved(int from, List<? extends E> removed) {
+        int to = from + removed.size();
+        int kept = 0;
+        List<E> run = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int sourceIndex = order[i];
+            if (sourceIndex >= from && sourceIndex < to) {
+                run.add(removed.get(sourceIndex - from));
+                continue;
+            }
+            if (!run.isEmpty()) {
+                nextRemove(kept, run);
+                run = new ArrayList<>();
+            }
+            order[kept++] = sourceIndex >= to ? sourceIndex - removed.size() : sourceIndex;
+        }
+        if (!run.isEmpty()) {
+            nextRemove(kept, run);
+        }
+        size = kept;
+        updateViewIndexes();
+    }
+
+    /**
+     * Inserts the elements of an added source range. Without a comparator they are shown as one
+     * block after the element preceding them in the source. With one, the block is sorted and
+     * each element's place among the shown elements found by a binary search, after the elements
+     * it sorts equal to, and the block is then merged into the view in one pass.
+     */
+    private void sourceAdded(int from, int to) {
+        int addedCount = to - from;
+        ensureCapacity(size + addedCount);
+        for (int i = 0; i < size; i++) {
+            if (order[i] >= from) {
+                order[i] += addedCount;
+            }
+        }
+
+        Comparator<? super E> currentComparator = comparator.get();
+        if (currentComparator == null) {
+            // viewIndexes still holds the positions from before the shift, which is valid below from
+            int viewIndex = from == 0 ? 0 : viewIndexes[from - 1] + 1;
+            System.arraycopy(order, viewIndex, order, viewIndex + addedCount, size - viewIndex);
+            for (int i = 0; i < addedCount; i++) {
+                order[viewIndex + i] = from + i;
+            }
+            size += addedCount;
+            nextAdd(viewIndex, viewIndex + addedCount);
+            updateViewIndexes();
+            return;
+        }
+
+        // Each added element is materialized once for the sort and the searches
+        Object[] added = getSource().subList(from, to).toArray();
+        int[] addedOrder = new int[addedCount];
+        for (int i = 0; i < addedCount; i++) {
+            addedOrder[i] = i;
+        }
+        mergeSort(addedOrder, new int[addedCount], 0, addedCount, added, currentComparator);
+
+        // The sorted block's insertion points ascend, so each search starts at the previous one
+        int[] insertionPoints = new int[addedCount];
+        int low = 0;
+        for (int i = 0; i < addedCount; i++) {
+            low = insertionPoint(added[addedOrder[i]], low, currentComparator);
+            insertionPoints[i] = low;
+        }
+
+        int[] merged = new int[order.length];
+        int target = 0;
+        int next = 0;
+        for (int i = 0; i < addedCount; i++) {
+            int point = insertionPoints[i];
+            System.arraycopy(order, next, merged, target, point - next);
+            target += point - next;
+            next = point;
+            merged[target++] = from + addedOrder[i];
+        }
+        System.arraycopy(order, next, merged, target, size - next);
+        order = merged;
+        size += addedCount;
+
+        // Each run of elements inserted at the same point is one contiguous addition
+        int runStart = 0;
+        for (int i = 1; i <= addedCount; i++) {
+            if (i == addedCount || insertionPoints[i] != insertionPoints[runStart]) {
+                nextAdd(insertionPoints[runStart] + runStart, insertionPoints[runStart] + i);
+                runStart = i;
+            }
+        }
+        updateViewIndexes();
+    }
+
+    /**
+     * @return The view index, at or after low, following every shown element that sorts before
+     *         or equal to the given element.
+     */
+    @SuppressWarnings("unchecked")
+    private int insertionPoint(Object element, int low, Comparator<? super E> currentComparator) {
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (currentComparator.compare(getSource().get(order[mid]), (E) element) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > order.length) {
+            int grownLength = Math.max(capacity, order.length + (order.length >> 1));
+            int[] grown = new int[grownLength];
+            System.arraycopy(order, 0, grown, 0, size);
+            order = grown;
+            int[] grownViewIndexes = new int[grownLength];
+            System.arraycopy(viewIndexes, 0, grownViewIndexes, 0, size);
+            viewIndexes = grownViewIndexes;
+        }
+    }
+
+    private void updateViewIndexes() {
+        for (int i = 0; i < size; i++) {
+            viewIndexes[order[i]] = i;
+        }
+    }
+
+    private boolean isInSourceOrder() {
+        for (int i = 0; i < size; i++) {
+            if (order[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the whole view by the current comparator and reports the move of every element as a permutation.
+     */
+    private void resort() {
+        int[] sorted = new int[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = i;
+        }
+        Comparator<? super E> currentComparator = comparator.get();
+        if (currentComparator != null && size > 1) {
+            // Each element is materialized once for the sort, not once per comparison
+            Object[] elements = getSource().toArray();
+            mergeSort(sorted, new int[size], 0, size, elements, currentComparator);
+        }
+
+        int[] viewIndexBySource = new int[size];
+        for (int i = 0; i < size; i++) {
+            viewIndexBySource[sorted[i]] = i;
+        }
+        int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            permutation[i] = viewIndexBySource[order[i]];
+        }
+
+        System.arraycopy(sorted, 0, order, 0, size);
+        System.arraycopy(viewIndexBySource, 0, viewIndexes, 0, size);
+        beginChange();
+        nextPermutation(0, size, permutation);
+        endChange();
+    }
+
+    /**
+     * A stable merge sort of source indices, which unlike Arrays.sort needs no boxed Integer array.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> void mergeSort(int[] indices, int[] buffer, int from, int to, Object[] elements,
+            Comparator<? super E> comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(indices, buffer, from, middle, elements, comparator);
+        mergeSort(indices, buffer, middle, to, elements, comparator);
+
+        int left = from;
+        int right = middle;
+        int target = from;
+        while (left < middle && right < to) {
+            if (comparator.compare((E) elements[indices[right]], (E) elements[indices[left]]) < 0) {
+                buffer[target++] = indices[right++];
+            } else {
+                buffer[target++] = indices[left++];
+            }
+        }
+        while (left < middle) {
+            buffer[target++] = indices[left++];
+        }
+        while (right < to) {
+            buffer[target++] = indices[right++];
+        }
+        System.arraycopy(buffer, from, indices, from, to - from);
+    }
+}
@@ -0,0 +1,336 @@
+package se.lu.ics.controllers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import se.lu.ics.data.ChangeSet;
+import se.lu.ics.data.DaoException;
+
+/**
+ * Feeds a TableView one page at a time using keyset pagination.
+ * The first page is loaded by reload(), and the next page is fetched when the row showing
+ * the last loaded item becomes visible, i.e. when the user scrolls to the bottom. Memory and
+ * query cost therefore grow with how far the user scrolls rather than with the table size.
+ * Pages are fetched asynchronously; while the first page is loading the table shows a
+ * "Loading..." placeholder instead of blocking the JavaFX application thread.
+ *
+ * The loaded items are kept in key order, the order pages are fetched in, and the table shows
+ * them through a SortedList bound to the table's sort order. After a write, upsert and remove
+ * patch that list in place, so the table keeps its scroll position and selection and no page
+ * has to be fetched again. A table can also be fed from a caller-supplied list, such as a
+ * PurchaseColumnList that creates its items on demand; that list is sorted through an
+ * IndexSortedList, which unlike SortedList does not keep every item alive.
+ *
+ * Between the loaded items and the sorted view sits a FilteredList, so the table can be narrowed
+ * down to e.g. search results without copying the items. While a filter is set the remaining
+ * pages are loaded in the background, in larger pages, so that the filter sees every item.
+ * Alternatively the table can be fed from another fetcher, such as a server-side search, with
+ * reload(PageFetcher); a page request superseded by a reload is cancelled if it has not started.
+ *
+ * @param <T> The type of item shown in the table.
+ */
+class PagedTableLoader<T> {
+
+    /**
+     * Fetches the page of items following a given item.
+     */
+    @FunctionalInterface
+    interface PageFetcher<T> {
+        /**
+         * @param lastItem The last item of the previous page, or null for the first page.
+         * @param pageSize The maximum number of items to return.
+         * @return A future completed with the next page, which has fewer than pageSize items when it is the last one.
+         */
+        CompletableFuture<List<T>> fetch(T lastItem, int pageSize);
+    }
+
+    // The page size used while loading every remaining page for a filter
+    private static final int REMAINING_PAGES_SIZE = 5000;
+
+    private final TableView<T> tableView;
+    private final int pageSize;
+    private final Comparator<T> keyOrder;
+    private PageFetcher<T> pageFetcher;
+    private final Consumer<DaoException> errorHandler;
+    private final ObservableList<T> items;
+    private final Node emptyPlaceholder;
+    private final Node loadingPlaceholder = new Label("Loading...");
+    private final FilteredList<T> filteredItems;
+
+    // The key to continue from; not items' last element since the user may sort the table
+    private T lastLoaded;
+    private boolean exhausted;
+    private boolean failed;
+    private boolean nextPageRequested;
+    private boolean loading;
+    private boolean loadingRemainingPages;
+
+    // Bumped by reload() so that a page requested before the reload is dropped when it arrives
+    private int generation;
+    private CompletableFuture<List<T>> pageInFlight;
+
+    // Patches received while a page is in flight, applied once it has been added
+    private final List<Runnable> pendingPatches = new ArrayList<>();
+
+    /**
+     * @param tableView The table to feed.
+     * @param pageSize The number of items fetched per page.
+     * @param keyOrder Orders items by their key, in the same order the pages are fetched in.
+     * @param pageFetcher Fetches the page following a given item.
+     * @param errorHandler Shows errors from fetching a page.
+     */
+    PagedTableLoader(TableView<T> tableView, int pageSize, Comparator<T> keyOrder, PageFetcher<T> pageFetcher,
+            Consumer<DaoException> errorHandler) {
+        this(tableView, pageSize, keyOrder, FXCollections.observableArrayList(), pageFetcher, errorHandler, false);
+    }
+
+    /**
+     * @param tableView The table to feed.
+     * @param pageSize The number of items fetched per page.
+     * @param keyOrder Orders items by their key, in the same order the pages are fetched in.
+     * @param items The empty list to keep the loaded items in, in key order.
+     * @param pageFetcher Fetches the page following a given item.
+     * @param errorHandler Shows errors from fetching a page.
+     */
+    PagedTableLoader(TableView<T> tableView, int pageSize, Comparator<T> keyOrder, ObservableList<T> items,
+            PageFetcher<T> pageFetcher, Consumer<DaoException> errorHandler) {
+        this(tableView, pageSize, keyOrder, items, pageFetcher, errorHandler, true);
+    }
+
+    private PagedTableLoader(TableView<T> tableView, int pageSize, Comparator<T> keyOrder, ObservableList<T> items,
+            PageFetcher<T> pageFetcher, Consumer<DaoException> errorHandler, boolean itemsCreatedOnDemand) {
+        this.tableView = tableView;
+        this.pageSize = pageSize;
+        this.keyOrder = keyOrder;
+        this.items = items;
+        this.pageFetcher = pageFetcher;
+        this.errorHandler = errorHandler;
+        this.emptyPlaceholder = tableView.getPlaceholder();
+        this.filteredItems = new FilteredList<>(items);
+
+        // Sorting by a column sorts this view of the items, not the key-ordered list itself
+        if (itemsCreatedOnDemand) {
+            IndexSortedList<T> sortedItems = new IndexSortedList<>(filteredItems);
+            sortedItems.comparatorProperty().bind(tableView.comparatorProperty());
+            tableView.setItems(sortedItems);
+            // The default policy only knows SortedList and would otherwise try to sort the view itself
+            tableView.setSortPolicy(table -> true);
+        } else {
+            SortedList<T> sortedItems = new SortedList<>(filteredItems);
+            sortedItems.comparatorProperty().bind(tableView.comparatorProperty());
+            tableView.setItems(sortedItems);
+        }
+
+        // Rows are only created for visible items, so a row showing the last item means we reached the bottom
+        tableView.setRowFactory(view -> new TableRow<T>() {
+            @Override
+            protected void updateItem(T item, boolean empty) {
+                super.updateItem(item, empty);
+                if (!empty && getIndex() == tableView.getItems().size() - 1) {
+                    requestNextPage();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The pages loaded so far, in key order.
+     */
+    ObservableList<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return true if every item has been loaded.
+     */
+    boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * @return true while a page is being fetched.
+     */
+    boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Shows only the loaded items matching a predicate. While a predicate is set, every remaining
+     * page is loaded, and a reload loads every page again.
+     *
+     * @param predicate The items to show, or null to show every loaded item and go back to loading on scroll.
+     */
+    void setFilter(Predicate<? super T> predicate) {
+        filteredItems.setPredicate(predicate);
+        loadingRemainingPages = predicate != null;
+        if (loadingRemainingPages && !failed) {
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Discards the loaded pages and loads the first page from another fetcher, which later pages
+     * and reloads are fetched from too.
+     *
+     * @param pageFetcher Fetches the page following a given item, e.g. the results of a search.
+     */
+    void reload(PageFetcher<T> pageFetcher) {
+        this.pageFetcher = pageFetcher;
+        reload();
+    }
+
+    /**
+     * Discards the loaded pages and loads the first page again.
+     */
+    void reload() {
+        // A call still waiting for a worker is skipped, one already running is dropped when it arrives
+        if (pageInFlight != null) {
+            pageInFlight.cancel(false);
+            pageInFlight = null;
+        }
+        generation++;
+        lastLoaded = null;
+        exhausted = false;
+        failed = false;
+        loading = false;
+        pendingPatches.clear();
+        items.clear();
+        loadNextPage();
+    }
+
+    /**
+     * Fetches the page after the last loaded item and appends it to the table when it arrives.
+     * Does nothing if a page is already being fetched.
+     */
+    void loadNextPage() {
+        if (exhausted || loading) {
+            return;
+        }
+        loading = true;
+        tableView.setPlaceholder(loadingPlaceholder);
+        int requestGeneration = generation;
+        int requestPageSize = loadingRemainingPages ? REMAINING_PAGES_SIZE : pageSize;
+
+        pageInFlight = pageFetcher.fetch(lastLoaded, requestPageSize);
+        FxCallbacks.whenComplete(pageInFlight, page -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            pageInFlight = null;
+            loading = false;
+            tableView.setPlaceholder(emptyPlaceholder);
+            exhausted = page.size() < requestPageSize;
+            if (!page.isEmpty()) {
+                lastLoaded = page.get(page.size() - 1);
+                items.addAll(page);
+            }
+            applyPendingPatches();
+            if (loadingRemainingPages) {
+                loadNextPage();
+            }
+        }, e -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            pageInFlight = null;
+            loading = false;
+            tableView.setPlaceholder(emptyPlaceholder);
+            // Stop fetching on scroll until the next reload instead of retrying on every layout pass
+            failed = true;
+            applyPendingPatches();
+            errorHandler.accept(e);
+        });
+    }
+
+    /**
+     * Shows an item that was just added or updated: replaces the loaded item with the same key,
+     * or inserts the item at its key position. An added item beyond the last loaded page is not
+     * inserted, since it will arrive with a later page.
+     *
+     * @param item The item as it is now stored in the database.
+     */
+    void upsert(T item) {
+        if (loading) {
+            // The page in flight may or may not include the write, and may move lastLoaded past the item
+            pendingPatches.add(() -> upsert(item));
+            return;
+        }
+        int index = Collections.binarySearch(items, item, keyOrder);
+        if (index >= 0) {
+            items.set(index, item);
+        } else if (exhausted || (lastLoaded != null && keyOrder.compare(item, lastLoaded) < 0)) {
+            items.add(-index - 1, item);
+        }
+    }
+
+    /**
+     * Re-sorts and re-filters the row of an item whose values were changed in place, e.g. by the
+     * IdentityMap after a background write. Does nothing if the item is not loaded.
+     *
+     * @param item The changed item.
+     */
+    void refresh(T item) {
+        int index = Collections.binarySearch(items, item, keyOrder);
+        if (index >= 0 && items.get(index) == item) {
+            // Replacing the item with itself is what makes the sorted and filtered views look at it again
+            items.set(index, item);
+        }
+    }
+
+    /**
+     * Removes the loaded item with the same key as an item that was just deleted, if it is loaded.
+     *
+     * @param item The deleted item, or any item with the same key.
+     */
+    void remove(T item) {
+        if (loading) {
+            pendingPatches.add(() -> remove(item));
+            return;
+        }
+        int index = Collections.binarySearch(items, item, keyOrder);
+        if (index >= 0) {
+            items.remove(index);
+        }
+    }
+
+    /**
+     * Applies the changes made by other clients: upserts the changed items and removes the deleted ones.
+     *
+     * @param changes The changes since the version the table was loaded or last synchronized at.
+     */
+    void applyChanges(ChangeSet<T> changes) {
+        changes.getChanged().forEach(this::upsert);
+        changes.getDeleted().forEach(this::remove);
+    }
+
+    private void applyPendingPatches() {
+        List<Runnable> patches = new ArrayList<>(pendingPatches);
+        pendingPatches.clear();
+        patches.forEach(Runnable::run);
+    }
+
+    private void requestNextPage() {
+        // updateItem runs during layout, so the items list must not be changed right away
+        if (!exhausted && !failed && !loading && !nextPageRequested) {
+            nextPageRequested = true;
+            Platform.runLater(() -> {
+                nextPageRequested = false;
+                loadNextPage();
+            });
+        }
+    }
+}
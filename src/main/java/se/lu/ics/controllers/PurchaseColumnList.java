@@ -0,0 +1,98 @@
+package se.lu.ics.controllers;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import javafx.collections.ModifiableObservableListBase;
+import se.lu.ics.models.Purchase;
+import se.lu.ics.models.PurchaseColumnStore;
+
+/**
+ * Presents a PurchaseColumnStore as an ObservableList of purchases in AccountNo, BasketNo order.
+ * No Purchase objects are kept: get creates a short-lived Purchase view of the row, and adding
+ * or setting a Purchase stores its columns. The views share their key strings, so the only
+ * memory a table row costs while it is not visible is the row's 7 bytes in the store.
+ *
+ * Rows must be added at their key position, which is where PagedTableLoader adds them.
+ */
+class PurchaseColumnList extends ModifiableObservableListBase<Purchase> implements RandomAccess {
+
+    private final PurchaseColumnStore store;
+
+    PurchaseColumnList() {
+        this(new PurchaseColumnStore());
+    }
+
+    /**
+     * @param store The store holding the rows. It must not be changed other than through this list.
+     */
+    PurchaseColumnList(PurchaseColumnStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public Purchase get(int index) {
+        return store.getPurchase(index);
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    protected void doAdd(int index, Purchase element) {
+        int position = store.indexOf(element.getAccountNo(), element.getBasketNo());
+        if (position >= 0 || -position - 1 != index) {
+            throw new IllegalArgumentException("Purchase " + element.getAccountNo() + ", " + element.getBasketNo()
+                    + " does not belong at index " + index);
+        }
+        store.put(element);
+    }
+
+    @Override
+    protected Purchase doSet(int index, Purchase element) {
+        Purchase replaced = store.getPurchase(index);
+        if (!replaced.getAccountNo().equals(element.getAccountNo())
+                || !replaced.getBasketNo().equals(element.getBasketNo())) {
+            throw new IllegalArgumentException("Purchase " + element.getAccountNo() + ", " + element.getBasketNo()
+                    + " does not belong at index " + index);
+        }
+        store.put(element);
+        return replaced;
+    }
+
+    @Override
+    protected Purchase doRemove(int index) {
+        Purchase removed = store.getPurchase(index);
+        store.remove(index);
+        return removed;
+    }
+
+    /**
+     * Removes every row at once; removing them one by one would move the columns for each row.
+     */
+    @Override
+    public void clear() {
+        if (store.isEmpty()) {
+            return;
+        }
+        PurchaseColumnStore removed = store.copy();
+        store.clear();
+        modCount++;
+
+        beginChange();
+        nextRemove(0, new AbstractList<Purchase>() {
+            @Override
+            public Purchase get(int index) {
+                return removed.getPurchase(index);
+            }
+
+            @Override
+            public int size() {
+                return removed.size();
+            }
+        });
+        endChange();
+    }
+}
@@ -1,7 +1,11 @@
 package se.lu.ics.controllers;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.function.Consumer;
+
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -12,17 +16,23 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.input.MouseEvent;
 import se.lu.ics.data.DaoException;
 import se.lu.ics.Main;
+import se.lu.ics.data.AsyncDao;
 import se.lu.ics.data.PurchaseDao;
+import se.lu.ics.data.UnitOfWork;
+import se.lu.ics.data.ConnectionHandler;
+import se.lu.ics.data.DataAccessContext;
+import se.lu.ics.data.WriteBehindQueue;
+import se.lu.ics.models.ModelValidator;
 import se.lu.ics.models.Purchase;
-
-import java.io.IOException;
-import java.util.List;
+import se.lu.ics.models.ValidationException;
 
 /**
  * Controller class for managing Purchase-related operations in the view.
  * This class interacts with the PurchaseDao to perform CRUD operations and 
  * updates the UI (TableView) accordingly. It handles user actions such as 
  * adding Purchases and loading Purchase data into the TableView.
+ * All database calls run on the data access layer's worker threads, so the view stays
+ * responsive while they are in progress.
  */
 public class PurchaseViewController {
 
@@ -36,7 +46,7 @@ public class PurchaseViewController {
     private TableColumn<Purchase, String> tableColumnPurchaseBasketNo; 
 
     @FXML
-    private TableColumn<Purchase, String> tableColumnPurchaseDate;
+    private TableColumn<Purchase, LocalDate> tableColumnPurchaseDate;
 
     @FXML
     private TextField textFieldPurchaseAccountNo;
@@ -56,21 +66,38 @@ public class PurchaseViewController {
     @FXML
     private Label labelErrorMessage;
 
-    private PurchaseDao purchaseDao;
+    private static final int PAGE_SIZE = 100;
+
+    private final AsyncDao<PurchaseDao> purchaseDao;
+
+    private final ConnectionHandler connectionHandler;
+
+    // null unless write.behind.enabled is set, in which case updates are saved in the background
+    private final WriteBehindQueue<String, Purchase> purchaseWriteBehind;
+
+    // Shows the errors of the background writes while the view is open
+    private final Consumer<DaoException> writeBehindErrorHandler = FxCallbacks.onFxThread(this::displayBackgroundWriteError);
+
+    private PagedTableLoader<Purchase> purchasePages;
+
+    private ChangePoller<Purchase> purchaseChanges;
+
+    private final long changePollIntervalMillis;
 
     private Main mainApp;
 
     /**
      * Constructor for PurchaseViewController.
-     * It initializes the PurchaseDao to manage database interactions. 
-     * If there is an error initializing the database, it will display an error message.
+     * It takes the asynchronous PurchaseDao to manage database interactions from the application's
+     * shared DataAccessContext, so no configuration is read when the view is opened.
+     *
+     * @param dataAccessContext the application's data access context
      */
-    public PurchaseViewController() {
-        try {
-            purchaseDao = new PurchaseDao();
-        } catch (IOException e) {
-            displayErrorMessage("Error initializing database connection: " + e.getMessage());
-        }
+    public PurchaseViewController(DataAccessContext dataAccessContext) {
+        changePollIntervalMillis = dataAccessContext.getChangePollIntervalMillis();
+        purchaseDao = dataAccessContext.getAsyncPurchaseDao();
+        connectionHandler = dataAccessContext.getConnectionHandler();
+        purchaseWriteBehind = dataAccessContext.getPurchaseWriteBehind();
     }
 
     /**
@@ -120,6 +147,25 @@ public class PurchaseViewController {
         // set up listener for tableView selection changes, thank you copilot
         tableViewPurchase.getSelectionModel().selectedItemProperty().addListener((observable,oldValue,newValue) -> populateFields(newValue));
 
+        // Fetch pages on demand as the user scrolls to the bottom of the table
+        // The loaded purchases are kept as columns of primitives, not as Purchase objects
+        purchasePages = new PagedTableLoader<>(tableViewPurchase, PAGE_SIZE,
+                Comparator.comparing(Purchase::getAccountNo).thenComparing(Purchase::getBasketNo),
+                new PurchaseColumnList(),
+                (lastPurchase, pageSize) -> purchaseDao.supply(dao -> dao.getPage(
+                        lastPurchase == null ? null : lastPurchase.getAccountNo(),
+                        lastPurchase == null ? null : lastPurchase.getBasketNo(), pageSize)),
+                e -> displayErrorMessage("Error loading purchases: " + e.getMessage()));
+
+        if (purchaseWriteBehind != null) {
+            purchaseWriteBehind.addErrorHandler(writeBehindErrorHandler);
+        }
+
+        // Apply the changes made by other clients while the view is open
+        purchaseChanges = new ChangePoller<>(() -> purchaseDao.supply(PurchaseDao::getSyncVersion),
+                version -> purchaseDao.supply(dao -> dao.getChangesSince(version)), changePollIntervalMillis,
+                purchasePages::applyChanges, e -> displayErrorMessage("Error fetching changed purchases: " + e.getMessage()));
+
         // Load Purchase data from the database
         loadPurchases();
     }
@@ -135,7 +181,7 @@ public class PurchaseViewController {
         if(purchase != null){
             textFieldPurchaseAccountNo.setText(purchase.getAccountNo());
             textFieldPurchaseBasketNo.setText(purchase.getBasketNo());
-            textFieldPurchaseDate.setText(purchase.getPurchaseDate());
+            textFieldPurchaseDate.setText(purchase.getPurchaseDate() == null ? "" : purchase.getPurchaseDate().toString());
             btnPurchaseAddUpdate.setText("Update");
         }else{
             clearFields(); // surrounding with a try/catch didn't seem as appropriate here as just
@@ -147,7 +193,7 @@ public class PurchaseViewController {
      * Handles the event when the "Add/Update" button is clicked. 
      * Depending on if a preexisting Purchase is selected or not,
      * it reads the input from the text fields, updates or creates a new Purchase object,
-     * and updates or saves it to the database using PurchaseDao. If successful, it refreshes
+     * and updates or saves it to the database using PurchaseDao. If successful, it patches
      * the TableView to display the newly updated/added Purchase.
      *
      * @param event MouseEvent triggered when the "Add/Update" button is clicked.
@@ -161,26 +207,26 @@ public class PurchaseViewController {
     }
 
     private void addPurchase(){
+        // Create a new Purchase object from the text fields
+        Purchase newPurchase;
         try {
-            // Retrieve input from text fields
-            String purchaseAccountNo = textFieldPurchaseAccountNo.getText();
-            String purchaseBasketNo = textFieldPurchaseBasketNo.getText();
-            String purchaseDate = textFieldPurchaseDate.getText();
-
-            // Create a new Purchase object
-            Purchase newPurchase = new Purchase(purchaseAccountNo, purchaseBasketNo, purchaseDate);
+            newPurchase = readPurchase();
+        } catch (ValidationException e) {
+            displayErrorMessage(e.getMessage());
+            return;
+        }
 
-            // Save the new Purchase to the database
-            purchaseDao.save(newPurchase);
+        // Save the new Purchase to the database
+        setBusy(true);
+        FxCallbacks.whenComplete(purchaseDao.run(dao -> dao.save(newPurchase)), done -> {
+            setBusy(false);
 
-            // Refresh the TableView to display the new Purchase
-            loadPurchases();
+            // Insert the new Purchase into the TableView without reloading it
+            purchasePages.upsert(newPurchase);
 
             // Clear input fields after successful addition
             clearFields();
-        } catch (DaoException e) {
-            displayErrorMessage(e.getMessage());
-        }
+        }, this::displayWriteError);
     }
 
     private void updatePurchase(){
@@ -188,29 +234,98 @@ public class PurchaseViewController {
             // get selected Purchase from tableView
             Purchase selectedPurchase = tableViewPurchase.getSelectionModel().getSelectedItem();
 
-            String newAccountNo = textFieldPurchaseAccountNo.getText();
-            String newBasketNo = textFieldPurchaseBasketNo.getText();
-            String newDate = textFieldPurchaseDate.getText();
+            // the selected Purchase is only replaced once the update has succeeded
+            Purchase updatedPurchase = readPurchase();
+
+            if(selectedPurchase.getAccountNo().equals(updatedPurchase.getAccountNo())
+                    && selectedPurchase.getBasketNo().equals(updatedPurchase.getBasketNo())){ // we can only update if the primary key is unchanged
 
-            if(selectedPurchase.getAccountNo().equals(newAccountNo) && selectedPurchase.getBasketNo().equals(newBasketNo)){ // we can only update if the primary key is unchanged
-                // set the new date for update
-                selectedPurchase.setPurchaseDate(newDate);
+                if (purchaseWriteBehind != null) {
+                    // Shown right away, the queue saves it in the background and reports a failure later
+                    purchaseWriteBehind.submit(updatedPurchase);
+                    purchasePages.upsert(updatedPurchase);
+                    clearFields();
+                    return;
+                }
 
                 // use the Dao to update
-                purchaseDao.update(selectedPurchase);
-                
-                // Refresh the TableView to display the updated Purchase
-                loadPurchases();
-
-                // Clear input fields after successful update
-                clearFields();
-            }else{ // if user tries to change primary key, display an error
-                displayErrorMessage("Cannot update account number or basket number! Delete old purchase and add a new one.");
+                setBusy(true);
+                FxCallbacks.whenComplete(purchaseDao.run(dao -> dao.update(updatedPurchase)), done -> {
+                    setBusy(false);
+
+                    // Replace the Purchase in the TableView without reloading it
+                    purchasePages.upsert(updatedPurchase);
+
+                    // Clear input fields after successful update
+                    clearFields();
+                }, this::displayWriteError);
+            }else{ // a changed primary key replaces the purchase, in one unit of work so that it is never lost
+                cancelPendingUpdate(selectedPurchase.getAccountNo(), selectedPurchase.getBasketNo());
+                setBusy(true);
+                FxCallbacks.whenComplete(purchaseDao.run(dao -> {
+                    try (UnitOfWork unit = connectionHandler.beginUnitOfWork()) {
+                        dao.deleteByAccountNoBasketNo(selectedPurchase.getAccountNo(), selectedPurchase.getBasketNo());
+                        dao.save(updatedPurchase);
+                        unit.commit();
+                    }
+                }), done -> {
+                    setBusy(false);
+
+                    // Move the Purchase in the TableView without reloading it
+                    purchasePages.remove(selectedPurchase);
+                    purchasePages.upsert(updatedPurchase);
+
+                    // Clear input fields after successful update
+                    clearFields();
+                }, this::displayWriteError);
             }
-        } catch(DaoException e){
-            displayErrorMessage(e.getMessage());
         } catch(NullPointerException e){
             displayErrorMessage("No purchase selected!");
+        } catch(ValidationException | DaoException e){ // DaoException: the write-behind queue is full
+            displayErrorMessage(e.getMessage());
+        }
+    }
+
+    /**
+     * Drops an update of the purchase still waiting in the write-behind queue, which would
+     * fail once the purchase has been deleted or moved to another key.
+     */
+    private void cancelPendingUpdate(String accountNo, String basketNo) {
+        if (purchaseWriteBehind != null) {
+            purchaseWriteBehind.cancel(DataAccessContext.purchaseKey(accountNo, basketNo));
+        }
+    }
+
+    /**
+     * Creates a Purchase from the text fields and checks it with the ModelValidator, so that
+     * a purchase the database would reject is never sent to it.
+     *
+     * @return The purchase entered by the user.
+     * @throws ValidationException Listing every invalid field, including a date that cannot be parsed.
+     */
+    private Purchase readPurchase() {
+        Purchase purchase = new Purchase(textFieldPurchaseAccountNo.getText(), textFieldPurchaseBasketNo.getText(),
+                parseDate(textFieldPurchaseDate.getText()));
+        Map<String, String> errors = ModelValidator.check(purchase);
+        if (purchase.getPurchaseDate() == null) {
+            errors.put("purchaseDate", "Purchase date must be formatted as yyyy-mm-dd!");
+        }
+        ModelValidator.throwIfInvalid(errors);
+        return purchase;
+    }
+
+    /**
+     * Parses the date entered by the user. This is the only place a purchase date is parsed;
+     * from here on it is a LocalDate, down to the DATE parameter of the stored procedure.
+     *
+     * @param date The date entered by the user.
+     * @return The date, or null if it is not a valid date formatted as yyyy-mm-dd.
+     */
+    private LocalDate parseDate(String date) {
+        try {
+            return LocalDate.parse(date.trim());
+        } catch (DateTimeParseException e) {
+            return null;
         }
     }
 
@@ -226,7 +341,7 @@ public class PurchaseViewController {
      * Handles the event when the "Delete" button is clicked. 
      * It reads the accountNo + basketNo of the currently highlighted
      * Purchase on the table and deletes it using the PurchaseDao. 
-     * If successful, it refreshes the TableView.
+     * If successful, it removes it from the TableView.
      *
      * @param event MouseEvent triggered when the "Delete" button is clicked.
      */
@@ -240,14 +355,16 @@ public class PurchaseViewController {
             Purchase selectedPurchase = tableViewPurchase.getSelectionModel().getSelectedItem();
             String accountNo = selectedPurchase.getAccountNo();
             String basketNo = selectedPurchase.getBasketNo();
+            cancelPendingUpdate(accountNo, basketNo);
 
             // use Dao to delete
-            purchaseDao.deleteByAccountNoBasketNo(accountNo,basketNo);
+            setBusy(true);
+            FxCallbacks.whenComplete(purchaseDao.run(dao -> dao.deleteByAccountNoBasketNo(accountNo, basketNo)), done -> {
+                setBusy(false);
 
-            // Refresh the TableView
-            loadPurchases();
-        } catch(DaoException e){
-            displayErrorMessage(e.getMessage());
+                // Remove the Purchase from the TableView without reloading it
+                purchasePages.remove(selectedPurchase);
+            }, this::displayWriteError);
         } catch(NullPointerException e){
             displayErrorMessage("No purchase selected to delete!");
         }
@@ -255,19 +372,69 @@ public class PurchaseViewController {
 
     /**
      * Loads the list of Purchases from the database and populates the TableView.
-     * It retrieves all Purchases using the PurchaseDao and displays them in the table.
+     * Only the first page is fetched using the PurchaseDao, further pages are fetched as the user scrolls.
      */
     private void loadPurchases() {
         clearErrorMessage();
-        try {
-            // Fetch all Purchases from the database
-            List<Purchase> purchaseList = purchaseDao.getAll();
-            // Convert the list to an ObservableList for TableView
-            ObservableList<Purchase> purchaseObservableList = FXCollections.observableArrayList(purchaseList);
-            // Set the items in the TableView
-            tableViewPurchase.setItems(purchaseObservableList);
-        } catch (DaoException e) {
-            displayErrorMessage("Error loading purchases: " + e.getMessage());
+        purchaseChanges.restart(purchasePages::reload);
+    }
+
+    /**
+     * Stops polling for changes. Called by Main when the view is replaced or the application stops.
+     */
+    public void shutdown() {
+        purchaseChanges.stop();
+        if (purchaseWriteBehind != null) {
+            purchaseWriteBehind.removeErrorHandler(writeBehindErrorHandler);
+        }
+    }
+
+    /**
+     * Handles the event when the "Refresh" button is clicked.
+     * It discards the loaded purchases and loads them again from the database.
+     *
+     * @param event MouseEvent triggered when the "Refresh" button is clicked.
+     */
+    @FXML
+    private void buttonPurchaseRefresh_OnClick(MouseEvent event) {
+        loadPurchases();
+    }
+
+    /**
+     * Disables the buttons that write to the database while a write is in progress,
+     * so the same change cannot be submitted twice.
+     *
+     * @param busy true when a write has been started, false when it has finished.
+     */
+    private void setBusy(boolean busy) {
+        btnPurchaseAddUpdate.setDisable(busy);
+        btnPurchaseDelete.setDisable(busy);
+    }
+
+    /**
+     * Ends the busy state after a failed write and shows why it failed.
+     * If the write failed because the table no longer matches the database, e.g. another
+     * user deleted the row, the table is reloaded.
+     *
+     * @param e The exception thrown by the PurchaseDao.
+     */
+    private void displayWriteError(DaoException e) {
+        setBusy(false);
+        displayBackgroundWriteError(e);
+    }
+
+    /**
+     * Shows an error from a write that did not block the view, e.g. an update the write-behind
+     * queue could not save. On a conflict the table is reloaded, dropping the unsaved values.
+     *
+     * @param e The DaoException thrown by the write.
+     */
+    private void displayBackgroundWriteError(DaoException e) {
+        if (e.isConflict()) {
+            loadPurchases();
+            displayErrorMessage(e.getMessage() + " The table has been refreshed.");
+        } else {
+            displayErrorMessage(e.getMessage());
         }
     }
 
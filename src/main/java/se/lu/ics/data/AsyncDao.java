@@ -0,0 +1,44 @@
+package se.lu.ics.data;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Asynchronous facade over a DAO. Every call is run on the shared DaoExecutor and returns a
+ * CompletableFuture instead of blocking the caller for the database round trip, e.g.
+ * {@code customers.supply(dao -> dao.getByAccountNo("C123"))}.
+ * The futures complete on a worker thread; UI code must hand the result back to its own thread.
+ *
+ * @param <D> The DAO type, e.g. CustomerDao.
+ */
+public class AsyncDao<D> {
+
+    private final D dao;
+    private final DaoExecutor executor;
+
+    AsyncDao(D dao, DaoExecutor executor) {
+        this.dao = dao;
+        this.executor = executor;
+    }
+
+    /**
+     * Runs a DAO call that returns a result on a worker thread.
+     *
+     * @param call The call, given the wrapped DAO.
+     * @return A future completed with the result, or exceptionally with the DaoException thrown.
+     */
+    public <T> CompletableFuture<T> supply(Function<D, T> call) {
+        return executor.supply(() -> call.apply(dao));
+    }
+
+    /**
+     * Runs a DAO call without a result, such as a save or delete, on a worker thread.
+     *
+     * @param call The call, given the wrapped DAO.
+     * @return A future completed when the call has finished, or exceptionally with the DaoException thrown.
+     */
+    public CompletableFuture<Void> run(Consumer<D> call) {
+        return executor.run(() -> call.accept(dao));
+    }
+}
@@ -0,0 +1,48 @@
+package se.lu.ics.data;
+
+/**
+ * A single row of a batch insert that the database refused, together with the reason.
+ */
+public class BatchRejection {
+    private final int index;
+    private final String key;
+    private final int errorCode;
+    private final String message;
+
+    BatchRejection(int index, String key, int errorCode, String message) {
+        this.index = index;
+        this.key = key;
+        this.errorCode = errorCode;
+        this.message = message;
+    }
+
+    /**
+     * @return The position of the rejected element in the submitted collection's iteration order.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The business key of the rejected element, e.g. its AccountNo.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The SQL Server error number, e.g. 2627 for an already existing key.
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return key + " (" + errorCode + "): " + message;
+    }
+}
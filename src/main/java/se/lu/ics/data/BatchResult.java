@@ -0,0 +1,62 @@
+package se.lu.ics.data;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * The outcome of a batch insert such as CustomerDao.saveAll: how many rows were inserted
+ * and which rows were skipped, and why.
+ */
+public class BatchResult {
+    private final int submittedCount;
+    private final List<BatchRejection> rejections;
+
+    BatchResult(int submittedCount, List<BatchRejection> rejections) {
+        this.submittedCount = submittedCount;
+        this.rejections = Collections.unmodifiableList(rejections);
+    }
+
+    public int getSubmittedCount() {
+        return submittedCount;
+    }
+
+    public int getInsertedCount() {
+        return submittedCount - rejections.size();
+    }
+
+    public List<BatchRejection> getRejections() {
+        return rejections;
+    }
+
+    public boolean hasRejections() {
+        return !rejections.isEmpty();
+    }
+
+    /**
+     * Reads the (RowNo, ErrorCode, ErrorMessage) rows returned by the batch insert procedures
+     * and maps each RowNo back to the element that was submitted at that position.
+     *
+     * @param resultSet The result set returned by the procedure.
+     * @param submittedCount The number of rows that were submitted.
+     * @param keyOfRow Returns the business key reported for the row with a given RowNo.
+     * @return A BatchResult for the batch.
+     * @throws SQLException If there is an error reading the result set.
+     */
+    static BatchResult fromRejectedRows(ResultSet resultSet, int submittedCount, IntFunction<String> keyOfRow)
+            throws SQLException {
+        List<BatchRejection> rejections = new ArrayList<>();
+        while (resultSet.next()) {
+            int rowNo = resultSet.getInt("RowNo");
+            rejections.add(new BatchRejection(
+                    rowNo,
+                    keyOfRow.apply(rowNo),
+                    resultSet.getInt("ErrorCode"),
+                    resultSet.getString("ErrorMessage")));
+        }
+        return new BatchResult(submittedCount, rejections);
+    }
+}
@@ -0,0 +1,70 @@
+package se.lu.ics.data;
+
+/**
+ * An immutable snapshot of an EntityCache's counters.
+ */
+public class CacheStatistics {
+    private final long hitCount;
+    private final long negativeHitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final int size;
+    private final int maxSize;
+
+    CacheStatistics(long hitCount, long negativeHitCount, long missCount, long evictionCount,
+            long expirationCount, int size, int maxSize) {
+        this.hitCount = hitCount;
+        this.negativeHitCount = negativeHitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    /** @return The number of lookups answered with a cached entity. */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /** @return The number of lookups answered with a cached "does not exist". */
+    public long getNegativeHitCount() {
+        return negativeHitCount;
+    }
+
+    /** @return The number of lookups that had to go to the database. */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /** @return The number of entries removed to make room for new ones. */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /** @return The number of entries removed because they outlived the time-to-live. */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return The share of lookups answered from the cache, between 0 and 1. */
+    public double getHitRatio() {
+        long lookups = hitCount + negativeHitCount + missCount;
+        return lookups == 0 ? 0 : (double) (hitCount + negativeHitCount) / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheStatistics[hits=%d, negativeHits=%d, misses=%d, evictions=%d, expirations=%d, size=%d/%d]",
+                hitCount, negativeHitCount, missCount, evictionCount, expirationCount, size, maxSize);
+    }
+}
@@ -0,0 +1,60 @@
+package se.lu.ics.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rows of a table inserted, updated or deleted after a given sync version.
+ * Applying a ChangeSet to data that was loaded at the version it was requested for brings that
+ * data up to date as of getSyncVersion(), which is the version to ask for changes since next time.
+ *
+ * @param <T> The type of entity, e.g. Customer.
+ */
+public class ChangeSet<T> {
+    private final long sinceVersion;
+    private final long syncVersion;
+    private final List<T> changed;
+    private final List<T> deleted;
+
+    ChangeSet(long sinceVersion, long syncVersion, List<T> changed, List<T> deleted) {
+        this.sinceVersion = sinceVersion;
+        this.syncVersion = syncVersion;
+        this.changed = Collections.unmodifiableList(changed);
+        this.deleted = Collections.unmodifiableList(deleted);
+    }
+
+    public long getSinceVersion() {
+        return sinceVersion;
+    }
+
+    /**
+     * @return The version the changes bring the caller's data up to.
+     */
+    public long getSyncVersion() {
+        return syncVersion;
+    }
+
+    /**
+     * @return The inserted and updated entities, with their current data.
+     */
+    public List<T> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return The deleted entities. Only their business keys are set.
+     */
+    public List<T> getDeleted() {
+        return deleted;
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty() && deleted.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "Changes " + sinceVersion + ".." + syncVersion + ": " + changed.size() + " changed, "
+                + deleted.size() + " deleted";
+    }
+}
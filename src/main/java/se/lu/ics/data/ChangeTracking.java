@@ -0,0 +1,80 @@
+package se.lu.ics.data;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calls the change tracking procedures shared by the DAOs: uspGetSyncVersion and the
+ * uspGet*ChangesSince procedures, which all return rows flagged with an IsDeleted column
+ * and the new sync version in an output parameter.
+ */
+final class ChangeTracking {
+
+    private ChangeTracking() {
+    }
+
+    /**
+     * Retrieves the current sync version.
+     * This method executes the stored procedure uspGetSyncVersion.
+     *
+     * @param connectionHandler The handler used to obtain a connection.
+     * @return The version to remember when loading data, to later ask for the changes made after the load.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    static long getSyncVersion(ConnectionHandler connectionHandler) {
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall("{CALL uspGetSyncVersion(?)}")) {
+
+            statement.registerOutParameter(1, Types.BIGINT);
+            statement.execute();
+            return statement.getLong(1);
+        } catch (SQLException e) {
+            throw new DaoException("Error fetching the sync version: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Executes a uspGet*ChangesSince procedure taking (@SinceVersion, @SyncVersion OUTPUT).
+     *
+     * @param connectionHandler The handler used to obtain a connection.
+     * @param callProcedure The call, e.g. "{CALL uspGetCustomerChangesSince(?, ?)}".
+     * @param sinceVersion The sync version of the caller's data.
+     * @param changedRow Maps a row with IsDeleted = 0 to an entity.
+     * @param deletedRow Maps a row with IsDeleted = 1, where only the key columns are set, to an entity.
+     * @param errorMessage The message of the DaoException thrown on failure.
+     * @return The changes.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    static <T> ChangeSet<T> getChangesSince(ConnectionHandler connectionHandler, String callProcedure,
+            long sinceVersion, RowMapper<T> changedRow, RowMapper<T> deletedRow, String errorMessage) {
+        List<T> changed = new ArrayList<>();
+        List<T> deleted = new ArrayList<>();
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.setLong(1, sinceVersion);
+            statement.registerOutParameter(2, Types.BIGINT);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (resultSet.getBoolean("IsDeleted")) {
+                        deleted.add(deletedRow.map(resultSet));
+                    } else {
+                        changed.add(changedRow.map(resultSet));
+                    }
+                }
+            }
+
+            // Output parameters can only be read once the result set has been consumed
+            return new ChangeSet<>(sinceVersion, statement.getLong(2), changed, deleted);
+        } catch (SQLException e) {
+            throw new DaoException(errorMessage + " " + e.getMessage(), e);
+        }
+    }
+}
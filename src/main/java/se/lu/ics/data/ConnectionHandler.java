@@ -5,15 +5,37 @@ import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import se.lu.ics.data.metrics.DaoMetrics;
 
 /**
  * Handles database connections by reading configuration details from a properties file.
  * This class abstracts the connection logic and allows other classes to obtain a database
  * connection without worrying about the configuration details.
+ *
+ * Connections are taken from a ConnectionPool shared by every ConnectionHandler that
+ * connects to the same database, so all DAOs reuse the same physical connections. While a
+ * UnitOfWork begun on this handler is open, the thread that began it gets the unit's
+ * connection instead, so that the DAO calls it makes share the unit's transaction.
+ *
+ * With metrics.enabled=true, the connections handed out are instrumented by a DaoMetrics, which
+ * publishes the latency of every DAO method and stored procedure as MBeans.
  */
 public class ConnectionHandler {
+    // One pool per connection URL, shared by all handlers and therefore all DAOs
+    private static final Map<String, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+
     private String connectionURL;
+    private ConnectionPool connectionPool;
+    private final ReadMode readMode;
+    // null unless metrics.enabled is set, so that the connections are handed out unwrapped
+    private final DaoMetrics metrics;
+    private final ThreadLocal<UnitOfWork> currentUnitOfWork = new ThreadLocal<>();
+    private final Properties connectionProperties = new Properties();
     private final String propertiedFilePath = "/se/lu/ics/config/config.properties";
 
     /**
@@ -25,8 +47,6 @@ public class ConnectionHandler {
      */
     public ConnectionHandler() throws IOException {
 
-        Properties connectionProperties = new Properties();
-
         // Load the configuration properties from the file in the classpath
         try (InputStream inputStream = getClass().getResourceAsStream(propertiedFilePath)) {
 
@@ -55,15 +75,229 @@ public class ConnectionHandler {
                 + "password=" + databaseUserPassword + ";"
                 + "encrypt=true;"
                 + "trustServerCertificate=true;";
+
+        // Pool settings are optional, the defaults suit a single desktop client
+        int poolMinSize = intSetting("pool.min.size", 1);
+        int poolMaxSize = intSetting("pool.max.size", 8);
+        long poolIdleTimeout = longSetting("pool.idle.timeout.ms", 300000);
+        long poolAcquireTimeout = longSetting("pool.acquire.timeout.ms", 10000);
+        long poolLeakThreshold = longSetting("pool.leak.threshold.ms", 60000);
+        int poolValidationTimeout = intSetting("pool.validation.timeout.s", 2);
+
+        connectionPool = POOLS.computeIfAbsent(connectionURL, url -> new ConnectionPool(url,
+                poolMinSize, poolMaxSize, poolIdleTimeout, poolAcquireTimeout, poolLeakThreshold,
+                poolValidationTimeout));
+
+        readMode = enumSetting("read.mode", ReadMode.class, ReadMode.LOCKING);
+
+        if (booleanSetting("metrics.enabled", false)) {
+            metrics = new DaoMetrics(connectionPool::getStatistics, Set.of(ConnectionHandler.class.getName(),
+                    ResultSetStream.class.getName(), ChangeTracking.class.getName()),
+                    longSetting("metrics.dump.interval.s", 0));
+        } else {
+            metrics = null;
+        }
     }
 
     /**
-     * Establishes and returns a connection to the database using the configured URL.
+     * Borrows a connection to the database from the shared connection pool.
+     * Closing the returned connection hands it back to the pool. If a UnitOfWork is open on the
+     * calling thread, its connection is returned instead, and closing it does nothing.
+     * If metrics are enabled, the connection records the calls made on it until it is closed.
      *
      * @return A Connection object to the database.
-     * @throws SQLException If an error occurs when establishing the connection.
+     * @throws SQLException If no connection could be obtained within the acquire timeout,
+     *                      or if an error occurs when establishing a new connection.
      */
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(connectionURL);
+        UnitOfWork unitOfWork = currentUnitOfWork.get();
+        if (metrics == null) {
+            return unitOfWork != null ? unitOfWork.getJoinedConnection() : connectionPool.borrow();
+        }
+        long started = System.nanoTime();
+        Connection connection = unitOfWork != null ? unitOfWork.getJoinedConnection() : borrow();
+        return metrics.instrument(connection, started);
+    }
+
+    /**
+     * Borrows a connection from the pool, recording how long that took if metrics are enabled.
+     */
+    private Connection borrow() throws SQLException {
+        if (metrics == null) {
+            return connectionPool.borrow();
+        }
+        long started = System.nanoTime();
+        try {
+            Connection connection = connectionPool.borrow();
+            metrics.recordAcquire(System.nanoTime() - started, false);
+            return connection;
+        } catch (SQLException e) {
+            metrics.recordAcquire(System.nanoTime() - started, true);
+            throw e;
+        }
+    }
+
+    /**
+     * Begins a UnitOfWork that the DAO calls made on the calling thread join until it ends.
+     *
+     * @return The open unit, to be committed and closed by the caller.
+     * @throws IllegalStateException If a unit of work is already open on the calling thread.
+     * @throws DaoException If no connection could be obtained.
+     */
+    public UnitOfWork beginUnitOfWork() {
+        if (currentUnitOfWork.get() != null) {
+            throw new IllegalStateException("A unit of work is already open on this thread");
+        }
+        try {
+            Connection connection = borrow();
+            try {
+                UnitOfWork unitOfWork = new UnitOfWork(this, connection);
+                currentUnitOfWork.set(unitOfWork);
+                return unitOfWork;
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Error beginning a unit of work: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Called by a UnitOfWork when it ends, so that later calls on the thread borrow their own connections again.
+     */
+    void endUnitOfWork(UnitOfWork unitOfWork) {
+        if (currentUnitOfWork.get() == unitOfWork) {
+            currentUnitOfWork.remove();
+        }
+    }
+
+    /**
+     * Registers an action to run if the UnitOfWork open on the calling thread is rolled back,
+     * e.g. to restore in-memory state a DAO changed for a write. Does nothing if no unit is
+     * open, since the write is then already committed.
+     *
+     * @param action The action, run on the thread that rolls the unit back.
+     */
+    void afterRollback(Runnable action) {
+        UnitOfWork unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null) {
+            unitOfWork.afterRollback(action);
+        }
+    }
+
+    /**
+     * Loads the JDBC driver and opens the pool's minimum number of connections, so that the
+     * first real query does not pay for driver initialization and the login handshake.
+     * This method blocks and is meant to be called from a background thread.
+     */
+    public void warmUp() {
+        // Touching DriverManager runs the driver service loader once, up front
+        DriverManager.getDrivers();
+        connectionPool.fillToMinimum();
+    }
+
+    /**
+     * Closes the shared connection pool. Connections still borrowed are closed as they are returned.
+     * Also removes the MBeans published for metrics.
+     */
+    public void close() {
+        if (metrics != null) {
+            metrics.close();
+        }
+        POOLS.remove(connectionURL, connectionPool);
+        connectionPool.close();
+    }
+
+    /**
+     * Returns the read mode set with read.mode, which the DAOs pass their read procedure calls through.
+     * Inside a UnitOfWork it is always LOCKING: a transaction that has started under READ
+     * COMMITTED cannot switch to SNAPSHOT isolation, and the unit should see its own writes.
+     *
+     * @return The ReadMode selecting the locking or the snapshot read procedures.
+     */
+    public ReadMode getReadMode() {
+        return currentUnitOfWork.get() != null ? ReadMode.LOCKING : readMode;
+    }
+
+    /**
+     * Returns a snapshot of the shared connection pool's statistics.
+     *
+     * @return A PoolStatistics object with the pool's current counters.
+     */
+    public PoolStatistics getPoolStatistics() {
+        return connectionPool.getStatistics();
+    }
+
+    /**
+     * @return The DaoMetrics recording the calls made through this handler, or null if metrics are disabled.
+     */
+    public DaoMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reads an optional integer setting from config.properties.
+     *
+     * @param key The property key.
+     * @param defaultValue The value used when the key is not present.
+     * @return The configured value, or defaultValue.
+     * @throws IOException If the configured value is not a number.
+     */
+    int intSetting(String key, int defaultValue) throws IOException {
+        return (int) longSetting(key, defaultValue);
+    }
+
+    /**
+     * Reads an optional long setting from config.properties.
+     *
+     * @param key The property key.
+     * @param defaultValue The value used when the key is not present.
+     * @return The configured value, or defaultValue.
+     * @throws IOException If the configured value is not a number.
+     */
+    long longSetting(String key, long defaultValue) throws IOException {
+        String value = connectionProperties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid value for '" + key + "' in config.properties: " + value, e);
+        }
+    }
+
+    /**
+     * Reads an optional true/false setting from config.properties.
+     *
+     * @param key The property key.
+     * @param defaultValue The value used when the key is not present.
+     * @return The configured value, or defaultValue.
+     */
+    boolean booleanSetting(String key, boolean defaultValue) {
+        String value = connectionProperties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Reads an optional setting naming a constant of an enum type from config.properties.
+     *
+     * @param key The property key.
+     * @param enumType The enum type, e.g. PurchaseProcedureSet.class.
+     * @param defaultValue The value used when the key is not present.
+     * @return The configured constant, or defaultValue.
+     * @throws IOException If the configured value is not one of the enum's constants.
+     */
+    <E extends Enum<E>> E enumSetting(String key, Class<E> enumType, E defaultValue) throws IOException {
+        String value = connectionProperties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(enumType, value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid value for '" + key + "' in config.properties: " + value, e);
+        }
     }
 }
\ No newline at end of file
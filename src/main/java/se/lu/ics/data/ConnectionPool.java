@@ -0,0 +1,361 @@
+package se.lu.ics.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of physical database connections.
+ * Connections handed out by the pool are proxies: calling close() on them returns the
+ * underlying connection to the pool instead of closing the socket, so callers can keep
+ * using try-with-resources exactly as they would with DriverManager connections.
+ *
+ * The pool keeps at least minSize connections open, never opens more than maxSize,
+ * validates connections when they are borrowed, evicts connections that have been idle
+ * for too long and logs a warning for connections that are held longer than the leak
+ * detection threshold.
+ */
+class ConnectionPool implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(ConnectionPool.class.getName());
+
+    // Connections used this recently are trusted without a validation round trip
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final long HOUSEKEEPING_PERIOD_MILLIS = 5000;
+
+    private final String connectionURL;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long acquireTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int validationTimeoutSeconds;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final Map<PooledConnection, Boolean> borrowedConnections = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService housekeeper;
+
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+
+    private volatile boolean closed;
+
+    ConnectionPool(String connectionURL, int minSize, int maxSize, long idleTimeoutMillis,
+            long acquireTimeoutMillis, long leakThresholdMillis, int validationTimeoutSeconds) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.connectionURL = connectionURL;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::houseKeep,
+                HOUSEKEEPING_PERIOD_MILLIS, HOUSEKEEPING_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new physical connection if no idle
+     * connection is available and the pool has not reached its maximum size.
+     *
+     * @return A Connection that is returned to the pool when closed.
+     * @throws SQLException If no connection became available within the acquire timeout,
+     *                      or if a new connection could not be opened.
+     */
+    Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + acquireTimeoutMillis
+                        + " ms waiting for a database connection (pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeValidIdleConnection();
+            if (pooled == null) {
+                pooled = openConnection();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.leakReported = false;
+            borrowedConnections.put(pooled, Boolean.TRUE);
+            borrowCount.incrementAndGet();
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens connections until the pool holds at least minSize of them.
+     * Failures are logged rather than thrown since this runs in the background.
+     */
+    void fillToMinimum() {
+        while (!closed && totalConnections.get() < minSize && permits.tryAcquire()) {
+            try {
+                idleConnections.offerFirst(openConnection());
+            } catch (SQLException e) {
+                LOGGER.log(System.Logger.Level.WARNING, "Could not open pooled connection: " + e.getMessage());
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the pool's current counters.
+     *
+     * @return A PoolStatistics object describing the pool.
+     */
+    PoolStatistics getStatistics() {
+        int total = totalConnections.get();
+        int idle = idleConnections.size();
+        return new PoolStatistics(
+                total,
+                borrowedConnections.size(),
+                idle,
+                permits.getQueueLength(),
+                minSize,
+                maxSize,
+                createdCount.get(),
+                destroyedCount.get(),
+                borrowCount.get(),
+                timeoutCount.get(),
+                leakCount.get());
+    }
+
+    /**
+     * Closes all idle connections and stops the housekeeping thread.
+     * Borrowed connections are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private PooledConnection takeValidIdleConnection() {
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pooled.lastUsedAt < VALIDATION_BYPASS_MILLIS || isValid(pooled)) {
+                return pooled;
+            }
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection physical = DriverManager.getConnection(connectionURL);
+        totalConnections.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // the connection is being discarded anyway
+        }
+    }
+
+    /**
+     * Called when a borrowed connection handle is closed. Resets connection state and
+     * puts the connection back in the pool, or discards it if it is no longer usable.
+     */
+    private void giveBack(PooledConnection pooled) {
+        borrowedConnections.remove(pooled);
+        try {
+            boolean reusable = !closed && !pooled.physical.isClosed();
+            if (reusable && !pooled.physical.getAutoCommit()) {
+                // never hand out a connection with an open transaction
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                pooled.lastUsedAt = System.currentTimeMillis();
+                idleConnections.offerFirst(pooled);
+            } else {
+                destroy(pooled);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Called when a borrowed connection handle is aborted. Closes the physical connection instead
+     * of returning it, for a caller that cannot tell what state it has left the session in.
+     */
+    private void discard(PooledConnection pooled) {
+        borrowedConnections.remove(pooled);
+        try {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void houseKeep() {
+        // An exception escaping a scheduled task would cancel every later run of it
+        try {
+            long now = System.currentTimeMillis();
+
+            // Evict connections idle longer than the timeout, oldest first, but keep minSize open
+            Iterator<PooledConnection> oldestFirst = idleConnections.descendingIterator();
+            while (oldestFirst.hasNext() && totalConnections.get() > minSize) {
+                PooledConnection pooled = oldestFirst.next();
+                if (now - pooled.lastUsedAt > idleTimeoutMillis && idleConnections.remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+
+            // Report connections that have been borrowed for suspiciously long
+            if (leakThresholdMillis > 0) {
+                for (PooledConnection pooled : borrowedConnections.keySet()) {
+                    if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                        pooled.leakReported = true;
+                        leakCount.incrementAndGet();
+                        LOGGER.log(System.Logger.Level.WARNING, "Possible connection leak: connection borrowed "
+                                + (now - pooled.borrowedAt) + " ms ago has not been returned", pooled.borrowSite);
+                    }
+                }
+            }
+
+            fillToMinimum();
+        } catch (RuntimeException e) {
+            LOGGER.log(System.Logger.Level.WARNING, "Connection pool housekeeping failed", e);
+        }
+    }
+
+    /**
+     * A physical connection together with the bookkeeping the pool needs.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private volatile long borrowedAt;
+        private volatile long lastUsedAt = System.currentTimeMillis();
+        private volatile boolean leakReported;
+        private volatile Throwable borrowSite;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private Connection newHandle() {
+            // Only capture the borrowing stack trace when leak detection is on
+            borrowSite = leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new Handle(this));
+        }
+    }
+
+    /**
+     * The handle given to callers. Closing it returns the connection to the pool, aborting it
+     * closes the physical connection; using it after either fails as it would on a closed connection.
+     */
+    private final class Handle implements InvocationHandler {
+        private PooledConnection pooled;
+
+        private Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Connection physical;
+            synchronized (this) {
+                if ("close".equals(name)) {
+                    if (pooled != null) {
+                        PooledConnection returning = pooled;
+                        pooled = null;
+                        giveBack(returning);
+                    }
+                    return null;
+                }
+                if ("abort".equals(name)) {
+                    if (pooled != null) {
+                        PooledConnection aborted = pooled;
+                        pooled = null;
+                        discard(aborted);
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(name) && pooled == null) {
+                    return true;
+                }
+                if (pooled == null) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+                physical = pooled.physical;
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
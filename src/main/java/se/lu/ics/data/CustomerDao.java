@@ -1,24 +1,81 @@
 package se.lu.ics.data;
 
-import java.io.IOException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.stream.Stream;
+
+import com.microsoft.sqlserver.jdbc.SQLServerCallableStatement;
+import com.microsoft.sqlserver.jdbc.SQLServerDataTable;
 
-import se.lu.ics.models.FruitBasket;
 import se.lu.ics.models.Customer;
 
 public class CustomerDao {
 
-    private ConnectionHandler connectionHandler;
+    private static final int DEFAULT_FETCH_SIZE = 500;
+
+    private final ConnectionHandler connectionHandler;
+    private final EntityCache<String, Customer> customerCache;
+    private final IdentityMap identityMap;
+    private final CustomerSearchIndex searchIndex;
+
+    public CustomerDao(ConnectionHandler connectionHandler) {
+        this(connectionHandler, null);
+    }
+
+    /**
+     * Creates a CustomerDao that answers getByAccountNo from a read-through cache.
+     * The cache is invalidated by every write made through this DAO.
+     *
+     * @param connectionHandler The handler used to obtain connections.
+     * @param customerCache The cache for customers by AccountNo, or null to disable caching.
+     */
+    public CustomerDao(ConnectionHandler connectionHandler, EntityCache<String, Customer> customerCache) {
+        this(connectionHandler, customerCache, new IdentityMap());
+    }
 
-    public CustomerDao() throws IOException {
-        this.connectionHandler = new ConnectionHandler();
+    /**
+     * Creates a CustomerDao that maps every loaded row through a shared IdentityMap, so that
+     * each customer exists once in memory no matter how many times or by which DAO it is loaded.
+     *
+     * @param connectionHandler The handler used to obtain connections.
+     * @param customerCache The cache for customers by AccountNo, or null to disable caching.
+     * @param identityMap The identity map shared by the DAOs of the session.
+     */
+    public CustomerDao(ConnectionHandler connectionHandler, EntityCache<String, Customer> customerCache,
+            IdentityMap identityMap) {
+        this(connectionHandler, customerCache, identityMap, new CustomerSearchIndex());
+    }
+
+    /**
+     * Creates a CustomerDao that keeps a search index up to date: every customer it loads or
+     * writes is added to the index, and every customer it deletes is removed from it.
+     *
+     * @param connectionHandler The handler used to obtain connections.
+     * @param customerCache The cache for customers by AccountNo, or null to disable caching.
+     * @param identityMap The identity map shared by the DAOs of the session.
+     * @param searchIndex The index to keep up to date.
+     */
+    public CustomerDao(ConnectionHandler connectionHandler, EntityCache<String, Customer> customerCache,
+            IdentityMap identityMap, CustomerSearchIndex searchIndex) {
+        this.connectionHandler = connectionHandler;
+        this.customerCache = customerCache;
+        this.identityMap = identityMap;
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * Returns the index over the customers this DAO has loaded or written.
+     *
+     * @return The CustomerSearchIndex kept up to date by this DAO.
+     */
+    public CustomerSearchIndex getSearchIndex() {
+        return searchIndex;
     }
 
     /**
@@ -29,7 +86,7 @@ public class CustomerDao {
      * @throws DaoException If there is an error accessing the database.
      */
     public List<Customer> getAll() {
-        String callProcedure = "{CALL uspGetAllCustomers}";
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetAllCustomers}");
         List<Customer> customers = new ArrayList<>();
 
         try (Connection connection = connectionHandler.getConnection();
@@ -48,15 +105,123 @@ public class CustomerDao {
     }
 
     /**
-     * Retrieves a Customer by AccountNo from the database.
-     * This method executes the stored procedure uspGetCustomerByAccountNo.
+     * Streams all customers from the database without materializing them in a list.
+     * This method executes the stored procedure uspGetAllCustomers.
+     * Rows are fetched as the stream is consumed and the connection is released when the
+     * stream is exhausted or closed, so the stream should be used in a try-with-resources block.
+     *
+     * @return A lazily consumed Stream of Customer objects.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public Stream<Customer> streamAll() {
+        return streamAll(DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Streams all customers from the database without materializing them in a list.
+     * This method executes the stored procedure uspGetAllCustomers.
+     *
+     * @param fetchSize The number of rows the driver should fetch per round trip.
+     * @return A lazily consumed Stream of Customer objects, to be closed by the caller.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public Stream<Customer> streamAll(int fetchSize) {
+        return ResultSetStream.open(connectionHandler, connectionHandler.getReadMode().call("{CALL uspGetAllCustomers}"),
+                fetchSize, this::mapToCustomer, "Error streaming all customers.");
+    }
+
+    /**
+     * Retrieves the next page of customers ordered by AccountNo.
+     * This method executes the stored procedure uspGetCustomersPage, which seeks past the
+     * given AccountNo so that later pages are as cheap to fetch as the first one.
+     *
+     * @param afterAccountNo The last AccountNo of the previous page, or null for the first page.
+     * @param pageSize The maximum number of customers to return.
+     * @return A list of at most pageSize Customer objects, empty when there are no more customers.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public List<Customer> getPage(String afterAccountNo, int pageSize) {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetCustomersPage(?, ?)}");
+        List<Customer> customers = new ArrayList<>(pageSize);
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.setString(1, afterAccountNo);
+            statement.setInt(2, pageSize);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    customers.add(mapToCustomer(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Error fetching customers after AccountNo: " + afterAccountNo, e);
+        }
+
+        return customers;
+    }
+
+    /**
+     * Searches for customers whose AccountNo, name or delivery address starts with a prefix.
+     * This method executes the stored procedure uspSearchCustomers, which seeks the index of each
+     * of the three columns and returns at most maxRows customers, so a search stays cheap on
+     * tables too big to load client-side.
+     *
+     * @param prefix The text to search for, matched case-insensitively under the default collation.
+     * @param maxRows The maximum number of customers to return.
+     * @return A list of at most maxRows Customer objects ordered by AccountNo.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public List<Customer> search(String prefix, int maxRows) {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspSearchCustomers(?, ?)}");
+        List<Customer> customers = new ArrayList<>();
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.setString(1, prefix);
+            statement.setInt(2, maxRows);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    customers.add(mapToCustomer(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Error searching for customers starting with: " + prefix, e);
+        }
+
+        return customers;
+    }
+
+    /**
+     * Retrieves a Customer by AccountNo, from the cache if caching is enabled and otherwise
+     * from the database.
+     * This method executes the stored procedure uspGetCustomerByAccountNo on a cache miss.
      *
      * @param accountNo The account number.
-     * @return A Customer object.
+     * @return A Customer object, or null if there is no customer with that AccountNo.
      * @throws DaoException If there is an error accessing the database.
      */
     public Customer getByAccountNo(String accountNo) {
-        String callProcedure = "{CALL uspGetCustomerByAccountNo(?)}";
+        if (customerCache != null) {
+            return customerCache.getOrLoad(accountNo, this::fetchByAccountNo);
+        }
+        return fetchByAccountNo(accountNo);
+    }
+
+    /**
+     * Returns the statistics of the customer cache.
+     *
+     * @return A CacheStatistics object, or null if caching is disabled.
+     */
+    public CacheStatistics getCacheStatistics() {
+        return customerCache == null ? null : customerCache.getStatistics();
+    }
+
+    private Customer fetchByAccountNo(String accountNo) {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetCustomerByAccountNo(?)}");
 
         try (Connection connection = connectionHandler.getConnection();
                 CallableStatement statement = connection.prepareCall(callProcedure)) {
@@ -80,9 +245,10 @@ public class CustomerDao {
      * This method executes the stored procedure uspAddCustomer
      *
      * @param customer The Customer object containing the data to be saved.
+     * @return The in-memory instance of the customer, which is the given object unless the customer was already loaded.
      * @throws DaoException If there is an error saving the customer (e.g., if the AccountNo already exists).
      */
-    public void save(Customer customer) {
+    public Customer save(Customer customer) {
         String callProcedure = "{CALL uspAddCustomer(?, ?, ?)}";
 
         try (Connection connection = connectionHandler.getConnection();
@@ -95,12 +261,82 @@ public class CustomerDao {
 
             // Execute the insert operation
             statement.executeUpdate();
+
+            Customer saved = identityMap.adopt(customer);
+            searchIndex.put(customer);
+            restoreOnRollback(customer.getAccountNo());
+            return saved;
         } catch (SQLException e) {
-            if (e.getErrorCode() == 2627) { // Unique constraint violation
+            if (e.getErrorCode() == 2627 || e.getErrorCode() == 2601) { // Unique key violation
                 throw new DaoException("A customer with this AccountNo already exists.", e);
             } else {
                 throw new DaoException("Error saving customer " + customer.getAccountNo() + ": " + e.getMessage(), e);
             }
+        } finally {
+            // Drops a cached "not found" for the new AccountNo
+            invalidate(customer.getAccountNo());
+        }
+    }
+
+    /**
+     * Saves a batch of new customers to the database in a single round trip.
+     * This method executes the stored procedure uspAddCustomers with a table-valued parameter.
+     * Customers that cannot be inserted (e.g., if the AccountNo already exists) are skipped
+     * and reported in the result, the rest of the batch is still inserted.
+     *
+     * @param customers The Customer objects to be saved.
+     * @return A BatchResult listing the customers that were rejected and why.
+     * @throws DaoException If there is an error sending the batch to the database.
+     */
+    public BatchResult saveAll(Collection<Customer> customers) {
+        String callProcedure = "{CALL uspAddCustomers(?)}";
+        List<Customer> batch = new ArrayList<>(customers);
+
+        if (batch.isEmpty()) {
+            return new BatchResult(0, new ArrayList<>());
+        }
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            // Build the table-valued parameter, RowNo lets rejected rows be mapped back to the batch
+            SQLServerDataTable customerTable = new SQLServerDataTable();
+            customerTable.addColumnMetadata("RowNo", Types.INTEGER);
+            customerTable.addColumnMetadata("AccountNo", Types.VARCHAR);
+            customerTable.addColumnMetadata("CustomerName", Types.VARCHAR);
+            customerTable.addColumnMetadata("DeliveryAddress", Types.VARCHAR);
+            for (int rowNo = 0; rowNo < batch.size(); rowNo++) {
+                Customer customer = batch.get(rowNo);
+                customerTable.addRow(rowNo, customer.getAccountNo(), customer.getName(), customer.getDeliveryAddress());
+            }
+            statement.unwrap(SQLServerCallableStatement.class).setStructured(1, "dbo.CustomerTableType", customerTable);
+
+            // Execute the insert, the procedure returns the rows it skipped
+            BatchResult result;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                result = BatchResult.fromRejectedRows(resultSet, batch.size(), rowNo -> batch.get(rowNo).getAccountNo());
+            }
+
+            // Index the customers that were inserted
+            boolean[] rejected = new boolean[batch.size()];
+            result.getRejections().forEach(rejection -> rejected[rejection.getIndex()] = true);
+            List<String> inserted = new ArrayList<>();
+            for (int rowNo = 0; rowNo < batch.size(); rowNo++) {
+                if (!rejected[rowNo]) {
+                    searchIndex.put(batch.get(rowNo));
+                    inserted.add(batch.get(rowNo).getAccountNo());
+                }
+            }
+            // Inserted customers do not exist after a rollback, so there is nothing to reload
+            connectionHandler.afterRollback(() -> inserted.forEach(accountNo -> {
+                invalidate(accountNo);
+                searchIndex.remove(accountNo);
+            }));
+            return result;
+        } catch (SQLException e) {
+            throw new DaoException("Error saving " + batch.size() + " customers: " + e.getMessage(), e);
+        } finally {
+            batch.forEach(customer -> invalidate(customer.getAccountNo()));
         }
     }
 
@@ -109,9 +345,10 @@ public class CustomerDao {
      * This method executes the stored procedure uspUpdateCustomer
      *
      * @param customer The Customer object containing the updated data.
+     * @return The in-memory instance of the customer, now holding the updated data.
      * @throws DaoException If there is an error updating the customer's data.
      */
-    public void update(Customer customer) {
+    public Customer update(Customer customer) {
         String callProcedure = "{CALL uspUpdateCustomer(?, ?, ?)}";
 
         try (Connection connection = connectionHandler.getConnection();
@@ -122,10 +359,20 @@ public class CustomerDao {
             statement.setString(2, customer.getName());
             statement.setString(3, customer.getDeliveryAddress());
 
+            // Registered before the update runs, since the in-memory instance may already hold the
+            // new values, e.g. from a view showing a write-behind edit, and a refused update has to restore it too
+            restoreOnRollback(customer.getAccountNo());
+
             // Execute the update operation
             statement.executeUpdate();
+
+            Customer updated = identityMap.adopt(customer);
+            searchIndex.put(customer);
+            return updated;
         } catch (SQLException e) {
             throw new DaoException("Error updating customer: " + customer.getAccountNo(), e);
+        } finally {
+            invalidate(customer.getAccountNo());
         }
     }
 
@@ -147,70 +394,103 @@ public class CustomerDao {
 
             // Execute the delete operation
             statement.executeUpdate();
+            identityMap.removeCustomer(accountNo);
+            searchIndex.remove(accountNo);
+            restoreOnRollback(accountNo);
         } catch (SQLException e) {
             throw new DaoException("Error deleting customer with AccountNo: " + accountNo, e);
+        } finally {
+            invalidate(accountNo);
         }
     }
 
     /**
      * Retrieves all customers and their respective fruit baskets.
-     * This method executes the stored procedure uspGetAllPurchases.
+     * This method executes the stored procedure uspGetPurchaseGraph, which returns customers,
+     * baskets and purchases in one round trip. Every basket exists once, so a basket bought by
+     * several customers is the same object in each of their lists, and its getCustomers() list is filled too.
      *
      * @return A list of Customer objects, each containing their baskets.
      * @throws DaoException If there is an error accessing the database.
      */
     public List<Customer> getAllCustomersWithBaskets() {
-        String callProcedure = "{CALL uspGetAllPurchases}";
-        List<Customer> customers = new ArrayList<>();
-
-        try (Connection connection = connectionHandler.getConnection();
-                CallableStatement statement = connection.prepareCall(callProcedure);
-                ResultSet resultSet = statement.executeQuery()) {
-
-            // Map to hold Customer by AccountNo
-            Map<String, Customer> customerMap = new HashMap<>();
-
-            while (resultSet.next()) {
-                String customerAccountNo = resultSet.getString("AccountNo");
-                String customerName = resultSet.getString("CustomerName");
-                String customerDeliveryAddress = resultSet.getString("DeliveryAddress");
-                String basketNo = resultSet.getString("BasketNo");
-                String basketName = resultSet.getString("BasketName");
-                double basketPrice = resultSet.getInt("Price");
-                // Get or create Customer object
-                Customer customer = customerMap.get(customerAccountNo);
-                if (customer == null) {
-                    customer = new Customer(customerAccountNo, customerName, customerDeliveryAddress);
-                    customerMap.put(customerAccountNo, customer);
-                }
+        return PurchaseGraphLoader.load(connectionHandler, identityMap, searchIndex).getCustomers();
+    }
 
-                // Create FruitBasket object with price and add to the customer's basket list
-                FruitBasket basket = new FruitBasket(basketNo, basketName, basketPrice);
-                customer.getBaskets().add(basket);
-            }
+    /**
+     * Retrieves the current sync version, to be remembered when loading customers and later passed to getChangesSince.
+     * This method executes the stored procedure uspGetSyncVersion.
+     *
+     * @return The current sync version.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public long getSyncVersion() {
+        return ChangeTracking.getSyncVersion(connectionHandler);
+    }
 
-            // Add all customers to the list
-            customers.addAll(customerMap.values());
+    /**
+     * Retrieves the customers inserted, updated or deleted after a sync version.
+     * This method executes the stored procedure uspGetCustomerChangesSince, which finds them through the
+     * RowVersion column and the tombstones of deleted rows, so its cost depends on the number of
+     * changes rather than on the table size.
+     *
+     * @param sinceVersion The sync version the caller's customers were loaded or last synchronized at.
+     * @return A ChangeSet whose deleted customers only have their AccountNo set.
+     * @throws DaoException If there is an error accessing the database, or with isSyncVersionPurged()
+     *                      if the deletions since sinceVersion are no longer known.
+     */
+    public ChangeSet<Customer> getChangesSince(long sinceVersion) {
+        ChangeSet<Customer> changes = ChangeTracking.getChangesSince(connectionHandler,
+                connectionHandler.getReadMode().call("{CALL uspGetCustomerChangesSince(?, ?)}"), sinceVersion,
+                this::mapToCustomer, resultSet -> new Customer(resultSet.getString("AccountNo"), null, null),
+                "Error fetching customers changed since version " + sinceVersion + ":");
+
+        // The changes may have been made by other clients, so the cache has not seen them
+        changes.getChanged().forEach(customer -> invalidate(customer.getAccountNo()));
+        changes.getDeleted().forEach(customer -> {
+            invalidate(customer.getAccountNo());
+            identityMap.removeCustomer(customer.getAccountNo());
+            searchIndex.remove(customer.getAccountNo());
+        });
+        return changes;
+    }
 
-        } catch (SQLException e) {
-            throw new DaoException("Error fetching customers and their baskets.", e);
+    private void invalidate(String accountNo) {
+        if (customerCache != null) {
+            customerCache.invalidate(accountNo);
         }
+    }
 
-        return customers;
+    /**
+     * Reloads a customer written in a UnitOfWork if the unit is rolled back, so that the
+     * in-memory instance and the search index go back to the values in the database.
+     */
+    private void restoreOnRollback(String accountNo) {
+        connectionHandler.afterRollback(() -> {
+            invalidate(accountNo);
+            if (fetchByAccountNo(accountNo) == null) {
+                identityMap.removeCustomer(accountNo);
+                searchIndex.remove(accountNo);
+            }
+        });
     }
 
     /**
      * Maps a row in the ResultSet to a Customer object.
-     * This method is a helper function used to convert the result of a SQL query into a Customer object.
+     * The row is mapped through the identity map, so a customer already in memory is reused and
+     * updated on the identity map's update executor, and the customer is added to or updated in the search index.
      *
      * @param resultSet The ResultSet containing the customer data.
      * @return A Customer object with the data from the ResultSet.
      * @throws SQLException If there is an error accessing the data in the ResultSet.
      */
     private Customer mapToCustomer(ResultSet resultSet) throws SQLException {
-        return new Customer(
-                resultSet.getString("AccountNo"),
-                resultSet.getString("Name"),
-                resultSet.getString("Address"));
+        String accountNo = resultSet.getString("AccountNo");
+        String name = resultSet.getString("Name");
+        String deliveryAddress = resultSet.getString("Address");
+
+        // Indexed by the loaded values, since the instance in memory may not hold them yet
+        searchIndex.put(accountNo, name, deliveryAddress);
+        return identityMap.customer(accountNo, name, deliveryAddress);
     }
 }
\ No newline at end of file
@@ -0,0 +1,355 @@
+package se.lu.ics.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import se.lu.ics.models.Customer;
+
+/**
+ * A trigram index over the AccountNo, name and delivery address of the customers CustomerDao
+ * has loaded or written, for search-as-you-type. Every customer gets a dense number, and every
+ * trigram of its lower-cased fields maps to a sorted array of the numbers of the customers
+ * containing it. A query of three or more characters intersects the arrays of its trigrams and
+ * checks the few candidates left; a shorter query is the union of the trigrams starting with it.
+ * The fields are padded at the end so that every substring starts some trigram.
+ *
+ * The index is updated by the CustomerDao as customers are loaded, saved, updated and deleted,
+ * only touching the trigrams of the customer that changed. It is thread-safe: the DAO updates
+ * it on worker threads while the view searches it on the JavaFX application thread.
+ */
+public class CustomerSearchIndex {
+
+    private static final char FIELD_END = '\u0000';
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> idsByAccountNo = new HashMap<>();
+    private final NavigableMap<Long, Posting> postings = new TreeMap<>();
+
+    // The indexed text of each customer number, null once the customer is removed
+    private String[] texts = new String[1024];
+    // The modification count at which each customer number was last indexed
+    private long[] indexedAt = new long[1024];
+    private int nextId;
+    private long modificationCount;
+
+    /**
+     * Adds a customer, or re-indexes it if its fields have changed.
+     *
+     * @param customer The customer as it is stored in the database.
+     */
+    public void put(Customer customer) {
+        put(customer.getAccountNo(), customer.getName(), customer.getDeliveryAddress());
+    }
+
+    /**
+     * Adds a customer, or re-indexes it if its fields have changed.
+     *
+     * @param accountNo The customer's AccountNo.
+     * @param name The customer's name as it is stored in the database.
+     * @param deliveryAddress The customer's delivery address as it is stored in the database.
+     */
+    public void put(String accountNo, String name, String deliveryAddress) {
+        String text = indexedText(accountNo, name, deliveryAddress);
+        lock.writeLock().lock();
+        try {
+            Integer existingId = idsByAccountNo.get(accountNo);
+            int id;
+            if (existingId == null) {
+                id = nextId++;
+                if (id == texts.length) {
+                    texts = Arrays.copyOf(texts, id * 2);
+                    indexedAt = Arrays.copyOf(indexedAt, id * 2);
+                }
+                idsByAccountNo.put(accountNo, id);
+            } else {
+                id = existingId;
+                if (text.equals(texts[id])) {
+                    return;
+                }
+                updatePostings(id, texts[id], false);
+            }
+            texts[id] = text;
+            indexedAt[id] = ++modificationCount;
+            updatePostings(id, text, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a customer from the index, if it is indexed.
+     *
+     * @param accountNo The customer's AccountNo.
+     */
+    public void remove(String accountNo) {
+        lock.writeLock().lock();
+        try {
+            Integer id = idsByAccountNo.remove(accountNo);
+            if (id != null) {
+                updatePostings(id, texts[id], false);
+                texts[id] = null;
+                indexedAt[id] = ++modificationCount;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of indexed customers.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idsByAccountNo.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the customers whose AccountNo, name or delivery address contains the query,
+     * ignoring case.
+     *
+     * @param query The text to search for. A blank query matches every customer.
+     * @return The matching customers.
+     */
+    public Matches search(String query) {
+        String normalizedQuery = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            int[] ids = normalizedQuery.isEmpty() ? null
+                    : normalizedQuery.length() < 3 ? unionOfPrefix(normalizedQuery)
+                    : intersection(normalizedQuery);
+            return new Matches(normalizedQuery, ids, modificationCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int[] unionOfPrefix(String query) {
+        long from = trigram(query, 0, query.length());
+        long to = query.length() == 1 ? from + (1L << 32) : from + (1L << 16);
+
+        // Each customer's trigrams are distinct, but a customer may have several starting with the query
+        boolean[] seen = new boolean[nextId];
+        int count = 0;
+        for (Posting posting : postings.subMap(from, true, to, false).values()) {
+            for (int i = 0; i < posting.size; i++) {
+                if (!seen[posting.ids[i]]) {
+                    seen[posting.ids[i]] = true;
+                    count++;
+                }
+            }
+        }
+        int[] ids = new int[count];
+        int index = 0;
+        for (int id = 0; id < seen.length && index < count; id++) {
+            if (seen[id]) {
+                ids[index++] = id;
+            }
+        }
+        return ids;
+    }
+
+    private int[] intersection(String query) {
+        // Intersect the shortest posting first, so the candidates only shrink from there
+        int trigramCount = query.length() - 2;
+        Posting[] queryPostings = new Posting[trigramCount];
+        for (int i = 0; i < trigramCount; i++) {
+            Posting posting = postings.get(trigram(query, i, i + 3));
+            if (posting == null) {
+                return new int[0];
+            }
+            queryPostings[i] = posting;
+        }
+        Arrays.sort(queryPostings, (a, b) -> Integer.compare(a.size, b.size));
+
+        int[] candidates = Arrays.copyOf(queryPostings[0].ids, queryPostings[0].size);
+        int count = candidates.length;
+        for (int p = 1; p < queryPostings.length && count > 0; p++) {
+            count = queryPostings[p].retainAll(candidates, count);
+        }
+        if (trigramCount == 1) {
+            return candidates;
+        }
+
+        // All trigrams being present does not mean they are adjacent
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (texts[candidates[i]].contains(query)) {
+                candidates[kept++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, kept);
+    }
+
+    private void updatePostings(int id, String text, boolean add) {
+        int fieldStart = 0;
+        while (fieldStart < text.length()) {
+            int fieldEnd = text.indexOf(FIELD_END, fieldStart);
+            // Each field is followed by two FIELD_END characters, the last two characters start no trigram
+            for (int i = fieldStart; i < fieldEnd; i++) {
+                long trigram = trigram(text, i, i + 3);
+                Posting posting = postings.get(trigram);
+                if (add) {
+                    if (posting == null) {
+                        posting = new Posting();
+                        postings.put(trigram, posting);
+                    }
+                    posting.add(id);
+                } else if (posting != null) {
+                    posting.remove(id);
+                    if (posting.size == 0) {
+                        postings.remove(trigram);
+                    }
+                }
+            }
+            fieldStart = fieldEnd + 2;
+        }
+    }
+
+    /**
+     * @return The lower-cased fields, each followed by two FIELD_END characters so that its last
+     *         one and two characters also start a trigram.
+     */
+    private static String indexedText(String accountNo, String name, String deliveryAddress) {
+        StringBuilder text = new StringBuilder();
+        for (String field : new String[] { accountNo, name, deliveryAddress }) {
+            if (field != null) {
+                text.append(field.toLowerCase(Locale.ROOT).replace(FIELD_END, ' '));
+            }
+            text.append(FIELD_END).append(FIELD_END);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Packs up to three characters into a long, 16 bits each, the first character highest.
+     * Missing characters are 0, so the trigrams starting with a shorter string form one range.
+     */
+    private static long trigram(String text, int from, int to) {
+        long trigram = 0;
+        for (int i = from; i < from + 3; i++) {
+            trigram = (trigram << 16) | (i < to ? text.charAt(i) : 0);
+        }
+        return trigram;
+    }
+
+    /**
+     * The numbers of the customers containing one trigram, kept sorted.
+     */
+    private static final class Posting {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            // New customers get the highest number, so this is usually an append
+            if (size > 0 && ids[size - 1] >= id) {
+                int index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0) {
+                    return; // the trigram occurs more than once in the customer's fields
+                }
+                insert(-index - 1, id);
+            } else {
+                insert(size, id);
+            }
+        }
+
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+        }
+
+        /**
+         * Keeps the sorted candidates that are in this posting. Both arrays are sorted, so each
+         * candidate is searched for from where the previous one was found, galloping ahead first
+         * so that a long posting is not read in full for a few candidates.
+         *
+         * @return The number of candidates kept, moved to the start of the array.
+         */
+        int retainAll(int[] candidates, int count) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count && from < size; i++) {
+                int step = 1;
+                while (from + step < size && ids[from + step] < candidates[i]) {
+                    step <<= 1;
+                }
+                int index = Arrays.binarySearch(ids, from, Math.min(from + step + 1, size), candidates[i]);
+                if (index >= 0) {
+                    candidates[kept++] = candidates[i];
+                    from = index + 1;
+                } else {
+                    from = -index - 1;
+                }
+            }
+            return kept;
+        }
+
+        private void insert(int index, int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+    }
+
+    /**
+     * The result of a search. Customers indexed or changed after the search are checked against
+     * the query when they are tested, so the result stays correct for a list that keeps receiving
+     * rows, e.g. a table that is still loading pages.
+     */
+    public final class Matches {
+        private final String query;
+        private final int[] ids;
+        private final long searchedAt;
+
+        private Matches(String query, int[] ids, long searchedAt) {
+            this.query = query;
+            this.ids = ids;
+            this.searchedAt = searchedAt;
+        }
+
+        /**
+         * @return The number of customers that matched when the search was made.
+         */
+        public int size() {
+            return ids == null ? CustomerSearchIndex.this.size() : ids.length;
+        }
+
+        /**
+         * @param customer A customer, e.g. a row of the customer table.
+         * @return true if the customer matches the query.
+         */
+        public boolean test(Customer customer) {
+            if (ids == null) {
+                return true;
+            }
+            lock.readLock().lock();
+            try {
+                Integer id = idsByAccountNo.get(customer.getAccountNo());
+                if (id == null) {
+                    return false;
+                }
+                if (indexedAt[id] > searchedAt) {
+                    return texts[id].contains(query);
+                }
+                return Arrays.binarySearch(ids, id) >= 0;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package se.lu.ics.data;
+
+/**
+ * Where the customer view searches for the customers matching the search text.
+ */
+public enum CustomerSearchMode {
+
+    /**
+     * In the CustomerSearchIndex, which matches any part of a field in microseconds but needs
+     * every customer loaded into memory.
+     */
+    CLIENT,
+
+    /**
+     * With CustomerDao.search, which only matches the start of a field but costs one bounded
+     * index seek per column, for customer tables too big to load.
+     */
+    SERVER
+}
@@ -1,5 +1,7 @@
 package se.lu.ics.data;
 
+import java.sql.SQLException;
+
 public class DaoException extends RuntimeException {
     public DaoException(String message, Throwable cause) {
         super(message, cause);
@@ -8,4 +10,28 @@ public class DaoException extends RuntimeException {
     public DaoException(String message) {
         super(message);
     }
-}
\ No newline at end of file
+
+    /**
+     * Tells whether the database refused the call because the row it refers to has already been
+     * added or removed, e.g. by another user. A caller showing the data should then reload it.
+     *
+     * @return true if the cause is a duplicate key (2627 or 2601) or a "not found" (50001) error.
+     */
+    public boolean isConflict() {
+        if (!(getCause() instanceof SQLException)) {
+            return false;
+        }
+        int errorCode = ((SQLException) getCause()).getErrorCode();
+        return errorCode == 2627 || errorCode == 2601 || errorCode == 50001;
+    }
+
+    /**
+     * Tells whether a uspGet*ChangesSince call was refused because rows deleted after the given
+     * sync version may have been purged, see uspPurgeTombstones. The caller has to reload the data.
+     *
+     * @return true if the cause is a "sync version purged" (50003) error.
+     */
+    public boolean isSyncVersionPurged() {
+        return getCause() instanceof SQLException && ((SQLException) getCause()).getErrorCode() == 50003;
+    }
+}
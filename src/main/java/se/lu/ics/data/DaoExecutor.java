@@ -0,0 +1,80 @@
+package se.lu.ics.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of worker threads that run DAO calls off the calling thread, e.g. off the
+ * JavaFX application thread. Both the number of threads and the number of waiting calls are
+ * bounded, so a burst of requests cannot create unbounded threads or hold more connections
+ * than the pool can hand out; calls submitted when the queue is full fail immediately.
+ */
+public class DaoExecutor implements AutoCloseable {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threadCount The number of worker threads. Should not exceed the connection pool size.
+     * @param queueCapacity The maximum number of calls waiting for a worker.
+     */
+    public DaoExecutor(int threadCount, int queueCapacity) {
+        if (threadCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Thread count and queue capacity must be positive");
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "dao-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs a DAO call on a worker thread.
+     *
+     * @param call The call to run.
+     * @return A future completed with the call's result, or exceptionally with the exception it
+     *         threw. If the queue is full, the future fails with a DaoException.
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(
+                    new DaoException("The database is busy, too many requests are waiting. Try again.", e));
+        }
+    }
+
+    /**
+     * Runs a DAO call without a result on a worker thread.
+     *
+     * @param call The call to run.
+     * @return A future completed when the call has finished, see supply(Supplier).
+     */
+    public CompletableFuture<Void> run(Runnable call) {
+        return supply(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Stops accepting calls and waits briefly for the running ones to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
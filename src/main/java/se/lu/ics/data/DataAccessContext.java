@@ -0,0 +1,243 @@
+package se.lu.ics.data;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import se.lu.ics.models.Customer;
+import se.lu.ics.models.Purchase;
+
+/**
+ * Application-scoped holder for the data access layer.
+ * The configuration file is read once when the context is created, and the same
+ * ConnectionHandler and DAO instances are handed to every controller. The DAOs share one
+ * IdentityMap, so each customer and basket exists once in memory for the whole session, and
+ * the CustomerDao keeps one CustomerSearchIndex over every customer loaded in the session.
+ * The DAOs are also available as AsyncDao facades that run on one shared, bounded DaoExecutor.
+ * If write.behind.enabled is set, customer and purchase updates can instead be handed to a
+ * WriteBehindQueue, which saves them in batches on a background thread.
+ */
+public class DataAccessContext implements AutoCloseable {
+
+    private final ConnectionHandler connectionHandler;
+    private final IdentityMap identityMap;
+    private final CustomerSearchIndex customerSearchIndex = new CustomerSearchIndex();
+    private final CustomerDao customerDao;
+    private final FruitBasketDao fruitBasketDao;
+    private final PurchaseDao purchaseDao;
+    private final ReportDao reportDao;
+    private final PurchaseCsvImporter purchaseCsvImporter;
+    private final DaoExecutor daoExecutor;
+    private final AsyncDao<CustomerDao> asyncCustomerDao;
+    private final AsyncDao<FruitBasketDao> asyncFruitBasketDao;
+    private final AsyncDao<PurchaseDao> asyncPurchaseDao;
+    private final AsyncDao<ReportDao> asyncReportDao;
+    private final long changePollIntervalMillis;
+    private final CustomerSearchMode customerSearchMode;
+    private final WriteBehindQueue<String, Customer> customerWriteBehind;
+    private final WriteBehindQueue<String, Purchase> purchaseWriteBehind;
+
+    /**
+     * Creates the context by loading the database configuration and creating the DAOs.
+     * The customers and baskets in memory are updated on the thread that loads them.
+     *
+     * @throws IOException If the configuration file cannot be found or read.
+     */
+    public DataAccessContext() throws IOException {
+        this(Runnable::run);
+    }
+
+    /**
+     * Creates the context by loading the database configuration and creating the DAOs.
+     *
+     * @param modelUpdateExecutor Runs the changes to the customers and baskets in memory, e.g.
+     *                            Platform::runLater, since the views show those instances.
+     * @throws IOException If the configuration file cannot be found or read.
+     */
+    public DataAccessContext(Executor modelUpdateExecutor) throws IOException {
+        this.identityMap = new IdentityMap(modelUpdateExecutor);
+        this.connectionHandler = new ConnectionHandler();
+        this.customerDao = new CustomerDao(connectionHandler, createCache("customer"), identityMap,
+                customerSearchIndex);
+        this.fruitBasketDao = new FruitBasketDao(connectionHandler, createCache("basket"), identityMap);
+        this.purchaseDao = new PurchaseDao(connectionHandler,
+                connectionHandler.enumSetting("purchase.procedures", PurchaseProcedureSet.class, PurchaseProcedureSet.V2),
+                identityMap);
+        this.reportDao = new ReportDao(connectionHandler);
+        this.purchaseCsvImporter = new PurchaseCsvImporter(connectionHandler, purchaseDao);
+
+        this.daoExecutor = new DaoExecutor(connectionHandler.intSetting("dao.executor.threads", 4),
+                connectionHandler.intSetting("dao.executor.queue.size", 100));
+        this.asyncCustomerDao = new AsyncDao<>(customerDao, daoExecutor);
+        this.asyncFruitBasketDao = new AsyncDao<>(fruitBasketDao, daoExecutor);
+        this.asyncPurchaseDao = new AsyncDao<>(purchaseDao, daoExecutor);
+        this.asyncReportDao = new AsyncDao<>(reportDao, daoExecutor);
+
+        this.changePollIntervalMillis = connectionHandler.longSetting("sync.poll.interval.ms", 5000);
+        this.customerSearchMode = connectionHandler.enumSetting("search.customer.mode", CustomerSearchMode.class,
+                CustomerSearchMode.CLIENT);
+
+        this.customerWriteBehind = createWriteBehindQueue("customer", Customer::getAccountNo, customerDao::update);
+        this.purchaseWriteBehind = createWriteBehindQueue("purchase", DataAccessContext::purchaseKey,
+                purchaseDao::update);
+    }
+
+    /**
+     * Creates the point-lookup cache for an entity type if it is enabled in config.properties,
+     * e.g. cache.basket.enabled=true, cache.basket.max.size=500, cache.basket.ttl.s=600.
+     *
+     * @param entityName The name used in the property keys.
+     * @return A new EntityCache, or null if caching is disabled for the entity type.
+     * @throws IOException If a cache setting is not a number.
+     */
+    private <V> EntityCache<String, V> createCache(String entityName) throws IOException {
+        if (!connectionHandler.booleanSetting("cache." + entityName + ".enabled", false)) {
+            return null;
+        }
+        int maxSize = connectionHandler.intSetting("cache." + entityName + ".max.size", 1000);
+        long timeToLiveSeconds = connectionHandler.longSetting("cache." + entityName + ".ttl.s", 60);
+        return new EntityCache<>(maxSize, timeToLiveSeconds * 1000);
+    }
+
+    /**
+     * Creates a write-behind queue for an entity type if write-behind is enabled in config.properties,
+     * e.g. write.behind.enabled=true, write.behind.batch.size=50, write.behind.max.pending=1000,
+     * write.behind.flush.interval.ms=1000, write.behind.max.backoff.ms=60000.
+     *
+     * @param entityName The name of the queue in messages and of its thread.
+     * @param keyOf Gives the key updates of the entity type are coalesced by.
+     * @param write Writes one update.
+     * @return A new WriteBehindQueue, or null if write-behind is disabled.
+     * @throws IOException If a write-behind setting is not a number.
+     */
+    private <V> WriteBehindQueue<String, V> createWriteBehindQueue(String entityName, Function<V, String> keyOf,
+            Consumer<V> write) throws IOException {
+        if (!connectionHandler.booleanSetting("write.behind.enabled", false)) {
+            return null;
+        }
+        return new WriteBehindQueue<>(entityName, connectionHandler, keyOf, write,
+                connectionHandler.intSetting("write.behind.batch.size", 50),
+                connectionHandler.intSetting("write.behind.max.pending", 1000),
+                connectionHandler.longSetting("write.behind.flush.interval.ms", 1000),
+                connectionHandler.longSetting("write.behind.max.backoff.ms", 60000));
+    }
+
+    /**
+     * @return The key of a purchase in its WriteBehindQueue, e.g. "C001/B001".
+     */
+    public static String purchaseKey(Purchase purchase) {
+        return purchaseKey(purchase.getAccountNo(), purchase.getBasketNo());
+    }
+
+    public static String purchaseKey(String accountNo, String basketNo) {
+        return accountNo + "/" + basketNo;
+    }
+
+    /**
+     * Loads the JDBC driver and pre-opens pooled connections on a background thread.
+     * Failures are not fatal, the first query will simply open its own connection.
+     *
+     * @return A future that completes when the warm-up has finished.
+     */
+    public CompletableFuture<Void> warmUp() {
+        return CompletableFuture.runAsync(connectionHandler::warmUp, runnable -> {
+            Thread thread = new Thread(runnable, "data-access-warm-up");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    public IdentityMap getIdentityMap() {
+        return identityMap;
+    }
+
+    public CustomerSearchIndex getCustomerSearchIndex() {
+        return customerSearchIndex;
+    }
+
+    public ConnectionHandler getConnectionHandler() {
+        return connectionHandler;
+    }
+
+    public CustomerDao getCustomerDao() {
+        return customerDao;
+    }
+
+    public FruitBasketDao getFruitBasketDao() {
+        return fruitBasketDao;
+    }
+
+    public PurchaseDao getPurchaseDao() {
+        return purchaseDao;
+    }
+
+    public ReportDao getReportDao() {
+        return reportDao;
+    }
+
+    public PurchaseCsvImporter getPurchaseCsvImporter() {
+        return purchaseCsvImporter;
+    }
+
+    public AsyncDao<CustomerDao> getAsyncCustomerDao() {
+        return asyncCustomerDao;
+    }
+
+    public AsyncDao<FruitBasketDao> getAsyncFruitBasketDao() {
+        return asyncFruitBasketDao;
+    }
+
+    public AsyncDao<PurchaseDao> getAsyncPurchaseDao() {
+        return asyncPurchaseDao;
+    }
+
+    public AsyncDao<ReportDao> getAsyncReportDao() {
+        return asyncReportDao;
+    }
+
+    /**
+     * @return How often open views should poll for changes made by other clients, 0 if they should not.
+     */
+    public long getChangePollIntervalMillis() {
+        return changePollIntervalMillis;
+    }
+
+    /**
+     * @return Whether the customer view searches the CustomerSearchIndex or the database.
+     */
+    public CustomerSearchMode getCustomerSearchMode() {
+        return customerSearchMode;
+    }
+
+    /**
+     * @return The queue customer updates are saved through, or null if write-behind is disabled.
+     */
+    public WriteBehindQueue<String, Customer> getCustomerWriteBehind() {
+        return customerWriteBehind;
+    }
+
+    /**
+     * @return The queue purchase updates are saved through, keyed by purchaseKey, or null if
+     *         write-behind is disabled.
+     */
+    public WriteBehindQueue<String, Purchase> getPurchaseWriteBehind() {
+        return purchaseWriteBehind;
+    }
+
+    /**
+     * Saves the updates still waiting in the write-behind queues, stops the DAO worker threads
+     * and releases the pooled connections.
+     * Called once when the application stops.
+     */
+    @Override
+    public void close() {
+        if (customerWriteBehind != null) {
+            customerWriteBehind.close();
+            purchaseWriteBehind.close();
+        }
+        daoExecutor.close();
+        connectionHandler.close();
+    }
+}
@@ -0,0 +1,131 @@
+package se.lu.ics.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A size-bounded, time-limited read-through cache for single entities looked up by business key,
+ * e.g. customers by AccountNo.
+ * The least recently used entry is evicted when the cache is full, and entries older than the
+ * time-to-live are reloaded. Lookups that found nothing are cached too (negative caching), so
+ * repeatedly asking for a key that does not exist does not hit the database every time.
+ *
+ * @param <K> The key type.
+ * @param <V> The entity type.
+ */
+public class EntityCache<K, V> {
+
+    private final int maxSize;
+    private final long timeToLiveNanos;
+    private final Map<K, CachedValue<V>> entries;
+
+    // Bumped by every invalidation so that a load started before it is not cached after it
+    private long generation;
+
+    private long hitCount;
+    private long negativeHitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+
+    /**
+     * @param maxSize The maximum number of entries, including negative entries.
+     * @param timeToLiveMillis How long an entry may be served before it is reloaded.
+     */
+    public EntityCache(int maxSize, long timeToLiveMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = timeToLiveMillis * 1_000_000;
+
+        // An access-ordered LinkedHashMap keeps the least recently used entry first
+        this.entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                if (size() > EntityCache.this.maxSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached entity for a key, loading and caching it if it is not cached or has expired.
+     * The loader runs without holding the cache lock, so a slow load does not block other lookups.
+     *
+     * @param key The business key.
+     * @param loader Loads the entity from the database, returning null if it does not exist.
+     * @return The entity, or null if it does not exist.
+     */
+    public V getOrLoad(K key, Function<K, V> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            CachedValue<V> entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.loadedAt < timeToLiveNanos) {
+                    if (entry.value == null) {
+                        negativeHitCount++;
+                    } else {
+                        hitCount++;
+                    }
+                    return entry.value;
+                }
+                entries.remove(key);
+                expirationCount++;
+            }
+            missCount++;
+            loadGeneration = generation;
+        }
+
+        V value = loader.apply(key);
+
+        synchronized (this) {
+            if (generation == loadGeneration) {
+                entries.put(key, new CachedValue<>(value, System.nanoTime()));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Removes a key from the cache. Called whenever the entity is written.
+     *
+     * @param key The business key of the entity that changed.
+     */
+    public synchronized void invalidate(K key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Returns a snapshot of the cache's counters.
+     *
+     * @return A CacheStatistics object with hit, miss and eviction counts.
+     */
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hitCount, negativeHitCount, missCount, evictionCount, expirationCount,
+                entries.size(), maxSize);
+    }
+
+    private static final class CachedValue<V> {
+        private final V value;
+        private final long loadedAt;
+
+        private CachedValue(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
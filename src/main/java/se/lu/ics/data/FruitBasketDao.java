@@ -1,24 +1,56 @@
 package se.lu.ics.data;
 
-import java.io.IOException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.stream.Stream;
+
+import com.microsoft.sqlserver.jdbc.SQLServerCallableStatement;
+import com.microsoft.sqlserver.jdbc.SQLServerDataTable;
 
 import se.lu.ics.models.FruitBasket;
-import se.lu.ics.models.Customer;
 
 public class FruitBasketDao {
 
-    private ConnectionHandler connectionHandler;
+    private static final int DEFAULT_FETCH_SIZE = 500;
+
+    private final ConnectionHandler connectionHandler;
+    private final EntityCache<String, FruitBasket> basketCache;
+    private final IdentityMap identityMap;
+
+    public FruitBasketDao(ConnectionHandler connectionHandler) {
+        this(connectionHandler, null);
+    }
 
-    public FruitBasketDao() throws IOException {
-        this.connectionHandler = new ConnectionHandler();
+    /**
+     * Creates a FruitBasketDao that answers getByBasketNo from a read-through cache.
+     * The cache is invalidated by every write made through this DAO.
+     *
+     * @param connectionHandler The handler used to obtain connections.
+     * @param basketCache The cache for baskets by BasketNo, or null to disable caching.
+     */
+    public FruitBasketDao(ConnectionHandler connectionHandler, EntityCache<String, FruitBasket> basketCache) {
+        this(connectionHandler, basketCache, new IdentityMap());
+    }
+
+    /**
+     * Creates a FruitBasketDao that maps every loaded row through a shared IdentityMap, so that
+     * each basket exists once in memory no matter how many times or by which DAO it is loaded.
+     *
+     * @param connectionHandler The handler used to obtain connections.
+     * @param basketCache The cache for baskets by BasketNo, or null to disable caching.
+     * @param identityMap The identity map shared by the DAOs of the session.
+     */
+    public FruitBasketDao(ConnectionHandler connectionHandler, EntityCache<String, FruitBasket> basketCache,
+            IdentityMap identityMap) {
+        this.connectionHandler = connectionHandler;
+        this.basketCache = basketCache;
+        this.identityMap = identityMap;
     }
 
     /**
@@ -29,7 +61,7 @@ public class FruitBasketDao {
      * @throws DaoException If there is an error accessing the database.
      */
     public List<FruitBasket> getAll() {
-        String callProcedure = "{CALL uspGetAllBaskets}";
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetAllBaskets}");
         List<FruitBasket> baskets = new ArrayList<>();
 
         try (Connection connection = connectionHandler.getConnection();
@@ -48,15 +80,122 @@ public class FruitBasketDao {
     }
 
     /**
-     * Retrieves a FruitBasket by BasketNo from the database.
-     * This method executes the stored procedure uspGetBasketByBasketNo.
+     * Streams all baskets from the database without materializing them in a list.
+     * This method executes the stored procedure uspGetAllBaskets.
+     * Rows are fetched as the stream is consumed and the connection is released when the
+     * stream is exhausted or closed, so the stream should be used in a try-with-resources block.
+     *
+     * @return A lazily consumed Stream of FruitBasket objects.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public Stream<FruitBasket> streamAll() {
+        return streamAll(DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Streams all baskets from the database without materializing them in a list.
+     * This method executes the stored procedure uspGetAllBaskets.
+     *
+     * @param fetchSize The number of rows the driver should fetch per round trip.
+     * @return A lazily consumed Stream of FruitBasket objects, to be closed by the caller.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public Stream<FruitBasket> streamAll(int fetchSize) {
+        return ResultSetStream.open(connectionHandler, connectionHandler.getReadMode().call("{CALL uspGetAllBaskets}"),
+                fetchSize, this::mapToFruitBasket, "Error streaming all baskets.");
+    }
+
+    /**
+     * Retrieves the next page of baskets ordered by BasketNo.
+     * This method executes the stored procedure uspGetBasketsPage, which seeks past the
+     * given BasketNo so that later pages are as cheap to fetch as the first one.
+     *
+     * @param afterBasketNo The last BasketNo of the previous page, or null for the first page.
+     * @param pageSize The maximum number of baskets to return.
+     * @return A list of at most pageSize FruitBasket objects, empty when there are no more baskets.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public List<FruitBasket> getPage(String afterBasketNo, int pageSize) {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetBasketsPage(?, ?)}");
+        List<FruitBasket> baskets = new ArrayList<>(pageSize);
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.setString(1, afterBasketNo);
+            statement.setInt(2, pageSize);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    baskets.add(mapToFruitBasket(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Error fetching baskets after BasketNo: " + afterBasketNo, e);
+        }
+
+        return baskets;
+    }
+
+    /**
+     * Searches for baskets whose BasketNo or name starts with a prefix.
+     * This method executes the stored procedure uspSearchBaskets, which seeks the index of both
+     * columns and returns at most maxRows baskets.
+     *
+     * @param prefix The text to search for, matched case-insensitively under the default collation.
+     * @param maxRows The maximum number of baskets to return.
+     * @return A list of at most maxRows FruitBasket objects ordered by BasketNo.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public List<FruitBasket> search(String prefix, int maxRows) {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspSearchBaskets(?, ?)}");
+        List<FruitBasket> baskets = new ArrayList<>();
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.setString(1, prefix);
+            statement.setInt(2, maxRows);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    baskets.add(mapToFruitBasket(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Error searching for baskets starting with: " + prefix, e);
+        }
+
+        return baskets;
+    }
+
+    /**
+     * Retrieves a FruitBasket by BasketNo, from the cache if caching is enabled and otherwise
+     * from the database.
+     * This method executes the stored procedure uspGetBasketByBasketNo on a cache miss.
      *
      * @param basketNo The basket number.
-     * @return A FruitBasket object.
+     * @return A FruitBasket object, or null if there is no basket with that BasketNo.
      * @throws DaoException If there is an error accessing the database.
      */
     public FruitBasket getByBasketNo(String basketNo) {
-        String callProcedure = "{CALL uspGetBasketByBasketNo(?)}";
+        if (basketCache != null) {
+            return basketCache.getOrLoad(basketNo, this::fetchByBasketNo);
+        }
+        return fetchByBasketNo(basketNo);
+    }
+
+    /**
+     * Returns the statistics of the basket cache.
+     *
+     * @return A CacheStatistics object, or null if caching is disabled.
+     */
+    public CacheStatistics getCacheStatistics() {
+        return basketCache == null ? null : basketCache.getStatistics();
+    }
+
+    private FruitBasket fetchByBasketNo(String basketNo) {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetBasketByBasketNo(?)}");
 
         try (Connection connection = connectionHandler.getConnection();
                 CallableStatement statement = connection.prepareCall(callProcedure)) {
@@ -80,9 +219,10 @@ public class FruitBasketDao {
      * This method executes the stored procedure uspAddBasket
      *
      * @param basket The FruitBasket object containing the data to be saved.
+     * @return The in-memory instance of the basket, which is the given object unless the basket was already loaded.
      * @throws DaoException If there is an error saving the basket (e.g., if the BasketNo already exists).
      */
-    public void save(FruitBasket basket) {
+    public FruitBasket save(FruitBasket basket) {
         String callProcedure = "{CALL uspAddBasket(?, ?, ?)}";
 
         try (Connection connection = connectionHandler.getConnection();
@@ -91,16 +231,71 @@ public class FruitBasketDao {
             // Set basket data into the prepared statement
             statement.setString(1, basket.getBasketNo());
             statement.setString(2, basket.getName());
-            statement.setDouble(3, basket.getPrice());
+            statement.setBigDecimal(3, basket.getPrice());
 
             // Execute the insert operation
             statement.executeUpdate();
+
+            FruitBasket saved = identityMap.adopt(basket);
+            restoreOnRollback(basket.getBasketNo());
+            return saved;
         } catch (SQLException e) {
-            if (e.getErrorCode() == 2627) { // Unique constraint violation
+            if (e.getErrorCode() == 2627 || e.getErrorCode() == 2601) { // Unique key violation
                 throw new DaoException("A basket with this BasketNo already exists.", e);
             } else {
                 throw new DaoException("Error saving basket " + basket.getBasketNo() + ": " + e.getMessage(), e);
             }
+        } finally {
+            // Drops a cached "not found" for the new BasketNo
+            invalidate(basket.getBasketNo());
+        }
+    }
+
+    /**
+     * Saves a batch of new baskets to the database in a single round trip.
+     * This method executes the stored procedure uspAddBaskets with a table-valued parameter.
+     * Baskets that cannot be inserted (e.g., if the BasketNo already exists) are skipped
+     * and reported in the result, the rest of the batch is still inserted.
+     *
+     * @param baskets The FruitBasket objects to be saved.
+     * @return A BatchResult listing the baskets that were rejected and why.
+     * @throws DaoException If there is an error sending the batch to the database.
+     */
+    public BatchResult saveAll(Collection<FruitBasket> baskets) {
+        String callProcedure = "{CALL uspAddBaskets(?)}";
+        List<FruitBasket> batch = new ArrayList<>(baskets);
+
+        if (batch.isEmpty()) {
+            return new BatchResult(0, new ArrayList<>());
+        }
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            // Build the table-valued parameter, RowNo lets rejected rows be mapped back to the batch
+            SQLServerDataTable basketTable = new SQLServerDataTable();
+            basketTable.addColumnMetadata("RowNo", Types.INTEGER);
+            basketTable.addColumnMetadata("BasketNo", Types.VARCHAR);
+            basketTable.addColumnMetadata("BasketName", Types.VARCHAR);
+            basketTable.addColumnMetadata("Price", Types.DECIMAL);
+            for (int rowNo = 0; rowNo < batch.size(); rowNo++) {
+                FruitBasket basket = batch.get(rowNo);
+                basketTable.addRow(rowNo, basket.getBasketNo(), basket.getName(), basket.getPrice());
+            }
+            statement.unwrap(SQLServerCallableStatement.class).setStructured(1, "dbo.BasketTableType", basketTable);
+
+            // Execute the insert, the procedure returns the rows it skipped
+            BatchResult result;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                result = BatchResult.fromRejectedRows(resultSet, batch.size(), rowNo -> batch.get(rowNo).getBasketNo());
+            }
+            // A read in the same UnitOfWork may have cached the inserted baskets
+            connectionHandler.afterRollback(() -> batch.forEach(rolledBack -> invalidate(rolledBack.getBasketNo())));
+            return result;
+        } catch (SQLException e) {
+            throw new DaoException("Error saving " + batch.size() + " baskets: " + e.getMessage(), e);
+        } finally {
+            batch.forEach(basket -> invalidate(basket.getBasketNo()));
         }
     }
 
@@ -109,9 +304,10 @@ public class FruitBasketDao {
      * This method executes the stored procedure uspUpdateBasket
      *
      * @param basket The FruitBasket object containing the updated data.
+     * @return The in-memory instance of the basket, now holding the updated data.
      * @throws DaoException If there is an error updating the basket's data.
      */
-    public void update(FruitBasket basket) {
+    public FruitBasket update(FruitBasket basket) {
         String callProcedure = "{CALL uspUpdateBasket(?, ?, ?)}";
 
         try (Connection connection = connectionHandler.getConnection();
@@ -120,12 +316,18 @@ public class FruitBasketDao {
             // Set updated basket data into the prepared statement
             statement.setString(1, basket.getBasketNo());
             statement.setString(2, basket.getName());
-            statement.setDouble(3, basket.getPrice());
+            statement.setBigDecimal(3, basket.getPrice());
 
             // Execute the update operation
             statement.executeUpdate();
+
+            FruitBasket updated = identityMap.adopt(basket);
+            restoreOnRollback(basket.getBasketNo());
+            return updated;
         } catch (SQLException e) {
             throw new DaoException("Error updating basket: " + basket.getBasketNo(), e);
+        } finally {
+            invalidate(basket.getBasketNo());
         }
     }
 
@@ -147,70 +349,97 @@ public class FruitBasketDao {
 
             // Execute the delete operation
             statement.executeUpdate();
+            identityMap.removeBasket(basketNo);
+            restoreOnRollback(basketNo);
         } catch (SQLException e) {
             throw new DaoException("Error deleting basket with BasketNo: " + basketNo, e);
+        } finally {
+            invalidate(basketNo);
         }
     }
 
     /**
      * Retrieves all baskets and their respective customers.
-     * This method executes the stored procedure uspGetAllPurchases.
+     * This method executes the stored procedure uspGetPurchaseGraph, which returns customers,
+     * baskets and purchases in one round trip. Every customer exists once, so a customer who bought
+     * several baskets is the same object in each of their lists, and its getBaskets() list is filled too.
      *
      * @return A list of FruitBasket objects, each containing their customers.
      * @throws DaoException If there is an error accessing the database.
      */
     public List<FruitBasket> getAllBasketsWithCustomers() {
-        String callProcedure = "{CALL uspGetAllPurchases}";
-        List<FruitBasket> baskets = new ArrayList<>();
-
-        try (Connection connection = connectionHandler.getConnection();
-                CallableStatement statement = connection.prepareCall(callProcedure);
-                ResultSet resultSet = statement.executeQuery()) {
-
-            // Map to hold FruitBasket by BasketNo
-            Map<String, FruitBasket> basketMap = new HashMap<>();
-
-            while (resultSet.next()) {
-                String customerAccountNo = resultSet.getString("AccountNo");
-                String customerName = resultSet.getString("CustomerName");
-                String customerDeliveryAddress = resultSet.getString("DeliveryAddress");
-                String basketNo = resultSet.getString("BasketNo");
-                String basketName = resultSet.getString("BasketName");
-                double basketPrice = resultSet.getInt("Price");
-                // Get or create FruitBasket object
-                FruitBasket basket = basketMap.get(basketNo);
-                if (basket == null) {
-                    basket = new FruitBasket(basketNo, basketName, basketPrice);
-                    basketMap.put(basketNo, basket);
-                }
+        return PurchaseGraphLoader.load(connectionHandler, identityMap, null).getBaskets();
+    }
 
-                // Create Customer object with name and deliveryAddress and add to the basket's customer list
-                Customer customer = new Customer(customerAccountNo, customerName, customerDeliveryAddress);
-                basket.getCustomers().add(customer);
-            }
+    /**
+     * Retrieves the current sync version, to be remembered when loading baskets and later passed to getChangesSince.
+     * This method executes the stored procedure uspGetSyncVersion.
+     *
+     * @return The current sync version.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public long getSyncVersion() {
+        return ChangeTracking.getSyncVersion(connectionHandler);
+    }
 
-            // Add all baskets to the list
-            baskets.addAll(basketMap.values());
+    /**
+     * Retrieves the baskets inserted, updated or deleted after a sync version.
+     * This method executes the stored procedure uspGetBasketChangesSince, which finds them through the
+     * RowVersion column and the tombstones of deleted rows, so its cost depends on the number of
+     * changes rather than on the table size.
+     *
+     * @param sinceVersion The sync version the caller's baskets were loaded or last synchronized at.
+     * @return A ChangeSet whose deleted baskets only have their BasketNo set.
+     * @throws DaoException If there is an error accessing the database, or with isSyncVersionPurged()
+     *                      if the deletions since sinceVersion are no longer known.
+     */
+    public ChangeSet<FruitBasket> getChangesSince(long sinceVersion) {
+        ChangeSet<FruitBasket> changes = ChangeTracking.getChangesSince(connectionHandler,
+                connectionHandler.getReadMode().call("{CALL uspGetBasketChangesSince(?, ?)}"), sinceVersion,
+                this::mapToFruitBasket, resultSet -> new FruitBasket(resultSet.getString("BasketNo"), null, null),
+                "Error fetching baskets changed since version " + sinceVersion + ":");
+
+        // The changes may have been made by other clients, so the cache has not seen them
+        changes.getChanged().forEach(basket -> invalidate(basket.getBasketNo()));
+        changes.getDeleted().forEach(basket -> {
+            invalidate(basket.getBasketNo());
+            identityMap.removeBasket(basket.getBasketNo());
+        });
+        return changes;
+    }
 
-        } catch (SQLException e) {
-            throw new DaoException("Error fetching baskets and their customers.", e);
+    private void invalidate(String basketNo) {
+        if (basketCache != null) {
+            basketCache.invalidate(basketNo);
         }
+    }
 
-        return baskets;
+    /**
+     * Reloads a basket written in a UnitOfWork if the unit is rolled back, so that the
+     * in-memory instance goes back to the values in the database.
+     */
+    private void restoreOnRollback(String basketNo) {
+        connectionHandler.afterRollback(() -> {
+            invalidate(basketNo);
+            if (fetchByBasketNo(basketNo) == null) {
+                identityMap.removeBasket(basketNo);
+            }
+        });
     }
 
     /**
      * Maps a row in the ResultSet to a FruitBasket object.
-     * This method is a helper function used to convert the result of a SQL query into a FruitBasket object.
+     * The row is mapped through the identity map, so a basket already in memory is reused and
+     * updated on the identity map's update executor.
      *
      * @param resultSet The ResultSet containing the basket data.
      * @return A FruitBasket object with the data from the ResultSet.
      * @throws SQLException If there is an error accessing the data in the ResultSet.
      */
     private FruitBasket mapToFruitBasket(ResultSet resultSet) throws SQLException {
-        return new FruitBasket(
+        return identityMap.basket(
                 resultSet.getString("BasketNo"),
                 resultSet.getString("Name"),
-                resultSet.getDouble("Price"));
+                resultSet.getBigDecimal("Price"));
     }
 }
\ No newline at end of file
@@ -0,0 +1,361 @@
+package se.lu.ics.data;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import se.lu.ics.models.Customer;
+import se.lu.ics.models.FruitBasket;
+
+/**
+ * Session-scoped identity map ensuring that each customer and basket exists at most once in
+ * memory, keyed by AccountNo and BasketNo. The DAOs map every row through it: a row for an
+ * entity that is already in memory updates that instance and returns it, instead of creating
+ * a copy. Entities are held weakly, so the map does not keep unused entities alive.
+ *
+ * The instances in memory are the ones the views show, so they may only be changed on the
+ * thread the views read them on. The map therefore does not change an instance on the DAO's
+ * worker thread: it records the new values and applies them on the update executor, e.g. the
+ * JavaFX application thread, in one task for everything recorded since the last one ran. Since
+ * that task is queued before the DAO call returns, a result handed to the same thread afterwards,
+ * e.g. through FxCallbacks, already holds the new values. Listeners are told about every
+ * instance whose values were changed, so that a view can re-sort the rows showing it.
+ *
+ * All methods are thread-safe, since the DAOs run on several worker threads.
+ */
+public class IdentityMap {
+
+    private final WeakValueMap<String, Customer> customers = new WeakValueMap<>();
+    private final WeakValueMap<String, FruitBasket> baskets = new WeakValueMap<>();
+    private final Executor updateExecutor;
+
+    // The values waiting to be applied to instances in memory, by instance
+    private Map<Customer, Customer> pendingCustomers = new IdentityHashMap<>();
+    private Map<FruitBasket, FruitBasket> pendingBaskets = new IdentityHashMap<>();
+    private List<Runnable> pendingLinks = new ArrayList<>();
+    private boolean updateScheduled;
+
+    private final List<Consumer<Customer>> customerListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<FruitBasket>> basketListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates an identity map that changes the instances in memory on the calling thread,
+     * for use without a UI, e.g. by the benchmarks.
+     */
+    public IdentityMap() {
+        this(Runnable::run);
+    }
+
+    /**
+     * @param updateExecutor Runs the changes to instances in memory, e.g. Platform::runLater.
+     *                       It must run tasks in the order they are submitted.
+     */
+    public IdentityMap(Executor updateExecutor) {
+        this.updateExecutor = updateExecutor;
+    }
+
+    /**
+     * Returns the instance of a customer loaded from the database, to be updated with the loaded values.
+     *
+     * @return The existing instance for the AccountNo, or a new one if there is none.
+     */
+    public Customer customer(String accountNo, String name, String deliveryAddress) {
+        Customer customer;
+        synchronized (this) {
+            customer = customers.get(accountNo);
+            if (customer == null) {
+                customer = new Customer(accountNo, name, deliveryAddress);
+                customers.put(accountNo, customer);
+                return customer;
+            }
+            if (!updatePending(customer, new Customer(accountNo, name, deliveryAddress))) {
+                return customer;
+            }
+        }
+        scheduleUpdate();
+        return customer;
+    }
+
+    /**
+     * Returns the instance of a basket loaded from the database, to be updated with the loaded values.
+     *
+     * @return The existing instance for the BasketNo, or a new one if there is none.
+     */
+    public FruitBasket basket(String basketNo, String name, BigDecimal price) {
+        FruitBasket basket;
+        synchronized (this) {
+            basket = baskets.get(basketNo);
+            if (basket == null) {
+                basket = new FruitBasket(basketNo, name, price);
+                baskets.put(basketNo, basket);
+                return basket;
+            }
+            if (!updatePending(basket, new FruitBasket(basketNo, name, price))) {
+                return basket;
+            }
+        }
+        scheduleUpdate();
+        return basket;
+    }
+
+    /**
+     * Registers a customer that was just written to the database. If another instance of the
+     * customer is in memory, it is updated with the written values and returned instead.
+     *
+     * @param written The customer as it was saved or updated.
+     * @return The instance to use from now on.
+     */
+    public Customer adopt(Customer written) {
+        Customer customer;
+        synchronized (this) {
+            customer = customers.get(written.getAccountNo());
+            if (customer == null) {
+                customers.put(written.getAccountNo(), written);
+                return written;
+            }
+            if (customer == written || !updatePending(customer, written)) {
+                return customer;
+            }
+        }
+        scheduleUpdate();
+        return customer;
+    }
+
+    /**
+     * Registers a basket that was just written to the database. If another instance of the
+     * basket is in memory, it is updated with the written values and returned instead.
+     *
+     * @param written The basket as it was saved or updated.
+     * @return The instance to use from now on.
+     */
+    public FruitBasket adopt(FruitBasket written) {
+        FruitBasket basket;
+        synchronized (this) {
+            basket = baskets.get(written.getBasketNo());
+            if (basket == null) {
+                baskets.put(written.getBasketNo(), written);
+                return written;
+            }
+            if (basket == written || !updatePending(basket, written)) {
+                return basket;
+            }
+        }
+        scheduleUpdate();
+        return basket;
+    }
+
+    /**
+     * Like adopt(Customer), but updates the instance in memory right away. Only to be called on
+     * the update executor's thread, e.g. by a view showing a write it has queued before it is saved.
+     *
+     * @param written The customer as it is going to be stored.
+     * @return The instance to use from now on, already holding the written values.
+     */
+    public Customer adoptNow(Customer written) {
+        Customer customer;
+        synchronized (this) {
+            customer = customers.get(written.getAccountNo());
+            if (customer == null) {
+                customers.put(written.getAccountNo(), written);
+                return written;
+            }
+            // Values loaded before the write would otherwise overwrite it when applied
+            pendingCustomers.remove(customer);
+            if (customer == written || !apply(customer, written)) {
+                return customer;
+            }
+        }
+        customerListeners.forEach(listener -> listener.accept(customer));
+        return customer;
+    }
+
+    /**
+     * Replaces the baskets of each customer and the customers of each basket, once the values
+     * recorded so far have been applied.
+     *
+     * @param basketsByCustomer The baskets each customer has bought.
+     * @param customersByBasket The customers who have bought each basket.
+     */
+    void link(Map<Customer, List<FruitBasket>> basketsByCustomer, Map<FruitBasket, List<Customer>> customersByBasket) {
+        synchronized (this) {
+            pendingLinks.add(() -> {
+                basketsByCustomer.forEach((customer, customerBaskets) -> {
+                    customer.getBaskets().clear();
+                    customer.getBaskets().addAll(customerBaskets);
+                });
+                customersByBasket.forEach((basket, basketCustomers) -> {
+                    basket.getCustomers().clear();
+                    basket.getCustomers().addAll(basketCustomers);
+                });
+            });
+        }
+        scheduleUpdate();
+    }
+
+    /**
+     * Registers a listener told, on the update executor's thread, about every customer in memory
+     * whose values have been changed.
+     */
+    public void addCustomerListener(Consumer<Customer> listener) {
+        customerListeners.add(listener);
+    }
+
+    public void removeCustomerListener(Consumer<Customer> listener) {
+        customerListeners.remove(listener);
+    }
+
+    /**
+     * Registers a listener told, on the update executor's thread, about every basket in memory
+     * whose values have been changed.
+     */
+    public void addBasketListener(Consumer<FruitBasket> listener) {
+        basketListeners.add(listener);
+    }
+
+    public void removeBasketListener(Consumer<FruitBasket> listener) {
+        basketListeners.remove(listener);
+    }
+
+    /**
+     * Returns the AccountNo string held by the customer in memory, so that purchases share it
+     * instead of each holding its own copy.
+     *
+     * @return The customer's AccountNo instance if the customer is in memory, otherwise accountNo.
+     */
+    public synchronized String accountNo(String accountNo) {
+        Customer customer = customers.get(accountNo);
+        return customer == null ? accountNo : customer.getAccountNo();
+    }
+
+    /**
+     * Returns the BasketNo string held by the basket in memory, see accountNo(String).
+     *
+     * @return The basket's BasketNo instance if the basket is in memory, otherwise basketNo.
+     */
+    public synchronized String basketNo(String basketNo) {
+        FruitBasket basket = baskets.get(basketNo);
+        return basket == null ? basketNo : basket.getBasketNo();
+    }
+
+    public synchronized void removeCustomer(String accountNo) {
+        customers.remove(accountNo);
+    }
+
+    public synchronized void removeBasket(String basketNo) {
+        baskets.remove(basketNo);
+    }
+
+    /**
+     * @return The number of customers currently in memory.
+     */
+    public synchronized int getCustomerCount() {
+        return customers.size();
+    }
+
+    /**
+     * @return The number of baskets currently in memory.
+     */
+    public synchronized int getBasketCount() {
+        return baskets.size();
+    }
+
+    /**
+     * Records the values to apply to a customer, unless it already holds or is about to get them.
+     * The instance's fields are only changed while holding the lock, so they can be read here.
+     *
+     * @return true if an update has to be scheduled.
+     */
+    private boolean updatePending(Customer customer, Customer values) {
+        Customer current = pendingCustomers.getOrDefault(customer, customer);
+        if (Objects.equals(current.getName(), values.getName())
+                && Objects.equals(current.getDeliveryAddress(), values.getDeliveryAddress())) {
+            return false;
+        }
+        pendingCustomers.put(customer, values);
+        return true;
+    }
+
+    private boolean updatePending(FruitBasket basket, FruitBasket values) {
+        FruitBasket current = pendingBaskets.getOrDefault(basket, basket);
+        if (Objects.equals(current.getName(), values.getName())
+                && Objects.equals(current.getPrice(), values.getPrice())) {
+            return false;
+        }
+        pendingBaskets.put(basket, values);
+        return true;
+    }
+
+    /**
+     * Queues a task applying the recorded values, unless one is already queued.
+     */
+    private void scheduleUpdate() {
+        synchronized (this) {
+            if (updateScheduled) {
+                return;
+            }
+            updateScheduled = true;
+        }
+        updateExecutor.execute(this::applyPending);
+    }
+
+    /**
+     * Applies the values recorded since the last run and relinks the loaded graphs, then tells the
+     * listeners which instances have changed.
+     */
+    private void applyPending() {
+        List<Customer> changedCustomers = new ArrayList<>();
+        List<FruitBasket> changedBaskets = new ArrayList<>();
+        synchronized (this) {
+            updateScheduled = false;
+            pendingCustomers.forEach((customer, values) -> {
+                if (apply(customer, values)) {
+                    changedCustomers.add(customer);
+                }
+            });
+            pendingBaskets.forEach((basket, values) -> {
+                if (apply(basket, values)) {
+                    changedBaskets.add(basket);
+                }
+            });
+            pendingLinks.forEach(Runnable::run);
+            pendingCustomers = new IdentityHashMap<>();
+            pendingBaskets = new IdentityHashMap<>();
+            pendingLinks = new ArrayList<>();
+        }
+        // Outside the lock, since a listener may call back into the DAOs
+        for (Customer customer : changedCustomers) {
+            customerListeners.forEach(listener -> listener.accept(customer));
+        }
+        for (FruitBasket basket : changedBaskets) {
+            basketListeners.forEach(listener -> listener.accept(basket));
+        }
+    }
+
+    /**
+     * @return true if the customer's values changed.
+     */
+    private static boolean apply(Customer customer, Customer values) {
+        if (Objects.equals(customer.getName(), values.getName())
+                && Objects.equals(customer.getDeliveryAddress(), values.getDeliveryAddress())) {
+            return false;
+        }
+        customer.setName(values.getName());
+        customer.setDeliveryAddress(values.getDeliveryAddress());
+        return true;
+    }
+
+    private static boolean apply(FruitBasket basket, FruitBasket values) {
+        if (Objects.equals(basket.getName(), values.getName()) && Objects.equals(basket.getPrice(), values.getPrice())) {
+            return false;
+        }
+        basket.setName(values.getName());
+        basket.setPrice(values.getPrice());
+        return true;
+    }
+}
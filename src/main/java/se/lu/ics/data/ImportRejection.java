@@ -0,0 +1,30 @@
+package se.lu.ics.data;
+
+/**
+ * A line of an imported file that was not imported, together with the reason.
+ */
+public class ImportRejection {
+    private final long lineNumber;
+    private final String reason;
+
+    ImportRejection(long lineNumber, String reason) {
+        this.lineNumber = lineNumber;
+        this.reason = reason;
+    }
+
+    /**
+     * @return The 1-based line number in the imported file.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "Line " + lineNumber + ": " + reason;
+    }
+}
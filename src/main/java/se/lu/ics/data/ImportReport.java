@@ -0,0 +1,62 @@
+package se.lu.ics.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Summary of a finished import: how many lines were read, imported and rejected, how long
+ * it took, and the first rejected lines. Only a bounded number of rejections is kept so that
+ * importing a very bad file does not use unbounded memory; getRejectedCount() is always exact.
+ */
+public class ImportReport {
+    private final long linesRead;
+    private final long importedCount;
+    private final long rejectedCount;
+    private final List<ImportRejection> rejections;
+    private final long elapsedNanos;
+
+    ImportReport(long linesRead, long importedCount, long rejectedCount, List<ImportRejection> rejections,
+            long elapsedNanos) {
+        this.linesRead = linesRead;
+        this.importedCount = importedCount;
+        this.rejectedCount = rejectedCount;
+        this.rejections = Collections.unmodifiableList(rejections);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public long getImportedCount() {
+        return importedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return The first rejected lines. May hold fewer entries than getRejectedCount().
+     */
+    public List<ImportRejection> getRejections() {
+        return rejections;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * @return The number of imported rows per second of wall-clock time.
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : importedCount * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Read %d lines, imported %d, rejected %d in %d ms (%.0f rows/s)",
+                linesRead, importedCount, rejectedCount, getElapsedMillis(), getRowsPerSecond());
+    }
+}
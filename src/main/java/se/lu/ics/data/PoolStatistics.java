@@ -0,0 +1,103 @@
+package se.lu.ics.data;
+
+/**
+ * An immutable snapshot of the connection pool's counters, as returned by
+ * ConnectionHandler.getPoolStatistics().
+ */
+public class PoolStatistics {
+    private final int totalConnections;
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int waitingThreads;
+    private final int minSize;
+    private final int maxSize;
+    private final long createdCount;
+    private final long destroyedCount;
+    private final long borrowCount;
+    private final long timeoutCount;
+    private final long leakCount;
+
+    PoolStatistics(int totalConnections, int activeConnections, int idleConnections, int waitingThreads,
+            int minSize, int maxSize, long createdCount, long destroyedCount, long borrowCount,
+            long timeoutCount, long leakCount) {
+        this.totalConnections = totalConnections;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.waitingThreads = waitingThreads;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.createdCount = createdCount;
+        this.destroyedCount = destroyedCount;
+        this.borrowCount = borrowCount;
+        this.timeoutCount = timeoutCount;
+        this.leakCount = leakCount;
+    }
+
+    /** @return The number of open physical connections, borrowed or idle. */
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    /** @return The number of connections currently borrowed by callers. */
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    /** @return The number of open connections waiting in the pool. */
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    /** @return The number of threads currently waiting for a connection. */
+    public int getWaitingThreads() {
+        return waitingThreads;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return The number of physical connections opened since the pool was created. */
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    /** @return The number of physical connections closed by eviction, validation failure or shutdown. */
+    public long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    /** @return The number of successful borrows since the pool was created. */
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /** @return The number of borrows that gave up after the acquire timeout. */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /** @return The number of connections reported as possible leaks. */
+    public long getLeakCount() {
+        return leakCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStatistics[total=" + totalConnections
+                + ", active=" + activeConnections
+                + ", idle=" + idleConnections
+                + ", waiting=" + waitingThreads
+                + ", min=" + minSize
+                + ", max=" + maxSize
+                + ", created=" + createdCount
+                + ", destroyed=" + destroyedCount
+                + ", borrows=" + borrowCount
+                + ", timeouts=" + timeoutCount
+                + ", leaks=" + leakCount + "]";
+    }
+}
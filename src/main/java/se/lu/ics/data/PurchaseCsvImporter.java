@@ -0,0 +1,292 @@
+package se.lu.ics.data;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.sqlserver.jdbc.SQLServerDataTable;
+
+import se.lu.ics.models.PurchaseColumnStore;
+
+/**
+ * Imports purchases from CSV files with one AccountNo,BasketNo,PurchaseDate row per line,
+ * e.g. "C123,B01,2024-10-22". A header line starting with "AccountNo" is skipped.
+ *
+ * The file is memory-mapped a window at a time and parsed directly from the mapped bytes,
+ * so memory use does not depend on the file size. Keys are validated against the Cnnn/Bnn
+ * formats while parsing and are kept as small ints; the String for each key is created once
+ * by PurchaseColumnStore and reused for every row. Valid rows are buffered into fixed-size chunks that are written
+ * with uspAddPurchases, which resolves the keys and inserts each chunk in one statement.
+ *
+ * Each chunk commits on its own, so a failure part way through a file leaves the chunks before
+ * it imported. importFileAtomically runs the whole file in one UnitOfWork instead, so that the
+ * file is imported completely or not at all, at the cost of holding its locks until the end.
+ */
+public class PurchaseCsvImporter {
+    private static final int DEFAULT_CHUNK_SIZE = 5000;
+    private static final int WINDOW_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_REPORTED_REJECTIONS = 1000;
+
+    private final ConnectionHandler connectionHandler;
+    private final PurchaseDao purchaseDao;
+    private final int chunkSize;
+
+    public PurchaseCsvImporter(ConnectionHandler connectionHandler, PurchaseDao purchaseDao) {
+        this(connectionHandler, purchaseDao, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param connectionHandler The handler the DAO uses, which the atomic import begins its UnitOfWork on.
+     * @param purchaseDao The DAO used to write the chunks.
+     * @param chunkSize The number of rows sent to the database per round trip.
+     */
+    public PurchaseCsvImporter(ConnectionHandler connectionHandler, PurchaseDao purchaseDao, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.connectionHandler = connectionHandler;
+        this.purchaseDao = purchaseDao;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Imports all purchases in the given file in one UnitOfWork. Lines that are malformed or
+     * refer to unknown customers or baskets are rejected and reported as by importFile, but if
+     * the file cannot be read or a chunk cannot be written, no purchase from the file is imported.
+     *
+     * @param file The CSV file to import.
+     * @return An ImportReport with counts, throughput and the first rejected lines.
+     * @throws IOException If the file cannot be read.
+     * @throws DaoException If a chunk cannot be written or the import cannot be committed.
+     */
+    public ImportReport importFileAtomically(Path file) throws IOException {
+        try (UnitOfWork unit = connectionHandler.beginUnitOfWork()) {
+            ImportReport report = importFile(file);
+            unit.commit();
+            return report;
+        }
+    }
+
+    /**
+     * Imports all purchases in the given file. Lines that are malformed or refer to unknown
+     * customers or baskets are rejected and reported, the remaining lines are imported.
+     *
+     * @param file The CSV file to import.
+     * @return An ImportReport with counts, throughput and the first rejected lines.
+     * @throws IOException If the file cannot be read.
+     * @throws DaoException If a chunk cannot be written to the database.
+     */
+    public ImportReport importFile(Path file) throws IOException {
+        ImportRun run = new ImportRun();
+        long started = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+                int length = (int) Math.min(WINDOW_SIZE, size - position);
+                boolean lastWindow = position + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (window.get(i) == '\n') {
+                        run.acceptLine(window, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+
+                if (lastWindow) {
+                    if (lineStart < length) {
+                        run.acceptLine(window, lineStart, length);
+                    }
+                    position = size;
+                } else if (lineStart == 0) {
+                    throw new IOException("Line " + (run.lineNumber + 1) + " is longer than " + WINDOW_SIZE + " bytes");
+                } else {
+                    // Continue from the start of the incomplete line at the end of this window
+                    position += lineStart;
+                }
+            }
+        }
+
+        run.flush();
+        return new ImportReport(run.lineNumber, run.importedCount, run.rejectedCount, run.rejections,
+                System.nanoTime() - started);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int digit(MappedByteBuffer buffer, int index) {
+        return buffer.get(index) - '0';
+    }
+
+    /**
+     * The state of one import: the current chunk and the running counters.
+     */
+    private final class ImportRun {
+        private final int[] accountKeys = new int[chunkSize];
+        private final int[] basketKeys = new int[chunkSize];
+        private final Date[] purchaseDates = new Date[chunkSize];
+        private final long[] lineNumbers = new long[chunkSize];
+        private int chunkLength;
+
+        private final List<ImportRejection> rejections = new ArrayList<>();
+        private long lineNumber;
+        private long importedCount;
+        private long rejectedCount;
+
+        // Purchase files usually hold long runs of the same date, so the last one is reused
+        private final byte[] lastDateBytes = new byte[10];
+        private Date lastDate;
+
+        private void acceptLine(MappedByteBuffer line, int start, int end) {
+            lineNumber++;
+
+            // Trim surrounding whitespace, including the \r of Windows line endings
+            while (start < end && line.get(start) <= ' ') {
+                start++;
+            }
+            while (end > start && line.get(end - 1) <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                return;
+            }
+            if (lineNumber == 1 && line.get(start) == 'A') {
+                return; // header line
+            }
+
+            // AccountNo: Cnnn
+            int accountEnd = skipField(line, start, end);
+            if (accountEnd - start != 4 || line.get(start) != 'C' || !isDigit(line.get(start + 1))
+                    || !isDigit(line.get(start + 2)) || !isDigit(line.get(start + 3))) {
+                reject("AccountNo must be formatted as Cnnn, where n is a decimal digit");
+                return;
+            }
+            int accountKey = digit(line, start + 1) * 100 + digit(line, start + 2) * 10 + digit(line, start + 3);
+
+            // BasketNo: Bnn
+            int basketStart = accountEnd + 1;
+            int basketEnd = skipField(line, basketStart, end);
+            if (basketEnd - basketStart != 3 || line.get(basketStart) != 'B'
+                    || !isDigit(line.get(basketStart + 1)) || !isDigit(line.get(basketStart + 2))) {
+                reject("BasketNo must be formatted as Bnn, where n is a decimal digit");
+                return;
+            }
+            int basketKey = digit(line, basketStart + 1) * 10 + digit(line, basketStart + 2);
+
+            // PurchaseDate: yyyy-mm-dd
+            int dateStart = basketEnd + 1;
+            if (end - dateStart != 10) {
+                reject("PurchaseDate must be formatted as yyyy-mm-dd");
+                return;
+            }
+            Date purchaseDate = parseDate(line, dateStart);
+            if (purchaseDate == null) {
+                reject("PurchaseDate must be a valid date formatted as yyyy-mm-dd");
+                return;
+            }
+
+            accountKeys[chunkLength] = accountKey;
+            basketKeys[chunkLength] = basketKey;
+            purchaseDates[chunkLength] = purchaseDate;
+            lineNumbers[chunkLength] = lineNumber;
+            chunkLength++;
+
+            if (chunkLength == chunkSize) {
+                flush();
+            }
+        }
+
+        /**
+         * @return The index of the comma ending the field that starts at start, or end if there is none.
+         */
+        private int skipField(MappedByteBuffer line, int start, int end) {
+            int i = start;
+            while (i < end && line.get(i) != ',') {
+                i++;
+            }
+            return i;
+        }
+
+        private Date parseDate(MappedByteBuffer line, int start) {
+            boolean sameAsLast = lastDate != null;
+            for (int i = 0; i < 10 && sameAsLast; i++) {
+                sameAsLast = line.get(start + i) == lastDateBytes[i];
+            }
+            if (sameAsLast) {
+                return lastDate;
+            }
+
+            for (int i = 0; i < 10; i++) {
+                byte b = line.get(start + i);
+                if (i == 4 || i == 7 ? b != '-' : !isDigit(b)) {
+                    return null;
+                }
+            }
+            int year = digit(line, start) * 1000 + digit(line, start + 1) * 100
+                    + digit(line, start + 2) * 10 + digit(line, start + 3);
+            int month = digit(line, start + 5) * 10 + digit(line, start + 6);
+            int day = digit(line, start + 8) * 10 + digit(line, start + 9);
+            try {
+                lastDate = Date.valueOf(LocalDate.of(year, month, day));
+            } catch (DateTimeException e) {
+                return null;
+            }
+            for (int i = 0; i < 10; i++) {
+                lastDateBytes[i] = line.get(start + i);
+            }
+            return lastDate;
+        }
+
+        private void reject(String reason) {
+            rejectedCount++;
+            if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                rejections.add(new ImportRejection(lineNumber, reason));
+            }
+        }
+
+        /**
+         * Writes the buffered rows to the database and records the rows the database refused.
+         */
+        private void flush() {
+            if (chunkLength == 0) {
+                return;
+            }
+            try {
+                SQLServerDataTable purchaseTable = PurchaseDao.newPurchaseTable();
+                for (int rowNo = 0; rowNo < chunkLength; rowNo++) {
+                    purchaseTable.addRow(rowNo, PurchaseColumnStore.accountNo(accountKeys[rowNo]),
+                            PurchaseColumnStore.basketNo(basketKeys[rowNo]),
+                            purchaseDates[rowNo]);
+                }
+                BatchResult result = purchaseDao.savePurchaseTable(purchaseTable, chunkLength,
+                        rowNo -> Long.toString(lineNumbers[rowNo]));
+
+                importedCount += result.getInsertedCount();
+                rejectedCount += result.getRejections().size();
+                for (BatchRejection rejection : result.getRejections()) {
+                    if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                        rejections.add(new ImportRejection(lineNumbers[rejection.getIndex()], rejection.getMessage()));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new DaoException("Error importing purchases ending at line " + lineNumbers[chunkLength - 1]
+                        + ": " + e.getMessage(), e);
+            }
+            chunkLength = 0;
+        }
+    }
+}
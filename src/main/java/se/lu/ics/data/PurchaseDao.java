@@ -1,21 +1,63 @@
 package se.lu.ics.data;
 
-import java.io.IOException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+import com.microsoft.sqlserver.jdbc.SQLServerCallableStatement;
+import com.microsoft.sqlserver.jdbc.SQLServerDataTable;
 
 import se.lu.ics.models.Purchase;
+import se.lu.ics.models.PurchaseColumnStore;
 
 public class PurchaseDao {
 
-    private ConnectionHandler connectionHandler;
+    private static final int DEFAULT_FETCH_SIZE = 500;
+
+    private final ConnectionHandler connectionHandler;
+    private final PurchaseProcedureSet procedureSet;
+    private final IdentityMap identityMap;
+
+    public PurchaseDao(ConnectionHandler connectionHandler) {
+        this(connectionHandler, PurchaseProcedureSet.V2);
+    }
+
+    /**
+     * Creates a PurchaseDao that writes purchases with the given generation of stored procedures.
+     *
+     * @param connectionHandler The handler used to obtain connections.
+     * @param procedureSet The procedures used by save, update and deleteByAccountNoBasketNo.
+     */
+    public PurchaseDao(ConnectionHandler connectionHandler, PurchaseProcedureSet procedureSet) {
+        this(connectionHandler, procedureSet, new IdentityMap());
+    }
+
+    /**
+     * Creates a PurchaseDao whose purchases share the AccountNo and BasketNo strings of the
+     * customers and baskets in the session's IdentityMap.
+     *
+     * @param connectionHandler The handler used to obtain connections.
+     * @param procedureSet The procedures used by save, update and deleteByAccountNoBasketNo.
+     * @param identityMap The identity map shared by the DAOs of the session.
+     */
+    public PurchaseDao(ConnectionHandler connectionHandler, PurchaseProcedureSet procedureSet,
+            IdentityMap identityMap) {
+        this.connectionHandler = connectionHandler;
+        this.procedureSet = procedureSet;
+        this.identityMap = identityMap;
+    }
 
-    public PurchaseDao() throws IOException {
-        this.connectionHandler = new ConnectionHandler();
+    public PurchaseProcedureSet getProcedureSet() {
+        return procedureSet;
     }
 
     /**
@@ -28,7 +70,7 @@ public class PurchaseDao {
      * @throws DaoException If there is an error accessing the database.
      */
     public Purchase getByAccountNoBasketNo(String accountNo, String basketNo) {
-        String callProcedure = "{CALL uspGetPurchaseByAccountNoBasketNo(?, ?)}";
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetPurchaseByAccountNoBasketNo(?, ?)}");
 
         try (Connection connection = connectionHandler.getConnection();
                 CallableStatement statement = connection.prepareCall(callProcedure)) {
@@ -38,7 +80,7 @@ public class PurchaseDao {
 
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
-                    return new Purchase(accountNo, basketNo, resultSet.getString("PurchaseDate"));
+                    return new Purchase(accountNo, basketNo, resultSet.getObject("PurchaseDate", LocalDate.class));
                 } else {
                     return null; // basket not found
                 }
@@ -56,7 +98,7 @@ public class PurchaseDao {
      * @throws DaoException If there is an error accessing the database.
      */
     public List<Purchase> getAll() {
-        String callProcedure = "{CALL uspGetAllPurchases}";
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetAllPurchases}");
         List<Purchase> purchases = new ArrayList<>();
 
         try (Connection connection = connectionHandler.getConnection();
@@ -74,9 +116,99 @@ public class PurchaseDao {
         return purchases;
     }
 
+    /**
+     * Retrieves all purchases from the database into a PurchaseColumnStore, without creating
+     * a Purchase object per row.
+     * This method executes the stored procedure uspGetAllPurchases.
+     *
+     * @return A PurchaseColumnStore holding every purchase in AccountNo, BasketNo order.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public PurchaseColumnStore getAllAsColumnStore() {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetAllPurchases}");
+        PurchaseColumnStore.Builder builder = new PurchaseColumnStore.Builder();
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.setFetchSize(DEFAULT_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    builder.add(PurchaseColumnStore.accountKey(resultSet.getString("AccountNo")),
+                            PurchaseColumnStore.basketKey(resultSet.getString("BasketNo")),
+                            PurchaseColumnStore.epochDay(resultSet.getObject("PurchaseDate", LocalDate.class)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Error fetching all purchases.", e);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Streams all purchases from the database without materializing them in a list.
+     * This method executes the stored procedure uspGetAllPurchases.
+     * Rows are fetched as the stream is consumed and the connection is released when the
+     * stream is exhausted or closed, so the stream should be used in a try-with-resources block.
+     *
+     * @return A lazily consumed Stream of Purchase objects.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public Stream<Purchase> streamAll() {
+        return streamAll(DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Streams all purchases from the database without materializing them in a list.
+     * This method executes the stored procedure uspGetAllPurchases.
+     *
+     * @param fetchSize The number of rows the driver should fetch per round trip.
+     * @return A lazily consumed Stream of Purchase objects, to be closed by the caller.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public Stream<Purchase> streamAll(int fetchSize) {
+        return ResultSetStream.open(connectionHandler, connectionHandler.getReadMode().call("{CALL uspGetAllPurchases}"),
+                fetchSize, this::mapToPurchase, "Error streaming all purchases.");
+    }
+
+    /**
+     * Retrieves the next page of purchases ordered by AccountNo, BasketNo.
+     * This method executes the stored procedure uspGetPurchasesPage, which seeks past the
+     * given key so that later pages are as cheap to fetch as the first one.
+     *
+     * @param afterAccountNo The AccountNo of the last purchase of the previous page, or null for the first page.
+     * @param afterBasketNo The BasketNo of the last purchase of the previous page, or null for the first page.
+     * @param pageSize The maximum number of purchases to return.
+     * @return A list of at most pageSize Purchase objects, empty when there are no more purchases.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public List<Purchase> getPage(String afterAccountNo, String afterBasketNo, int pageSize) {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetPurchasesPage(?, ?, ?)}");
+        List<Purchase> purchases = new ArrayList<>(pageSize);
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.setString(1, afterAccountNo);
+            statement.setString(2, afterBasketNo);
+            statement.setInt(3, pageSize);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    purchases.add(mapToPurchase(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Error fetching purchases after AccountNo: " + afterAccountNo + ", BasketNo: " + afterBasketNo, e);
+        }
+
+        return purchases;
+    }
+
     /**
      * Saves a new purchase to the database.
-     * This method executes the stored procedure uspAddPurchase
+     * This method executes the stored procedure uspAddPurchase or uspAddPurchaseV2, depending on the procedure set.
      *
      * @param customer The Customer object purchasing
      * @param basket The FruitBasket object being purchased
@@ -84,7 +216,7 @@ public class PurchaseDao {
      * @throws DaoException If there is an error saving the purchase (e.g., if the unique key {AccountNo, BasketNo} already exists).
      */
     public void save(Purchase purchase) {
-        String callProcedure = "{CALL uspAddPurchase(?, ?, ?)}";
+        String callProcedure = procedureSet.getAddCall();
 
         try (Connection connection = connectionHandler.getConnection();
                 CallableStatement statement = connection.prepareCall(callProcedure)) {
@@ -92,7 +224,7 @@ public class PurchaseDao {
             // Set purchase data into the prepared statement
             statement.setString(1, purchase.getBasketNo());
             statement.setString(2, purchase.getAccountNo());
-            statement.setString(3, purchase.getPurchaseDate());
+            statement.setObject(3, purchase.getPurchaseDate());
 
             // Execute the insert operation
             statement.executeUpdate();
@@ -105,9 +237,83 @@ public class PurchaseDao {
         }
     }
 
+    /**
+     * Saves a batch of new purchases to the database in a single round trip.
+     * This method executes the stored procedure uspAddPurchases with a table-valued parameter.
+     * Purchases that cannot be inserted (e.g., if the customer does not exist or the purchase
+     * already exists) are skipped and reported in the result, the rest of the batch is still inserted.
+     *
+     * @param purchases The Purchase objects to be saved.
+     * @return A BatchResult listing the purchases that were rejected and why.
+     * @throws DaoException If there is an error sending the batch to the database.
+     */
+    public BatchResult saveAll(Collection<Purchase> purchases) {
+        List<Purchase> batch = new ArrayList<>(purchases);
+
+        if (batch.isEmpty()) {
+            return new BatchResult(0, new ArrayList<>());
+        }
+
+        try {
+            SQLServerDataTable purchaseTable = newPurchaseTable();
+            for (int rowNo = 0; rowNo < batch.size(); rowNo++) {
+                Purchase purchase = batch.get(rowNo);
+                // PurchaseDate is nullable, a purchase without a date is stored with NULL
+                LocalDate purchaseDate = purchase.getPurchaseDate();
+                purchaseTable.addRow(rowNo, purchase.getAccountNo(), purchase.getBasketNo(),
+                        purchaseDate == null ? null : Date.valueOf(purchaseDate));
+            }
+            return savePurchaseTable(purchaseTable, batch.size(),
+                    rowNo -> batch.get(rowNo).getAccountNo() + ", " + batch.get(rowNo).getBasketNo());
+        } catch (SQLException e) {
+            throw new DaoException("Error saving " + batch.size() + " purchases: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates an empty table-valued parameter matching the PurchaseTableType SQL type.
+     *
+     * @return An SQLServerDataTable with the (RowNo, AccountNo, BasketNo, PurchaseDate) columns.
+     * @throws SQLException If the column metadata cannot be added.
+     */
+    static SQLServerDataTable newPurchaseTable() throws SQLException {
+        SQLServerDataTable purchaseTable = new SQLServerDataTable();
+        purchaseTable.addColumnMetadata("RowNo", Types.INTEGER);
+        purchaseTable.addColumnMetadata("AccountNo", Types.VARCHAR);
+        purchaseTable.addColumnMetadata("BasketNo", Types.VARCHAR);
+        purchaseTable.addColumnMetadata("PurchaseDate", Types.DATE);
+        return purchaseTable;
+    }
+
+    /**
+     * Sends a table of purchases created by newPurchaseTable() to the database.
+     * This method executes the stored procedure uspAddPurchases.
+     *
+     * @param purchaseTable The purchases to insert, with RowNo numbered from 0.
+     * @param rowCount The number of rows in the table.
+     * @param keyOfRow Returns the key reported for a rejected row.
+     * @return A BatchResult listing the rows that were rejected and why.
+     * @throws SQLException If there is an error sending the batch to the database.
+     */
+    BatchResult savePurchaseTable(SQLServerDataTable purchaseTable, int rowCount, IntFunction<String> keyOfRow)
+            throws SQLException {
+        String callProcedure = "{CALL uspAddPurchases(?)}";
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.unwrap(SQLServerCallableStatement.class).setStructured(1, "dbo.PurchaseTableType", purchaseTable);
+
+            // Execute the insert, the procedure returns the rows it skipped
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return BatchResult.fromRejectedRows(resultSet, rowCount, keyOfRow);
+            }
+        }
+    }
+
     /**
      * Updates an existing purchase's details in the database.
-     * This method executes the stored procedure uspUpdatePurchase
+     * This method executes the stored procedure uspUpdatePurchase or uspUpdatePurchaseV2, depending on the procedure set.
      *
      * @param customer The new Customer object purchasing
      * @param basket The new FruitBasket object being purchased
@@ -115,7 +321,7 @@ public class PurchaseDao {
      * @throws DaoException If there is an error updating the purchase's data.
      */
     public void update(Purchase purchase) {
-        String callProcedure = "{CALL uspUpdatePurchase(?, ?, ?)}";
+        String callProcedure = procedureSet.getUpdateCall();
 
         try (Connection connection = connectionHandler.getConnection();
                 CallableStatement statement = connection.prepareCall(callProcedure)) {
@@ -123,7 +329,7 @@ public class PurchaseDao {
             // Set updated basket data into the prepared statement
             statement.setString(1, purchase.getAccountNo());
             statement.setString(2, purchase.getBasketNo());
-            statement.setString(3, purchase.getPurchaseDate());
+            statement.setObject(3, purchase.getPurchaseDate());
 
             // Execute the update operation
             statement.executeUpdate();
@@ -134,14 +340,14 @@ public class PurchaseDao {
 
     /**
      * Deletes a purchase from the database by {AccountNo, BasketNo}
-     * This method executes the stored procedure uspDeletePurchase
+     * This method executes the stored procedure uspDeletePurchase or uspDeletePurchaseV2, depending on the procedure set.
      *
      * @param customer The Customer involved in the purchase
      * @param basket The FruitBasket involved in the purchase
      * @throws DaoException If there is an error deleting the purchase.
      */
     public void deleteByAccountNoBasketNo(String accountNo, String basketNo) {
-        String callProcedure = "{CALL uspDeletePurchase(?, ?)}";
+        String callProcedure = procedureSet.getDeleteCall();
 
         try (Connection connection = connectionHandler.getConnection();
                 CallableStatement statement = connection.prepareCall(callProcedure)) {
@@ -157,18 +363,48 @@ public class PurchaseDao {
         }
     }
 
+    /**
+     * Retrieves the current sync version, to be remembered when loading purchases and later passed to getChangesSince.
+     * This method executes the stored procedure uspGetSyncVersion.
+     *
+     * @return The current sync version.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public long getSyncVersion() {
+        return ChangeTracking.getSyncVersion(connectionHandler);
+    }
+
+    /**
+     * Retrieves the purchases inserted, updated or deleted after a sync version.
+     * This method executes the stored procedure uspGetPurchaseChangesSince, which finds them through the
+     * RowVersion column and the tombstones of deleted rows, so its cost depends on the number of
+     * changes rather than on the table size.
+     *
+     * @param sinceVersion The sync version the caller's purchases were loaded or last synchronized at.
+     * @return A ChangeSet whose deleted purchases only have their AccountNo and BasketNo set.
+     * @throws DaoException If there is an error accessing the database, or with isSyncVersionPurged()
+     *                      if the deletions since sinceVersion are no longer known.
+     */
+    public ChangeSet<Purchase> getChangesSince(long sinceVersion) {
+        return ChangeTracking.getChangesSince(connectionHandler,
+                connectionHandler.getReadMode().call("{CALL uspGetPurchaseChangesSince(?, ?)}"), sinceVersion,
+                this::mapToPurchase, resultSet -> new Purchase(resultSet.getString("AccountNo"), resultSet.getString("BasketNo"), null),
+                "Error fetching purchases changed since version " + sinceVersion + ":");
+    }
+
     /**
      * Maps a row in the ResultSet to a Purchase object.
-     * This method is a helper function used to convert the result of a SQL query into a Customer object.
+     * The keys are taken from the identity map when the customer or basket is in memory, so the
+     * many purchases of a customer or basket do not each hold a copy of its key.
      *
-     * @param resultSet The ResultSet containing the customer data.
-     * @return A Customer object with the data from the ResultSet.
+     * @param resultSet The ResultSet containing the purchase data.
+     * @return A Purchase object with the data from the ResultSet.
      * @throws SQLException If there is an error accessing the data in the ResultSet.
      */
     private Purchase mapToPurchase(ResultSet resultSet) throws SQLException {
         return new Purchase(
-                resultSet.getString("AccountNo"),
-                resultSet.getString("BasketNo"),
-                resultSet.getString("PurchaseDate"));
+                identityMap.accountNo(resultSet.getString("AccountNo")),
+                identityMap.basketNo(resultSet.getString("BasketNo")),
+                resultSet.getObject("PurchaseDate", LocalDate.class));
     }
 }
\ No newline at end of file
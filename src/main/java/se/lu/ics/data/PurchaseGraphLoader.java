@@ -0,0 +1,132 @@
+package se.lu.ics.data;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.lu.ics.models.Customer;
+import se.lu.ics.models.FruitBasket;
+
+/**
+ * Loads every customer and basket together with the purchases linking them, in one call of
+ * uspGetPurchaseGraph. Each customer and basket is mapped once through the IdentityMap and
+ * the purchases are added to both sides, so Customer.getBaskets() and FruitBasket.getCustomers()
+ * refer to the same instances that are returned in the customer and basket lists. The lists
+ * of instances that were already in memory are replaced, not appended to, by the IdentityMap
+ * on its update executor, like the loaded values.
+ */
+final class PurchaseGraphLoader {
+
+    /**
+     * The loaded customers and baskets, linked in both directions.
+     */
+    static final class Graph {
+        private final List<Customer> customers;
+        private final List<FruitBasket> baskets;
+
+        private Graph(List<Customer> customers, List<FruitBasket> baskets) {
+            this.customers = customers;
+            this.baskets = baskets;
+        }
+
+        List<Customer> getCustomers() {
+            return customers;
+        }
+
+        List<FruitBasket> getBaskets() {
+            return baskets;
+        }
+    }
+
+    private PurchaseGraphLoader() {
+    }
+
+    /**
+     * Loads the object graph.
+     * This method executes the stored procedure uspGetPurchaseGraph.
+     *
+     * @param connectionHandler The handler used to obtain a connection.
+     * @param identityMap The identity map of the session.
+     * @param searchIndex The index to add the loaded customers to, or null.
+     * @return The customers and baskets, each holding the other side of its purchases.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    static Graph load(ConnectionHandler connectionHandler, IdentityMap identityMap, CustomerSearchIndex searchIndex) {
+        String callProcedure = connectionHandler.getReadMode().call("{CALL uspGetPurchaseGraph}");
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(callProcedure)) {
+
+            statement.execute();
+
+            Map<Integer, Customer> customersById = new HashMap<>();
+            List<Customer> customers = new ArrayList<>();
+            Map<Customer, List<FruitBasket>> basketsByCustomer = new IdentityHashMap<>();
+            try (ResultSet resultSet = currentResultSet(statement, "customers")) {
+                while (resultSet.next()) {
+                    String accountNo = resultSet.getString("AccountNo");
+                    String name = resultSet.getString("Name");
+                    String deliveryAddress = resultSet.getString("Address");
+                    Customer customer = identityMap.customer(accountNo, name, deliveryAddress);
+                    if (searchIndex != null) {
+                        // Indexed by the loaded values, the instance may not hold them yet
+                        searchIndex.put(accountNo, name, deliveryAddress);
+                    }
+                    basketsByCustomer.put(customer, new ArrayList<>());
+                    customersById.put(resultSet.getInt("CustomerID"), customer);
+                    customers.add(customer);
+                }
+            }
+
+            statement.getMoreResults();
+            Map<Integer, FruitBasket> basketsById = new HashMap<>();
+            List<FruitBasket> baskets = new ArrayList<>();
+            Map<FruitBasket, List<Customer>> customersByBasket = new IdentityHashMap<>();
+            try (ResultSet resultSet = currentResultSet(statement, "baskets")) {
+                while (resultSet.next()) {
+                    FruitBasket basket = identityMap.basket(
+                            resultSet.getString("BasketNo"),
+                            resultSet.getString("Name"),
+                            resultSet.getBigDecimal("Price"));
+                    customersByBasket.put(basket, new ArrayList<>());
+                    basketsById.put(resultSet.getInt("BasketID"), basket);
+                    baskets.add(basket);
+                }
+            }
+
+            statement.getMoreResults();
+            try (ResultSet resultSet = currentResultSet(statement, "purchases")) {
+                while (resultSet.next()) {
+                    Customer customer = customersById.get(resultSet.getInt("CustomerID"));
+                    FruitBasket basket = basketsById.get(resultSet.getInt("BasketID"));
+
+                    // The result sets are not read from one snapshot, so a purchase may refer to
+                    // a customer or basket added after the first two sets were read
+                    if (customer != null && basket != null) {
+                        basketsByCustomer.get(customer).add(basket);
+                        customersByBasket.get(basket).add(customer);
+                    }
+                }
+            }
+
+            identityMap.link(basketsByCustomer, customersByBasket);
+            return new Graph(customers, baskets);
+        } catch (SQLException e) {
+            throw new DaoException("Error fetching customers, baskets and purchases: " + e.getMessage(), e);
+        }
+    }
+
+    private static ResultSet currentResultSet(CallableStatement statement, String expected) throws SQLException {
+        ResultSet resultSet = statement.getResultSet();
+        if (resultSet == null) {
+            throw new SQLException("uspGetPurchaseGraph did not return the " + expected + " result set");
+        }
+        return resultSet;
+    }
+}
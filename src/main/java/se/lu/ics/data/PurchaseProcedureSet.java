@@ -0,0 +1,56 @@
+package se.lu.ics.data;
+
+/**
+ * The generations of stored procedures PurchaseDao can use to add, update and delete purchases.
+ * Every generation takes the same parameters and raises the same errors, so they can be
+ * switched with the purchase.procedures setting without any other change.
+ */
+public enum PurchaseProcedureSet {
+
+    /**
+     * uspAddPurchase, uspUpdatePurchase and uspDeletePurchase, which look up the surrogate
+     * keys with the scalar functions ufnGetCustomerID and ufnGetBasketID before the write.
+     */
+    V1("{CALL uspAddPurchase(?, ?, ?)}",
+            "{CALL uspUpdatePurchase(?, ?, ?)}",
+            "{CALL uspDeletePurchase(?, ?)}"),
+
+    /**
+     * uspAddPurchaseV2, uspUpdatePurchaseV2 and uspDeletePurchaseV2, which resolve the
+     * surrogate keys with the inline function ufnResolvePurchaseKeys inside the write itself.
+     */
+    V2("{CALL uspAddPurchaseV2(?, ?, ?)}",
+            "{CALL uspUpdatePurchaseV2(?, ?, ?)}",
+            "{CALL uspDeletePurchaseV2(?, ?)}");
+
+    private final String addCall;
+    private final String updateCall;
+    private final String deleteCall;
+
+    PurchaseProcedureSet(String addCall, String updateCall, String deleteCall) {
+        this.addCall = addCall;
+        this.updateCall = updateCall;
+        this.deleteCall = deleteCall;
+    }
+
+    /**
+     * @return The call taking (BasketNo, AccountNo, PurchaseDate).
+     */
+    String getAddCall() {
+        return addCall;
+    }
+
+    /**
+     * @return The call taking (AccountNo, BasketNo, PurchaseDate).
+     */
+    String getUpdateCall() {
+        return updateCall;
+    }
+
+    /**
+     * @return The call taking (AccountNo, BasketNo).
+     */
+    String getDeleteCall() {
+        return deleteCall;
+    }
+}
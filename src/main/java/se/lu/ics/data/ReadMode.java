@@ -0,0 +1,48 @@
+package se.lu.ics.data;
+
+/**
+ * How the DAOs' read procedures isolate themselves from concurrent writes. Every mode has the
+ * same procedures with the same parameters and result sets, so they can be switched with the
+ * read.mode setting without any other change.
+ */
+public enum ReadMode {
+
+    /**
+     * The read procedures, e.g. uspGetAllCustomers, which read under READ COMMITTED in an explicit
+     * transaction. A read waits for any writer holding a lock on a row it reads, and its shared
+     * locks make writers wait in turn.
+     */
+    LOCKING(""),
+
+    /**
+     * The Snapshot variants, e.g. uspGetAllCustomersSnapshot, which read the last committed
+     * version of each row under SNAPSHOT isolation, without explicit transactions where a single
+     * statement suffices. Readers and writers never wait for each other, at the cost of row
+     * versions in tempdb. Needs migration V3, which allows snapshot isolation in the database.
+     */
+    SNAPSHOT("Snapshot");
+
+    private final String procedureSuffix;
+
+    ReadMode(String procedureSuffix) {
+        this.procedureSuffix = procedureSuffix;
+    }
+
+    /**
+     * Turns the call of a read procedure into the call of this mode's variant of it.
+     *
+     * @param call A call such as "{CALL uspGetCustomersPage(?, ?)}".
+     * @return The call with the procedure name suffixed for this mode, e.g.
+     *         "{CALL uspGetCustomersPageSnapshot(?, ?)}".
+     */
+    public String call(String call) {
+        if (procedureSuffix.isEmpty()) {
+            return call;
+        }
+        int nameEnd = call.indexOf('(');
+        if (nameEnd < 0) {
+            nameEnd = call.indexOf('}');
+        }
+        return call.substring(0, nameEnd) + procedureSuffix + call.substring(nameEnd);
+    }
+}
@@ -0,0 +1,117 @@
+package se.lu.ics.data;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import se.lu.ics.models.BasketSales;
+import se.lu.ics.models.CustomerSales;
+import se.lu.ics.models.PeriodSales;
+
+/**
+ * Data access for sales reports. Purchases are aggregated by the report procedures on the
+ * server, so a report returns one row per basket, customer or period however many purchases
+ * it covers. Every report takes an inclusive date range, where either end may be null for no limit.
+ */
+public class ReportDao {
+
+    private final ConnectionHandler connectionHandler;
+
+    public ReportDao(ConnectionHandler connectionHandler) {
+        this.connectionHandler = connectionHandler;
+    }
+
+    /**
+     * Retrieves the number of purchases and the revenue per basket, ordered by BasketNo.
+     * This method executes the stored procedure uspGetSalesByBasket.
+     *
+     * @param fromDate The first purchase date to include, or null for no lower limit.
+     * @param toDate The last purchase date to include, or null for no upper limit.
+     * @return A list of BasketSales objects, one per basket purchased in the range.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public List<BasketSales> getSalesByBasket(LocalDate fromDate, LocalDate toDate) {
+        return query("{CALL uspGetSalesByBasket(?, ?)}", null, fromDate, toDate,
+                resultSet -> new BasketSales(
+                        resultSet.getString("BasketNo"),
+                        resultSet.getString("Name"),
+                        resultSet.getLong("PurchaseCount"),
+                        resultSet.getBigDecimal("Revenue")),
+                "Error fetching sales by basket.");
+    }
+
+    /**
+     * Retrieves the number of purchases and the revenue per customer, ordered by AccountNo.
+     * This method executes the stored procedure uspGetSalesByCustomer.
+     *
+     * @param fromDate The first purchase date to include, or null for no lower limit.
+     * @param toDate The last purchase date to include, or null for no upper limit.
+     * @return A list of CustomerSales objects, one per customer with purchases in the range.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public List<CustomerSales> getSalesByCustomer(LocalDate fromDate, LocalDate toDate) {
+        return query("{CALL uspGetSalesByCustomer(?, ?)}", null, fromDate, toDate,
+                resultSet -> new CustomerSales(
+                        resultSet.getString("AccountNo"),
+                        resultSet.getString("Name"),
+                        resultSet.getLong("PurchaseCount"),
+                        resultSet.getBigDecimal("Revenue")),
+                "Error fetching sales by customer.");
+    }
+
+    /**
+     * Retrieves the number of purchases and the revenue per day, week, month or year, ordered by date.
+     * This method executes the stored procedure uspGetSalesByPeriod.
+     *
+     * @param period The length of the periods.
+     * @param fromDate The first purchase date to include, or null for no lower limit.
+     * @param toDate The last purchase date to include, or null for no upper limit.
+     * @return A list of PeriodSales objects, one per period with purchases in the range.
+     * @throws DaoException If there is an error accessing the database.
+     */
+    public List<PeriodSales> getSalesByPeriod(SalesPeriod period, LocalDate fromDate, LocalDate toDate) {
+        return query("{CALL uspGetSalesByPeriod(?, ?, ?)}", period.name(), fromDate, toDate,
+                resultSet -> new PeriodSales(
+                        resultSet.getObject("PeriodStart", LocalDate.class),
+                        resultSet.getLong("PurchaseCount"),
+                        resultSet.getBigDecimal("Revenue")),
+                "Error fetching sales by " + period.name().toLowerCase() + ".");
+    }
+
+    /**
+     * Executes a report procedure taking an optional leading parameter and a date range, and maps every row.
+     * The call is routed to the procedure's snapshot variant when the read mode asks for it.
+     *
+     * @param leadingParameter The value of the first parameter, or null if the procedure only takes the range.
+     */
+    private <T> List<T> query(String callProcedure, String leadingParameter, LocalDate fromDate, LocalDate toDate,
+            RowMapper<T> rowMapper, String errorMessage) {
+        List<T> rows = new ArrayList<>();
+
+        try (Connection connection = connectionHandler.getConnection();
+                CallableStatement statement = connection.prepareCall(connectionHandler.getReadMode().call(callProcedure))) {
+
+            int index = 1;
+            if (leadingParameter != null) {
+                statement.setString(index++, leadingParameter);
+            }
+            statement.setObject(index++, fromDate, Types.DATE);
+            statement.setObject(index, toDate, Types.DATE);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(rowMapper.map(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException(errorMessage, e);
+        }
+
+        return rows;
+    }
+}
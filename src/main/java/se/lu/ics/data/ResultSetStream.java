@@ -0,0 +1,131 @@
+package se.lu.ics.data;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.microsoft.sqlserver.jdbc.SQLServerStatement;
+
+/**
+ * Exposes the result of a stored procedure as a lazily consumed Stream.
+ * Rows are read from the server as the stream is consumed instead of being copied into a list
+ * first, and the connection is held only while the stream is open. The connection is returned
+ * to the pool when the last row has been read or when the stream is closed, whichever comes first,
+ * so callers should consume the stream in a try-with-resources block. A stream closed before its
+ * last row cancels the procedure and closes the connection instead of returning it.
+ */
+final class ResultSetStream<T> extends Spliterators.AbstractSpliterator<T> implements Runnable {
+    private final Connection connection;
+    private final CallableStatement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> rowMapper;
+    private final String errorMessage;
+    private boolean exhausted;
+    private boolean closed;
+
+    private ResultSetStream(Connection connection, CallableStatement statement, ResultSet resultSet,
+            RowMapper<T> rowMapper, String errorMessage) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.rowMapper = rowMapper;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Executes a stored procedure and returns its rows as a Stream.
+     *
+     * @param connectionHandler The handler to borrow the connection from.
+     * @param callProcedure The procedure call, e.g. "{CALL uspGetAllCustomers}".
+     * @param fetchSize The number of rows the driver should fetch per round trip.
+     * @param rowMapper Maps each row to an object.
+     * @param errorMessage The message of the DaoException thrown if reading fails.
+     * @return A Stream that must be closed by the caller.
+     * @throws DaoException If the procedure cannot be executed.
+     */
+    static <T> Stream<T> open(ConnectionHandler connectionHandler, String callProcedure, int fetchSize,
+            RowMapper<T> rowMapper, String errorMessage) {
+        Connection connection = null;
+        CallableStatement statement = null;
+        try {
+            connection = connectionHandler.getConnection();
+            statement = connection.prepareCall(callProcedure);
+            statement.setFetchSize(fetchSize);
+
+            // Adaptive buffering makes the driver read rows from the socket as they are requested
+            statement.unwrap(SQLServerStatement.class).setResponseBuffering("adaptive");
+
+            ResultSet resultSet = statement.executeQuery();
+            ResultSetStream<T> rows = new ResultSetStream<>(connection, statement, resultSet, rowMapper, errorMessage);
+            return StreamSupport.stream(rows, false).onClose(rows);
+        } catch (SQLException e) {
+            closeQuietly(statement);
+            closeQuietly(connection);
+            throw new DaoException(errorMessage, e);
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (!resultSet.next()) {
+                exhausted = true;
+                run();
+                return false;
+            }
+            action.accept(rowMapper.map(resultSet));
+            return true;
+        } catch (SQLException e) {
+            run();
+            throw new DaoException(errorMessage, e);
+        }
+    }
+
+    /**
+     * Closes the result set, statement and connection. Safe to call more than once.
+     */
+    @Override
+    public void run() {
+        if (!closed) {
+            closed = true;
+            if (!exhausted) {
+                // Stop the server from sending the rows nobody is going to read
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    // closing below discards the remaining rows instead
+                }
+                // The procedure may have been stopped inside its transaction, which would stay open
+                // on the session and swallow the next borrower's writes, so the session is not reused
+                try {
+                    connection.abort(Runnable::run);
+                } catch (SQLException e) {
+                    // closing below returns the connection instead
+                }
+            }
+            closeQuietly(resultSet);
+            closeQuietly(statement);
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                // nothing more can be done, the resource is being discarded
+            }
+        }
+    }
+}
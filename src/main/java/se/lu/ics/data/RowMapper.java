@@ -0,0 +1,14 @@
+package se.lu.ics.data;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a ResultSet to an object, e.g. CustomerDao::mapToCustomer.
+ *
+ * @param <T> The type of object a row is mapped to.
+ */
+@FunctionalInterface
+interface RowMapper<T> {
+    T map(ResultSet resultSet) throws SQLException;
+}
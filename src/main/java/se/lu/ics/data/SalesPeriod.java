@@ -0,0 +1,13 @@
+package se.lu.ics.data;
+
+/**
+ * The length of the periods ReportDao.getSalesByPeriod groups purchases by.
+ * The names are the values uspGetSalesByPeriod accepts for @Period.
+ */
+public enum SalesPeriod {
+    DAY,
+    /** Weeks starting on Monday. */
+    WEEK,
+    MONTH,
+    YEAR
+}
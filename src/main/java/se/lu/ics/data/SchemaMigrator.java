@@ -0,0 +1,322 @@
+package se.lu.ics.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brings the database schema up to date by applying the versioned scripts listed in
+ * se/lu/ics/database/migrations.txt that the database has not seen yet.
+ *
+ * Every applied script is recorded in the SchemaHistory table with its SHA-256 checksum, so running
+ * the migrator again only applies new scripts, and a script edited after it was applied is
+ * reported instead of silently diverging from the databases it already ran on. Each script runs
+ * in its own transaction, split into batches on GO lines like SSMS and sqlcmd do, and an
+ * application lock keeps two clients from migrating the same database at once. A script whose
+ * first line is the NO_TRANSACTION marker, e.g. one running ALTER DATABASE, which SQL Server does
+ * not allow in a transaction, runs without one; such a script must be safe to run again.
+ *
+ * Migrations change the schema, so they must be run with a login allowed to do so, not with
+ * java_app_user which may only execute the granted procedures.
+ */
+public class SchemaMigrator {
+
+    private static final String MIGRATIONS_PATH = "/se/lu/ics/database/";
+    private static final String INDEX_FILE = "migrations.txt";
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final Pattern BATCH_SEPARATOR = Pattern.compile("^\\s*GO\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+    private static final String NO_TRANSACTION = "-- SchemaMigrator: no transaction";
+    private static final String LOCK_RESOURCE = "SchemaMigrator";
+    private static final int LOCK_TIMEOUT_MILLIS = 60000;
+
+    private static final String CREATE_HISTORY_TABLE =
+            "IF OBJECT_ID('dbo.SchemaHistory') IS NULL\n"
+            + "CREATE TABLE SchemaHistory (\n"
+            + "  Version          INTEGER NOT NULL,\n"
+            + "  Description      VARCHAR(100) NOT NULL,\n"
+            + "  Checksum         CHAR(64) NOT NULL,\n"
+            + "  AppliedAt        DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME(),\n"
+            + "  ExecutionMillis  INTEGER NOT NULL,\n"
+            + "\n"
+            + "  CONSTRAINT PK_SchemaHistory_Version PRIMARY KEY(Version)\n"
+            + ");";
+
+    private final ConnectionHandler connectionHandler;
+
+    public SchemaMigrator(ConnectionHandler connectionHandler) {
+        this.connectionHandler = connectionHandler;
+    }
+
+    /**
+     * Applies the migrations the database has not seen yet, in version order.
+     *
+     * @return The migrations that were applied, empty if the schema was already up to date.
+     * @throws DaoException If a migration fails, in which case it is rolled back and the later
+     *                      ones are not applied, or if an applied migration's script has changed.
+     */
+    public List<Migration> migrate() {
+        List<Migration> migrations = loadMigrations();
+        List<Migration> applied = new ArrayList<>();
+
+        try (Connection connection = connectionHandler.getConnection()) {
+            acquireLock(connection);
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(CREATE_HISTORY_TABLE);
+                }
+                Map<Integer, String> appliedChecksums = readHistory(connection);
+
+                for (Migration migration : migrations) {
+                    String appliedChecksum = appliedChecksums.get(migration.getVersion());
+                    if (appliedChecksum == null) {
+                        apply(connection, migration);
+                        applied.add(migration);
+                    } else if (!appliedChecksum.equals(migration.getChecksum())) {
+                        throw new DaoException("Migration " + migration + " has been changed since it was applied. "
+                                + "Add a new migration instead of editing an applied one.");
+                    }
+                }
+            } finally {
+                releaseLock(connection);
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Error migrating the schema: " + e.getMessage(), e);
+        }
+
+        return applied;
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        long started = System.nanoTime();
+        if (!migration.isTransactional()) {
+            // If recording it fails the script runs again next time, which it must allow
+            try {
+                execute(connection, migration);
+                recordApplied(connection, migration, started);
+            } catch (SQLException e) {
+                throw new DaoException("Error applying migration " + migration + ": " + e.getMessage(), e);
+            }
+            return;
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            execute(connection, migration);
+            recordApplied(connection, migration, started);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw new DaoException("Error applying migration " + migration + ": " + e.getMessage(), e);
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void execute(Connection connection, Migration migration) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String batch : migration.getBatches()) {
+                statement.execute(batch);
+            }
+        }
+    }
+
+    private void recordApplied(Connection connection, Migration migration, long started) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO SchemaHistory (Version, Description, Checksum, ExecutionMillis) VALUES (?, ?, ?, ?)")) {
+            statement.setInt(1, migration.getVersion());
+            statement.setString(2, migration.getDescription());
+            statement.setString(3, migration.getChecksum());
+            statement.setInt(4, (int) ((System.nanoTime() - started) / 1_000_000));
+            statement.executeUpdate();
+        }
+    }
+
+    private Map<Integer, String> readHistory(Connection connection) throws SQLException {
+        Map<Integer, String> checksums = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT Version, Checksum FROM SchemaHistory")) {
+            while (resultSet.next()) {
+                checksums.put(resultSet.getInt("Version"), resultSet.getString("Checksum"));
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Takes a session-owned application lock, held until releaseLock or until the connection closes.
+     */
+    private void acquireLock(Connection connection) throws SQLException {
+        try (CallableStatement statement = connection.prepareCall("{? = CALL sp_getapplock(?, ?, ?, ?)}")) {
+            statement.registerOutParameter(1, Types.INTEGER);
+            statement.setString(2, LOCK_RESOURCE);
+            statement.setString(3, "Exclusive");
+            statement.setString(4, "Session");
+            statement.setInt(5, LOCK_TIMEOUT_MILLIS);
+            statement.execute();
+            if (statement.getInt(1) < 0) {
+                throw new DaoException("Another client is migrating the schema, try again later.");
+            }
+        }
+    }
+
+    private void releaseLock(Connection connection) throws SQLException {
+        try (CallableStatement statement = connection.prepareCall("{CALL sp_releaseapplock(?, ?)}")) {
+            statement.setString(1, LOCK_RESOURCE);
+            statement.setString(2, "Session");
+            statement.execute();
+        }
+    }
+
+    /**
+     * Reads the migrations listed in the index file, checking that their versions ascend.
+     */
+    private static List<Migration> loadMigrations() {
+        List<Migration> migrations = new ArrayList<>();
+        for (String line : readResource(INDEX_FILE).split("\n")) {
+            String scriptName = line.trim();
+            if (scriptName.isEmpty() || scriptName.startsWith("#")) {
+                continue;
+            }
+            Matcher matcher = SCRIPT_NAME.matcher(scriptName);
+            if (!matcher.matches()) {
+                throw new DaoException("Migration script name must be V<version>__<description>.sql: " + scriptName);
+            }
+            int version = Integer.parseInt(matcher.group(1));
+            if (!migrations.isEmpty() && version <= migrations.get(migrations.size() - 1).getVersion()) {
+                throw new DaoException("Migration " + scriptName + " is listed after a migration with a higher version");
+            }
+            migrations.add(new Migration(version, matcher.group(2).replace('_', ' '),
+                    readResource("migrations/" + scriptName)));
+        }
+        return migrations;
+    }
+
+    /**
+     * @return The resource's text with its line endings normalized to \n, so that the checksum
+     *         does not depend on how the script was checked out.
+     */
+    private static String readResource(String name) {
+        try (InputStream inputStream = SchemaMigrator.class.getResourceAsStream(MIGRATIONS_PATH + name)) {
+            if (inputStream == null) {
+                throw new DaoException("Migration resource '" + name + "' not found in classpath");
+            }
+            StringBuilder text = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    text.append(line).append('\n');
+                }
+            }
+            return text.toString();
+        } catch (IOException e) {
+            throw new DaoException("Error reading migration resource '" + name + "'", e);
+        }
+    }
+
+    /**
+     * Applies the pending migrations to the database in config.properties.
+     * Usage: SchemaMigrator
+     */
+    public static void main(String[] args) throws IOException {
+        ConnectionHandler connectionHandler = new ConnectionHandler();
+        try {
+            List<Migration> applied = new SchemaMigrator(connectionHandler).migrate();
+            if (applied.isEmpty()) {
+                System.out.println("The schema is up to date.");
+            }
+            for (Migration migration : applied) {
+                System.out.println("Applied migration " + migration);
+            }
+        } finally {
+            connectionHandler.close();
+        }
+    }
+
+    /**
+     * A versioned migration script.
+     */
+    public static final class Migration {
+        private final int version;
+        private final String description;
+        private final String script;
+        private final String checksum;
+
+        Migration(int version, String description, String script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+            this.checksum = sha256(script);
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return The SHA-256 of the script as 64 lower-case hex digits.
+         */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * @return false if the script starts with the NO_TRANSACTION marker.
+         */
+        boolean isTransactional() {
+            return !script.startsWith(NO_TRANSACTION);
+        }
+
+        /**
+         * @return The script's batches, i.e. the text between GO lines, without the empty ones.
+         */
+        List<String> getBatches() {
+            List<String> batches = new ArrayList<>();
+            for (String batch : BATCH_SEPARATOR.split(script)) {
+                if (!batch.isBlank()) {
+                    batches.add(batch);
+                }
+            }
+            return batches;
+        }
+
+        @Override
+        public String toString() {
+            return "V" + version + " (" + description + ")";
+        }
+
+        private static String sha256(String text) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder(64);
+                for (byte b : digest) {
+                    hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e); // every JVM must provide it
+            }
+        }
+    }
+}
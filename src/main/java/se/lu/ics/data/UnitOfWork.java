@@ -0,0 +1,280 @@
+package se.lu.ics.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One database transaction shared by several DAO calls, e.g. a new customer and its purchases:
+ * <pre>
+ * try (UnitOfWork unit = connectionHandler.beginUnitOfWork()) {
+ *     customerDao.save(customer);
+ *     purchases.forEach(purchaseDao::save);
+ *     unit.commit();
+ * }
+ * </pre>
+ * While the unit is open, every DAO call made on the thread that began it joins it: the DAOs
+ * get the unit's connection from the ConnectionHandler instead of a pooled one, and the write
+ * procedures, finding a transaction open, only set a savepoint instead of committing. The calls
+ * therefore cost one connection and one commit in total.
+ *
+ * A unit commits only if every call in it succeeded. A call that failed, i.e. threw a
+ * DaoException, makes commit() roll back everything and throw, even if the exception was caught.
+ * To recover from a failure and carry on instead, roll back to a savepoint set before the call.
+ * Closing a unit that was not committed rolls it back, so an exception thrown out of the
+ * try-with-resources block undoes the unit as well.
+ *
+ * When the unit is rolled back, the DAOs restore the in-memory state they had changed for its
+ * writes, i.e. the IdentityMap, the caches and the CustomerSearchIndex.
+ */
+public final class UnitOfWork implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(UnitOfWork.class.getName());
+
+    private final ConnectionHandler connectionHandler;
+    private final Connection connection;
+    private final Connection joinedConnection;
+    private final List<Runnable> rollbackActions = new ArrayList<>();
+
+    // Calls that failed since the unit began, minus those undone by rolling back to a savepoint
+    private int failedCalls;
+    private boolean finished;
+
+    UnitOfWork(ConnectionHandler connectionHandler, Connection connection) throws SQLException {
+        this.connectionHandler = connectionHandler;
+        this.connection = connection;
+        connection.setAutoCommit(false);
+        this.joinedConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new JoinedConnection());
+    }
+
+    /**
+     * Marks a point the unit can later be rolled back to without giving up the calls before it.
+     *
+     * @return The savepoint, to be passed to rollbackTo.
+     * @throws DaoException If the savepoint cannot be set.
+     */
+    public Savepoint setSavepoint() {
+        checkActive();
+        try {
+            return new Savepoint(connection.setSavepoint(), failedCalls, rollbackActions.size());
+        } catch (SQLException e) {
+            throw new DaoException("Error setting a savepoint: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Undoes the calls made after a savepoint, including failed ones, keeping the calls before it.
+     *
+     * @param savepoint A savepoint set in this unit.
+     * @throws DaoException If the database has already rolled back the whole transaction, e.g.
+     *                      after a deadlock, in which case the unit can no longer be committed.
+     */
+    public void rollbackTo(Savepoint savepoint) {
+        checkActive();
+        try {
+            connection.rollback(savepoint.savepoint);
+        } catch (SQLException e) {
+            // The savepoint is gone with the transaction, nothing done in this unit can be committed
+            failedCalls++;
+            throw new DaoException("Error rolling back to a savepoint: " + e.getMessage(), e);
+        }
+        failedCalls = savepoint.failedCalls;
+        runRollbackActions(savepoint.rollbackActionCount);
+    }
+
+    /**
+     * Commits every call made in the unit and ends it.
+     *
+     * @throws DaoException If a call in the unit failed, in which case the unit is rolled back
+     *                      instead, or if the commit fails.
+     */
+    public void commit() {
+        checkActive();
+        if (failedCalls > 0) {
+            rollback();
+            throw new DaoException("The changes were rolled back because " + failedCalls
+                    + (failedCalls == 1 ? " operation" : " operations") + " failed.");
+        }
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            DaoException failure = new DaoException("Error committing the changes: " + e.getMessage(), e);
+            try {
+                rollback();
+            } catch (DaoException rollbackFailure) {
+                failure.addSuppressed(rollbackFailure);
+            }
+            throw failure;
+        }
+        end();
+    }
+
+    /**
+     * Rolls back every call made in the unit and ends it. Does nothing if the unit has ended.
+     *
+     * @throws DaoException If the rollback fails. The unit has ended and its changes are not committed.
+     */
+    public void rollback() {
+        if (finished) {
+            return;
+        }
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new DaoException("Error rolling back the changes: " + e.getMessage(), e);
+        } finally {
+            end();
+            runRollbackActions(0);
+        }
+    }
+
+    /**
+     * Rolls the unit back unless it has been committed.
+     */
+    @Override
+    public void close() {
+        rollback();
+    }
+
+    /**
+     * @return The connection handed to the DAOs: closing it does not end the unit, and the
+     *         transaction can only be ended through the unit.
+     */
+    Connection getJoinedConnection() {
+        return joinedConnection;
+    }
+
+    /**
+     * Registers an action restoring in-memory state changed for a write in this unit, run if
+     * the write is rolled back.
+     */
+    void afterRollback(Runnable action) {
+        rollbackActions.add(action);
+    }
+
+    private void end() {
+        finished = true;
+        connectionHandler.endUnitOfWork(this);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.log(System.Logger.Level.WARNING, "Error returning the unit of work's connection", e);
+        }
+    }
+
+    /**
+     * Runs the actions registered from index from on, latest first, and forgets them.
+     */
+    private void runRollbackActions(int from) {
+        for (int i = rollbackActions.size() - 1; i >= from; i--) {
+            try {
+                rollbackActions.remove(i).run();
+            } catch (RuntimeException e) {
+                LOGGER.log(System.Logger.Level.WARNING, "Error restoring state after a rollback", e);
+            }
+        }
+    }
+
+    private void checkActive() {
+        if (finished) {
+            throw new IllegalStateException("The unit of work has already ended");
+        }
+    }
+
+    /**
+     * A point within the unit to roll back to.
+     */
+    public static final class Savepoint {
+        private final java.sql.Savepoint savepoint;
+        private final int failedCalls;
+        private final int rollbackActionCount;
+
+        private Savepoint(java.sql.Savepoint savepoint, int failedCalls, int rollbackActionCount) {
+            this.savepoint = savepoint;
+            this.failedCalls = failedCalls;
+            this.rollbackActionCount = rollbackActionCount;
+        }
+    }
+
+    /**
+     * The connection the DAOs use while the unit is open. It ignores close(), counts abort() as a
+     * failed call, refuses to end the transaction itself, and wraps the statements it creates so that a failed call is noticed.
+     */
+    private final class JoinedConnection implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    return null;
+                case "abort":
+                    // A cancelled call may have left its own transaction open within the unit's
+                    failedCalls++;
+                    return null;
+                case "commit":
+                case "rollback":
+                case "setAutoCommit":
+                case "setSavepoint":
+                case "releaseSavepoint":
+                    throw new SQLException("The transaction is managed by the unit of work");
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (finished) {
+                throw new SQLException("The unit of work has already ended");
+            }
+            Object result = invokeOn(connection, method, args);
+            if (result instanceof Statement) {
+                return Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                        new Class<?>[] { method.getReturnType() }, new WatchedStatement((Statement) result));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Counts the executions that fail as failed calls of the unit.
+     */
+    private final class WatchedStatement implements InvocationHandler {
+        private final Statement statement;
+
+        private WatchedStatement(Statement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("equals".equals(method.getName())) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(method.getName())) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                return invokeOn(statement, method, args);
+            } catch (SQLException e) {
+                if (method.getName().startsWith("execute")) {
+                    failedCalls++;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
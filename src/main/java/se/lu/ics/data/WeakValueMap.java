@@ -0,0 +1,66 @@
+package se.lu.ics.data;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A map that holds its values through weak references, so that a value is dropped from the
+ * map once nothing else refers to it. Not thread-safe; IdentityMap synchronizes access.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+final class WeakValueMap<K, V> {
+
+    private final Map<K, KeyedReference<K, V>> references = new HashMap<>();
+    private final ReferenceQueue<V> collected = new ReferenceQueue<>();
+
+    /**
+     * @return The value for a key, or null if there is none or it has been collected.
+     */
+    V get(K key) {
+        purgeCollected();
+        KeyedReference<K, V> reference = references.get(key);
+        return reference == null ? null : reference.get();
+    }
+
+    void put(K key, V value) {
+        purgeCollected();
+        references.put(key, new KeyedReference<>(key, value, collected));
+    }
+
+    void remove(K key) {
+        purgeCollected();
+        references.remove(key);
+    }
+
+    /**
+     * @return The number of keys whose value has not been collected yet, or has been collected
+     *         very recently.
+     */
+    int size() {
+        purgeCollected();
+        return references.size();
+    }
+
+    private void purgeCollected() {
+        Object collectedReference;
+        while ((collectedReference = collected.poll()) != null) {
+            @SuppressWarnings("unchecked")
+            KeyedReference<K, V> reference = (KeyedReference<K, V>) collectedReference;
+            // The key may have been mapped to a newer value since
+            references.remove(reference.key, reference);
+        }
+    }
+
+    private static final class KeyedReference<K, V> extends WeakReference<V> {
+        private final K key;
+
+        private KeyedReference(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
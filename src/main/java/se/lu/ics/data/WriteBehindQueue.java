@@ -0,0 +1,334 @@
+package se.lu.ics.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Writes edits in the background instead of making the caller wait for each round trip.
+ * submit() only records the edit and returns; a later edit of the same key replaces the pending
+ * one, so a row edited several times in quick succession is written once, with its last values.
+ *
+ * A background thread writes the pending edits in batches of at most batchSize, every
+ * flushInterval or as soon as batchSize edits are pending. Each batch is written in one
+ * UnitOfWork, with a savepoint around every edit: an edit the database refuses, e.g. for a row
+ * another user has deleted, is reported to the registered error handlers, and the rest of the
+ * batch is still committed. Rolling back to the savepoint runs the write DAO's restore actions,
+ * so an entity already showing the refused values is reloaded from the database. If the batch as a whole fails, e.g. because the database is
+ * unreachable, its edits are queued again unless newer ones have arrived, the handlers are told
+ * once for the batch, and the next attempt waits twice as long as the last, up to maxBackoff.
+ * A view registers one error handler while it is open; errors while none is registered are logged.
+ *
+ * At most maxPending edits are kept; beyond that, edits of keys that are not pending are refused
+ * until the backlog has been written. close() writes everything still pending before it returns,
+ * retrying for up to CLOSE_TIMEOUT_MILLIS, so no acknowledged edit is lost on a normal shutdown.
+ *
+ * @param <K> The key edits are coalesced by, e.g. the AccountNo of a customer.
+ * @param <V> The type of entity written, e.g. Customer.
+ */
+public class WriteBehindQueue<K, V> implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(WriteBehindQueue.class.getName());
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 30000;
+
+    private final String name;
+    private final ConnectionHandler connectionHandler;
+    private final Function<V, K> keyOf;
+    private final Consumer<V> write;
+    private final int batchSize;
+    private final int maxPending;
+    private final long flushIntervalMillis;
+    private final long maxBackoffMillis;
+    private final ScheduledThreadPoolExecutor flusher;
+    private final List<Consumer<DaoException>> errorHandlers = new CopyOnWriteArrayList<>();
+
+    // Guarded by this; in submission order, so edits are written roughly in the order they were made
+    private final Map<K, Pending<K, V>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> nextFlush;
+    private int failedAttempts;
+    private boolean closed;
+
+    /**
+     * @param name The name of the flushing thread and of the queue in messages, e.g. "customer".
+     * @param connectionHandler The handler the write DAO uses, which each batch's UnitOfWork is begun on.
+     * @param keyOf Gives the key of an entity.
+     * @param write Writes one entity, e.g. customerDao::update.
+     * @param batchSize The maximum number of edits written per transaction.
+     * @param maxPending The maximum number of edits kept before new keys are refused.
+     * @param flushIntervalMillis The longest an edit waits before a flush is attempted.
+     * @param maxBackoffMillis The longest wait between attempts after failed flushes.
+     */
+    public WriteBehindQueue(String name, ConnectionHandler connectionHandler, Function<V, K> keyOf, Consumer<V> write,
+            int batchSize, int maxPending, long flushIntervalMillis, long maxBackoffMillis) {
+        if (batchSize < 1 || maxPending < batchSize) {
+            throw new IllegalArgumentException("Need 1 <= batchSize <= maxPending: " + batchSize + ", " + maxPending);
+        }
+        this.name = name;
+        this.connectionHandler = connectionHandler;
+        this.keyOf = keyOf;
+        this.write = write;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+
+        this.flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        // close() writes the remaining edits itself, a flush scheduled for later must not run after it
+        flusher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        flusher.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Registers a handler that receives a DaoException for every edit the database refuses, and
+     * one for every failed flush that will be retried. Called on the flushing thread.
+     *
+     * @param errorHandler The handler, e.g. one showing the error in the open view.
+     */
+    public void addErrorHandler(Consumer<DaoException> errorHandler) {
+        errorHandlers.add(errorHandler);
+    }
+
+    public void removeErrorHandler(Consumer<DaoException> errorHandler) {
+        errorHandlers.remove(errorHandler);
+    }
+
+    /**
+     * Queues an edit to be written in the background, replacing a pending edit of the same key.
+     * A failure to write it is reported to the registered error handlers.
+     *
+     * @param value The entity with its new values.
+     * @throws DaoException If maxPending edits are already waiting and none of them has the same key.
+     * @throws IllegalStateException If the queue has been closed.
+     */
+    public void submit(V value) {
+        K key = keyOf.apply(value);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The " + name + " write-behind queue has been closed");
+            }
+            if (pending.size() >= maxPending && !pending.containsKey(key)) {
+                throw new DaoException("Too many " + name + " changes are waiting to be saved, try again shortly.");
+            }
+            // Removed first so that the key moves to the end, behind edits made before this one
+            pending.remove(key);
+            pending.put(key, new Pending<>(key, value));
+
+            if (failedAttempts == 0 && pending.size() >= batchSize) {
+                scheduleFlush(0);
+            } else if (nextFlush == null) {
+                scheduleFlush(flushIntervalMillis);
+            }
+        }
+    }
+
+    /**
+     * Drops the pending edit of a key, e.g. because the row is about to be deleted.
+     * An edit that is already being written is not affected.
+     *
+     * @param key The key of the edit.
+     * @return true if an edit was pending.
+     */
+    public synchronized boolean cancel(K key) {
+        return pending.remove(key) != null;
+    }
+
+    /**
+     * @return The number of edits waiting to be written, not counting a batch being written.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the background thread and writes every edit still pending on the calling thread.
+     * Failed flushes are retried with backoff until CLOSE_TIMEOUT_MILLIS has passed, after which
+     * the edits that could not be written are logged.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            // Let a flush that is running finish, so its batch is not written twice
+            flusher.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        long backoffMillis = flushIntervalMillis;
+        while (getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            if (!flushBatch()) {
+                try {
+                    Thread.sleep(Math.min(backoffMillis, Math.max(0, deadline - System.currentTimeMillis())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+            }
+        }
+
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                LOGGER.log(System.Logger.Level.ERROR, "Could not save " + pending.size() + " " + name
+                        + " changes before shutting down: " + pending.keySet());
+            }
+        }
+    }
+
+    /**
+     * Runs on the flushing thread: writes a batch and schedules the next flush, sooner if more
+     * edits are waiting, later if the batch failed.
+     */
+    private void flush() {
+        synchronized (this) {
+            // From here on, a submit schedules a flush of its own
+            nextFlush = null;
+        }
+        boolean written = flushBatch();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (written) {
+                failedAttempts = 0;
+                if (pending.size() >= batchSize) {
+                    scheduleFlush(0);
+                } else if (!pending.isEmpty()) {
+                    scheduleFlush(flushIntervalMillis);
+                }
+            } else {
+                // Replaces a sooner flush a submit may have scheduled meanwhile
+                failedAttempts++;
+                if (nextFlush != null) {
+                    nextFlush.cancel(false);
+                }
+                nextFlush = flusher.schedule(this::flush, backoffMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Writes up to batchSize pending edits in one UnitOfWork.
+     *
+     * @return false if the batch could not be written and was queued again.
+     */
+    private boolean flushBatch() {
+        List<Pending<K, V>> batch = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Pending<K, V>> oldestFirst = pending.values().iterator();
+            while (oldestFirst.hasNext() && batch.size() < batchSize) {
+                batch.add(oldestFirst.next());
+                oldestFirst.remove();
+            }
+        }
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        List<DaoException> refusals = new ArrayList<>();
+        try (UnitOfWork unit = connectionHandler.beginUnitOfWork()) {
+            for (Pending<K, V> edit : batch) {
+                UnitOfWork.Savepoint savepoint = unit.setSavepoint();
+                try {
+                    write.accept(edit.value);
+                } catch (DaoException e) {
+                    // Keeps the rest of the batch; a rollbackTo that fails fails the whole batch
+                    unit.rollbackTo(savepoint);
+                    refusals.add(e);
+                }
+            }
+            unit.commit();
+        } catch (RuntimeException e) {
+            // Not only DaoException: the batch has left pending, so any failure must put it back
+            requeue(batch);
+            report(new DaoException("Saving " + batch.size() + " " + name
+                    + " changes failed, they will be retried: " + e.getMessage(), e));
+            return false;
+        }
+        refusals.forEach(this::report);
+        return true;
+    }
+
+    /**
+     * Queues the edits of a failed batch again, in front of the newer edits, except where a
+     * newer edit of the same key has replaced them.
+     */
+    private synchronized void requeue(List<Pending<K, V>> batch) {
+        Map<K, Pending<K, V>> newer = new LinkedHashMap<>(pending);
+        pending.clear();
+        for (Pending<K, V> edit : batch) {
+            if (!newer.containsKey(edit.key)) {
+                pending.put(edit.key, edit);
+            }
+        }
+        pending.putAll(newer);
+    }
+
+    /**
+     * Hands an error to every registered handler, or logs it if there is none.
+     */
+    private void report(DaoException error) {
+        if (errorHandlers.isEmpty()) {
+            LOGGER.log(System.Logger.Level.WARNING, "Error saving " + name + " changes", error);
+            return;
+        }
+        for (Consumer<DaoException> errorHandler : errorHandlers) {
+            try {
+                errorHandler.accept(error);
+            } catch (RuntimeException e) {
+                LOGGER.log(System.Logger.Level.WARNING, "Write-behind error handler failed", e);
+            }
+        }
+    }
+
+    private long backoffMillis() {
+        // failedAttempts is at least 1 here; the shift is capped so that it cannot overflow
+        long backoff = flushIntervalMillis << Math.min(failedAttempts, 20);
+        return Math.min(backoff, Math.max(maxBackoffMillis, flushIntervalMillis));
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (nextFlush != null) {
+            if (nextFlush.getDelay(TimeUnit.MILLISECONDS) <= delayMillis) {
+                return;
+            }
+            // Cancelled only if it has not started; one that has started reschedules itself
+            if (!nextFlush.cancel(false)) {
+                return;
+            }
+        }
+        nextFlush = flusher.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * An edit waiting to be written.
+     */
+    private static final class Pending<K, V> {
+        private final K key;
+        private final V value;
+
+        private Pending(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
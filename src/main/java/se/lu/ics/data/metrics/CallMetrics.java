@@ -0,0 +1,97 @@
+package se.lu.ics.data.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The call count, error count, rows read and latency histogram of one stored procedure or DAO
+ * method. Recording neither locks nor allocates.
+ */
+public class CallMetrics implements CallMetricsMBean {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+
+    CallMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param nanos How long the call took.
+     * @param failed Whether it threw an SQLException.
+     */
+    void record(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    void addRow() {
+        rows.increment();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCalls() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public double getRowsPerCall() {
+        long calls = getCalls();
+        return calls == 0 ? 0 : (double) getRows() / calls;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return LatencyHistogram.toMillis(latency.getMean());
+    }
+
+    @Override
+    public double getP50Millis() {
+        return LatencyHistogram.toMillis(latency.getPercentile(0.50));
+    }
+
+    @Override
+    public double getP95Millis() {
+        return LatencyHistogram.toMillis(latency.getPercentile(0.95));
+    }
+
+    @Override
+    public double getP99Millis() {
+        return LatencyHistogram.toMillis(latency.getPercentile(0.99));
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return LatencyHistogram.toMillis(latency.getMax());
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        errors.reset();
+        rows.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-40s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f", name, getCalls(), getErrors(),
+                getRowsPerCall(), getMeanMillis(), getP50Millis(), getP95Millis(), getP99Millis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,33 @@
+package se.lu.ics.data.metrics;
+
+/**
+ * The attributes of a stored procedure or DAO method as shown in JConsole, under
+ * se.lu.ics.data:type=Procedure or se.lu.ics.data:type=DaoMethod.
+ */
+public interface CallMetricsMBean {
+
+    String getName();
+
+    long getCalls();
+
+    /** @return The number of calls that threw an SQLException. */
+    long getErrors();
+
+    /** @return The number of result set rows read, summed over all calls. */
+    long getRows();
+
+    double getRowsPerCall();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    /** Sets every counter back to zero. */
+    void reset();
+}
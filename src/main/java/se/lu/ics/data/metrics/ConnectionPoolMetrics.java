@@ -0,0 +1,102 @@
+package se.lu.ics.data.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import se.lu.ics.data.PoolStatistics;
+
+/**
+ * How long borrowing a connection from the pool takes, along with the pool's current usage.
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolMetricsMBean {
+    private final Supplier<PoolStatistics> poolStatistics;
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final LongAdder acquireErrors = new LongAdder();
+
+    ConnectionPoolMetrics(Supplier<PoolStatistics> poolStatistics) {
+        this.poolStatistics = poolStatistics;
+    }
+
+    void recordAcquire(long nanos, boolean failed) {
+        acquireLatency.record(nanos);
+        if (failed) {
+            acquireErrors.increment();
+        }
+    }
+
+    @Override
+    public long getAcquires() {
+        return acquireLatency.getCount();
+    }
+
+    @Override
+    public long getAcquireErrors() {
+        return acquireErrors.sum();
+    }
+
+    @Override
+    public double getAcquireMeanMillis() {
+        return LatencyHistogram.toMillis(acquireLatency.getMean());
+    }
+
+    @Override
+    public double getAcquireP50Millis() {
+        return LatencyHistogram.toMillis(acquireLatency.getPercentile(0.50));
+    }
+
+    @Override
+    public double getAcquireP95Millis() {
+        return LatencyHistogram.toMillis(acquireLatency.getPercentile(0.95));
+    }
+
+    @Override
+    public double getAcquireP99Millis() {
+        return LatencyHistogram.toMillis(acquireLatency.getPercentile(0.99));
+    }
+
+    @Override
+    public double getAcquireMaxMillis() {
+        return LatencyHistogram.toMillis(acquireLatency.getMax());
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return poolStatistics.get().getTotalConnections();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return poolStatistics.get().getActiveConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return poolStatistics.get().getIdleConnections();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return poolStatistics.get().getWaitingThreads();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return poolStatistics.get().getMaxSize();
+    }
+
+    @Override
+    public void reset() {
+        acquireLatency.reset();
+        acquireErrors.reset();
+    }
+
+    @Override
+    public String toString() {
+        PoolStatistics statistics = poolStatistics.get();
+        return String.format("connection acquire: %d calls, %d errors, mean %.2f, p50 %.2f, p95 %.2f, p99 %.2f,"
+                + " max %.2f ms; %d active, %d idle, %d waiting of max %d", getAcquires(), getAcquireErrors(),
+                getAcquireMeanMillis(), getAcquireP50Millis(), getAcquireP95Millis(), getAcquireP99Millis(),
+                getAcquireMaxMillis(), statistics.getActiveConnections(), statistics.getIdleConnections(),
+                statistics.getWaitingThreads(), statistics.getMaxSize());
+    }
+}
@@ -0,0 +1,36 @@
+package se.lu.ics.data.metrics;
+
+/**
+ * The attributes of the connection pool as shown in JConsole, under se.lu.ics.data:type=ConnectionPool.
+ */
+public interface ConnectionPoolMetricsMBean {
+
+    /** @return The number of borrows from the pool, including failed ones. */
+    long getAcquires();
+
+    /** @return The number of borrows that timed out or could not open a connection. */
+    long getAcquireErrors();
+
+    double getAcquireMeanMillis();
+
+    double getAcquireP50Millis();
+
+    double getAcquireP95Millis();
+
+    double getAcquireP99Millis();
+
+    double getAcquireMaxMillis();
+
+    int getTotalConnections();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getWaitingThreads();
+
+    int getMaxSize();
+
+    /** Sets the acquire counters back to zero. */
+    void reset();
+}
@@ -0,0 +1,244 @@
+package se.lu.ics.data.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import se.lu.ics.data.PoolStatistics;
+
+/**
+ * Records where the data access layer spends its time, for a ConnectionHandler with
+ * metrics.enabled=true. Every connection the handler hands out is instrumented, which gives:
+ * <ul>
+ * <li>per stored procedure: calls, errors, rows read and a latency histogram of its executions,</li>
+ * <li>per DAO method: calls, errors and latency from borrowing the connection to closing it,</li>
+ * <li>for the connection pool: how long borrowing takes, and how many connections are in use.</li>
+ * </ul>
+ * Each is published as an MBean in the se.lu.ics.data domain as soon as it is first used, so it
+ * can be watched in JConsole, and can also be logged as a text table every dumpInterval.
+ *
+ * A DAO method is named after the first frame on the stack outside the ConnectionHandler and
+ * the infrastructure classes it names, e.g. "CustomerDao.getAll". Calls served without a
+ * connection, e.g. from a cache, are not counted. When metrics are disabled the ConnectionHandler
+ * has no DaoMetrics and hands out the pooled connections as they are.
+ */
+public final class DaoMetrics implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(DaoMetrics.class.getName());
+
+    public static final String DOMAIN = "se.lu.ics.data";
+
+    // Statements that do not call a procedure, e.g. the SchemaMigrator's scripts
+    private static final String AD_HOC_SQL = "(SQL batch)";
+
+    private static final String TABLE_FORMAT = "%-40s %9s %7s %10s %9s %9s %9s %9s %9s%n";
+
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    private final Set<String> infrastructureClasses;
+    private final ConnectionPoolMetrics connectionPool;
+    private final Map<String, CallMetrics> procedures = new ConcurrentHashMap<>();
+    private final Map<String, CallMetrics> proceduresByCall = new ConcurrentHashMap<>();
+    private final Map<String, CallMetrics> daoMethods = new ConcurrentHashMap<>();
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final List<ObjectName> published = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService dumper;
+
+    /**
+     * @param poolStatistics Gives the current statistics of the pool connections are borrowed from.
+     * @param infrastructureClasses The fully qualified names of the classes between a DAO method
+     *                              and the ConnectionHandler, skipped when naming the DAO method.
+     * @param dumpIntervalSeconds How often to log the metrics, 0 to never log them.
+     */
+    public DaoMetrics(Supplier<PoolStatistics> poolStatistics, Set<String> infrastructureClasses,
+            long dumpIntervalSeconds) {
+        this.infrastructureClasses = infrastructureClasses;
+        this.connectionPool = new ConnectionPoolMetrics(poolStatistics);
+        publish(connectionPool, "ConnectionPool", null);
+
+        if (dumpIntervalSeconds > 0) {
+            dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "dao-metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(() -> LOGGER.log(System.Logger.Level.INFO, dump()),
+                    dumpIntervalSeconds, dumpIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            dumper = null;
+        }
+    }
+
+    /**
+     * Records one borrow from the connection pool.
+     *
+     * @param nanos How long the borrow took.
+     * @param failed Whether it threw an SQLException, e.g. because it timed out.
+     */
+    public void recordAcquire(long nanos, boolean failed) {
+        connectionPool.recordAcquire(nanos, failed);
+    }
+
+    /**
+     * Wraps a connection handed to a DAO method so that its calls are recorded.
+     *
+     * @param connection The connection borrowed for the DAO method.
+     * @param startedNanos The System.nanoTime() at which the DAO method asked for the connection.
+     * @return A connection that records the DAO method when it is closed.
+     */
+    public Connection instrument(Connection connection, long startedNanos) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new MeteredConnection(this, connection, daoMethod(callingMethod()), startedNanos));
+    }
+
+    public ConnectionPoolMetrics getConnectionPool() {
+        return connectionPool;
+    }
+
+    public Collection<CallMetrics> getProcedures() {
+        return procedures.values();
+    }
+
+    public Collection<CallMetrics> getDaoMethods() {
+        return daoMethods.values();
+    }
+
+    /**
+     * @return The metrics as a text table, with latencies in milliseconds.
+     */
+    public String dump() {
+        StringBuilder text = new StringBuilder("DAO metrics, latencies in ms\n");
+        text.append(connectionPool).append('\n');
+        appendTable(text, "procedure", procedures.values());
+        appendTable(text, "DAO method", daoMethods.values());
+        return text.toString();
+    }
+
+    /**
+     * Stops the periodic dump and removes the MBeans.
+     */
+    @Override
+    public void close() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+        }
+        for (ObjectName name : published) {
+            try {
+                mBeanServer.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.log(System.Logger.Level.WARNING, "Could not remove MBean " + name, e);
+            }
+        }
+        published.clear();
+    }
+
+    /**
+     * @param sql The SQL a statement was prepared or executed with, e.g. "{CALL uspGetAllCustomers}".
+     * @return The metrics of the procedure it calls, or of all SQL that calls no procedure.
+     */
+    CallMetrics procedure(String sql) {
+        CallMetrics metrics = proceduresByCall.get(sql);
+        if (metrics != null) {
+            return metrics;
+        }
+        String name = procedureName(sql);
+        if (name == null) {
+            // Not cached by SQL, since ad-hoc SQL text is not from a fixed set
+            return named(procedures, "Procedure", AD_HOC_SQL);
+        }
+        return proceduresByCall.computeIfAbsent(sql, call -> named(procedures, "Procedure", name));
+    }
+
+    private CallMetrics daoMethod(String name) {
+        CallMetrics metrics = daoMethods.get(name);
+        return metrics != null ? metrics : named(daoMethods, "DaoMethod", name);
+    }
+
+    private CallMetrics named(Map<String, CallMetrics> metrics, String type, String name) {
+        return metrics.computeIfAbsent(name, key -> {
+            CallMetrics created = new CallMetrics(key);
+            publish(created, type, key);
+            return created;
+        });
+    }
+
+    private void publish(Object mBean, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type
+                    + (name == null ? "" : ",name=" + name));
+            mBeanServer.registerMBean(mBean, objectName);
+            published.add(objectName);
+        } catch (JMException e) {
+            // E.g. another ConnectionHandler with metrics has published the same name
+            LOGGER.log(System.Logger.Level.WARNING, "Could not publish MBean for " + type + " " + name, e);
+        }
+    }
+
+    /**
+     * @return The simple class name and method of the first caller outside the infrastructure,
+     *         with a lambda named after the method it is in.
+     */
+    private String callingMethod() {
+        return STACK_WALKER.walk(frames -> frames
+                .filter(frame -> !frame.getClassName().startsWith(DaoMetrics.class.getPackageName() + ".")
+                        && !infrastructureClasses.contains(frame.getClassName()))
+                .findFirst()
+                .map(frame -> {
+                    String className = frame.getClassName();
+                    String methodName = frame.getMethodName();
+                    if (methodName.startsWith("lambda$")) {
+                        methodName = methodName.substring("lambda$".length(), methodName.lastIndexOf('$'));
+                    }
+                    return className.substring(className.lastIndexOf('.') + 1) + "." + methodName;
+                })
+                .orElse("unknown"));
+    }
+
+    /**
+     * @return The procedure named in a JDBC call escape, e.g. "uspGetAllCustomers" in
+     *         "{CALL uspGetAllCustomers}" or "{? = CALL dbo.uspX(?)}", or null if there is none.
+     */
+    static String procedureName(String sql) {
+        int call = sql.toUpperCase(Locale.ROOT).indexOf("CALL ");
+        if (call < 0 || !sql.trim().startsWith("{")) {
+            return null;
+        }
+        int start = call + "CALL ".length();
+        while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        int end = start;
+        while (end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || "_.[]".indexOf(sql.charAt(end)) >= 0)) {
+            end++;
+        }
+        return end > start ? sql.substring(start, end) : null;
+    }
+
+    private static void appendTable(StringBuilder text, String title, Collection<CallMetrics> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        text.append(String.format(TABLE_FORMAT, title, "calls", "errors", "rows/call", "mean", "p50", "p95", "p99",
+                "max"));
+        List<CallMetrics> sorted = new ArrayList<>(rows);
+        sorted.sort(Comparator.comparing(CallMetrics::getName));
+        sorted.forEach(metrics -> text.append(metrics).append('\n'));
+    }
+}
@@ -0,0 +1,121 @@
+package se.lu.ics.data.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * The connection handed to a DAO method while metrics are enabled. Its statements record each
+ * execution under the procedure they call, their result sets count the rows read, and closing
+ * the connection records the DAO method that borrowed it, from the start of the borrow.
+ */
+final class MeteredConnection implements InvocationHandler {
+    private final DaoMetrics metrics;
+    private final Connection connection;
+    private final CallMetrics daoMethod;
+    private final long startedNanos;
+    private boolean failed;
+    private boolean closed;
+
+    MeteredConnection(DaoMetrics metrics, Connection connection, CallMetrics daoMethod, long startedNanos) {
+        this.metrics = metrics;
+        this.connection = connection;
+        this.daoMethod = daoMethod;
+        this.startedNanos = startedNanos;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                try {
+                    return invokeOn(connection, method, args);
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        daoMethod.record(System.nanoTime() - startedNanos, failed);
+                    }
+                }
+            case "prepareCall":
+            case "prepareStatement":
+                return meter(invokeOn(connection, method, args), method, metrics.procedure((String) args[0]));
+            case "createStatement":
+                // The SQL is only known when the statement is executed
+                return meter(invokeOn(connection, method, args), method, null);
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return invokeOn(connection, method, args);
+        }
+    }
+
+    private Object meter(Object statement, Method method, CallMetrics procedure) {
+        return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { method.getReturnType() },
+                new MeteredStatement(statement, procedure));
+    }
+
+    /**
+     * Times the executions of a statement and counts the failed ones.
+     */
+    private final class MeteredStatement implements InvocationHandler {
+        private final Object statement;
+        private final CallMetrics procedure;
+        private CallMetrics lastExecuted;
+
+        private MeteredStatement(Object statement, CallMetrics procedure) {
+            this.statement = statement;
+            this.procedure = procedure;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                CallMetrics executed = args != null && args.length > 0 && args[0] instanceof String
+                        ? metrics.procedure((String) args[0])
+                        : procedure != null ? procedure : metrics.procedure("");
+                lastExecuted = executed;
+                long started = System.nanoTime();
+                Object result;
+                try {
+                    result = invokeOn(statement, method, args);
+                } catch (Throwable e) {
+                    executed.record(System.nanoTime() - started, true);
+                    failed = true;
+                    throw e;
+                }
+                executed.record(System.nanoTime() - started, false);
+                return result instanceof ResultSet
+                        ? new CountingResultSet((ResultSet) result, (Statement) proxy, executed)
+                        : result;
+            }
+            switch (name) {
+                case "getResultSet":
+                    Object resultSet = invokeOn(statement, method, args);
+                    return resultSet != null && lastExecuted != null
+                            ? new CountingResultSet((ResultSet) resultSet, (Statement) proxy, lastExecuted)
+                            : resultSet;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return invokeOn(statement, method, args);
+            }
+        }
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
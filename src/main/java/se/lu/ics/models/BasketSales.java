@@ -0,0 +1,36 @@
+package se.lu.ics.models;
+
+import java.math.BigDecimal;
+
+/**
+ * The number of purchases of one basket and the revenue they brought in, as aggregated by the server.
+ */
+public class BasketSales {
+    private final String basketNo;
+    private final String name;
+    private final long purchaseCount;
+    private final BigDecimal revenue;
+
+    public BasketSales(String basketNo, String name, long purchaseCount, BigDecimal revenue) {
+        this.basketNo = basketNo;
+        this.name = name;
+        this.purchaseCount = purchaseCount;
+        this.revenue = revenue;
+    }
+
+    public String getBasketNo() {
+        return basketNo;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getPurchaseCount() {
+        return purchaseCount;
+    }
+
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+}
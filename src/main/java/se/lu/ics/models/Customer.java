@@ -7,7 +7,7 @@ public class Customer {
     private String accountNo;
     private String name;
     private String deliveryAddress;
-    private List<FruitBasket> baskets = new ArrayList<>();
+    private List<FruitBasket> baskets; // created on first use, most customers are loaded without their baskets
 
     public Customer(String accountNo, String name, String deliveryAddress) {
         this.accountNo = accountNo;
@@ -40,6 +40,9 @@ public class Customer {
     }
 
     public List<FruitBasket> getBaskets() {
+        if (baskets == null) {
+            baskets = new ArrayList<>();
+        }
         return baskets;
     }
 }
\ No newline at end of file
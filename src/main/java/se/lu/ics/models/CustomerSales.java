@@ -0,0 +1,36 @@
+package se.lu.ics.models;
+
+import java.math.BigDecimal;
+
+/**
+ * The number of purchases made by one customer and what they spent, as aggregated by the server.
+ */
+public class CustomerSales {
+    private final String accountNo;
+    private final String name;
+    private final long purchaseCount;
+    private final BigDecimal revenue;
+
+    public CustomerSales(String accountNo, String name, long purchaseCount, BigDecimal revenue) {
+        this.accountNo = accountNo;
+        this.name = name;
+        this.purchaseCount = purchaseCount;
+        this.revenue = revenue;
+    }
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getPurchaseCount() {
+        return purchaseCount;
+    }
+
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+}
@@ -1,15 +1,16 @@
 package se.lu.ics.models;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 
 public class FruitBasket {
     private String basketNo;
     private String name;
-    private double price;
-    private List<Customer> customers = new ArrayList<>();
+    private BigDecimal price; // DECIMAL(5,2), so always exact and with scale 2 when loaded
+    private List<Customer> customers; // created on first use, most baskets are loaded without their customers
 
-    public FruitBasket(String basketNo, String name, double price) {
+    public FruitBasket(String basketNo, String name, BigDecimal price) {
         this.basketNo = basketNo;
         this.name = name;
         this.price = price;
@@ -31,15 +32,18 @@ public class FruitBasket {
         this.name = name;
     }
 
-    public double getPrice() {
+    public BigDecimal getPrice() {
         return price;
     }
 
-    public void setPrice(double price) {
+    public void setPrice(BigDecimal price) {
         this.price = price;
     }
 
     public List<Customer> getCustomers() {
+        if (customers == null) {
+            customers = new ArrayList<>();
+        }
         return customers;
     }
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package se.lu.ics.models;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Checks customers, baskets and purchases against the rules of the database schema before they
+ * are sent to it: the formats enforced by the CHECK constraints and the lengths of the VARCHAR
+ * and DECIMAL columns. A rejected write then costs no round trip, and every broken rule is
+ * reported at once instead of one per attempt.
+ *
+ * The check methods return the errors keyed by property name, so that a caller can add its own,
+ * e.g. a value that could not be parsed, before calling throwIfInvalid.
+ */
+public final class ModelValidator {
+
+    // Compiled once, matching is then the only cost per check
+    private static final Pattern ACCOUNT_NO = Pattern.compile("C[0-9]{3}");
+    private static final Pattern BASKET_NO = Pattern.compile("B[0-9]{2}");
+
+    // Lengths of the VARCHAR columns, see tables.sql
+    private static final int CUSTOMER_NAME_LENGTH = 20;
+    private static final int DELIVERY_ADDRESS_LENGTH = 20;
+    private static final int BASKET_NAME_LENGTH = 30;
+
+    // Price is DECIMAL(5,2)
+    private static final BigDecimal MAX_PRICE = new BigDecimal("999.99");
+
+    private ModelValidator() {
+    }
+
+    /**
+     * @param customer The customer to check.
+     * @return The error message per invalid field, empty if the customer is valid.
+     */
+    public static Map<String, String> check(Customer customer) {
+        Map<String, String> errors = new LinkedHashMap<>();
+        checkAccountNo(customer.getAccountNo(), errors);
+        checkLength("name", "Name", customer.getName(), CUSTOMER_NAME_LENGTH, errors);
+        checkLength("deliveryAddress", "Delivery address", customer.getDeliveryAddress(), DELIVERY_ADDRESS_LENGTH, errors);
+        return errors;
+    }
+
+    /**
+     * @param basket The basket to check. A null price is valid, the column is nullable.
+     * @return The error message per invalid field, empty if the basket is valid.
+     */
+    public static Map<String, String> check(FruitBasket basket) {
+        Map<String, String> errors = new LinkedHashMap<>();
+        checkBasketNo(basket.getBasketNo(), errors);
+        checkLength("name", "Basket name", basket.getName(), BASKET_NAME_LENGTH, errors);
+
+        BigDecimal price = basket.getPrice();
+        if (price != null) {
+            if (price.signum() < 0) {
+                errors.put("price", "Price must not be negative!");
+            } else if (price.scale() > 2 && price.stripTrailingZeros().scale() > 2) {
+                errors.put("price", "Price must have at most two decimals!");
+            } else if (price.compareTo(MAX_PRICE) > 0) {
+                errors.put("price", "Price must be at most " + MAX_PRICE + "!");
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @param purchase The purchase to check. A null date is valid, the column is nullable.
+     * @return The error message per invalid field, empty if the purchase is valid.
+     */
+    public static Map<String, String> check(Purchase purchase) {
+        Map<String, String> errors = new LinkedHashMap<>();
+        checkAccountNo(purchase.getAccountNo(), errors);
+        checkBasketNo(purchase.getBasketNo(), errors);
+        return errors;
+    }
+
+    /**
+     * @throws ValidationException If the customer is invalid.
+     */
+    public static void validate(Customer customer) {
+        throwIfInvalid(check(customer));
+    }
+
+    /**
+     * @throws ValidationException If the basket is invalid.
+     */
+    public static void validate(FruitBasket basket) {
+        throwIfInvalid(check(basket));
+    }
+
+    /**
+     * @throws ValidationException If the purchase is invalid.
+     */
+    public static void validate(Purchase purchase) {
+        throwIfInvalid(check(purchase));
+    }
+
+    /**
+     * @param errors The errors returned by a check method, possibly with errors of the caller's own.
+     * @throws ValidationException If there are any errors.
+     */
+    public static void throwIfInvalid(Map<String, String> errors) {
+        if (!errors.isEmpty()) {
+            throw new ValidationException(errors);
+        }
+    }
+
+    private static void checkAccountNo(String accountNo, Map<String, String> errors) {
+        if (accountNo == null || !ACCOUNT_NO.matcher(accountNo).matches()) {
+            errors.put("accountNo", "Account number must be formatted as Cnnn, where n is a decimal digit!");
+        }
+    }
+
+    private static void checkBasketNo(String basketNo, Map<String, String> errors) {
+        if (basketNo == null || !BASKET_NO.matcher(basketNo).matches()) {
+            errors.put("basketNo", "Basket number must be formatted as Bnn, where n is a decimal digit!");
+        }
+    }
+
+    private static void checkLength(String field, String label, String value, int maxLength, Map<String, String> errors) {
+        if (value != null && value.length() > maxLength) {
+            errors.put(field, label + " must be at most " + maxLength + " characters!");
+        }
+    }
+}
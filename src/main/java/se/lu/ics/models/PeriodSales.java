@@ -0,0 +1,34 @@
+package se.lu.ics.models;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * The number of purchases and the revenue in one day, week, month or year, as aggregated by the server.
+ */
+public class PeriodSales {
+    private final LocalDate periodStart;
+    private final long purchaseCount;
+    private final BigDecimal revenue;
+
+    public PeriodSales(LocalDate periodStart, long purchaseCount, BigDecimal revenue) {
+        this.periodStart = periodStart;
+        this.purchaseCount = purchaseCount;
+        this.revenue = revenue;
+    }
+
+    /**
+     * @return The first day of the period: the day itself, a Monday, or the first day of the month or year.
+     */
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+
+    public long getPurchaseCount() {
+        return purchaseCount;
+    }
+
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+}
@@ -1,11 +1,13 @@
 package se.lu.ics.models;
 
+import java.time.LocalDate;
+
 public class Purchase {
     private String accountNo;
     private String basketNo;
-    private String purchaseDate;
+    private LocalDate purchaseDate;
 
-    public Purchase(String accountNo, String basketNo, String purchaseDate) {
+    public Purchase(String accountNo, String basketNo, LocalDate purchaseDate) {
         this.accountNo = accountNo;
         this.basketNo = basketNo;
         this.purchaseDate = purchaseDate;
@@ -27,11 +29,11 @@ public class Purchase {
         this.basketNo = basketNo;
     }
 
-    public String getPurchaseDate() {
+    public LocalDate getPurchaseDate() {
         return purchaseDate;
     }
 
-    public void setPurchaseDate(String purchaseDate) {
+    public void setPurchaseDate(LocalDate purchaseDate) {
         this.purchaseDate = purchaseDate;
     }
 }
\ No newline at end of file
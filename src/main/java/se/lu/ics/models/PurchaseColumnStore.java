@@ -0,0 +1,420 @@
+package se.lu.ics.models;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Holds purchases column by column in primitive arrays instead of as Purchase objects.
+ * AccountNo is always Cnnn and BasketNo always Bnn, so a purchase is stored as its account
+ * number (0-999) in a short, its basket number (0-99) in a byte and its purchase date as an
+ * epoch day in an int: 7 bytes per purchase, where a Purchase with its key Strings and
+ * LocalDate takes well over a hundred. PurchaseDate is nullable, and a purchase without a date
+ * is stored with the epoch day NO_DATE.
+ *
+ * Rows are kept ordered by AccountNo, BasketNo, the order purchase pages are fetched in, so
+ * appending a page is a plain append and a key is found by binary search. The key strings for
+ * a row are shared by every row with the same key, see accountNo(int) and basketNo(int).
+ */
+public class PurchaseColumnStore {
+    public static final int ACCOUNT_KEY_COUNT = 1000;
+    public static final int BASKET_KEY_COUNT = 100;
+
+    /** The epoch day stored for a purchase without a purchase date. */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int DEFAULT_CAPACITY = 128;
+
+    // Every possible key is a short string, so each one is created at most once
+    private static final String[] ACCOUNT_NOS = new String[ACCOUNT_KEY_COUNT];
+    private static final String[] BASKET_NOS = new String[BASKET_KEY_COUNT];
+
+    private short[] accountKeys;
+    private byte[] basketKeys;
+    private int[] epochDays;
+    private int size;
+
+    /**
+     * Receives one row of a scan as primitives, so scanning a store allocates nothing.
+     */
+    @FunctionalInterface
+    public interface RowVisitor {
+        void visit(int accountKey, int basketKey, int epochDay);
+    }
+
+    /**
+     * Collects rows that arrive in any order, e.g. from a query without ORDER BY, and builds a
+     * store from them. The rows are placed by key in one dense array, so building is linear in
+     * the number of rows instead of inserting each row at its position.
+     */
+    public static class Builder {
+        // Not NO_DATE, which a row may hold
+        private static final int NO_ROW = Integer.MAX_VALUE;
+
+        private final int[] epochDayByKey = new int[ACCOUNT_KEY_COUNT * BASKET_KEY_COUNT];
+        private int size;
+
+        public Builder() {
+            Arrays.fill(epochDayByKey, NO_ROW);
+        }
+
+        /**
+         * Adds a row. A later row with the same key replaces the earlier one.
+         */
+        public Builder add(int accountKey, int basketKey, int epochDay) {
+            checkKeys(accountKey, basketKey);
+            int key = compositeKey(accountKey, basketKey);
+            if (epochDayByKey[key] == NO_ROW) {
+                size++;
+            }
+            epochDayByKey[key] = epochDay;
+            return this;
+        }
+
+        public PurchaseColumnStore build() {
+            PurchaseColumnStore store = new PurchaseColumnStore(size);
+            for (int key = 0; key < epochDayByKey.length; key++) {
+                if (epochDayByKey[key] != NO_ROW) {
+                    store.accountKeys[store.size] = (short) (key / BASKET_KEY_COUNT);
+                    store.basketKeys[store.size] = (byte) (key % BASKET_KEY_COUNT);
+                    store.epochDays[store.size] = epochDayByKey[key];
+                    store.size++;
+                }
+            }
+            return store;
+        }
+    }
+
+    public PurchaseColumnStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity The number of rows that fit before the columns are grown.
+     */
+    public PurchaseColumnStore(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + initialCapacity);
+        }
+        accountKeys = new short[initialCapacity];
+        basketKeys = new byte[initialCapacity];
+        epochDays = new int[initialCapacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getAccountKey(int index) {
+        checkIndex(index);
+        return accountKeys[index];
+    }
+
+    public int getBasketKey(int index) {
+        checkIndex(index);
+        return basketKeys[index];
+    }
+
+    public int getEpochDay(int index) {
+        checkIndex(index);
+        return epochDays[index];
+    }
+
+    /**
+     * Creates a Purchase for one row. The Purchase is not backed by the store, so it is a
+     * short-lived view that is not updated if the row changes.
+     *
+     * @param index The row.
+     * @return A new Purchase with the row's data.
+     */
+    public Purchase getPurchase(int index) {
+        checkIndex(index);
+        return new Purchase(accountNo(accountKeys[index]), basketNo(basketKeys[index]), date(epochDays[index]));
+    }
+
+    /**
+     * Finds the row with the given key.
+     *
+     * @param accountKey The account number, e.g. 123 for C123.
+     * @param basketKey The basket number, e.g. 1 for B01.
+     * @return The row index, or (-(insertion point) - 1) if there is no such row, like Arrays.binarySearch.
+     */
+    public int indexOf(int accountKey, int basketKey) {
+        int key = compositeKey(accountKey, basketKey);
+
+        // Pages arrive in key order, so the last row is the most likely insertion point
+        if (size == 0 || compositeKey(size - 1) < key) {
+            return -size - 1;
+        }
+
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = compositeKey(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -low - 1;
+    }
+
+    /**
+     * @see #indexOf(int, int)
+     */
+    public int indexOf(String accountNo, String basketNo) {
+        return indexOf(accountKey(accountNo), basketKey(basketNo));
+    }
+
+    /**
+     * Adds a row, or replaces the purchase date of the row with the same key.
+     *
+     * @param accountKey The account number, e.g. 123 for C123.
+     * @param basketKey The basket number, e.g. 1 for B01.
+     * @param epochDay The purchase date as a number of days since 1970-01-01, or NO_DATE.
+     * @return The index of the added or replaced row.
+     */
+    public int put(int accountKey, int basketKey, int epochDay) {
+        checkKeys(accountKey, basketKey);
+        int index = indexOf(accountKey, basketKey);
+        if (index >= 0) {
+            epochDays[index] = epochDay;
+            return index;
+        }
+
+        index = -index - 1;
+        ensureCapacity(size + 1);
+        if (index < size) {
+            System.arraycopy(accountKeys, index, accountKeys, index + 1, size - index);
+            System.arraycopy(basketKeys, index, basketKeys, index + 1, size - index);
+            System.arraycopy(epochDays, index, epochDays, index + 1, size - index);
+        }
+        accountKeys[index] = (short) accountKey;
+        basketKeys[index] = (byte) basketKey;
+        epochDays[index] = epochDay;
+        size++;
+        return index;
+    }
+
+    /**
+     * Adds a purchase, or replaces the purchase date of the row with the same key.
+     *
+     * @param purchase The purchase, with a Cnnn AccountNo and a Bnn BasketNo.
+     * @return The index of the added or replaced row.
+     * @throws IllegalArgumentException If a key is not in the expected format.
+     */
+    public int put(Purchase purchase) {
+        return put(accountKey(purchase.getAccountNo()), basketKey(purchase.getBasketNo()),
+                epochDay(purchase.getPurchaseDate()));
+    }
+
+    /**
+     * Removes the row at the given index, keeping the remaining rows in key order.
+     *
+     * @param index The row.
+     */
+    public void remove(int index) {
+        checkIndex(index);
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(accountKeys, index + 1, accountKeys, index, moved);
+            System.arraycopy(basketKeys, index + 1, basketKeys, index, moved);
+            System.arraycopy(epochDays, index + 1, epochDays, index, moved);
+        }
+        size--;
+    }
+
+    /**
+     * Removes the row with the given key, if there is one.
+     *
+     * @return The index the row had, or -1 if there was no such row.
+     */
+    public int remove(int accountKey, int basketKey) {
+        int index = indexOf(accountKey, basketKey);
+        if (index < 0) {
+            return -1;
+        }
+        remove(index);
+        return index;
+    }
+
+    /**
+     * Removes every row. The columns keep their capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Visits every row in key order.
+     *
+     * @param visitor Receives the columns of each row.
+     */
+    public void forEach(RowVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            visitor.visit(accountKeys[i], basketKeys[i], epochDays[i]);
+        }
+    }
+
+    /**
+     * @return A new store with the same rows, sized to fit them.
+     */
+    public PurchaseColumnStore copy() {
+        PurchaseColumnStore copy = new PurchaseColumnStore(size);
+        System.arraycopy(accountKeys, 0, copy.accountKeys, 0, size);
+        System.arraycopy(basketKeys, 0, copy.basketKeys, 0, size);
+        System.arraycopy(epochDays, 0, copy.epochDays, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * @return A copy of the account numbers of every row, in key order.
+     */
+    public short[] copyAccountKeys() {
+        return Arrays.copyOf(accountKeys, size);
+    }
+
+    /**
+     * @return A copy of the basket numbers of every row, in key order.
+     */
+    public byte[] copyBasketKeys() {
+        return Arrays.copyOf(basketKeys, size);
+    }
+
+    /**
+     * @return A copy of the purchase dates of every row as epoch days, in key order.
+     */
+    public int[] copyEpochDays() {
+        return Arrays.copyOf(epochDays, size);
+    }
+
+    /**
+     * Releases the capacity beyond the current rows, e.g. after loading a snapshot.
+     */
+    public void trimToSize() {
+        if (accountKeys.length != size) {
+            accountKeys = Arrays.copyOf(accountKeys, size);
+            basketKeys = Arrays.copyOf(basketKeys, size);
+            epochDays = Arrays.copyOf(epochDays, size);
+        }
+    }
+
+    /**
+     * @param date A purchase date, or null.
+     * @return The date as a number of days since 1970-01-01, or NO_DATE for null.
+     */
+    public static int epochDay(LocalDate date) {
+        return date == null ? NO_DATE : (int) date.toEpochDay();
+    }
+
+    /**
+     * @param epochDay A purchase date as a number of days since 1970-01-01, or NO_DATE.
+     * @return The date, or null for NO_DATE.
+     */
+    public static LocalDate date(int epochDay) {
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * Parses a Cnnn account number.
+     *
+     * @param accountNo The account number, e.g. "C123".
+     * @return The number, e.g. 123.
+     * @throws IllegalArgumentException If the account number is not formatted as Cnnn.
+     */
+    public static int accountKey(String accountNo) {
+        if (accountNo == null || accountNo.length() != 4 || accountNo.charAt(0) != 'C') {
+            throw new IllegalArgumentException("AccountNo must be formatted as Cnnn: " + accountNo);
+        }
+        return digits(accountNo, "AccountNo must be formatted as Cnnn: ");
+    }
+
+    /**
+     * Parses a Bnn basket number.
+     *
+     * @param basketNo The basket number, e.g. "B01".
+     * @return The number, e.g. 1.
+     * @throws IllegalArgumentException If the basket number is not formatted as Bnn.
+     */
+    public static int basketKey(String basketNo) {
+        if (basketNo == null || basketNo.length() != 3 || basketNo.charAt(0) != 'B') {
+            throw new IllegalArgumentException("BasketNo must be formatted as Bnn: " + basketNo);
+        }
+        return digits(basketNo, "BasketNo must be formatted as Bnn: ");
+    }
+
+    /**
+     * @param accountKey The number of an account, 0-999.
+     * @return The shared Cnnn string for the account.
+     */
+    public static String accountNo(int accountKey) {
+        String accountNo = ACCOUNT_NOS[accountKey];
+        if (accountNo == null) {
+            accountNo = String.format("C%03d", accountKey);
+            ACCOUNT_NOS[accountKey] = accountNo;
+        }
+        return accountNo;
+    }
+
+    /**
+     * @param basketKey The number of a basket, 0-99.
+     * @return The shared Bnn string for the basket.
+     */
+    public static String basketNo(int basketKey) {
+        String basketNo = BASKET_NOS[basketKey];
+        if (basketNo == null) {
+            basketNo = String.format("B%02d", basketKey);
+            BASKET_NOS[basketKey] = basketNo;
+        }
+        return basketNo;
+    }
+
+    private static int digits(String key, String message) {
+        int value = 0;
+        for (int i = 1; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException(message + key);
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static int compositeKey(int accountKey, int basketKey) {
+        return accountKey * BASKET_KEY_COUNT + basketKey;
+    }
+
+    private int compositeKey(int index) {
+        return compositeKey(accountKeys[index], basketKeys[index]);
+    }
+
+    private static void checkKeys(int accountKey, int basketKey) {
+        if (accountKey < 0 || accountKey >= ACCOUNT_KEY_COUNT || basketKey < 0 || basketKey >= BASKET_KEY_COUNT) {
+            throw new IllegalArgumentException("Invalid purchase key: " + accountKey + ", " + basketKey);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > accountKeys.length) {
+            int newCapacity = Math.max(capacity, accountKeys.length + (accountKeys.length >> 1) + 1);
+            accountKeys = Arrays.copyOf(accountKeys, newCapacity);
+            basketKeys = Arrays.copyOf(basketKeys, newCapacity);
+            epochDays = Arrays.copyOf(epochDays, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package se.lu.ics.models;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thrown by ModelValidator when a customer, basket or purchase cannot be stored as entered.
+ * It carries every invalid field at once, so the user can correct them all in one go.
+ */
+public class ValidationException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, String> fieldErrors;
+
+    /**
+     * @param fieldErrors The error message per invalid field, keyed by property name, e.g. "accountNo".
+     */
+    public ValidationException(Map<String, String> fieldErrors) {
+        super(String.join(" ", fieldErrors.values()));
+        this.fieldErrors = Collections.unmodifiableMap(new LinkedHashMap<>(fieldErrors));
+    }
+
+    /**
+     * @return The error message per invalid field, in the order the fields were checked.
+     */
+    public Map<String, String> getFieldErrors() {
+        return fieldErrors;
+    }
+}
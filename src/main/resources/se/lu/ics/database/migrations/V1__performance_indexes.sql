@@ -0,0 +1,93 @@
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Performance index pack. Adds covering indexes for the joins and lookups made by
+-- the usp* procedures, which otherwise scan a table or look up every row they read in the
+-- clustered index. Every index is only created if it does not exist yet, so the migration also
+-- applies to databases created from a tables.sql that already has some of them. The RowVersion
+-- and tombstone indexes need the change tracking schema and are skipped on a database without it.
+-- =============================================
+
+-- Purchase has no index leading on BasketID: deleting a basket cascades through a scan of
+-- Purchase, and so does every join reaching Purchase from FruitBasket
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Purchase_BasketID' AND object_id = OBJECT_ID('dbo.Purchase'))
+BEGIN
+	CREATE INDEX IX_Purchase_BasketID ON Purchase(BasketID) INCLUDE (PurchaseDate);
+END
+
+-- Date range reports, see uspGetSalesByCustomer and uspGetSalesByPeriod
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Purchase_PurchaseDate' AND object_id = OBJECT_ID('dbo.Purchase'))
+BEGIN
+	CREATE INDEX IX_Purchase_PurchaseDate ON Purchase(PurchaseDate) INCLUDE (CustomerID, BasketID);
+END
+GO
+
+-- The unique constraints on AccountNo and BasketNo hold only the key, so the page, lookup and
+-- purchase join procedures read the remaining columns from the clustered index row by row
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Customer_AccountNo' AND object_id = OBJECT_ID('dbo.Customer'))
+BEGIN
+	CREATE UNIQUE INDEX IX_Customer_AccountNo ON Customer(AccountNo) INCLUDE (CustomerName, DeliveryAddress);
+END
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_FruitBasket_BasketNo' AND object_id = OBJECT_ID('dbo.FruitBasket'))
+BEGIN
+	CREATE UNIQUE INDEX IX_FruitBasket_BasketNo ON FruitBasket(BasketNo) INCLUDE (BasketName, Price);
+END
+GO
+
+-- The uspGet*ChangesSince procedures read the rows changed in a RowVersion range, which
+-- without these indexes is a scan of the whole table on every poll. Databases created from an
+-- earlier tables.sql have RowVersion indexes without included columns, which are rebuilt in place.
+-- A database created before change tracking has no RowVersion columns and is left alone; the
+-- statements run through EXEC so that the batch still compiles on such a database.
+IF COL_LENGTH('dbo.Customer', 'RowVersion') IS NOT NULL
+	AND NOT EXISTS (SELECT 1 FROM sys.indexes i
+		JOIN sys.index_columns ic ON ic.object_id = i.object_id AND ic.index_id = i.index_id
+		WHERE i.object_id = OBJECT_ID('dbo.Customer') AND i.name = 'IX_Customer_RowVersion'
+			AND ic.is_included_column = 1)
+BEGIN
+	IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Customer_RowVersion' AND object_id = OBJECT_ID('dbo.Customer'))
+		EXEC('CREATE INDEX IX_Customer_RowVersion ON Customer(RowVersion) INCLUDE (AccountNo, CustomerName, DeliveryAddress) WITH (DROP_EXISTING = ON)');
+	ELSE
+		EXEC('CREATE INDEX IX_Customer_RowVersion ON Customer(RowVersion) INCLUDE (AccountNo, CustomerName, DeliveryAddress)');
+END
+
+IF COL_LENGTH('dbo.FruitBasket', 'RowVersion') IS NOT NULL
+	AND NOT EXISTS (SELECT 1 FROM sys.indexes i
+		JOIN sys.index_columns ic ON ic.object_id = i.object_id AND ic.index_id = i.index_id
+		WHERE i.object_id = OBJECT_ID('dbo.FruitBasket') AND i.name = 'IX_FruitBasket_RowVersion'
+			AND ic.is_included_column = 1)
+BEGIN
+	IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_FruitBasket_RowVersion' AND object_id = OBJECT_ID('dbo.FruitBasket'))
+		EXEC('CREATE INDEX IX_FruitBasket_RowVersion ON FruitBasket(RowVersion) INCLUDE (BasketNo, BasketName, Price) WITH (DROP_EXISTING = ON)');
+	ELSE
+		EXEC('CREATE INDEX IX_FruitBasket_RowVersion ON FruitBasket(RowVersion) INCLUDE (BasketNo, BasketName, Price)');
+END
+
+IF COL_LENGTH('dbo.Purchase', 'RowVersion') IS NOT NULL
+	AND NOT EXISTS (SELECT 1 FROM sys.indexes i
+		JOIN sys.index_columns ic ON ic.object_id = i.object_id AND ic.index_id = i.index_id
+		WHERE i.object_id = OBJECT_ID('dbo.Purchase') AND i.name = 'IX_Purchase_RowVersion'
+			AND ic.is_included_column = 1)
+BEGIN
+	IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Purchase_RowVersion' AND object_id = OBJECT_ID('dbo.Purchase'))
+		EXEC('CREATE INDEX IX_Purchase_RowVersion ON Purchase(RowVersion) INCLUDE (PurchaseDate) WITH (DROP_EXISTING = ON)');
+	ELSE
+		EXEC('CREATE INDEX IX_Purchase_RowVersion ON Purchase(RowVersion) INCLUDE (PurchaseDate)');
+END
+GO
+
+-- uspGetPurchaseChangesSince finds the keys of a deleted purchase's customer and basket among
+-- the tombstones by their surrogate keys. The tombstone tables also came with change tracking.
+IF OBJECT_ID('dbo.DeletedCustomer') IS NOT NULL
+	AND NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_DeletedCustomer_CustomerID' AND object_id = OBJECT_ID('dbo.DeletedCustomer'))
+BEGIN
+	EXEC('CREATE INDEX IX_DeletedCustomer_CustomerID ON DeletedCustomer(CustomerID) INCLUDE (AccountNo)');
+END
+
+IF OBJECT_ID('dbo.DeletedFruitBasket') IS NOT NULL
+	AND NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_DeletedFruitBasket_BasketID' AND object_id = OBJECT_ID('dbo.DeletedFruitBasket'))
+BEGIN
+	EXEC('CREATE INDEX IX_DeletedFruitBasket_BasketID ON DeletedFruitBasket(BasketID) INCLUDE (BasketNo)');
+END
+GO
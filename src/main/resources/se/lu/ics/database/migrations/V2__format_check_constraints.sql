@@ -0,0 +1,31 @@
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Replaces the AFTER INSERT format triggers with CHECK constraints. The triggers
+-- ran after every insert, including every row of a bulk insert, and made a bad row cost the
+-- insert, the error and a rollback; the price trigger also compared the DECIMAL price with LIKE
+-- through an implicit string conversion. A CHECK constraint rejects the row before it is
+-- written, and unlike the triggers it also applies to updates. DECIMAL(5,2) already limits the
+-- price to two decimals, so its constraint only rules out negative prices.
+-- =============================================
+
+DROP TRIGGER IF EXISTS CustomerAccountNoFormatTrigger;
+DROP TRIGGER IF EXISTS FruitBasketBasketNoFormatTrigger;
+DROP TRIGGER IF EXISTS FruitBasketPriceFormatTrigger;
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.check_constraints WHERE name = 'CK_Customer_AccountNo')
+BEGIN
+	ALTER TABLE Customer WITH CHECK ADD CONSTRAINT CK_Customer_AccountNo CHECK(AccountNo LIKE 'C[0-9][0-9][0-9]');
+END
+
+IF NOT EXISTS (SELECT 1 FROM sys.check_constraints WHERE name = 'CK_FruitBasket_BasketNo')
+BEGIN
+	ALTER TABLE FruitBasket WITH CHECK ADD CONSTRAINT CK_FruitBasket_BasketNo CHECK(BasketNo LIKE 'B[0-9][0-9]');
+END
+
+IF NOT EXISTS (SELECT 1 FROM sys.check_constraints WHERE name = 'CK_FruitBasket_Price')
+BEGIN
+	ALTER TABLE FruitBasket WITH CHECK ADD CONSTRAINT CK_FruitBasket_Price CHECK(Price >= 0);
+END
+GO
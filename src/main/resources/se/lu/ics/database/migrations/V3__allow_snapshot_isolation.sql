@@ -0,0 +1,13 @@
+-- SchemaMigrator: no transaction
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Allows SNAPSHOT isolation, which the *Snapshot read procedures run under. SQL
+-- Server then keeps the previous version of each modified row in tempdb for as long as a
+-- snapshot may still need it. ALTER DATABASE cannot run inside a transaction, hence the marker
+-- on the first line. The statement waits until the transactions running when it starts have
+-- finished, and running it on a database that already allows snapshots does nothing.
+-- =============================================
+
+ALTER DATABASE CURRENT SET ALLOW_SNAPSHOT_ISOLATION ON;
+GO
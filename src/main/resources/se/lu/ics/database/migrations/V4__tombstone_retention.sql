@@ -0,0 +1,39 @@
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Lets the tombstones of deleted rows be purged. The delete triggers add a row to
+-- DeletedCustomer, DeletedFruitBasket or DeletedPurchase for every deleted row and nothing ever
+-- removed them, so the tables and the uspGet*ChangesSince scans of them grew without limit.
+-- Adds the time each tombstone was written, which uspPurgeTombstones purges by, and the
+-- SyncHorizon table recording the newest version it purged. Existing tombstones are stamped
+-- with the time the migration runs, so they are purged one retention period from now.
+-- Run procedures.sql afterwards for uspPurgeTombstones and the sync version checks.
+-- =============================================
+
+IF OBJECT_ID('dbo.DeletedCustomer') IS NOT NULL AND COL_LENGTH('dbo.DeletedCustomer', 'DeletedAt') IS NULL
+BEGIN
+	ALTER TABLE DeletedCustomer ADD DeletedAt DATETIME2(0) NOT NULL
+		CONSTRAINT DF_DeletedCustomer_DeletedAt DEFAULT SYSUTCDATETIME();
+END
+
+IF OBJECT_ID('dbo.DeletedFruitBasket') IS NOT NULL AND COL_LENGTH('dbo.DeletedFruitBasket', 'DeletedAt') IS NULL
+BEGIN
+	ALTER TABLE DeletedFruitBasket ADD DeletedAt DATETIME2(0) NOT NULL
+		CONSTRAINT DF_DeletedFruitBasket_DeletedAt DEFAULT SYSUTCDATETIME();
+END
+
+IF OBJECT_ID('dbo.DeletedPurchase') IS NOT NULL AND COL_LENGTH('dbo.DeletedPurchase', 'DeletedAt') IS NULL
+BEGIN
+	ALTER TABLE DeletedPurchase ADD DeletedAt DATETIME2(0) NOT NULL
+		CONSTRAINT DF_DeletedPurchase_DeletedAt DEFAULT SYSUTCDATETIME();
+END
+GO
+
+IF OBJECT_ID('dbo.SyncHorizon') IS NULL
+BEGIN
+	CREATE TABLE SyncHorizon (
+		PurgedThroughVersion BINARY(8) NOT NULL
+	);
+	INSERT INTO SyncHorizon(PurgedThroughVersion) VALUES (0x0000000000000000);
+END
+GO
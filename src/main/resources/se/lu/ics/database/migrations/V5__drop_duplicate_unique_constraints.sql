@@ -0,0 +1,22 @@
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Drops the UNIQUE constraints on AccountNo and BasketNo. V1 added unique covering
+-- indexes on the same columns, so every insert and update of a key maintained two unique
+-- indexes holding the same keys. IX_Customer_AccountNo and IX_FruitBasket_BasketNo enforce the
+-- uniqueness on their own; a duplicate key is now reported as error 2601 instead of 2627.
+-- A constraint is only dropped once the index replacing it exists.
+-- =============================================
+
+IF EXISTS (SELECT 1 FROM sys.key_constraints WHERE name = 'UQ_Customer_AccountNo' AND parent_object_id = OBJECT_ID('dbo.Customer'))
+	AND EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Customer_AccountNo' AND object_id = OBJECT_ID('dbo.Customer') AND is_unique = 1)
+BEGIN
+	ALTER TABLE Customer DROP CONSTRAINT UQ_Customer_AccountNo;
+END
+
+IF EXISTS (SELECT 1 FROM sys.key_constraints WHERE name = 'UQ_FruitBasket_BasketNo' AND parent_object_id = OBJECT_ID('dbo.FruitBasket'))
+	AND EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_FruitBasket_BasketNo' AND object_id = OBJECT_ID('dbo.FruitBasket') AND is_unique = 1)
+BEGIN
+	ALTER TABLE FruitBasket DROP CONSTRAINT UQ_FruitBasket_BasketNo;
+END
+GO
@@ -38,24 +38,147 @@ BEGIN
 	SET NOCOUNT ON;
 	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		-- Insert the customer record into the Customer table
 		INSERT INTO Customer(AccountNo, CustomerName, DeliveryAddress)
 		VALUES (@AccountNo, @CustomerName, @DeliveryAddress);
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		-- Rollback the transaction to discard any changes
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
+		-- Rethrow the original error
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Table type holding a batch of customers for uspAddCustomers.
+-- RowNo identifies each row so that rejected rows can be reported back to the caller.
+-- ================================================
+IF TYPE_ID('dbo.CustomerTableType') IS NULL
+	CREATE TYPE CustomerTableType AS TABLE (
+		RowNo 		 INT NOT NULL PRIMARY KEY,
+		AccountNo 	 VARCHAR(10),
+		CustomerName 	 VARCHAR(20),
+		DeliveryAddress VARCHAR(20)
+	);
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Inserts a batch of customers into the Customer table in one set-based statement.
+-- Rows that cannot be inserted are skipped instead of aborting the batch, and are returned
+-- as (RowNo, ErrorCode, ErrorMessage): 50000 for a badly formatted AccountNo, 2627 for an
+-- AccountNo that already exists or occurs more than once in the batch.
+-- Parameters: @Customers - The customers to insert.
+-- ================================================
+CREATE OR ALTER PROCEDURE uspAddCustomers
+	@Customers CustomerTableType READONLY
+AS
+BEGIN
+	SET NOCOUNT ON;
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	
+	DECLARE @Rejected TABLE (
+		RowNo 		INT PRIMARY KEY,
+		ErrorCode 	INT,
+		ErrorMessage 	VARCHAR(200)
+	);
+	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
+	BEGIN TRY
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
+		
+		-- Reject rows the format trigger would refuse, so one bad row cannot roll back the whole batch
+		INSERT INTO @Rejected(RowNo, ErrorCode, ErrorMessage)
+		SELECT RowNo, 50000, 'Customer AccountNo must be formatted as Cnnn, where n is a decimal digit'
+		FROM @Customers
+		WHERE AccountNo IS NULL OR AccountNo NOT LIKE 'C[0-9][0-9][0-9]';
+		
+		-- Reject AccountNos that already exist or are repeated within the batch (first occurrence wins)
+		INSERT INTO @Rejected(RowNo, ErrorCode, ErrorMessage)
+		SELECT Batch.RowNo, 2627, 'A customer with this AccountNo already exists.'
+		FROM (
+			SELECT
+				RowNo,
+				AccountNo,
+				ROW_NUMBER() OVER (PARTITION BY AccountNo ORDER BY RowNo) AS Occurrence
+			FROM @Customers
+			WHERE RowNo NOT IN (SELECT RowNo FROM @Rejected)
+		) AS Batch
+		WHERE Batch.Occurrence > 1
+			OR EXISTS (
+				SELECT 1
+				FROM Customer WITH (UPDLOCK, HOLDLOCK)
+				WHERE Customer.AccountNo = Batch.AccountNo
+			);
+		
+		-- Insert the remaining rows into the Customer table
+		INSERT INTO Customer(AccountNo, CustomerName, DeliveryAddress)
+		SELECT AccountNo, CustomerName, DeliveryAddress
+		FROM @Customers AS Batch
+		WHERE NOT EXISTS (SELECT 1 FROM @Rejected AS Rejected WHERE Rejected.RowNo = Batch.RowNo);
+		
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
+	END TRY
+	BEGIN CATCH
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		-- Rethrow the original error
 		;THROW;
 	END CATCH
+	
+	-- Report the skipped rows back to the caller
+	SELECT RowNo, ErrorCode, ErrorMessage
+	FROM @Rejected
+	ORDER BY RowNo;
 END;
 GO
 
@@ -95,6 +218,47 @@ BEGIN
 END;
 GO
 
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the next page of customers ordered by AccountNo (keyset pagination).
+-- Seeks past the last AccountNo the caller has seen instead of skipping rows, so every page costs the same.
+-- Parameters:
+-- @AfterAccountNo - The last AccountNo of the previous page, or NULL for the first page.
+-- @PageSize - The maximum number of customers to return.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetCustomersPage
+	@AfterAccountNo VARCHAR(10) = NULL,
+	@PageSize 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- An empty string sorts before every AccountNo, keeping the predicate seekable on IX_Customer_AccountNo
+		SELECT TOP (@PageSize)
+			AccountNo,
+			CustomerName AS Name,
+			DeliveryAddress AS Address
+		FROM Customer
+		WHERE AccountNo > ISNULL(@AfterAccountNo, '')
+		ORDER BY AccountNo;
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
 -- =============================================
 -- Author: [Derek Rodriguez]
 -- Create date: [2024-10-22]
@@ -156,20 +320,38 @@ BEGIN
 		;THROW 50001, 'Customer not found', 1; -- Raise a custom error for Customer not found
 	END
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		UPDATE Customer
 		SET CustomerName = @CustomerName, DeliveryAddress = @DeliveryAddress
 		WHERE CustomerID = @CustomerID;
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		;THROW;
 	END CATCH
 END;
@@ -198,48 +380,43 @@ BEGIN
 		;THROW 50001, 'Customer not found', 1; -- Raise a custom error for Customer not found
 	END
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		-- Delete the purchase where CustomerIDs match
 		DELETE
 		FROM Customer
 		WHERE CustomerID = @CustomerID;
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		;THROW;
 	END CATCH
 END;
 
--- ================================================
--- Author: [Derek Rodriguez]
--- Create date: [2024-10-30]
--- Description: Raise error and prevent insertion of Customers with bad AccountNo formatting
--- ================================================
-
-CREATE OR ALTER TRIGGER CustomerAccountNoFormatTrigger
-ON Customer
-AFTER INSERT
-AS
-BEGIN
-	-- Check if any inserted row has bad formatting
-	IF EXISTS(
-		SELECT 1
-		FROM inserted
-		WHERE AccountNo NOT LIKE 'C[0-9][0-9][0-9]'
-	)
-	BEGIN
-		;THROW 50000, 'Customer AccountNo must be formatted as Cnnn, where n is a decimal digit', 1;
-		ROLLBACK  TRANSACTION
-	END
-END
-
 -- FruitBasket Stored Procedures --
 
 -- ================================================
@@ -280,24 +457,153 @@ BEGIN
 	SET NOCOUNT ON;
 	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		-- Insert the basket record into the FruitBasket table
 		INSERT INTO FruitBasket(BasketNo, BasketName, Price)
 		VALUES (@BasketNo, @BasketName, @Price);
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		-- Rollback the transaction to discard any changes
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
+		-- Rethrow the original error
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Table type holding a batch of fruit baskets for uspAddBaskets.
+-- RowNo identifies each row so that rejected rows can be reported back to the caller.
+-- ================================================
+IF TYPE_ID('dbo.BasketTableType') IS NULL
+	CREATE TYPE BasketTableType AS TABLE (
+		RowNo 		INT NOT NULL PRIMARY KEY,
+		BasketNo 	VARCHAR(10),
+		BasketName 	VARCHAR(30),
+		Price 		DECIMAL(5,2)
+	);
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Inserts a batch of fruit baskets into the FruitBasket table in one set-based statement.
+-- Rows that cannot be inserted are skipped instead of aborting the batch, and are returned
+-- as (RowNo, ErrorCode, ErrorMessage): 50000 for a badly formatted BasketNo or Price, 2627 for a
+-- BasketNo that already exists or occurs more than once in the batch.
+-- Parameters: @Baskets - The baskets to insert.
+-- ================================================
+CREATE OR ALTER PROCEDURE uspAddBaskets
+	@Baskets BasketTableType READONLY
+AS
+BEGIN
+	SET NOCOUNT ON;
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	
+	DECLARE @Rejected TABLE (
+		RowNo 		INT PRIMARY KEY,
+		ErrorCode 	INT,
+		ErrorMessage 	VARCHAR(200)
+	);
+	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
+	BEGIN TRY
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
+		
+		-- Reject rows the format triggers would refuse, so one bad row cannot roll back the whole batch
+		INSERT INTO @Rejected(RowNo, ErrorCode, ErrorMessage)
+		SELECT RowNo, 50000, 'FruitBasket BasketNo must be formatted as Bnn, where n is a decimal digit'
+		FROM @Baskets
+		WHERE BasketNo IS NULL OR BasketNo NOT LIKE 'B[0-9][0-9]';
+		
+		INSERT INTO @Rejected(RowNo, ErrorCode, ErrorMessage)
+		SELECT RowNo, 50000, 'FruitBasket Price must be formatted as numbers with two decimal digits'
+		FROM @Baskets
+		WHERE Price < 0
+			AND RowNo NOT IN (SELECT RowNo FROM @Rejected);
+		
+		-- Reject BasketNos that already exist or are repeated within the batch (first occurrence wins)
+		INSERT INTO @Rejected(RowNo, ErrorCode, ErrorMessage)
+		SELECT Batch.RowNo, 2627, 'A basket with this BasketNo already exists.'
+		FROM (
+			SELECT
+				RowNo,
+				BasketNo,
+				ROW_NUMBER() OVER (PARTITION BY BasketNo ORDER BY RowNo) AS Occurrence
+			FROM @Baskets
+			WHERE RowNo NOT IN (SELECT RowNo FROM @Rejected)
+		) AS Batch
+		WHERE Batch.Occurrence > 1
+			OR EXISTS (
+				SELECT 1
+				FROM FruitBasket WITH (UPDLOCK, HOLDLOCK)
+				WHERE FruitBasket.BasketNo = Batch.BasketNo
+			);
+		
+		-- Insert the remaining rows into the FruitBasket table
+		INSERT INTO FruitBasket(BasketNo, BasketName, Price)
+		SELECT BasketNo, BasketName, Price
+		FROM @Baskets AS Batch
+		WHERE NOT EXISTS (SELECT 1 FROM @Rejected AS Rejected WHERE Rejected.RowNo = Batch.RowNo);
+		
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
+	END TRY
+	BEGIN CATCH
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		-- Rethrow the original error
 		;THROW;
 	END CATCH
+	
+	-- Report the skipped rows back to the caller
+	SELECT RowNo, ErrorCode, ErrorMessage
+	FROM @Rejected
+	ORDER BY RowNo;
 END;
 GO
 
@@ -337,6 +643,47 @@ BEGIN
 END;
 GO
 
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the next page of baskets ordered by BasketNo (keyset pagination).
+-- Seeks past the last BasketNo the caller has seen instead of skipping rows, so every page costs the same.
+-- Parameters:
+-- @AfterBasketNo - The last BasketNo of the previous page, or NULL for the first page.
+-- @PageSize - The maximum number of baskets to return.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetBasketsPage
+	@AfterBasketNo 	VARCHAR(10) = NULL,
+	@PageSize 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- An empty string sorts before every BasketNo, keeping the predicate seekable on IX_FruitBasket_BasketNo
+		SELECT TOP (@PageSize)
+			BasketNo,
+			BasketName AS Name,
+			Price
+		FROM FruitBasket
+		WHERE BasketNo > ISNULL(@AfterBasketNo, '')
+		ORDER BY BasketNo;
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
 -- =============================================
 -- Author: [Derek Rodriguez]
 -- Create date: [2024-10-22]
@@ -398,20 +745,38 @@ BEGIN
 		;THROW 50001, 'Basket not found', 1; -- Raise a custom error for Basket not found
 	END
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		UPDATE FruitBasket
 		SET BasketName = @BasketName, Price = @Price
 		WHERE BasketID = @BasketID;
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		;THROW;
 	END CATCH
 END;
@@ -440,122 +805,53 @@ BEGIN
 		;THROW 50001, 'Basket not found', 1; -- Raise a custom error for Basket not found
 	END
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		-- Delete the purchase where BasketID match
 		DELETE
 		FROM FruitBasket
 		WHERE BasketID = @BasketID;
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		;THROW;
 	END CATCH
 END;
-
--- ================================================
--- Author: [Derek Rodriguez]
--- Create date: [2024-10-30]
--- Description: Raise error and prevent insertion of FruitBaskets with bad BasketNo formatting
--- ================================================
-
-CREATE OR ALTER TRIGGER FruitBasketBasketNoFormatTrigger
-ON FruitBasket
-AFTER INSERT
-AS
-BEGIN
-	-- Check if any inserted row has bad formatting
-	IF EXISTS(
-		SELECT 1
-		FROM inserted
-		WHERE BasketNo NOT LIKE 'B[0-9][0-9]'
-	)
-	BEGIN
-		;THROW 50000, 'FruitBasket BasketNo must be formatted as Bnn, where n is a decimal digit', 1;
-		ROLLBACK  TRANSACTION
-	END
-END
-
--- ================================================
--- Author: [Derek Rodriguez]
--- Create date: [2024-10-30]
--- Description: Raise error and prevent insertion of FruitBaskets with bad Price formatting
--- ================================================
-
-CREATE OR ALTER TRIGGER FruitBasketPriceFormatTrigger
-ON FruitBasket
-AFTER INSERT
-AS
-BEGIN
-	-- Check if any inserted row has bad formatting
-	IF EXISTS(
-		SELECT 1
-		FROM inserted
-		WHERE Price NOT LIKE '[0-9]%.[0-9][0-9]' -- apparently % is used as + for regular expressions?
-	)
-	BEGIN
-		;THROW 50000, 'FruitBasket Price must be formatted as numbers with two decimal digits', 1;
-		ROLLBACK  TRANSACTION
-	END
-END
+GO
 
 -- Purchase Stored Procedures --
 
 -- ================================================
 -- Author: [Derek Rodriguez]
 -- Create date: [2024-10-22]
--- Description: Find the corresponding CustomerID (surrogate key) from a given AccountNo (business key)
--- Parameters: @AccountNo - The account number of the customer.
--- ================================================
-CREATE OR ALTER FUNCTION ufnGetCustomerID(@AccountNo VARCHAR(10))
-RETURNS INT
-AS
-BEGIN
-	DECLARE @CustomerID INT;
-	
-	-- Retrieve the CustomerID based on the provided AccountNo
-	SELECT @CustomerID = CustomerID
-	FROM Customer
-	WHERE AccountNo = @AccountNo;
-	
-	RETURN @CustomerID
-END;
-GO
-
--- ================================================
--- Author: [Derek Rodriguez]
--- Create date: [2024-10-22]
--- Description: Find the corresponding BasketID (surrogate key) from a given BasketNo (business key)
--- Parameters: @BasketNo - The number of the basket.
--- ================================================
-CREATE OR ALTER FUNCTION ufnGetBasketID(@BasketNo VARCHAR(10))
-RETURNS INT
-AS
-BEGIN
-	DECLARE @BasketID INT;
-	
-	-- Retrieve the BasketID based on the provided BasketNo
-	SELECT @BasketID = BasketID
-	FROM FruitBasket
-	WHERE BasketNo = @BasketNo;
-	
-	RETURN @BasketID
-END;
-GO
-
--- ================================================
--- Author: [Derek Rodriguez]
--- Create date: [2024-10-22]
--- Description: Inserts a new purchase record into the Purchase table.
--- Parameters: @BasketNo - The number of the fruit basket the purchase belongs to.
--- @AccountNo - The number of the customer purchasing the basket.
--- @PurchaseDate - The date of purchase.
+-- Description: Inserts a new purchase record into the Purchase table.
+-- Parameters: @BasketNo - The number of the fruit basket the purchase belongs to.
+-- @AccountNo - The number of the customer purchasing the basket.
+-- @PurchaseDate - The date of purchase.
 -- ================================================
 CREATE OR ALTER PROCEDURE uspAddPurchase
 	@BasketNo VARCHAR(10),
@@ -582,24 +878,169 @@ BEGIN
 		;THROW 50001, 'Basket not found', 1; -- Raise a custom error for Basket not found
 	END
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		-- Insert the purchase record into the Purchase table
 		INSERT INTO Purchase(CustomerID, BasketID, PurchaseDate)
 		VALUES (@CustomerID, @BasketID, @PurchaseDate);
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		-- Rollback the transaction to discard any changes
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
+		-- Rethrow the original error
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Table type holding a batch of purchases for uspAddPurchases.
+-- RowNo identifies each row so that rejected rows can be reported back to the caller.
+-- ================================================
+IF TYPE_ID('dbo.PurchaseTableType') IS NULL
+	CREATE TYPE PurchaseTableType AS TABLE (
+		RowNo 		INT NOT NULL PRIMARY KEY,
+		AccountNo 	VARCHAR(10),
+		BasketNo 	VARCHAR(10),
+		PurchaseDate 	DATE
+	);
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Inserts a batch of purchases into the Purchase table in one set-based statement.
+-- The business keys of the whole batch are resolved to surrogate keys with a single join.
+-- Rows that cannot be inserted are skipped instead of aborting the batch, and are returned
+-- as (RowNo, ErrorCode, ErrorMessage): 50001 for an unknown customer or basket, 2627 for a
+-- purchase that already exists or occurs more than once in the batch.
+-- Parameters: @Purchases - The purchases to insert.
+-- ================================================
+CREATE OR ALTER PROCEDURE uspAddPurchases
+	@Purchases PurchaseTableType READONLY
+AS
+BEGIN
+	SET NOCOUNT ON;
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	
+	DECLARE @Resolved TABLE (
+		RowNo 		INT PRIMARY KEY,
+		CustomerID 	INT,
+		BasketID 	INT,
+		PurchaseDate 	DATE
+	);
+	DECLARE @Rejected TABLE (
+		RowNo 		INT PRIMARY KEY,
+		ErrorCode 	INT,
+		ErrorMessage 	VARCHAR(200)
+	);
+	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
+	BEGIN TRY
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
+		
+		-- Resolve AccountNo and BasketNo to their surrogate keys for the whole batch at once
+		INSERT INTO @Resolved(RowNo, CustomerID, BasketID, PurchaseDate)
+		SELECT
+			Batch.RowNo,
+			Customer.CustomerID,
+			FruitBasket.BasketID,
+			Batch.PurchaseDate
+		FROM @Purchases AS Batch
+		LEFT JOIN Customer ON Customer.AccountNo = Batch.AccountNo
+		LEFT JOIN FruitBasket ON FruitBasket.BasketNo = Batch.BasketNo;
+		
+		-- Reject rows whose customer or basket does not exist
+		INSERT INTO @Rejected(RowNo, ErrorCode, ErrorMessage)
+		SELECT
+			RowNo,
+			50001,
+			CASE WHEN CustomerID IS NULL THEN 'Customer not found' ELSE 'Basket not found' END
+		FROM @Resolved
+		WHERE CustomerID IS NULL OR BasketID IS NULL;
+		
+		-- Reject purchases that already exist or are repeated within the batch (first occurrence wins)
+		INSERT INTO @Rejected(RowNo, ErrorCode, ErrorMessage)
+		SELECT Batch.RowNo, 2627, 'A purchase with this AccountNo, BasketNo already exists.'
+		FROM (
+			SELECT
+				RowNo,
+				CustomerID,
+				BasketID,
+				ROW_NUMBER() OVER (PARTITION BY CustomerID, BasketID ORDER BY RowNo) AS Occurrence
+			FROM @Resolved
+			WHERE CustomerID IS NOT NULL AND BasketID IS NOT NULL
+		) AS Batch
+		WHERE Batch.Occurrence > 1
+			OR EXISTS (
+				SELECT 1
+				FROM Purchase WITH (UPDLOCK, HOLDLOCK)
+				WHERE Purchase.CustomerID = Batch.CustomerID AND Purchase.BasketID = Batch.BasketID
+			);
+		
+		-- Insert the remaining rows into the Purchase table
+		INSERT INTO Purchase(CustomerID, BasketID, PurchaseDate)
+		SELECT CustomerID, BasketID, PurchaseDate
+		FROM @Resolved AS Batch
+		WHERE NOT EXISTS (SELECT 1 FROM @Rejected AS Rejected WHERE Rejected.RowNo = Batch.RowNo);
+		
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
+	END TRY
+	BEGIN CATCH
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		-- Rethrow the original error
 		;THROW;
 	END CATCH
+	
+	-- Report the skipped rows back to the caller
+	SELECT RowNo, ErrorCode, ErrorMessage
+	FROM @Rejected
+	ORDER BY RowNo;
 END;
 GO
 
@@ -642,6 +1083,105 @@ BEGIN
 END;
 GO
 
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns all customers, all baskets and the purchases linking them as three result
+-- sets, so that the client can build the customer/basket object graph in one round trip with
+-- exactly one object per customer and basket. Rows are linked by their surrogate keys.
+-- Result sets:
+-- 1. CustomerID, AccountNo, Name, Address
+-- 2. BasketID, BasketNo, Name, Price
+-- 3. CustomerID, BasketID
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetPurchaseGraph
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		SELECT
+			CustomerID,
+			AccountNo,
+			CustomerName AS Name,
+			DeliveryAddress AS Address
+		FROM Customer;
+		
+		SELECT
+			BasketID,
+			BasketNo,
+			BasketName AS Name,
+			Price
+		FROM FruitBasket;
+		
+		SELECT
+			CustomerID,
+			BasketID
+		FROM Purchase;
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the next page of purchases ordered by AccountNo, BasketNo (keyset pagination).
+-- Seeks past the last (AccountNo, BasketNo) the caller has seen instead of skipping rows.
+-- Parameters:
+-- @AfterAccountNo - The AccountNo of the last purchase of the previous page, or NULL for the first page.
+-- @AfterBasketNo - The BasketNo of the last purchase of the previous page, or NULL for the first page.
+-- @PageSize - The maximum number of purchases to return.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetPurchasesPage
+	@AfterAccountNo VARCHAR(10) = NULL,
+	@AfterBasketNo 	VARCHAR(10) = NULL,
+	@PageSize 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- The first predicate lets the seek start at the last customer seen,
+		-- the second skips the baskets of that customer that were already returned
+		SELECT TOP (@PageSize)
+			Customer.AccountNo,
+			FruitBasket.BasketNo,
+			Purchase.PurchaseDate
+		FROM Customer
+		JOIN Purchase ON Customer.CustomerID = Purchase.CustomerID
+		JOIN FruitBasket ON Purchase.BasketID = FruitBasket.BasketID
+		WHERE Customer.AccountNo >= ISNULL(@AfterAccountNo, '')
+			AND (Customer.AccountNo > ISNULL(@AfterAccountNo, '')
+				OR FruitBasket.BasketNo > ISNULL(@AfterBasketNo, ''))
+		ORDER BY Customer.AccountNo, FruitBasket.BasketNo;
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
 -- =============================================
 -- Author: [Derek Rodriguez]
 -- Create date: [2024-10-22]
@@ -715,20 +1255,38 @@ BEGIN
 		;THROW 50001, 'Basket not found', 1; -- Raise a custom error for Basket not found
 	END
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		UPDATE Purchase
 		SET PurchaseDate = @PurchaseDate
 		WHERE CustomerID = @CustomerID AND BasketID = @BasketID;
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		;THROW;
 	END CATCH
 END;
@@ -766,21 +1324,1679 @@ BEGIN
 		;THROW 50001, 'Basket not found', 1; -- Raise a custom error for Basket not found
 	END
 	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
 	BEGIN TRY
-		BEGIN TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
 		
 		-- Delete the purchase where CustomerID and BasketID match
 		DELETE
 		FROM Purchase
 		WHERE CustomerID = @CustomerID AND BasketID = @BasketID;
 		
-		COMMIT TRANSACTION;
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
 	END TRY
 	BEGIN CATCH
-		IF @@TRANCOUNT > 0
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- Purchase Stored Procedures, version 2 --
+-- The procedures below resolve the business keys with the inline table-valued function
+-- ufnResolvePurchaseKeys, which the optimizer expands into the statement that uses it,
+-- instead of calling the scalar functions ufnGetCustomerID and ufnGetBasketID once per key.
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Resolves the surrogate keys of a purchase from its business keys.
+-- Always returns exactly one row; a column is NULL if the corresponding key does not exist.
+-- Parameters: @AccountNo - The account number of the customer.
+-- @BasketNo - The number of the basket.
+-- ================================================
+CREATE OR ALTER FUNCTION ufnResolvePurchaseKeys(@AccountNo VARCHAR(10), @BasketNo VARCHAR(10))
+RETURNS TABLE
+AS
+RETURN
+	SELECT
+		(SELECT CustomerID FROM Customer WHERE AccountNo = @AccountNo) AS CustomerID,
+		(SELECT BasketID FROM FruitBasket WHERE BasketNo = @BasketNo) AS BasketID;
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Inserts a new purchase record into the Purchase table, resolving the keys
+-- in the INSERT statement itself. Same parameters and errors as uspAddPurchase.
+-- Parameters: @BasketNo - The number of the fruit basket the purchase belongs to.
+-- @AccountNo - The number of the customer purchasing the basket.
+-- @PurchaseDate - The date of purchase.
+-- ================================================
+CREATE OR ALTER PROCEDURE uspAddPurchaseV2
+	@BasketNo VARCHAR(10),
+	@AccountNo VARCHAR(10),
+	@PurchaseDate DATE
+AS
+BEGIN
+	SET NOCOUNT ON;
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	
+	DECLARE @CustomerID INT;
+	DECLARE @BasketID INT;
+	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
+	BEGIN TRY
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
+		
+		-- Resolve the keys and insert the purchase in one statement
+		INSERT INTO Purchase(CustomerID, BasketID, PurchaseDate)
+		SELECT Keys.CustomerID, Keys.BasketID, @PurchaseDate
+		FROM dbo.ufnResolvePurchaseKeys(@AccountNo, @BasketNo) AS Keys
+		WHERE Keys.CustomerID IS NOT NULL AND Keys.BasketID IS NOT NULL;
+		
+		-- Nothing was inserted, so a key did not resolve; find out which one for the error
+		IF @@ROWCOUNT = 0
+		BEGIN
+			SELECT @CustomerID = CustomerID, @BasketID = BasketID
+			FROM dbo.ufnResolvePurchaseKeys(@AccountNo, @BasketNo);
+			
+			IF @CustomerID IS NULL
+			BEGIN
+				;THROW 50001, 'Customer not found', 1;
+			END
+			IF @BasketID IS NULL
+			BEGIN
+				;THROW 50001, 'Basket not found', 1;
+			END
+		END
+		
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
+	END TRY
+	BEGIN CATCH
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
 		BEGIN
 			ROLLBACK TRANSACTION;
 		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
 		;THROW;
 	END CATCH
-END;
\ No newline at end of file
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Updates Purchase details for the given AccountNo and BasketNo, resolving
+-- the keys in the UPDATE statement itself. Same parameters and errors as uspUpdatePurchase.
+-- Parameters:
+-- @AccountNo - The account number (business key) of the purchase to update.
+-- @BasketNo - The basket number (business key) of the purchase to update.
+-- @PurchaseDate - The new date of purchase.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspUpdatePurchaseV2
+	@AccountNo 	VARCHAR(10),
+	@BasketNo  	VARCHAR(10),
+	@PurchaseDate 	DATE
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	DECLARE @CustomerID INT;
+	DECLARE @BasketID INT;
+	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
+	BEGIN TRY
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
+		
+		UPDATE Purchase
+		SET PurchaseDate = @PurchaseDate
+		FROM Purchase
+		JOIN dbo.ufnResolvePurchaseKeys(@AccountNo, @BasketNo) AS Keys
+			ON Purchase.CustomerID = Keys.CustomerID AND Purchase.BasketID = Keys.BasketID;
+		
+		-- Nothing was updated; that is only an error if a key did not resolve
+		IF @@ROWCOUNT = 0
+		BEGIN
+			SELECT @CustomerID = CustomerID, @BasketID = BasketID
+			FROM dbo.ufnResolvePurchaseKeys(@AccountNo, @BasketNo);
+			
+			IF @CustomerID IS NULL
+			BEGIN
+				;THROW 50001, 'Customer not found', 1;
+			END
+			IF @BasketID IS NULL
+			BEGIN
+				;THROW 50001, 'Basket not found', 1;
+			END
+		END
+		
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
+	END TRY
+	BEGIN CATCH
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Deletes a purchase based on the given AccountNo and BasketNo, resolving
+-- the keys in the DELETE statement itself. Same parameters and errors as uspDeletePurchase.
+-- Parameters:
+-- @AccountNo - The account number (business key) of the purchase to delete.
+-- @BasketNo - The basket number (business key) of the purchase to delete.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspDeletePurchaseV2
+	@AccountNo 	VARCHAR(10),
+	@BasketNo	VARCHAR(10)
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	DECLARE @CustomerID INT;
+	DECLARE @BasketID INT;
+	
+	-- In a caller's transaction, e.g. a UnitOfWork, only this procedure's changes are undone on error
+	DECLARE @TranCount INT = @@TRANCOUNT;
+	
+	BEGIN TRY
+		IF @TranCount = 0
+		BEGIN
+			BEGIN TRANSACTION;
+		END
+		ELSE
+		BEGIN
+			SAVE TRANSACTION ProcedureStart;
+		END
+		
+		DELETE Purchase
+		FROM Purchase
+		JOIN dbo.ufnResolvePurchaseKeys(@AccountNo, @BasketNo) AS Keys
+			ON Purchase.CustomerID = Keys.CustomerID AND Purchase.BasketID = Keys.BasketID;
+		
+		-- Nothing was deleted; that is only an error if a key did not resolve
+		IF @@ROWCOUNT = 0
+		BEGIN
+			SELECT @CustomerID = CustomerID, @BasketID = BasketID
+			FROM dbo.ufnResolvePurchaseKeys(@AccountNo, @BasketNo);
+			
+			IF @CustomerID IS NULL
+			BEGIN
+				;THROW 50001, 'Customer not found', 1;
+			END
+			IF @BasketID IS NULL
+			BEGIN
+				;THROW 50001, 'Basket not found', 1;
+			END
+		END
+		
+		IF @TranCount = 0
+		BEGIN
+			COMMIT TRANSACTION;
+		END
+	END TRY
+	BEGIN CATCH
+		-- Discard this procedure's changes, or all of them if the transaction can no longer commit
+		IF XACT_STATE() = -1 OR (XACT_STATE() = 1 AND @TranCount = 0)
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		ELSE IF XACT_STATE() = 1
+		BEGIN
+			ROLLBACK TRANSACTION ProcedureStart;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- Change Tracking --
+-- Clients load a table, remember the sync version it was loaded at, and then poll for the
+-- rows inserted, updated or deleted since that version. Inserted and updated rows are found
+-- through their RowVersion column, deleted rows through the tombstone tables filled by the
+-- triggers below, which uspPurgeTombstones keeps to a retention period. See tables.sql.
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Records the keys of deleted customers for uspGetCustomerChangesSince
+-- ================================================
+CREATE OR ALTER TRIGGER CustomerDeleteTrackingTrigger
+ON Customer
+AFTER DELETE
+AS
+BEGIN
+	SET NOCOUNT ON;
+	
+	INSERT INTO DeletedCustomer(CustomerID, AccountNo)
+	SELECT CustomerID, AccountNo
+	FROM deleted;
+END;
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Records the keys of deleted baskets for uspGetBasketChangesSince
+-- ================================================
+CREATE OR ALTER TRIGGER FruitBasketDeleteTrackingTrigger
+ON FruitBasket
+AFTER DELETE
+AS
+BEGIN
+	SET NOCOUNT ON;
+	
+	INSERT INTO DeletedFruitBasket(BasketID, BasketNo)
+	SELECT BasketID, BasketNo
+	FROM deleted;
+END;
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Records the keys of deleted purchases, including purchases deleted by a
+-- cascade from Customer or FruitBasket, for uspGetPurchaseChangesSince
+-- ================================================
+CREATE OR ALTER TRIGGER PurchaseDeleteTrackingTrigger
+ON Purchase
+AFTER DELETE
+AS
+BEGIN
+	SET NOCOUNT ON;
+	
+	INSERT INTO DeletedPurchase(CustomerID, BasketID)
+	SELECT CustomerID, BasketID
+	FROM deleted;
+END;
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the version a client should remember when it loads a table, so that it
+-- can later ask for the changes made after the load.
+-- Every row stamped at or below this version belongs to a committed transaction.
+-- Parameters: @SyncVersion - Output, the current sync version.
+-- ================================================
+CREATE OR ALTER PROCEDURE uspGetSyncVersion
+	@SyncVersion BIGINT OUTPUT
+AS
+BEGIN
+	SET NOCOUNT ON;
+	
+	-- MIN_ACTIVE_ROWVERSION is the lowest version still held by an open transaction
+	SET @SyncVersion = CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the customers inserted, updated or deleted after a sync version.
+-- Changed customers are returned with IsDeleted = 0 and their current data, deleted customers
+-- with IsDeleted = 1 and only their AccountNo. A customer deleted and added again is returned as changed.
+-- Throws 50003 if tombstones newer than @SinceVersion may have been purged by uspPurgeTombstones.
+-- Parameters:
+-- @SinceVersion - The sync version of the caller's data.
+-- @SyncVersion - Output, the sync version of the caller's data once the changes are applied.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetCustomerChangesSince
+	@SinceVersion 	BIGINT,
+	@SyncVersion 	BIGINT OUTPUT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	-- Rows above MIN_ACTIVE_ROWVERSION may still be rolled back, they are returned by a later call
+	SET @SyncVersion = CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1;
+	DECLARE @From BINARY(8) = CAST(@SinceVersion AS BINARY(8));
+	DECLARE @To BINARY(8) = CAST(@SyncVersion AS BINARY(8));
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- The lock on SyncHorizon is held until the changes have been read, so that
+		-- uspPurgeTombstones cannot delete a tombstone this call is about to read
+		IF @SinceVersion < (SELECT CAST(PurgedThroughVersion AS BIGINT) FROM SyncHorizon WITH (HOLDLOCK))
+		BEGIN
+			;THROW 50003, 'Rows deleted after the sync version have been purged, reload the table', 1;
+		END
+		
+		SELECT
+			AccountNo,
+			CustomerName AS Name,
+			DeliveryAddress AS Address,
+			CAST(0 AS BIT) AS IsDeleted
+		FROM Customer
+		WHERE RowVersion > @From AND RowVersion <= @To
+		UNION ALL
+		SELECT DISTINCT
+			DeletedCustomer.AccountNo,
+			NULL,
+			NULL,
+			CAST(1 AS BIT)
+		FROM DeletedCustomer
+		WHERE DeletedCustomer.RowVersion > @From AND DeletedCustomer.RowVersion <= @To
+			AND NOT EXISTS (SELECT 1 FROM Customer WHERE Customer.AccountNo = DeletedCustomer.AccountNo);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the baskets inserted, updated or deleted after a sync version.
+-- Changed baskets are returned with IsDeleted = 0 and their current data, deleted baskets
+-- with IsDeleted = 1 and only their BasketNo. A basket deleted and added again is returned as changed.
+-- Throws 50003 if tombstones newer than @SinceVersion may have been purged by uspPurgeTombstones.
+-- Parameters:
+-- @SinceVersion - The sync version of the caller's data.
+-- @SyncVersion - Output, the sync version of the caller's data once the changes are applied.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetBasketChangesSince
+	@SinceVersion 	BIGINT,
+	@SyncVersion 	BIGINT OUTPUT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	-- Rows above MIN_ACTIVE_ROWVERSION may still be rolled back, they are returned by a later call
+	SET @SyncVersion = CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1;
+	DECLARE @From BINARY(8) = CAST(@SinceVersion AS BINARY(8));
+	DECLARE @To BINARY(8) = CAST(@SyncVersion AS BINARY(8));
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- The lock on SyncHorizon is held until the changes have been read, so that
+		-- uspPurgeTombstones cannot delete a tombstone this call is about to read
+		IF @SinceVersion < (SELECT CAST(PurgedThroughVersion AS BIGINT) FROM SyncHorizon WITH (HOLDLOCK))
+		BEGIN
+			;THROW 50003, 'Rows deleted after the sync version have been purged, reload the table', 1;
+		END
+		
+		SELECT
+			BasketNo,
+			BasketName AS Name,
+			Price,
+			CAST(0 AS BIT) AS IsDeleted
+		FROM FruitBasket
+		WHERE RowVersion > @From AND RowVersion <= @To
+		UNION ALL
+		SELECT DISTINCT
+			DeletedFruitBasket.BasketNo,
+			NULL,
+			NULL,
+			CAST(1 AS BIT)
+		FROM DeletedFruitBasket
+		WHERE DeletedFruitBasket.RowVersion > @From AND DeletedFruitBasket.RowVersion <= @To
+			AND NOT EXISTS (SELECT 1 FROM FruitBasket WHERE FruitBasket.BasketNo = DeletedFruitBasket.BasketNo);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the purchases inserted, updated or deleted after a sync version.
+-- Changed purchases are returned with IsDeleted = 0 and their current data, deleted purchases
+-- with IsDeleted = 1 and only their AccountNo and BasketNo. The business keys of a purchase
+-- deleted together with its customer or basket are taken from the tombstone of that row.
+-- Throws 50003 if tombstones newer than @SinceVersion may have been purged by uspPurgeTombstones.
+-- Parameters:
+-- @SinceVersion - The sync version of the caller's data.
+-- @SyncVersion - Output, the sync version of the caller's data once the changes are applied.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetPurchaseChangesSince
+	@SinceVersion 	BIGINT,
+	@SyncVersion 	BIGINT OUTPUT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	-- Rows above MIN_ACTIVE_ROWVERSION may still be rolled back, they are returned by a later call
+	SET @SyncVersion = CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1;
+	DECLARE @From BINARY(8) = CAST(@SinceVersion AS BINARY(8));
+	DECLARE @To BINARY(8) = CAST(@SyncVersion AS BINARY(8));
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- The lock on SyncHorizon is held until the changes have been read, so that
+		-- uspPurgeTombstones cannot delete a tombstone this call is about to read
+		IF @SinceVersion < (SELECT CAST(PurgedThroughVersion AS BIGINT) FROM SyncHorizon WITH (HOLDLOCK))
+		BEGIN
+			;THROW 50003, 'Rows deleted after the sync version have been purged, reload the table', 1;
+		END
+		
+		SELECT
+			Customer.AccountNo,
+			FruitBasket.BasketNo,
+			Purchase.PurchaseDate,
+			CAST(0 AS BIT) AS IsDeleted
+		FROM Purchase
+		JOIN Customer ON Customer.CustomerID = Purchase.CustomerID
+		JOIN FruitBasket ON FruitBasket.BasketID = Purchase.BasketID
+		WHERE Purchase.RowVersion > @From AND Purchase.RowVersion <= @To
+		UNION ALL
+		SELECT
+			DeletedKeys.AccountNo,
+			DeletedKeys.BasketNo,
+			NULL,
+			CAST(1 AS BIT)
+		FROM (
+			SELECT DISTINCT
+				ISNULL(Customer.AccountNo, DeletedCustomer.AccountNo) AS AccountNo,
+				ISNULL(FruitBasket.BasketNo, DeletedFruitBasket.BasketNo) AS BasketNo
+			FROM DeletedPurchase
+			LEFT JOIN Customer ON Customer.CustomerID = DeletedPurchase.CustomerID
+			LEFT JOIN DeletedCustomer ON DeletedCustomer.CustomerID = DeletedPurchase.CustomerID
+			LEFT JOIN FruitBasket ON FruitBasket.BasketID = DeletedPurchase.BasketID
+			LEFT JOIN DeletedFruitBasket ON DeletedFruitBasket.BasketID = DeletedPurchase.BasketID
+			WHERE DeletedPurchase.RowVersion > @From AND DeletedPurchase.RowVersion <= @To
+		) AS DeletedKeys
+		WHERE DeletedKeys.AccountNo IS NOT NULL AND DeletedKeys.BasketNo IS NOT NULL
+			AND NOT EXISTS (
+				SELECT 1
+				FROM Purchase
+				JOIN Customer ON Customer.CustomerID = Purchase.CustomerID
+				JOIN FruitBasket ON FruitBasket.BasketID = Purchase.BasketID
+				WHERE Customer.AccountNo = DeletedKeys.AccountNo AND FruitBasket.BasketNo = DeletedKeys.BasketNo
+			);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- ================================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Deletes the tombstones written more than @RetentionDays days ago, so that the
+-- tombstone tables and the uspGet*ChangesSince scans of them stay small. Tombstones are
+-- deleted up to one version, the newest version among the expired ones, and that version is
+-- recorded in SyncHorizon. A client whose sync version is older may have missed a deleted row:
+-- uspGet*ChangesSince then throws 50003 and the client reloads the table. The retention should
+-- therefore be well above the longest time an open client may go without synchronizing.
+-- Meant to run daily from a SQL Server Agent job; it is not granted to java_app_user.
+-- Parameters:
+-- @RetentionDays - The number of days tombstones are kept, at least 1.
+-- ================================================
+CREATE OR ALTER PROCEDURE uspPurgeTombstones
+	@RetentionDays 	INT = 7
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		IF @RetentionDays IS NULL OR @RetentionDays < 1
+		BEGIN
+			;THROW 50004, 'RetentionDays must be at least 1', 1;
+		END
+		
+		DECLARE @Cutoff DATETIME2(0) = DATEADD(DAY, -@RetentionDays, SYSUTCDATETIME());
+		DECLARE @PurgeThrough BINARY(8) = (
+			SELECT MAX(Expired.RowVersion)
+			FROM (
+				SELECT MAX(RowVersion) AS RowVersion FROM DeletedCustomer WHERE DeletedAt < @Cutoff
+				UNION ALL
+				SELECT MAX(RowVersion) FROM DeletedFruitBasket WHERE DeletedAt < @Cutoff
+				UNION ALL
+				SELECT MAX(RowVersion) FROM DeletedPurchase WHERE DeletedAt < @Cutoff
+			) AS Expired
+		);
+		
+		IF @PurgeThrough IS NULL
+		BEGIN
+			RETURN;
+		END
+		
+		BEGIN TRANSACTION;
+		
+		-- Raised first, which waits for the uspGet*ChangesSince calls reading tombstones and
+		-- makes the ones starting meanwhile wait, then check against the new horizon
+		UPDATE SyncHorizon
+		SET PurgedThroughVersion = @PurgeThrough
+		WHERE PurgedThroughVersion < @PurgeThrough;
+		
+		DELETE FROM DeletedCustomer WHERE RowVersion <= @PurgeThrough;
+		DELETE FROM DeletedFruitBasket WHERE RowVersion <= @PurgeThrough;
+		DELETE FROM DeletedPurchase WHERE RowVersion <= @PurgeThrough;
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- Sales Reports --
+-- Aggregate purchases on the server so that a report costs one small result set, whatever the
+-- number of purchases. The date range is inclusive and either end may be NULL for no limit.
+-- Revenue is the sum of the current prices of the purchased baskets.
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the number of purchases and the revenue per basket, read from the
+-- indexed view vwBasketDailySales. Baskets without purchases in the range are not returned.
+-- Parameters:
+-- @FromDate - The first purchase date to include, or NULL for no lower limit.
+-- @ToDate - The last purchase date to include, or NULL for no upper limit.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetSalesByBasket
+	@FromDate 	DATE = NULL,
+	@ToDate 	DATE = NULL
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		SELECT
+			FruitBasket.BasketNo,
+			FruitBasket.BasketName AS Name,
+			SUM(Sales.PurchaseCount) AS PurchaseCount,
+			SUM(Sales.Revenue) AS Revenue
+		FROM vwBasketDailySales AS Sales WITH (NOEXPAND)
+		JOIN FruitBasket ON Sales.BasketID = FruitBasket.BasketID
+		WHERE (@FromDate IS NULL OR Sales.PurchaseDate >= @FromDate)
+			AND (@ToDate IS NULL OR Sales.PurchaseDate <= @ToDate)
+		GROUP BY FruitBasket.BasketNo, FruitBasket.BasketName
+		ORDER BY FruitBasket.BasketNo
+		OPTION (RECOMPILE);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the number of purchases and the revenue per customer. Without a date
+-- range the purchases are read in CustomerID order from the clustered primary key, with one
+-- the range is sought in IX_Purchase_PurchaseDate. Customers without purchases in the range
+-- are not returned.
+-- Parameters:
+-- @FromDate - The first purchase date to include, or NULL for no lower limit.
+-- @ToDate - The last purchase date to include, or NULL for no upper limit.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetSalesByCustomer
+	@FromDate 	DATE = NULL,
+	@ToDate 	DATE = NULL
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		WITH CustomerSales AS (
+			SELECT
+				Purchase.CustomerID,
+				COUNT_BIG(*) AS PurchaseCount,
+				SUM(ISNULL(FruitBasket.Price, 0)) AS Revenue
+			FROM Purchase
+			JOIN FruitBasket ON Purchase.BasketID = FruitBasket.BasketID
+			WHERE (@FromDate IS NULL OR Purchase.PurchaseDate >= @FromDate)
+				AND (@ToDate IS NULL OR Purchase.PurchaseDate <= @ToDate)
+			GROUP BY Purchase.CustomerID
+		)
+		SELECT
+			Customer.AccountNo,
+			Customer.CustomerName AS Name,
+			CustomerSales.PurchaseCount,
+			CustomerSales.Revenue
+		FROM CustomerSales
+		JOIN Customer ON CustomerSales.CustomerID = Customer.CustomerID
+		ORDER BY Customer.AccountNo
+		OPTION (RECOMPILE);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns the number of purchases and the revenue per day, week, month or year,
+-- read from the indexed view vwBasketDailySales. Weeks start on Monday. Periods without
+-- purchases are not returned.
+-- Parameters:
+-- @Period - DAY, WEEK, MONTH or YEAR.
+-- @FromDate - The first purchase date to include, or NULL for no lower limit.
+-- @ToDate - The last purchase date to include, or NULL for no upper limit.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetSalesByPeriod
+	@Period 	VARCHAR(5),
+	@FromDate 	DATE = NULL,
+	@ToDate 	DATE = NULL
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		IF @Period IS NULL OR @Period NOT IN ('DAY', 'WEEK', 'MONTH', 'YEAR')
+		BEGIN
+			;THROW 50002, 'Period must be DAY, WEEK, MONTH or YEAR', 1;
+		END
+		
+		BEGIN TRANSACTION;
+		
+		WITH DailySales AS (
+			SELECT
+				PurchaseDate,
+				SUM(PurchaseCount) AS PurchaseCount,
+				SUM(Revenue) AS Revenue
+			FROM vwBasketDailySales WITH (NOEXPAND)
+			WHERE PurchaseDate IS NOT NULL
+				AND (@FromDate IS NULL OR PurchaseDate >= @FromDate)
+				AND (@ToDate IS NULL OR PurchaseDate <= @ToDate)
+			GROUP BY PurchaseDate
+		),
+		PeriodSales AS (
+			SELECT
+				CASE @Period
+					WHEN 'DAY' THEN PurchaseDate
+					-- 1900-01-01 was a Monday
+					WHEN 'WEEK' THEN DATEADD(DAY, -(DATEDIFF(DAY, '19000101', PurchaseDate) % 7), PurchaseDate)
+					WHEN 'MONTH' THEN DATEFROMPARTS(YEAR(PurchaseDate), MONTH(PurchaseDate), 1)
+					ELSE DATEFROMPARTS(YEAR(PurchaseDate), 1, 1)
+				END AS PeriodStart,
+				PurchaseCount,
+				Revenue
+			FROM DailySales
+		)
+		SELECT
+			PeriodStart,
+			SUM(PurchaseCount) AS PurchaseCount,
+			SUM(Revenue) AS Revenue
+		FROM PeriodSales
+		GROUP BY PeriodStart
+		ORDER BY PeriodStart
+		OPTION (RECOMPILE);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- Search --
+-- Prefix search for search-as-you-type. Each searchable column is searched with a LIKE 'prefix%'
+-- seek on its own index, taking at most @MaxRows rows from each, so a search costs a few bounded
+-- index seeks whatever the table size. The wildcard characters %, _ and [ in the prefix are
+-- matched literally. See the search indexes in tables.sql.
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns up to @MaxRows customers whose AccountNo, CustomerName or DeliveryAddress
+-- starts with the prefix, ordered by AccountNo. When more customers match, the ones returned
+-- are the first by each column rather than the first by AccountNo.
+-- Parameters:
+-- @Prefix - The text the searched columns must start with.
+-- @MaxRows - The maximum number of customers to return, at least 1.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspSearchCustomers
+	@Prefix 	VARCHAR(100),
+	@MaxRows 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		IF @MaxRows IS NULL OR @MaxRows < 1
+		BEGIN
+			;THROW 50002, 'MaxRows must be at least 1', 1;
+		END
+		
+		DECLARE @Pattern VARCHAR(400) =
+			REPLACE(REPLACE(REPLACE(ISNULL(@Prefix, ''), '[', '[[]'), '%', '[%]'), '_', '[_]') + '%';
+		
+		BEGIN TRANSACTION;
+		
+		-- One seek per column, UNION drops a customer matched by more than one of them
+		WITH Matches AS (
+			SELECT AccountNo, CustomerName, DeliveryAddress
+			FROM (
+				SELECT TOP (@MaxRows) AccountNo, CustomerName, DeliveryAddress
+				FROM Customer
+				WHERE AccountNo LIKE @Pattern
+				ORDER BY AccountNo
+			) AS ByAccountNo
+			UNION
+			SELECT AccountNo, CustomerName, DeliveryAddress
+			FROM (
+				SELECT TOP (@MaxRows) AccountNo, CustomerName, DeliveryAddress
+				FROM Customer
+				WHERE CustomerName LIKE @Pattern
+				ORDER BY CustomerName
+			) AS ByName
+			UNION
+			SELECT AccountNo, CustomerName, DeliveryAddress
+			FROM (
+				SELECT TOP (@MaxRows) AccountNo, CustomerName, DeliveryAddress
+				FROM Customer
+				WHERE DeliveryAddress LIKE @Pattern
+				ORDER BY DeliveryAddress
+			) AS ByAddress
+		)
+		SELECT TOP (@MaxRows)
+			AccountNo,
+			CustomerName AS Name,
+			DeliveryAddress AS Address
+		FROM Matches
+		ORDER BY AccountNo;
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Returns up to @MaxRows baskets whose BasketNo or BasketName starts with the
+-- prefix, ordered by BasketNo. When more baskets match, the ones returned are the first by
+-- each column rather than the first by BasketNo.
+-- Parameters:
+-- @Prefix - The text the searched columns must start with.
+-- @MaxRows - The maximum number of baskets to return, at least 1.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspSearchBaskets
+	@Prefix 	VARCHAR(100),
+	@MaxRows 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL READ COMMITTED;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		IF @MaxRows IS NULL OR @MaxRows < 1
+		BEGIN
+			;THROW 50002, 'MaxRows must be at least 1', 1;
+		END
+		
+		DECLARE @Pattern VARCHAR(400) =
+			REPLACE(REPLACE(REPLACE(ISNULL(@Prefix, ''), '[', '[[]'), '%', '[%]'), '_', '[_]') + '%';
+		
+		BEGIN TRANSACTION;
+		
+		-- One seek per column, UNION drops a basket matched by both of them
+		WITH Matches AS (
+			SELECT BasketNo, BasketName, Price
+			FROM (
+				SELECT TOP (@MaxRows) BasketNo, BasketName, Price
+				FROM FruitBasket
+				WHERE BasketNo LIKE @Pattern
+				ORDER BY BasketNo
+			) AS ByBasketNo
+			UNION
+			SELECT BasketNo, BasketName, Price
+			FROM (
+				SELECT TOP (@MaxRows) BasketNo, BasketName, Price
+				FROM FruitBasket
+				WHERE BasketName LIKE @Pattern
+				ORDER BY BasketName
+			) AS ByName
+		)
+		SELECT TOP (@MaxRows)
+			BasketNo,
+			BasketName AS Name,
+			Price
+		FROM Matches
+		ORDER BY BasketNo;
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- Snapshot Read Procedures --
+-- Variants of the read procedures for read.mode=SNAPSHOT (see ReadMode). They read under SNAPSHOT
+-- isolation, i.e. the last committed version of each row, so they neither wait for writers nor
+-- take shared locks that writers would wait for. The single-statement procedures start no
+-- explicit transaction, since one statement already sees one consistent snapshot. Snapshot
+-- isolation must be allowed in the database, see migration V3__allow_snapshot_isolation.sql.
+-- uspGetSyncVersion has no variant, since it reads no rows.
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetAllCustomers.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetAllCustomersSnapshot
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT
+		AccountNo,
+		CustomerName AS Name,
+		DeliveryAddress AS Address
+	FROM Customer;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetCustomersPage.
+-- Parameters:
+-- @AfterAccountNo - The last AccountNo of the previous page, or NULL for the first page.
+-- @PageSize - The maximum number of customers to return.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetCustomersPageSnapshot
+	@AfterAccountNo VARCHAR(10) = NULL,
+	@PageSize 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT TOP (@PageSize)
+		AccountNo,
+		CustomerName AS Name,
+		DeliveryAddress AS Address
+	FROM Customer
+	WHERE AccountNo > ISNULL(@AfterAccountNo, '')
+	ORDER BY AccountNo;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetCustomerByAccountNo.
+-- Parameters:
+-- @AccountNo - The number of the customer.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetCustomerByAccountNoSnapshot
+	@AccountNo VARCHAR(10)
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT
+		AccountNo,
+		CustomerName AS Name,
+		DeliveryAddress AS Address
+	FROM Customer
+	WHERE AccountNo = @AccountNo;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetAllBaskets.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetAllBasketsSnapshot
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT
+		BasketNo,
+		BasketName AS Name,
+		Price
+	FROM FruitBasket;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetBasketsPage.
+-- Parameters:
+-- @AfterBasketNo - The last BasketNo of the previous page, or NULL for the first page.
+-- @PageSize - The maximum number of baskets to return.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetBasketsPageSnapshot
+	@AfterBasketNo 	VARCHAR(10) = NULL,
+	@PageSize 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT TOP (@PageSize)
+		BasketNo,
+		BasketName AS Name,
+		Price
+	FROM FruitBasket
+	WHERE BasketNo > ISNULL(@AfterBasketNo, '')
+	ORDER BY BasketNo;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetBasketByBasketNo.
+-- Parameters:
+-- @BasketNo - The number of the basket.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetBasketByBasketNoSnapshot
+	@BasketNo VARCHAR(10)
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT
+		BasketNo,
+		BasketName AS Name,
+		Price
+	FROM FruitBasket
+	WHERE BasketNo = @BasketNo;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetAllPurchases.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetAllPurchasesSnapshot
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT
+		Customer.AccountNo,
+		FruitBasket.BasketNo,
+		Purchase.PurchaseDate
+	FROM Customer
+	JOIN Purchase ON Customer.CustomerID = Purchase.CustomerID
+	JOIN FruitBasket ON Purchase.BasketID = FruitBasket.BasketID;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetPurchasesPage.
+-- Parameters:
+-- @AfterAccountNo - The AccountNo of the last purchase of the previous page, or NULL for the first page.
+-- @AfterBasketNo - The BasketNo of the last purchase of the previous page, or NULL for the first page.
+-- @PageSize - The maximum number of purchases to return.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetPurchasesPageSnapshot
+	@AfterAccountNo VARCHAR(10) = NULL,
+	@AfterBasketNo 	VARCHAR(10) = NULL,
+	@PageSize 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT TOP (@PageSize)
+		Customer.AccountNo,
+		FruitBasket.BasketNo,
+		Purchase.PurchaseDate
+	FROM Customer
+	JOIN Purchase ON Customer.CustomerID = Purchase.CustomerID
+	JOIN FruitBasket ON Purchase.BasketID = FruitBasket.BasketID
+	WHERE Customer.AccountNo >= ISNULL(@AfterAccountNo, '')
+		AND (Customer.AccountNo > ISNULL(@AfterAccountNo, '')
+			OR FruitBasket.BasketNo > ISNULL(@AfterBasketNo, ''))
+	ORDER BY Customer.AccountNo, FruitBasket.BasketNo;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetPurchaseByAccountNoBasketNo.
+-- Parameters:
+-- @AccountNo - The number of the customer.
+-- @BasketNo - The number of the basket.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetPurchaseByAccountNoBasketNoSnapshot
+	@AccountNo VARCHAR(10),
+	@BasketNo  VARCHAR(10)
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT
+		CustomerName,
+		DeliveryAddress,
+		BasketName,
+		Price,
+		PurchaseDate
+	FROM Customer
+	JOIN Purchase ON Customer.CustomerID = Purchase.CustomerID
+	JOIN FruitBasket ON Purchase.BasketID = FruitBasket.BasketID
+	WHERE AccountNo = @AccountNo AND BasketNo = @BasketNo;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetPurchaseGraph. Its three result sets must come from the same
+-- snapshot, so unlike the other snapshot procedures it reads them in one transaction.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetPurchaseGraphSnapshot
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		SELECT
+			CustomerID,
+			AccountNo,
+			CustomerName AS Name,
+			DeliveryAddress AS Address
+		FROM Customer;
+		
+		SELECT
+			BasketID,
+			BasketNo,
+			BasketName AS Name,
+			Price
+		FROM FruitBasket;
+		
+		SELECT
+			CustomerID,
+			BasketID
+		FROM Purchase;
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetCustomerChangesSince. The purge horizon and the changes must
+-- come from the same snapshot, so unlike most snapshot procedures it reads them in one transaction.
+-- Throws 50003 if tombstones newer than @SinceVersion may have been purged by uspPurgeTombstones.
+-- Parameters:
+-- @SinceVersion - The sync version of the caller's data.
+-- @SyncVersion - Output, the sync version of the caller's data once the changes are applied.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetCustomerChangesSinceSnapshot
+	@SinceVersion 	BIGINT,
+	@SyncVersion 	BIGINT OUTPUT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	-- Rows above MIN_ACTIVE_ROWVERSION may still be rolled back, they are returned by a later call
+	SET @SyncVersion = CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1;
+	DECLARE @From BINARY(8) = CAST(@SinceVersion AS BINARY(8));
+	DECLARE @To BINARY(8) = CAST(@SyncVersion AS BINARY(8));
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- Read from the same snapshot as the tombstones, so a purge committed meanwhile affects neither
+		IF @SinceVersion < (SELECT CAST(PurgedThroughVersion AS BIGINT) FROM SyncHorizon)
+		BEGIN
+			;THROW 50003, 'Rows deleted after the sync version have been purged, reload the table', 1;
+		END
+		
+		SELECT
+			AccountNo,
+			CustomerName AS Name,
+			DeliveryAddress AS Address,
+			CAST(0 AS BIT) AS IsDeleted
+		FROM Customer
+		WHERE RowVersion > @From AND RowVersion <= @To
+		UNION ALL
+		SELECT DISTINCT
+			DeletedCustomer.AccountNo,
+			NULL,
+			NULL,
+			CAST(1 AS BIT)
+		FROM DeletedCustomer
+		WHERE DeletedCustomer.RowVersion > @From AND DeletedCustomer.RowVersion <= @To
+			AND NOT EXISTS (SELECT 1 FROM Customer WHERE Customer.AccountNo = DeletedCustomer.AccountNo);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetBasketChangesSince. The purge horizon and the changes must
+-- come from the same snapshot, so unlike most snapshot procedures it reads them in one transaction.
+-- Throws 50003 if tombstones newer than @SinceVersion may have been purged by uspPurgeTombstones.
+-- Parameters:
+-- @SinceVersion - The sync version of the caller's data.
+-- @SyncVersion - Output, the sync version of the caller's data once the changes are applied.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetBasketChangesSinceSnapshot
+	@SinceVersion 	BIGINT,
+	@SyncVersion 	BIGINT OUTPUT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	-- Rows above MIN_ACTIVE_ROWVERSION may still be rolled back, they are returned by a later call
+	SET @SyncVersion = CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1;
+	DECLARE @From BINARY(8) = CAST(@SinceVersion AS BINARY(8));
+	DECLARE @To BINARY(8) = CAST(@SyncVersion AS BINARY(8));
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- Read from the same snapshot as the tombstones, so a purge committed meanwhile affects neither
+		IF @SinceVersion < (SELECT CAST(PurgedThroughVersion AS BIGINT) FROM SyncHorizon)
+		BEGIN
+			;THROW 50003, 'Rows deleted after the sync version have been purged, reload the table', 1;
+		END
+		
+		SELECT
+			BasketNo,
+			BasketName AS Name,
+			Price,
+			CAST(0 AS BIT) AS IsDeleted
+		FROM FruitBasket
+		WHERE RowVersion > @From AND RowVersion <= @To
+		UNION ALL
+		SELECT DISTINCT
+			DeletedFruitBasket.BasketNo,
+			NULL,
+			NULL,
+			CAST(1 AS BIT)
+		FROM DeletedFruitBasket
+		WHERE DeletedFruitBasket.RowVersion > @From AND DeletedFruitBasket.RowVersion <= @To
+			AND NOT EXISTS (SELECT 1 FROM FruitBasket WHERE FruitBasket.BasketNo = DeletedFruitBasket.BasketNo);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetPurchaseChangesSince. The purge horizon and the changes must
+-- come from the same snapshot, so unlike most snapshot procedures it reads them in one transaction.
+-- Throws 50003 if tombstones newer than @SinceVersion may have been purged by uspPurgeTombstones.
+-- Parameters:
+-- @SinceVersion - The sync version of the caller's data.
+-- @SyncVersion - Output, the sync version of the caller's data once the changes are applied.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetPurchaseChangesSinceSnapshot
+	@SinceVersion 	BIGINT,
+	@SyncVersion 	BIGINT OUTPUT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	-- Rows above MIN_ACTIVE_ROWVERSION may still be rolled back, they are returned by a later call
+	SET @SyncVersion = CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1;
+	DECLARE @From BINARY(8) = CAST(@SinceVersion AS BINARY(8));
+	DECLARE @To BINARY(8) = CAST(@SyncVersion AS BINARY(8));
+	
+	BEGIN TRY
+		BEGIN TRANSACTION;
+		
+		-- Read from the same snapshot as the tombstones, so a purge committed meanwhile affects neither
+		IF @SinceVersion < (SELECT CAST(PurgedThroughVersion AS BIGINT) FROM SyncHorizon)
+		BEGIN
+			;THROW 50003, 'Rows deleted after the sync version have been purged, reload the table', 1;
+		END
+		
+		SELECT
+			Customer.AccountNo,
+			FruitBasket.BasketNo,
+			Purchase.PurchaseDate,
+			CAST(0 AS BIT) AS IsDeleted
+		FROM Purchase
+		JOIN Customer ON Customer.CustomerID = Purchase.CustomerID
+		JOIN FruitBasket ON FruitBasket.BasketID = Purchase.BasketID
+		WHERE Purchase.RowVersion > @From AND Purchase.RowVersion <= @To
+		UNION ALL
+		SELECT
+			DeletedKeys.AccountNo,
+			DeletedKeys.BasketNo,
+			NULL,
+			CAST(1 AS BIT)
+		FROM (
+			SELECT DISTINCT
+				ISNULL(Customer.AccountNo, DeletedCustomer.AccountNo) AS AccountNo,
+				ISNULL(FruitBasket.BasketNo, DeletedFruitBasket.BasketNo) AS BasketNo
+			FROM DeletedPurchase
+			LEFT JOIN Customer ON Customer.CustomerID = DeletedPurchase.CustomerID
+			LEFT JOIN DeletedCustomer ON DeletedCustomer.CustomerID = DeletedPurchase.CustomerID
+			LEFT JOIN FruitBasket ON FruitBasket.BasketID = DeletedPurchase.BasketID
+			LEFT JOIN DeletedFruitBasket ON DeletedFruitBasket.BasketID = DeletedPurchase.BasketID
+			WHERE DeletedPurchase.RowVersion > @From AND DeletedPurchase.RowVersion <= @To
+		) AS DeletedKeys
+		WHERE DeletedKeys.AccountNo IS NOT NULL AND DeletedKeys.BasketNo IS NOT NULL
+			AND NOT EXISTS (
+				SELECT 1
+				FROM Purchase
+				JOIN Customer ON Customer.CustomerID = Purchase.CustomerID
+				JOIN FruitBasket ON FruitBasket.BasketID = Purchase.BasketID
+				WHERE Customer.AccountNo = DeletedKeys.AccountNo AND FruitBasket.BasketNo = DeletedKeys.BasketNo
+			);
+		
+		COMMIT TRANSACTION;
+	END TRY
+	BEGIN CATCH
+		IF @@TRANCOUNT > 0
+		BEGIN
+			ROLLBACK TRANSACTION;
+		END
+		;THROW;
+	END CATCH
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspSearchCustomers.
+-- Parameters:
+-- @Prefix - The text the searched columns must start with.
+-- @MaxRows - The maximum number of customers to return, at least 1.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspSearchCustomersSnapshot
+	@Prefix 	VARCHAR(100),
+	@MaxRows 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	IF @MaxRows IS NULL OR @MaxRows < 1
+	BEGIN
+		;THROW 50002, 'MaxRows must be at least 1', 1;
+	END
+	
+	DECLARE @Pattern VARCHAR(400) =
+		REPLACE(REPLACE(REPLACE(ISNULL(@Prefix, ''), '[', '[[]'), '%', '[%]'), '_', '[_]') + '%';
+	
+	-- One seek per column, UNION drops a customer matched by more than one of them
+	WITH Matches AS (
+		SELECT AccountNo, CustomerName, DeliveryAddress
+		FROM (
+			SELECT TOP (@MaxRows) AccountNo, CustomerName, DeliveryAddress
+			FROM Customer
+			WHERE AccountNo LIKE @Pattern
+			ORDER BY AccountNo
+		) AS ByAccountNo
+		UNION
+		SELECT AccountNo, CustomerName, DeliveryAddress
+		FROM (
+			SELECT TOP (@MaxRows) AccountNo, CustomerName, DeliveryAddress
+			FROM Customer
+			WHERE CustomerName LIKE @Pattern
+			ORDER BY CustomerName
+		) AS ByName
+		UNION
+		SELECT AccountNo, CustomerName, DeliveryAddress
+		FROM (
+			SELECT TOP (@MaxRows) AccountNo, CustomerName, DeliveryAddress
+			FROM Customer
+			WHERE DeliveryAddress LIKE @Pattern
+			ORDER BY DeliveryAddress
+		) AS ByAddress
+	)
+	SELECT TOP (@MaxRows)
+		AccountNo,
+		CustomerName AS Name,
+		DeliveryAddress AS Address
+	FROM Matches
+	ORDER BY AccountNo;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspSearchBaskets.
+-- Parameters:
+-- @Prefix - The text the searched columns must start with.
+-- @MaxRows - The maximum number of baskets to return, at least 1.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspSearchBasketsSnapshot
+	@Prefix 	VARCHAR(100),
+	@MaxRows 	INT
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	IF @MaxRows IS NULL OR @MaxRows < 1
+	BEGIN
+		;THROW 50002, 'MaxRows must be at least 1', 1;
+	END
+	
+	DECLARE @Pattern VARCHAR(400) =
+		REPLACE(REPLACE(REPLACE(ISNULL(@Prefix, ''), '[', '[[]'), '%', '[%]'), '_', '[_]') + '%';
+	
+	-- One seek per column, UNION drops a basket matched by both of them
+	WITH Matches AS (
+		SELECT BasketNo, BasketName, Price
+		FROM (
+			SELECT TOP (@MaxRows) BasketNo, BasketName, Price
+			FROM FruitBasket
+			WHERE BasketNo LIKE @Pattern
+			ORDER BY BasketNo
+		) AS ByBasketNo
+		UNION
+		SELECT BasketNo, BasketName, Price
+		FROM (
+			SELECT TOP (@MaxRows) BasketNo, BasketName, Price
+			FROM FruitBasket
+			WHERE BasketName LIKE @Pattern
+			ORDER BY BasketName
+		) AS ByName
+	)
+	SELECT TOP (@MaxRows)
+		BasketNo,
+		BasketName AS Name,
+		Price
+	FROM Matches
+	ORDER BY BasketNo;
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetSalesByBasket.
+-- Parameters:
+-- @FromDate - The first purchase date to include, or NULL for no lower limit.
+-- @ToDate - The last purchase date to include, or NULL for no upper limit.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetSalesByBasketSnapshot
+	@FromDate 	DATE = NULL,
+	@ToDate 	DATE = NULL
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	SELECT
+		FruitBasket.BasketNo,
+		FruitBasket.BasketName AS Name,
+		SUM(Sales.PurchaseCount) AS PurchaseCount,
+		SUM(Sales.Revenue) AS Revenue
+	FROM vwBasketDailySales AS Sales WITH (NOEXPAND)
+	JOIN FruitBasket ON Sales.BasketID = FruitBasket.BasketID
+	WHERE (@FromDate IS NULL OR Sales.PurchaseDate >= @FromDate)
+		AND (@ToDate IS NULL OR Sales.PurchaseDate <= @ToDate)
+	GROUP BY FruitBasket.BasketNo, FruitBasket.BasketName
+	ORDER BY FruitBasket.BasketNo
+	OPTION (RECOMPILE);
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetSalesByCustomer.
+-- Parameters:
+-- @FromDate - The first purchase date to include, or NULL for no lower limit.
+-- @ToDate - The last purchase date to include, or NULL for no upper limit.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetSalesByCustomerSnapshot
+	@FromDate 	DATE = NULL,
+	@ToDate 	DATE = NULL
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	WITH CustomerSales AS (
+		SELECT
+			Purchase.CustomerID,
+			COUNT_BIG(*) AS PurchaseCount,
+			SUM(ISNULL(FruitBasket.Price, 0)) AS Revenue
+		FROM Purchase
+		JOIN FruitBasket ON Purchase.BasketID = FruitBasket.BasketID
+		WHERE (@FromDate IS NULL OR Purchase.PurchaseDate >= @FromDate)
+			AND (@ToDate IS NULL OR Purchase.PurchaseDate <= @ToDate)
+		GROUP BY Purchase.CustomerID
+	)
+	SELECT
+		Customer.AccountNo,
+		Customer.CustomerName AS Name,
+		CustomerSales.PurchaseCount,
+		CustomerSales.Revenue
+	FROM CustomerSales
+	JOIN Customer ON CustomerSales.CustomerID = Customer.CustomerID
+	ORDER BY Customer.AccountNo
+	OPTION (RECOMPILE);
+END;
+GO
+
+-- =============================================
+-- Author: [Derek Rodriguez]
+-- Create date: [2026-10-16]
+-- Description: Snapshot variant of uspGetSalesByPeriod.
+-- Parameters:
+-- @Period - DAY, WEEK, MONTH or YEAR.
+-- @FromDate - The first purchase date to include, or NULL for no lower limit.
+-- @ToDate - The last purchase date to include, or NULL for no upper limit.
+-- =============================================
+CREATE OR ALTER PROCEDURE uspGetSalesByPeriodSnapshot
+	@Period 	VARCHAR(5),
+	@FromDate 	DATE = NULL,
+	@ToDate 	DATE = NULL
+AS
+BEGIN
+	SET TRANSACTION ISOLATION LEVEL SNAPSHOT;
+	SET NOCOUNT ON;
+	
+	IF @Period IS NULL OR @Period NOT IN ('DAY', 'WEEK', 'MONTH', 'YEAR')
+	BEGIN
+		;THROW 50002, 'Period must be DAY, WEEK, MONTH or YEAR', 1;
+	END;
+	
+	WITH DailySales AS (
+		SELECT
+			PurchaseDate,
+			SUM(PurchaseCount) AS PurchaseCount,
+			SUM(Revenue) AS Revenue
+		FROM vwBasketDailySales WITH (NOEXPAND)
+		WHERE PurchaseDate IS NOT NULL
+			AND (@FromDate IS NULL OR PurchaseDate >= @FromDate)
+			AND (@ToDate IS NULL OR PurchaseDate <= @ToDate)
+		GROUP BY PurchaseDate
+	),
+	PeriodSales AS (
+		SELECT
+			CASE @Period
+				WHEN 'DAY' THEN PurchaseDate
+				-- 1900-01-01 was a Monday
+				WHEN 'WEEK' THEN DATEADD(DAY, -(DATEDIFF(DAY, '19000101', PurchaseDate) % 7), PurchaseDate)
+				WHEN 'MONTH' THEN DATEFROMPARTS(YEAR(PurchaseDate), MONTH(PurchaseDate), 1)
+				ELSE DATEFROMPARTS(YEAR(PurchaseDate), 1, 1)
+			END AS PeriodStart,
+			PurchaseCount,
+			Revenue
+		FROM DailySales
+	)
+	SELECT
+		PeriodStart,
+		SUM(PurchaseCount) AS PurchaseCount,
+		SUM(Revenue) AS Revenue
+	FROM PeriodSales
+	GROUP BY PeriodStart
+	ORDER BY PeriodStart
+	OPTION (RECOMPILE);
+END;
+GO
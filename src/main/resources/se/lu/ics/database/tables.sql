@@ -3,9 +3,10 @@ CREATE TABLE Customer (
   AccountNo     	  VARCHAR(10) NOT NULL, 
   CustomerName   	  VARCHAR(20),
   DeliveryAddress 	VARCHAR(20),
+  RowVersion        ROWVERSION,
 
   CONSTRAINT PK_Customer_CustomerID PRIMARY KEY(CustomerID),
-  CONSTRAINT UQ_Customer_AccountNo UNIQUE(AccountNo)
+  CONSTRAINT CK_Customer_AccountNo CHECK(AccountNo LIKE 'C[0-9][0-9][0-9]')
 );
 
 CREATE TABLE FruitBasket (
@@ -13,15 +14,24 @@ CREATE TABLE FruitBasket (
   BasketNo  	  VARCHAR(10) NOT NULL,
   BasketName  	VARCHAR(30),
   Price     	  DECIMAL(5,2),
+  RowVersion    ROWVERSION,
 
   CONSTRAINT PK_FruitBasket_BasketID PRIMARY KEY(BasketID),
-  CONSTRAINT UQ_FruitBasket_BasketNo UNIQUE(BasketNo),
+  CONSTRAINT CK_FruitBasket_BasketNo CHECK(BasketNo LIKE 'B[0-9][0-9]'),
+  -- DECIMAL(5,2) already limits the price to two decimals
+  CONSTRAINT CK_FruitBasket_Price CHECK(Price >= 0)
 );
 
+-- AccountNo and BasketNo are unique through these indexes rather than UNIQUE constraints, so
+-- that the page, lookup and purchase join procedures also find the rest of the row in them
+CREATE UNIQUE INDEX IX_Customer_AccountNo ON Customer(AccountNo) INCLUDE (CustomerName, DeliveryAddress);
+CREATE UNIQUE INDEX IX_FruitBasket_BasketNo ON FruitBasket(BasketNo) INCLUDE (BasketName, Price);
+
 CREATE TABLE Purchase (
   CustomerID 	  INTEGER,
   BasketID  	  INTEGER,
   PurchaseDate	DATE,
+  RowVersion    ROWVERSION,
 
   CONSTRAINT PK_Purchase_CustomerID_BasketID PRIMARY KEY(CustomerID, BasketID),
   CONSTRAINT FK_Purchase_Customer_CustomerID FOREIGN KEY(CustomerID)
@@ -29,3 +39,84 @@ CREATE TABLE Purchase (
   CONSTRAINT FK_Purchase_FruitBasket_BasketID FOREIGN KEY(BasketID)
   	REFERENCES FruitBasket(BasketID) ON DELETE CASCADE
 );
+
+-- Change tracking: every insert and update stamps RowVersion with a new, database-wide
+-- increasing value, and the delete triggers in procedures.sql record the keys of deleted
+-- rows in the tables below, stamped from the same counter. Clients ask for the rows whose
+-- version is above the last version they have seen.
+CREATE INDEX IX_Customer_RowVersion ON Customer(RowVersion) INCLUDE (AccountNo, CustomerName, DeliveryAddress);
+CREATE INDEX IX_FruitBasket_RowVersion ON FruitBasket(RowVersion) INCLUDE (BasketNo, BasketName, Price);
+CREATE INDEX IX_Purchase_RowVersion ON Purchase(RowVersion) INCLUDE (PurchaseDate);
+
+CREATE TABLE DeletedCustomer (
+  CustomerID        INTEGER NOT NULL,
+  AccountNo         VARCHAR(10) NOT NULL,
+  RowVersion        ROWVERSION,
+  DeletedAt         DATETIME2(0) NOT NULL CONSTRAINT DF_DeletedCustomer_DeletedAt DEFAULT SYSUTCDATETIME(),
+
+  CONSTRAINT PK_DeletedCustomer_RowVersion PRIMARY KEY(RowVersion)
+);
+
+CREATE TABLE DeletedFruitBasket (
+  BasketID      INTEGER NOT NULL,
+  BasketNo      VARCHAR(10) NOT NULL,
+  RowVersion    ROWVERSION,
+  DeletedAt     DATETIME2(0) NOT NULL CONSTRAINT DF_DeletedFruitBasket_DeletedAt DEFAULT SYSUTCDATETIME(),
+
+  CONSTRAINT PK_DeletedFruitBasket_RowVersion PRIMARY KEY(RowVersion)
+);
+
+-- Keeps the surrogate keys, since a purchase deleted by a cascade outlives its customer or
+-- basket row only in DeletedCustomer/DeletedFruitBasket
+CREATE TABLE DeletedPurchase (
+  CustomerID    INTEGER NOT NULL,
+  BasketID      INTEGER NOT NULL,
+  RowVersion    ROWVERSION,
+  DeletedAt     DATETIME2(0) NOT NULL CONSTRAINT DF_DeletedPurchase_DeletedAt DEFAULT SYSUTCDATETIME(),
+
+  CONSTRAINT PK_DeletedPurchase_RowVersion PRIMARY KEY(RowVersion)
+);
+
+-- uspPurgeTombstones deletes tombstones older than a retention period and records the newest
+-- version it deleted here. A client that has not synchronized since then may have missed a
+-- deleted row, so the uspGet*ChangesSince procedures refuse its sync version and it reloads.
+CREATE TABLE SyncHorizon (
+  PurgedThroughVersion  BINARY(8) NOT NULL
+);
+INSERT INTO SyncHorizon(PurgedThroughVersion) VALUES (0x0000000000000000);
+
+-- Sales reporting: the report procedures in procedures.sql aggregate on the server instead of
+-- returning every purchase. Purchases per customer are read from the clustered primary key,
+-- purchases in a date range from IX_Purchase_PurchaseDate, and sales per basket and date from
+-- the indexed view below, which SQL Server keeps up to date on every write.
+CREATE INDEX IX_Purchase_PurchaseDate ON Purchase(PurchaseDate) INCLUDE (CustomerID, BasketID);
+GO
+
+-- Revenue is at the basket's current price, since a purchase does not record the price it was made at
+CREATE VIEW vwBasketDailySales
+WITH SCHEMABINDING
+AS
+SELECT
+  Purchase.BasketID,
+  Purchase.PurchaseDate,
+  COUNT_BIG(*) AS PurchaseCount,
+  SUM(ISNULL(FruitBasket.Price, 0)) AS Revenue
+FROM dbo.Purchase
+JOIN dbo.FruitBasket ON Purchase.BasketID = FruitBasket.BasketID
+GROUP BY Purchase.BasketID, Purchase.PurchaseDate;
+GO
+
+CREATE UNIQUE CLUSTERED INDEX IX_vwBasketDailySales_BasketID_PurchaseDate
+  ON vwBasketDailySales(BasketID, PurchaseDate);
+CREATE INDEX IX_vwBasketDailySales_PurchaseDate
+  ON vwBasketDailySales(PurchaseDate) INCLUDE (PurchaseCount, Revenue);
+GO
+
+-- Search: uspSearchCustomers and uspSearchBaskets match a prefix of each searchable column with
+-- a seek on that column's index. AccountNo and BasketNo are indexed by IX_Customer_AccountNo and
+-- IX_FruitBasket_BasketNo, the other columns by the indexes below, which include the remaining
+-- columns of the row so that a search reads no more than the matching index rows.
+CREATE INDEX IX_Customer_CustomerName ON Customer(CustomerName) INCLUDE (AccountNo, DeliveryAddress);
+CREATE INDEX IX_Customer_DeliveryAddress ON Customer(DeliveryAddress) INCLUDE (AccountNo, CustomerName);
+CREATE INDEX IX_FruitBasket_BasketName ON FruitBasket(BasketName) INCLUDE (BasketNo, Price);
+GO
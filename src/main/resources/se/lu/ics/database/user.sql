@@ -14,9 +14,18 @@ CREATE USER java_app_user FOR LOGIN java_app_user;
 GRANT EXECUTE ON uspAddCustomer 
 TO java_app_user;
 
+GRANT EXECUTE ON uspAddCustomers
+TO java_app_user;
+
+GRANT EXECUTE ON TYPE::CustomerTableType
+TO java_app_user;
+
 GRANT EXECUTE ON uspGetAllCustomers
 TO java_app_user;
 
+GRANT EXECUTE ON uspGetCustomersPage
+TO java_app_user;
+
 GRANT EXECUTE ON uspGetCustomerByAccountNo
 TO java_app_user;
 
@@ -30,9 +39,18 @@ TO java_app_user;
 GRANT EXECUTE ON uspAddBasket
 TO java_app_user;
 
+GRANT EXECUTE ON uspAddBaskets
+TO java_app_user;
+
+GRANT EXECUTE ON TYPE::BasketTableType
+TO java_app_user;
+
 GRANT EXECUTE ON uspGetAllBaskets
 TO java_app_user;
 
+GRANT EXECUTE ON uspGetBasketsPage
+TO java_app_user;
+
 GRANT EXECUTE ON uspGetBasketByBasketNo
 TO java_app_user;
 
@@ -46,9 +64,21 @@ TO java_app_user;
 GRANT EXECUTE ON uspAddPurchase
 TO java_app_user;
 
+GRANT EXECUTE ON uspAddPurchases
+TO java_app_user;
+
+GRANT EXECUTE ON TYPE::PurchaseTableType
+TO java_app_user;
+
 GRANT EXECUTE ON uspGetAllPurchases
 TO java_app_user;
 
+GRANT EXECUTE ON uspGetPurchaseGraph
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetPurchasesPage
+TO java_app_user;
+
 GRANT EXECUTE ON uspGetPurchaseByAccountNoBasketNo
 TO java_app_user;
 
@@ -57,3 +87,99 @@ TO java_app_user;
 
 GRANT EXECUTE ON uspDeletePurchase
 TO java_app_user;
+
+-- Purchase CRUD procedures, version 2
+GRANT EXECUTE ON uspAddPurchaseV2
+TO java_app_user;
+
+GRANT EXECUTE ON uspUpdatePurchaseV2
+TO java_app_user;
+
+GRANT EXECUTE ON uspDeletePurchaseV2
+TO java_app_user;
+
+-- Change tracking procedures
+GRANT EXECUTE ON uspGetSyncVersion
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetCustomerChangesSince
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetBasketChangesSince
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetPurchaseChangesSince
+TO java_app_user;
+
+-- Sales report procedures
+GRANT EXECUTE ON uspGetSalesByBasket
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetSalesByCustomer
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetSalesByPeriod
+TO java_app_user;
+
+
+-- Search procedures
+GRANT EXECUTE ON uspSearchCustomers
+TO java_app_user;
+
+GRANT EXECUTE ON uspSearchBaskets
+TO java_app_user;
+
+-- Snapshot read procedures
+GRANT EXECUTE ON uspGetAllCustomersSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetCustomersPageSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetCustomerByAccountNoSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetAllBasketsSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetBasketsPageSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetBasketByBasketNoSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetAllPurchasesSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetPurchaseGraphSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetPurchasesPageSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetPurchaseByAccountNoBasketNoSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetCustomerChangesSinceSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetBasketChangesSinceSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetPurchaseChangesSinceSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspSearchCustomersSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspSearchBasketsSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetSalesByBasketSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetSalesByCustomerSnapshot
+TO java_app_user;
+
+GRANT EXECUTE ON uspGetSalesByPeriodSnapshot
+TO java_app_user;
\ No newline at end of file